@@ -68,9 +68,48 @@ public abstract class AbstractGroup implements Serializable, Cloneable
      * @see MultiGroup
      */
     public abstract Group[] getRepresentedGroups(KernelAddress ka);
-    
+
+    /**
+     * This function returns the represented groups by the current instance, into which at least one agent handles the given role.
+     * The groups into which a role is handled are indexed by the MadKitGroupExtension kernel, so that the universe
+     * (see {@link #getUniverse()}) returns them without browsing all the groups.
+     * The roles given automatically by MadKit (i.e. the group manager role and the candidate role) are not indexed. For these roles,
+     * all the represented groups are returned.
+     *
+     * @param ka the used kernel address.
+     * @param role the role name
+     * @return the represented groups into which at least one agent handles the given role
+     * @since MadKitGroupExtension 1.6.3
+     * @see #getRepresentedGroups(KernelAddress)
+     * @see Group#isHandledRole(String, KernelAddress)
+     */
+    public Group[] getRepresentedGroups(KernelAddress ka, String role)
+    {
+	Group[] groups=getRepresentedGroups(ka);
+	if (!Group.isIndexedRole(role))
+	    return groups;
+	ArrayList<Group> res=new ArrayList<Group>(groups.length);
+	for (Group g : groups)
+	{
+	    if (g.isHandledRole(role, ka))
+		res.add(g);
+	}
+	return res.toArray(new Group[res.size()]);
+    }
+
     @Override public abstract AbstractGroup clone();
     
+    /**
+     * Returns a key which identifies the structure of this abstract group, and which can be used into a hash map.
+     * Two abstract groups having equal keys are equal, but two equal abstract groups can have different keys. 
+     * The returned key is immutable : if this abstract group is modified, a new key is returned.
+     * @return the structural key of this abstract group
+     */
+    Object getStructuralKey()
+    {
+	return this;
+    }
+    
     @Override public abstract boolean equals(Object o);
     
     @Override public abstract String toString();
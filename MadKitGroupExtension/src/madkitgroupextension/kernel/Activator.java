@@ -26,9 +26,11 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import madkit.kernel.KernelAddress;
 import madkitgroupextension.simulation.activator.GenericBehaviorActivator;
 
 /**
@@ -64,13 +66,14 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     private String m_role;
     private final AtomicReference<Group[]> m_represented_groups=new AtomicReference<>();
     private final AtomicReference<Group[]> m_represented_groups_temp=new AtomicReference<>();
+    private Group[] m_all_groups=null, m_all_groups_temp=null;
+    private Group[] m_role_groups=null, m_role_groups_temp=null;
     private Scheduler m_scheduler;
-    protected ArrayList<madkit.kernel.Activator<A>> m_activators=new ArrayList<madkit.kernel.Activator<A>>();
-    protected ArrayList<madkit.kernel.Activator<A>> m_activators_to_add=new ArrayList<madkit.kernel.Activator<A>>();
-    protected ArrayList<madkit.kernel.Activator<A>> m_activators_to_remove=new ArrayList<madkit.kernel.Activator<A>>();
+    private final ArrayList<SharedActivator> m_activators=new ArrayList<SharedActivator>();
+    private final ArrayList<Group> m_groups_to_add=new ArrayList<Group>();
+    private final ArrayList<SharedActivator> m_activators_to_remove=new ArrayList<SharedActivator>();
+    private ActivatorFootprint m_footprint=null;
     private final madkit.kernel.Activator<A> m_executor;
-    private boolean m_list_changed=true;
-    private ArrayList<A> m_agents=null;
     //private AtomicInteger m_nb_used_cores=new AtomicInteger(1); 
     /*protected Method m_personal_execute_method=null;
     protected Method m_personal_multicoreExecute_method=null;*/
@@ -213,7 +216,7 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     }
     public synchronized void allAgentsLeaveRole() 
     {
-	for (madkit.kernel.Activator<A> pa : m_activators)
+	for (SharedActivator pa : m_activators)
 	    pa.allAgentsLeaveRole();
     }
     
@@ -312,57 +315,58 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 	return m_role;
     }
     
+	/**
+	 * Returns the MadKit activators through which this activator receives its agents, one per group it currently represents. 
+	 * These MadKit activators are shared with the other activators of the scheduler which represent the same groups with the same role.
+	 * 
+	 * @return a snapshot of the MadKit activators used by this activator
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    protected final synchronized List<madkit.kernel.Activator<madkit.kernel.AbstractAgent>> getMadKitActivators()
+    {
+	return new ArrayList<madkit.kernel.Activator<madkit.kernel.AbstractAgent>>(m_activators);
+    }
+    
+	/**
+	 * Returns the MadKit activators which will not be used anymore by this activator, after the last changement of the represented groups. 
+	 * They are removed at the next simulation step of the scheduler.
+	 * 
+	 * @return a snapshot of the MadKit activators to remove
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    protected final synchronized List<madkit.kernel.Activator<madkit.kernel.AbstractAgent>> getMadKitActivatorsToRemove()
+    {
+	return new ArrayList<madkit.kernel.Activator<madkit.kernel.AbstractAgent>>(m_activators_to_remove);
+    }
+    
+	/**
+	 * Returns the groups which will be represented by this activator, after the last changement of the represented groups. 
+	 * Their MadKit activators are added at the next simulation step of the scheduler.
+	 * 
+	 * @return a snapshot of the groups to add
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    protected final synchronized List<Group> getGroupsToAdd()
+    {
+	return new ArrayList<Group>(m_groups_to_add);
+    }
+    
 	/** 
 	 * Returns a snapshot at moment t of the agents handling one of the groups represented by the AbstractGroup given in parameter in the constructor of this class. On each of these groups, the agent must have the given role into the same constructor.
 	 * 
-	 * Returned agents are not duplicated.
+	 * Returned agents are not duplicated. The returned list is shared with the other activators of the scheduler 
+	 * which represent the same groups and roles, so it cannot be modified : it must be copied to be sorted or shuffled.
 	 * 
-	 * @return a list view (a snapshot at moment t) of the agents that handle the group/role couple (in proper sequence)
+	 * @return an unmodifiable list view (a snapshot at moment t) of the agents that handle the group/role couple (in proper sequence)
 	 * @since MadKit 3.0
 	 * @since MadKitGroupExtension 1.0
 	 */
+    @SuppressWarnings("unchecked")
     public synchronized List<A> getCurrentAgentsList() 
     {
-	if (m_scheduler==null)
-	    return new ArrayList<A>();
-	
-	if (m_list_changed)
-	{
-	    ArrayList<List<A>> l=new ArrayList<List<A>>(m_activators.size());
-	    int size=0;
-	    for (madkit.kernel.Activator<A> pp : m_activators)
-	    {
-		List<A> l2=pp.getCurrentAgentsList();
-		l.add(l2);
-		size+=l2.size();
-	    }
-	
-	    m_agents=new ArrayList<A>(size);
-	    if (l.size()>0)
-	    {
-		m_agents.addAll(l.get(0));
-		for (int i=1;i<l.size();i++)
-		{
-		    List<A> l2=l.get(i);
-		    for (A a : l2)
-		    {
-			boolean found=false;
-			for (A a2 : m_agents)
-			{
-			    if (a2==a)
-			    {
-				found=true;
-				break;
-			    }
-			}
-			if (!found)
-			    m_agents.add(a);
-		    }
-		}
-	    }
-	    m_list_changed=false;
-	}
-	return m_agents;
+	if (m_scheduler==null || m_footprint==null)
+	    return Collections.emptyList();
+	return (List<A>)(List<?>)m_footprint.getCurrentAgentsList();
     }
 	/** 
 	 * Returns a ListIterator over the agents which is shuffled
@@ -372,8 +376,7 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 	 */
     public List<A> getShuffledList()
     {
-	@SuppressWarnings("unchecked")
-	List<A> l=(ArrayList<A>)((ArrayList<A>)getCurrentAgentsList()).clone();
+	List<A> l=new ArrayList<A>(getCurrentAgentsList());
 	Collections.shuffle(l);
 	return l;
     }
@@ -390,7 +393,7 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     
     public void killAgents()
     {
-	for (madkit.kernel.Activator<A> pa : m_activators)
+	for (SharedActivator pa : m_activators)
 	    pa.killAgents();
     }
 	/** 
@@ -480,25 +483,37 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 	    e.printStackTrace();
 	    System.exit(-1);
 	}
-	for (madkit.kernel.Activator<A> a : m_activators)
+	for (SharedActivator a : m_activators)
 	{
 	    try
 	    {
-		m_remove_madkit_activator_method.invoke(m_scheduler, a);
+		m_unsubscribe_activator_method.invoke(m_scheduler, a, this);
 	    }
 	    catch (Exception e)
 	    {
-		System.err.println("Impossible to call the function removePersonalActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		System.err.println("Impossible to call the function unsubscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		e.printStackTrace();
 		System.exit(-1);
 	    }
 	}
+	try
+	{
+	    m_change_footprint_method.invoke(m_scheduler, m_footprint, null);
+	}
+	catch (Exception e)
+	{
+	    System.err.println("Impossible to call the function changeActivatorFootprint of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	m_footprint=null;
 	m_represented_groups.set(null);
 	m_represented_groups_temp.set(null);
+	m_all_groups=m_all_groups_temp=null;
+	m_role_groups=m_role_groups_temp=null;
 	m_activators.clear();
-	m_activators_to_add.clear();
+	m_groups_to_add.clear();
 	m_activators_to_remove.clear();
-	m_agents=null;
 	m_scheduler=null;
 	setChanged();
 	try
@@ -523,20 +538,20 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     {
 	if (m_scheduler==null)
 	    return;
-	m_activators_to_add.clear();
+	m_groups_to_add.clear();
 	m_activators_to_remove.clear();
 	
-	Group[] groups=m_group.getRepresentedGroups(m_scheduler.getKernelAddress());
-	if (m_represented_groups.get()!=groups)
+	KernelAddress ka=m_scheduler.getKernelAddress();
+	Group[] all_groups=m_group.getRepresentedGroups(ka);
+	Group[] role_groups=Group.getGroupsHandlingRole(m_role, ka);
+	if (m_all_groups!=all_groups || m_role_groups!=role_groups)
 	{
+	    //only groups handling the activated role are listened
+	    Group[] groups=m_group.getRepresentedGroups(ka, m_role);
 	    if (m_represented_groups.get()==null)
 	    {
 		for (Group g : groups)
-		{
-		    madkit.kernel.Activator<A> a=new PersonalActivator(g, m_role);
-		    //a.useMulticore(m_nb_used_cores.get());
-		    m_activators_to_add.add(a);
-		}
+		    m_groups_to_add.add(g);
 	    }
 	    else
 	    {
@@ -553,21 +568,16 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 			}
 		    }
 		    if (!found)
-		    {
-			madkit.kernel.Activator<A> a=new PersonalActivator(g, m_role);
-			//a.useMulticore(m_nb_used_cores.get());
-			m_activators_to_add.add(a);
-		    }
+			m_groups_to_add.add(g);
 		}
 		
 		//detecting removed groups
-		for (madkit.kernel.Activator<A> a : m_activators)
+		for (SharedActivator a : m_activators)
 		{
-		    String g=a.getGroup();
 		    boolean found=false;
 		    for (Group ng : groups)
 		    {
-			if (g.equals(ng.getPath()))
+			if (a.getRepresentedGroup().equals(ng))
 			{
 			    found=true;
 			    break;
@@ -580,6 +590,8 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 		}
 	    }
 	    m_represented_groups_temp.set(groups);
+	    m_all_groups_temp=all_groups;
+	    m_role_groups_temp=role_groups;
 	}
 	
     }
@@ -588,85 +600,93 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     {
 	if (m_represented_groups_temp.get()!=null && m_represented_groups_temp.get()!=m_represented_groups.get())
 	{
-	    for (madkit.kernel.Activator<A> a : m_activators_to_remove)
+	    for (SharedActivator a : m_activators_to_remove)
 	    {
 		m_activators.remove(a);
 		try
 		{
-		    m_remove_madkit_activator_method.invoke(m_scheduler, a);
+		    m_unsubscribe_activator_method.invoke(m_scheduler, a, this);
 		}
 		catch (Exception e)
 		{
-		    System.err.println("Impossible to call the function removePersonalActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		    System.err.println("Impossible to call the function unsubscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		    e.printStackTrace();
 		    System.exit(-1);
 		}
 	    }
 	    m_activators_to_remove.clear();
-	    for (madkit.kernel.Activator<A> a : m_activators_to_add)
+	    for (Group g : m_groups_to_add)
 	    {
-		m_activators.add(a);
 		try
 		{
-		    m_add_madkit_activator_method.invoke(m_scheduler, a);
+		    m_activators.add((SharedActivator)m_subscribe_activator_method.invoke(m_scheduler, g, m_role, this));
 		}
 		catch (Exception e)
 		{
-		    System.err.println("Impossible to call the function addPersonalActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		    System.err.println("Impossible to call the function subscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		    e.printStackTrace();
 		    System.exit(-1);
 		}
 	    }
-	    m_activators_to_add.clear();
+	    m_groups_to_add.clear();
+	    try
+	    {
+		m_footprint=(ActivatorFootprint)m_change_footprint_method.invoke(m_scheduler, m_footprint, new HashSet<SharedActivator>(m_activators));
+	    }
+	    catch (Exception e)
+	    {
+		System.err.println("Impossible to call the function changeActivatorFootprint of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		e.printStackTrace();
+		System.exit(-1);
+	    }
 	    m_represented_groups.set(m_represented_groups_temp.get());
+	    m_all_groups=m_all_groups_temp;
+	    m_role_groups=m_role_groups_temp;
 	    setChanged();
 	}
     }
     
+    /**
+     * Called each time the agents list of this activator has potentially changed.
+     */
     protected void setChanged()
     {
-	m_list_changed=true;
+	
     }
     
-    private class PersonalActivator extends madkit.kernel.Activator<A>
+    @SuppressWarnings("unchecked")
+    final void sharedActivatorAdding(madkit.kernel.AbstractAgent _agent)
     {
-	public PersonalActivator(Group _group, String _role)
-	{
-	    super(_group.getCommunity(), _group.getPath(), _role);
-	}
-	@Override protected void adding(A _agent)
-	{
-	    Activator.this.setChanged();
-	    Activator.this.adding(_agent);
-	}
-	@Override protected void adding(List<A> _agents)
-	{
-	    Activator.this.setChanged();
-	    Activator.this.adding(_agents);
-	}
-	@Override protected void removing(A _agent)
-	{
-	    Activator.this.setChanged();
-	    Activator.this.removing(_agent);
-	}
-	@Override protected void removing(List<A> _agents)
-	{
-	    Activator.this.setChanged();
-	    Activator.this.removing(_agents);
-	}
-	@Override public void initialize() 
-	{
-	    Activator.this.setChanged();
-	}
-	@Override public void execute(List<A> _agentsList, Object ...args)
-	{
-	    
-	}
-	@Override public void multicoreExecute(Object ...args)
-	{
-	    
-	}
+	setChanged();
+	adding((A)_agent);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedActivatorAdding(List<madkit.kernel.AbstractAgent> _agents)
+    {
+	setChanged();
+	adding((List<A>)(List<?>)_agents);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedActivatorRemoving(madkit.kernel.AbstractAgent _agent)
+    {
+	setChanged();
+	removing((A)_agent);
     }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedActivatorRemoving(List<madkit.kernel.AbstractAgent> _agents)
+    {
+	setChanged();
+	removing((List<A>)(List<?>)_agents);
+    }
+    
+    final void sharedActivatorInitialize()
+    {
+	setChanged();
+    }
+    
     private class PersonalActivatorExecutor extends madkit.kernel.Activator<A>
     {
 
@@ -688,6 +708,9 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
     
     private static Method m_add_madkit_activator_method=null;
     private static Method m_remove_madkit_activator_method=null;
+    private static Method m_subscribe_activator_method=null;
+    private static Method m_unsubscribe_activator_method=null;
+    private static Method m_change_footprint_method=null;
     private static Method m_add_group_changement_notifier_method=null;
     private static Method m_remove_group_changement_notifier_method=null;
     static
@@ -727,6 +750,57 @@ public abstract class Activator<A extends madkit.kernel.AbstractAgent & MKGEAbst
 	    System.exit(-1);
 	}
 	try
+	{
+	    m_subscribe_activator_method=Scheduler.class.getDeclaredMethod("subscribePrivateActivator", Group.class, String.class, Activator.class);
+	    m_subscribe_activator_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function subscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function subscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	try
+	{
+	    m_unsubscribe_activator_method=Scheduler.class.getDeclaredMethod("unsubscribePrivateActivator", SharedActivator.class, Activator.class);
+	    m_unsubscribe_activator_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function unsubscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function unsubscribePrivateActivator of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	try
+	{
+	    m_change_footprint_method=Scheduler.class.getDeclaredMethod("changeActivatorFootprint", ActivatorFootprint.class, HashSet.class);
+	    m_change_footprint_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function changeActivatorFootprint of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function changeActivatorFootprint of the class Scheduler. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	try
 	{
 	    m_add_group_changement_notifier_method=Group.class.getDeclaredMethod("addGroupChangementNotifier", GroupChangementNotifier.class);
 	    m_add_group_changement_notifier_method.setAccessible(true);
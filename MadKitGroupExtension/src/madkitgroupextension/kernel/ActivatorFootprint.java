@@ -0,0 +1,120 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+package madkitgroupextension.kernel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The footprint of an activator is the set of the group/role couples it currently represents. 
+ * Activators of a same {@link Scheduler} which have the same footprint share the same instance of this class, 
+ * and then the same merged agents list. The merged list is rebuilt only when one of the shared activators has changed. 
+ * Since it is shared, the merged list is given as an unmodifiable list.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see Activator
+ * @see SharedActivator
+ * @see Scheduler
+ */
+final class ActivatorFootprint
+{
+    private final HashSet<SharedActivator> m_key;
+    private final SharedActivator[] m_parts;
+    private final int[] m_versions;
+    private List<madkit.kernel.AbstractAgent> m_agents=null;
+    private int m_references=0;
+    
+    ActivatorFootprint(HashSet<SharedActivator> _parts)
+    {
+	m_key=_parts;
+	m_parts=_parts.toArray(new SharedActivator[_parts.size()]);
+	m_versions=new int[m_parts.length];
+    }
+    
+    HashSet<SharedActivator> getKey()
+    {
+	return m_key;
+    }
+    
+    void incrementReferences()
+    {
+	++m_references;
+    }
+    
+    /**
+     * @return true if the footprint is not referenced anymore
+     */
+    boolean decrementReferences()
+    {
+	return --m_references==0;
+    }
+    
+    synchronized List<madkit.kernel.AbstractAgent> getCurrentAgentsList()
+    {
+	boolean changed=m_agents==null;
+	for (int i=0;i<m_parts.length;i++)
+	{
+	    int v=m_parts[i].getVersion();
+	    if (v!=m_versions[i])
+	    {
+		m_versions[i]=v;
+		changed=true;
+	    }
+	}
+	if (changed)
+	{
+	    ArrayList<madkit.kernel.AbstractAgent> agents;
+	    if (m_parts.length==1)
+		agents=new ArrayList<madkit.kernel.AbstractAgent>(m_parts[0].getCurrentAgentsList());
+	    else
+	    {
+		ArrayList<List<madkit.kernel.AbstractAgent>> l=new ArrayList<List<madkit.kernel.AbstractAgent>>(m_parts.length);
+		int size=0;
+		for (SharedActivator sa : m_parts)
+		{
+		    List<madkit.kernel.AbstractAgent> l2=sa.getCurrentAgentsList();
+		    l.add(l2);
+		    size+=l2.size();
+		}
+		agents=new ArrayList<madkit.kernel.AbstractAgent>(size);
+		HashSet<madkit.kernel.AbstractAgent> s=new HashSet<madkit.kernel.AbstractAgent>(size);
+		for (List<madkit.kernel.AbstractAgent> l2 : l)
+		{
+		    for (madkit.kernel.AbstractAgent a : l2)
+		    {
+			if (s.add(a))
+			    agents.add(a);
+		    }
+		}
+	    }
+	    m_agents=Collections.unmodifiableList(agents);
+	}
+	return m_agents;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import madkit.kernel.AgentAddress;
+
+/**
+ * Receives the agents handling a role into the represented groups of an abstract group, one after the other. 
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#forEachAgentWithRole(AbstractGroup, String, AgentAddressConsumer)
+ */
+public interface AgentAddressConsumer
+{
+    /**
+     * Receives one agent handling the requested role.
+     * @param _agent the agent address
+     */
+    public void accept(AgentAddress _agent);
+}
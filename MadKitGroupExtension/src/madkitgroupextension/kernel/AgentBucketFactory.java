@@ -0,0 +1,425 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fork/join pool, owned by MadKitGroupExtension, which builds the agents launched into a bucket 
+ * (see {@link AbstractAgent#launchAgentBucket(String, int, int, Role...)}).
+ * 
+ * The bucket is split recursively into halves until reaching a chunk size which depends on the bucket size and 
+ * on the wanted parallelism. The remaining chunks are stolen by the idle workers, so that uneven constructor costs 
+ * are balanced between the workers. The construction is asynchronous : while the agents are built, the launcher 
+ * checks the roles and creates the groups which will be given to the agents.
+ * 
+ * The agents launched from an XML node are also configured by this pool (see {@link #configure(List, List)}).
+ * 
+ * A {@link Report} giving the throughput of each construction is kept, so that the parallelism and the minimal chunk size 
+ * can be tuned with {@link #setDefault(AgentBucketFactory)}.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#launchAgentBucket(String, int, int, Role...)
+ */
+public final class AgentBucketFactory
+{
+    private static volatile AgentBucketFactory m_default=null;
+    
+    private final ForkJoinPool m_pool;
+    private final int m_min_chunk_size;
+    private volatile Report m_last_report=null;
+    
+    /**
+     * Builds a new factory.
+     * @param _parallelism the number of workers of the pool
+     * @param _min_chunk_size the minimal number of agents built by one task
+     * @throws IllegalArgumentException if one of the arguments is lower than 1
+     */
+    public AgentBucketFactory(int _parallelism, int _min_chunk_size)
+    {
+	if (_parallelism<1)
+	    throw new IllegalArgumentException("The parallelism ("+_parallelism+") must be greater than 0 !");
+	if (_min_chunk_size<1)
+	    throw new IllegalArgumentException("The minimal chunk size ("+_min_chunk_size+") must be greater than 0 !");
+	m_pool=new ForkJoinPool(_parallelism);
+	m_min_chunk_size=_min_chunk_size;
+    }
+    
+    /**
+     * Returns the factory used to launch agents buckets. By default, it uses one worker per available processor, 
+     * and a minimal chunk size of 64 agents.
+     * @return the factory used to launch agents buckets
+     */
+    public static AgentBucketFactory getDefault()
+    {
+	AgentBucketFactory f=m_default;
+	if (f==null)
+	{
+	    synchronized(AgentBucketFactory.class)
+	    {
+		f=m_default;
+		if (f==null)
+		{
+		    f=new AgentBucketFactory(Runtime.getRuntime().availableProcessors(), 64);
+		    m_default=f;
+		}
+	    }
+	}
+	return f;
+    }
+    
+    /**
+     * Replaces the factory used to launch agents buckets. The pool of the previous factory is shut down 
+     * once its current constructions are done.
+     * @param _factory the new factory
+     */
+    public static void setDefault(AgentBucketFactory _factory)
+    {
+	if (_factory==null)
+	    throw new NullPointerException("_factory");
+	AgentBucketFactory previous;
+	synchronized(AgentBucketFactory.class)
+	{
+	    previous=m_default;
+	    m_default=_factory;
+	}
+	if (previous!=null && previous!=_factory)
+	    previous.m_pool.shutdown();
+    }
+    
+    /**
+     * Returns the number of workers of the pool.
+     * @return the number of workers of the pool
+     */
+    public int getParallelism()
+    {
+	return m_pool.getParallelism();
+    }
+    
+    /**
+     * Returns the minimal number of agents built by one task.
+     * @return the minimal number of agents built by one task
+     */
+    public int getMinChunkSize()
+    {
+	return m_min_chunk_size;
+    }
+    
+    /**
+     * Returns the report of the last construction done by this factory.
+     * @return the report of the last construction, or null if no construction has been done
+     */
+    public Report getLastReport()
+    {
+	return m_last_report;
+    }
+    
+    /**
+     * Starts the asynchronous construction of agents, with their default constructor.
+     * 
+     * @param _agent_class the class of the agents
+     * @param _bucket_size the number of agents to build
+     * @param _cpu_core_nb the number of parallel tasks wanted by the launcher. If it is lower or equal than 1, 
+     * the agents are built one after the other, by one task. 
+     * @return the construction, whose agents are given by {@link Construction#get(List, List)}
+     */
+    public Construction construct(Class<? extends MKGEAbstractAgent> _agent_class, int _bucket_size, int _cpu_core_nb)
+    {
+	return new Construction(_agent_class, Math.max(0, _bucket_size), _cpu_core_nb);
+    }
+    
+    /**
+     * Applies the given field setters to all the given agents. The agents are split into chunks which are configured in parallel, 
+     * each agent being configured by all the setters at once.
+     * @param _agents the agents to configure
+     * @param _setters the compiled field setters
+     */
+    public void configure(List<MKGEAbstractAgent> _agents, List<AgentFieldSetter> _setters)
+    {
+	if (_agents.size()==0 || _setters.size()==0)
+	    return;
+	AgentFieldSetter[] setters=_setters.toArray(new AgentFieldSetter[_setters.size()]);
+	if (getParallelism()==1 || _agents.size()<m_min_chunk_size*2)
+	    new ConfigurationTask(_agents, setters, 0, _agents.size(), _agents.size()).compute();
+	else
+	    m_pool.invoke(new ConfigurationTask(_agents, setters, 0, _agents.size(), Math.max(m_min_chunk_size, _agents.size()/(getParallelism()*8))));
+    }
+    
+    private static final class ConfigurationTask extends RecursiveAction
+    {
+	private static final long serialVersionUID = -6402839160815853391L;
+	
+	private final List<MKGEAbstractAgent> m_agents;
+	private final AgentFieldSetter[] m_setters;
+	private final int m_from, m_to, m_chunk_size;
+	
+	ConfigurationTask(List<MKGEAbstractAgent> _agents, AgentFieldSetter[] _setters, int _from, int _to, int _chunk_size)
+	{
+	    m_agents=_agents;
+	    m_setters=_setters;
+	    m_from=_from;
+	    m_to=_to;
+	    m_chunk_size=_chunk_size;
+	}
+	
+	@Override
+	protected void compute()
+	{
+	    if (m_to-m_from>m_chunk_size)
+	    {
+		int middle=(m_from+m_to)>>>1;
+		invokeAll(new ConfigurationTask(m_agents, m_setters, m_from, middle, m_chunk_size), new ConfigurationTask(m_agents, m_setters, middle, m_to, m_chunk_size));
+	    }
+	    else
+	    {
+		for (int i=m_from;i<m_to;i++)
+		{
+		    MKGEAbstractAgent a=m_agents.get(i);
+		    for (AgentFieldSetter s : m_setters)
+			s.set(a);
+		}
+	    }
+	}
+    }
+    
+    /**
+     * The asynchronous construction of an agents bucket.
+     * 
+     * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+     */
+    public final class Construction
+    {
+	private final Class<? extends MKGEAbstractAgent> m_agent_class;
+	private final Constructor<? extends MKGEAbstractAgent> m_constructor;
+	private final MKGEAbstractAgent[] m_agents;
+	private final int m_chunk_size;
+	private final int m_parallelism;
+	private final AtomicInteger m_tasks_number=new AtomicInteger(0);
+	private final long m_start;
+	private final ForkJoinTask<Void> m_task;
+	
+	Construction(Class<? extends MKGEAbstractAgent> _agent_class, int _bucket_size, int _cpu_core_nb)
+	{
+	    m_agent_class=_agent_class;
+	    m_constructor=getDefaultConstructor(_agent_class);
+	    m_agents=new MKGEAbstractAgent[_bucket_size];
+	    m_parallelism=_cpu_core_nb<=1?1:Math.min(_cpu_core_nb, getParallelism());
+	    if (m_parallelism==1)
+		m_chunk_size=Math.max(1, _bucket_size);
+	    else
+		m_chunk_size=Math.max(m_min_chunk_size, _bucket_size/(m_parallelism*8));
+	    m_start=System.nanoTime();
+	    m_task=m_pool.submit(new ConstructionTask(0, _bucket_size));
+	}
+	
+	/**
+	 * @return the default constructor of the given class, or null if it has no default constructor
+	 */
+	private Constructor<? extends MKGEAbstractAgent> getDefaultConstructor(Class<? extends MKGEAbstractAgent> _agent_class)
+	{
+	    try
+	    {
+		return _agent_class.getDeclaredConstructor();
+	    }
+	    catch (NoSuchMethodException e)
+	    {
+		return null;
+	    }
+	}
+	
+	/**
+	 * Waits the end of the construction, and adds the built agents to the given lists.
+	 * @param _mkge_agents the list receiving the built agents
+	 * @param _mk_agents the list receiving the built agents, as MadKit agents
+	 * @throws InstantiationException if an agent cannot be instantiated, or if its constructor throws an exception
+	 * @throws IllegalAccessException if the constructor of the agents is not accessible
+	 */
+	public void get(List<MKGEAbstractAgent> _mkge_agents, List<madkit.kernel.AbstractAgent> _mk_agents) throws InstantiationException, IllegalAccessException
+	{
+	    try
+	    {
+		m_task.join();
+	    }
+	    catch (ConstructionException e)
+	    {
+		if (e.getCause() instanceof InstantiationException)
+		    throw (InstantiationException)e.getCause();
+		if (e.getCause() instanceof InvocationTargetException)
+		{
+		    InstantiationException ie=new InstantiationException("The constructor of "+m_agent_class.getName()+" has thrown an exception");
+		    ie.initCause(e.getCause().getCause());
+		    throw ie;
+		}
+		throw (IllegalAccessException)e.getCause();
+	    }
+	    if (_mkge_agents instanceof ArrayList)
+		((ArrayList<MKGEAbstractAgent>)_mkge_agents).ensureCapacity(_mkge_agents.size()+m_agents.length);
+	    if (_mk_agents instanceof ArrayList)
+		((ArrayList<madkit.kernel.AbstractAgent>)_mk_agents).ensureCapacity(_mk_agents.size()+m_agents.length);
+	    for (MKGEAbstractAgent a : m_agents)
+	    {
+		_mkge_agents.add(a);
+		_mk_agents.add((madkit.kernel.AbstractAgent)a);
+	    }
+	}
+	
+	private final class ConstructionTask extends RecursiveAction
+	{
+	    private static final long serialVersionUID = 3926137826442357741L;
+	    
+	    private final int m_from, m_to;
+	    
+	    ConstructionTask(int _from, int _to)
+	    {
+		m_from=_from;
+		m_to=_to;
+	    }
+	    
+	    @Override
+	    protected void compute()
+	    {
+		if (m_to-m_from>m_chunk_size)
+		{
+		    int middle=(m_from+m_to)>>>1;
+		    invokeAll(new ConstructionTask(m_from, middle), new ConstructionTask(middle, m_to));
+		}
+		else
+		{
+		    if (m_constructor==null)
+			throw new ConstructionException(new InstantiationException(m_agent_class.getName()+" has no default constructor"));
+		    try
+		    {
+			for (int i=m_from;i<m_to;i++)
+			    m_agents[i]=m_constructor.newInstance();
+		    }
+		    catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
+		    {
+			throw new ConstructionException(e);
+		    }
+		    m_tasks_number.incrementAndGet();
+		}
+		if (m_from==0 && m_to==m_agents.length)
+		{
+		    m_last_report=new Report(m_agents.length, m_tasks_number.get(), m_parallelism, System.nanoTime()-m_start);
+		}
+	    }
+	}
+    }
+    
+    private static final class ConstructionException extends RuntimeException
+    {
+	private static final long serialVersionUID = -3064207281622335906L;
+
+	ConstructionException(Exception _cause)
+	{
+	    super(_cause);
+	}
+    }
+    
+    /**
+     * The report of an agents bucket construction.
+     * 
+     * @author Jason Mahdjoub
+     * @since MadKitGroupExtension 1.6.3
+     * @version 1.0
+     */
+    public static final class Report
+    {
+	private final int m_agents_number;
+	private final int m_tasks_number;
+	private final int m_parallelism;
+	private final long m_duration;
+	
+	Report(int _agents_number, int _tasks_number, int _parallelism, long _duration)
+	{
+	    m_agents_number=_agents_number;
+	    m_tasks_number=_tasks_number;
+	    m_parallelism=_parallelism;
+	    m_duration=_duration;
+	}
+	
+	/**
+	 * Returns the number of built agents.
+	 * @return the number of built agents
+	 */
+	public int getAgentsNumber()
+	{
+	    return m_agents_number;
+	}
+	
+	/**
+	 * Returns the number of tasks that have built the agents, i.e. the number of chunks.
+	 * @return the number of tasks that have built the agents
+	 */
+	public int getTasksNumber()
+	{
+	    return m_tasks_number;
+	}
+	
+	/**
+	 * Returns the parallelism used by the construction.
+	 * @return the parallelism used by the construction
+	 */
+	public int getParallelism()
+	{
+	    return m_parallelism;
+	}
+	
+	/**
+	 * Returns the duration of the construction, in nanoseconds.
+	 * @return the duration of the construction, in nanoseconds
+	 */
+	public long getDuration()
+	{
+	    return m_duration;
+	}
+	
+	/**
+	 * Returns the throughput of the construction.
+	 * @return the number of agents built per second
+	 */
+	public double getThroughput()
+	{
+	    if (m_duration<=0)
+		return Double.NaN;
+	    return ((double)m_agents_number)*1000000000.0/((double)m_duration);
+	}
+	
+	@Override public String toString()
+	{
+	    return "AgentBucketFactory.Report[agents="+m_agents_number+", tasks="+m_tasks_number+", parallelism="+m_parallelism+", duration="+(m_duration/1000000)+" ms, throughput="+((long)getThroughput())+" agents/s]";
+	}
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * A setter of an agent field, compiled once for all the agents launched by an XML node 
+ * (see {@link AbstractAgent#launchNode(org.w3c.dom.Node)}).
+ * 
+ * The value is parsed once, according the type of the field, and is bound to a method handle which sets the field. 
+ * So configuring a lot of agents does not parse the value, nor box it, nor check the field access for each agent. 
+ * The setters of an XML node are applied to all its agents by {@link AgentBucketFactory#configure(List, List)}. 
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AgentBucketFactory#configure(List, List)
+ */
+public final class AgentFieldSetter
+{
+    private static final MethodType m_setter_type=MethodType.methodType(void.class, Object.class);
+    
+    private final Field m_field;
+    private final MethodHandle m_setter;
+    
+    private AgentFieldSetter(Field _field, Object _value) throws IllegalAccessException
+    {
+	m_field=_field;
+	MethodHandle h=MethodHandles.lookup().unreflectSetter(_field);
+	m_setter=MethodHandles.insertArguments(h, 1, _value).asType(m_setter_type);
+    }
+    
+    /**
+     * Compiles a setter which gives the given value to the given field.
+     * @param _field the field, which must be accessible
+     * @param _value the value, as written into the XML node
+     * @return the compiled setter, or null if the type of the field is not handled
+     * @throws IllegalAccessException if the field is not accessible
+     * @throws NumberFormatException if the value does not correspond to the numerical type of the field
+     */
+    public static AgentFieldSetter compile(Field _field, String _value) throws IllegalAccessException
+    {
+	Object value=parse(_field.getType(), _value);
+	if (value==null)
+	    return null;
+	return new AgentFieldSetter(_field, value);
+    }
+    
+    private static Object parse(Class<?> type, String stringValue)
+    {
+	if (type==int.class || type==Integer.class)
+	    return Integer.valueOf(stringValue);
+	else if (type==boolean.class || type==Boolean.class)
+	    return Boolean.valueOf(stringValue);
+	else if (type==float.class || type==Float.class)
+	    return Float.valueOf(stringValue);
+	else if (type==double.class || type==Double.class)
+	    return Double.valueOf(stringValue);
+	else if (type==byte.class || type==Byte.class)
+	    return Byte.valueOf(stringValue);
+	else if (type==short.class || type==Short.class)
+	    return Short.valueOf(stringValue);
+	else if (type==long.class || type==Long.class)
+	    return Long.valueOf(stringValue);
+	else if (type==String.class)
+	    return stringValue;
+	else
+	    return null;
+    }
+    
+    /**
+     * Gives the compiled value to the field of the given agent.
+     * @param _agent the agent
+     */
+    public void set(Object _agent)
+    {
+	try
+	{
+	    m_setter.invokeExact(_agent);
+	}
+	catch (RuntimeException | Error e)
+	{
+	    throw e;
+	}
+	catch (Throwable e)
+	{
+	    throw new IllegalStateException(e);
+	}
+    }
+    
+    /**
+     * Returns the field set by this setter.
+     * @return the field set by this setter
+     */
+    public Field getField()
+    {
+	return m_field;
+    }
+}
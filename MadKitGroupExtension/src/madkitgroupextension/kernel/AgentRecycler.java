@@ -0,0 +1,348 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.atomic.AtomicReference;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.kernel.AbstractAgent.State;
+
+/**
+ * A pool of killed agents, which are launched again instead of building new agents. 
+ * It is dedicated to the simulations into which agents are constantly born and killed (i.e. birth/death models), 
+ * and avoids to pay for the constructor, the garbage collection and the memberships setup of each new agent.
+ * 
+ * The agents killed through the functions {@link #killAgent(MKGEAbstractAgent, AbstractAgent, int)} and 
+ * {@link #killAgents(MKGEAbstractAgent, Collection, int)} are retained, until the maximum size of the pool is reached. 
+ * Each retained agent is reset by its method {@link AbstractAgent#recycle()}, which must give back to its fields 
+ * the values given by its constructor. The function {@link #launchAgents(MKGEAbstractAgent, int, int, Role...)} then launches 
+ * the retained agents first, and builds new agents only when the pool is empty. The agents are launched into a bucket 
+ * (see {@link AbstractAgent#launchAgentBucket(List, int, Role...)}), so that their memberships are shared.
+ * 
+ * A recycled agent keeps its hash code, its name, and its identity. So an agent address obtained 
+ * during a previous life of the agent can designate the agent again, if the agent handles the same role after its new launch. 
+ * The agents which have a GUI, or whose kill has not been completed, are not recycled.
+ * 
+ * Only the agents inheriting the class {@link AbstractAgent} can be recycled. This class is thread safe.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @param <A> the class of the recycled agents
+ * @see AbstractAgent#recycle()
+ */
+public final class AgentRecycler<A extends AbstractAgent>
+{
+    private final Class<A> m_agent_class;
+    private final int m_max_pool_size;
+    private final ArrayDeque<A> m_pool=new ArrayDeque<A>();
+    private long m_created_agents=0;
+    private long m_reused_agents=0;
+    
+    /**
+     * Builds a new empty recycler.
+     * @param _agent_class the class of the recycled agents, which must have a default constructor
+     * @param _max_pool_size the maximum number of killed agents retained by this recycler
+     * @throws IllegalArgumentException if the maximum size of the pool is lower than 0
+     */
+    public AgentRecycler(Class<A> _agent_class, int _max_pool_size)
+    {
+	if (_agent_class==null)
+	    throw new NullPointerException("_agent_class");
+	if (_max_pool_size<0)
+	    throw new IllegalArgumentException("The maximum size of the pool ("+_max_pool_size+") must be greater or equal than 0 !");
+	m_agent_class=_agent_class;
+	m_max_pool_size=_max_pool_size;
+    }
+    
+    /**
+     * Launches agents into a bucket with the given roles. This has the same effect as 
+     * <code>launchAgents(_launcher, _number, 1, _roles)</code>.
+     * @param _launcher the agent which launches the agents
+     * @param _number the number of agents to launch
+     * @param _roles the roles given to each launched agent
+     * @return the launched agents
+     * @throws InstantiationException if a new agent cannot be instantiated
+     * @throws IllegalAccessException if the constructor of the agents is not accessible
+     * @see #launchAgents(MKGEAbstractAgent, int, int, Role...)
+     */
+    public List<A> launchAgents(MKGEAbstractAgent _launcher, int _number, Role ..._roles) throws InstantiationException, IllegalAccessException
+    {
+	return launchAgents(_launcher, _number, 1, _roles);
+    }
+    
+    /**
+     * Launches agents into a bucket with the given roles. The agents retained by this recycler are launched first. 
+     * If the pool does not contain enough agents, the missing agents are built with their default constructor 
+     * (see {@link AgentBucketFactory}). As for any agent launched into a bucket, the {@link AbstractAgent#activate()} method 
+     * of each agent is called after the roles have been given.
+     * @param _launcher the agent which launches the agents
+     * @param _number the number of agents to launch
+     * @param _cpu_core_nb the number of parallel tasks used to build the new agents and to activate the agents
+     * @param _roles the roles given to each launched agent
+     * @return the launched agents
+     * @throws InstantiationException if a new agent cannot be instantiated
+     * @throws IllegalAccessException if the constructor of the agents is not accessible
+     * @see AbstractAgent#launchAgentBucket(List, int, Role...)
+     */
+    public List<A> launchAgents(MKGEAbstractAgent _launcher, int _number, int _cpu_core_nb, Role ..._roles) throws InstantiationException, IllegalAccessException
+    {
+	if (_number<=0)
+	    return Collections.emptyList();
+	ArrayList<MKGEAbstractAgent> bucket=new ArrayList<MKGEAbstractAgent>(_number);
+	synchronized(this)
+	{
+	    while (bucket.size()<_number && !m_pool.isEmpty())
+		bucket.add(m_pool.poll());
+	    m_reused_agents+=bucket.size();
+	}
+	int missing=_number-bucket.size();
+	if (missing>0)
+	{
+	    try
+	    {
+		AgentBucketFactory.getDefault().construct(m_agent_class, missing, _cpu_core_nb).get(bucket, new ArrayList<madkit.kernel.AbstractAgent>(missing));
+	    }
+	    catch (InstantiationException | IllegalAccessException e)
+	    {
+		//the retained agents are given back to the pool
+		for (MKGEAbstractAgent a : bucket)
+		    retain(m_agent_class.cast(a));
+		throw e;
+	    }
+	    synchronized(this)
+	    {
+		m_created_agents+=missing;
+	    }
+	}
+	_launcher.launchAgentBucket(bucket, _cpu_core_nb, _roles);
+	ArrayList<A> res=new ArrayList<A>(bucket.size());
+	for (MKGEAbstractAgent a : bucket)
+	    res.add(m_agent_class.cast(a));
+	return res;
+    }
+    
+    /**
+     * Kills an agent, and retains it if the kill succeeds and if the pool is not full.
+     * @param _killer the agent which kills the given agent
+     * @param _target the agent to kill
+     * @param _timeOutSeconds the time given to the agent to complete its end method
+     * @return the return code of the kill
+     * @see AbstractAgent#killAgent(madkit.kernel.AbstractAgent, int)
+     */
+    public ReturnCode killAgent(MKGEAbstractAgent _killer, A _target, int _timeOutSeconds)
+    {
+	ReturnCode res=_killer.killAgent(_target, _timeOutSeconds);
+	if (res==ReturnCode.SUCCESS)
+	    recycle(_target);
+	return res;
+    }
+    
+    /**
+     * Kills several agents at once, and retains those which have been successfully killed, until the pool is full.
+     * @param _killer the agent which kills the given agents
+     * @param _targets the agents to kill
+     * @param _timeOutSeconds the time given to each agent to complete its end method
+     * @return the return code of each kill, in the iteration order of the given collection
+     * @see AbstractAgent#killAgents(Collection, int)
+     */
+    public ReturnCode[] killAgents(MKGEAbstractAgent _killer, Collection<? extends A> _targets, int _timeOutSeconds)
+    {
+	ReturnCode[] res=_killer.killAgents(_targets, _timeOutSeconds);
+	int i=0;
+	for (A a : _targets)
+	{
+	    if (res[i++]==ReturnCode.SUCCESS)
+		recycle(a);
+	}
+	return res;
+    }
+    
+    /**
+     * Retains an agent which has been killed, if the pool is not full. The agent is reset, and its method 
+     * {@link AbstractAgent#recycle()} is called.
+     * @param _agent the killed agent
+     * @return true if the agent has been retained, false if the pool is full, if the agent has not been terminated, 
+     * if it has a GUI, or if it has already been recycled.
+     */
+    public boolean recycle(A _agent)
+    {
+	synchronized(this)
+	{
+	    if (m_pool.size()>=m_max_pool_size)
+		return false;
+	}
+	if (_agent.hasGUI() || !getStateReference(_agent).compareAndSet(State.TERMINATED, State.NOT_LAUNCHED))
+	    return false;
+	_agent.resetForRecycling();
+	resetMadKitFields(_agent);
+	_agent.recycle();
+	return retain(_agent);
+    }
+    
+    private synchronized boolean retain(A _agent)
+    {
+	if (m_pool.size()>=m_max_pool_size)
+	    return false;
+	m_pool.add(_agent);
+	return true;
+    }
+    
+    /**
+     * Releases all the retained agents.
+     */
+    public synchronized void clear()
+    {
+	m_pool.clear();
+    }
+    
+    /**
+     * Returns the class of the recycled agents.
+     * @return the class of the recycled agents
+     */
+    public Class<A> getAgentClass()
+    {
+	return m_agent_class;
+    }
+    
+    /**
+     * Returns the number of agents currently retained.
+     * @return the number of agents currently retained
+     */
+    public synchronized int getPoolSize()
+    {
+	return m_pool.size();
+    }
+    
+    /**
+     * Returns the maximum number of agents retained by this recycler.
+     * @return the maximum number of agents retained by this recycler
+     */
+    public int getMaxPoolSize()
+    {
+	return m_max_pool_size;
+    }
+    
+    /**
+     * Returns the number of agents built by this recycler.
+     * @return the number of agents built with their default constructor
+     */
+    public synchronized long getCreatedAgentsNumber()
+    {
+	return m_created_agents;
+    }
+    
+    /**
+     * Returns the number of launches which have reused a retained agent.
+     * @return the number of launches which have reused a retained agent
+     */
+    public synchronized long getReusedAgentsNumber()
+    {
+	return m_reused_agents;
+    }
+    
+    @Override public String toString()
+    {
+	synchronized(this)
+	{
+	    return "AgentRecycler["+m_agent_class.getName()+", pool="+m_pool.size()+"/"+m_max_pool_size+", created="+m_created_agents+", reused="+m_reused_agents+"]";
+	}
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static AtomicReference<State> getStateReference(madkit.kernel.AbstractAgent _agent)
+    {
+	try
+	{
+	    return (AtomicReference<State>)m_state_field.get(_agent);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to read the field state of the class AbstractAgent. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    /*
+     * Gives back to the MadKit fields of the agent the values given by the constructor of MadKit, so that 
+     * the agent can be launched again.
+     */
+    private static void resetMadKitFields(madkit.kernel.AbstractAgent _agent)
+    {
+	try
+	{
+	    ((BlockingDeque<?>)m_message_box_field.get(_agent)).clear();
+	    m_logger_field.set(_agent, m_default_logger_field.get(null));
+	    m_kernel_field.set(_agent, m_fake_kernel_field.get(null));
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to reset the fields of the class AbstractAgent. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+    
+    private static Field getField(Class<?> _class, String _name)
+    {
+	try
+	{
+	    Field f=_class.getDeclaredField(_name);
+	    f.setAccessible(true);
+	    return f;
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the field "+_name+" of the class "+_class.getName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+	catch (NoSuchFieldException e)
+	{
+	    System.err.println("Impossible to found to the field "+_name+" of the class "+_class.getName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    private static final Field m_state_field=getField(madkit.kernel.AbstractAgent.class, "state");
+    private static final Field m_kernel_field=getField(madkit.kernel.AbstractAgent.class, "kernel");
+    private static final Field m_fake_kernel_field=getField(madkit.kernel.AbstractAgent.class, "FAKE_KERNEL");
+    private static final Field m_message_box_field=getField(madkit.kernel.AbstractAgent.class, "messageBox");
+    private static final Field m_logger_field=getField(madkit.kernel.AbstractAgent.class, "logger");
+    private static final Field m_default_logger_field=getField(madkit.kernel.AgentLogger.class, "defaultAgentLogger");
+}
@@ -0,0 +1,149 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.util.MadkitProperties;
+import madkit.util.XMLUtilities;
+
+/**
+ * Launches the agents described into an XML file, by streaming the file (see {@link AbstractAgent#launchXmlAgents(String)}).
+ * 
+ * The file is read with a StAX reader. Only the current <code>Agent</code> element is converted into a DOM node, 
+ * which is given to {@link AbstractAgent#launchNode(org.w3c.dom.Node)} and then released. 
+ * So the memory used to read an agents configuration file does not depend on its size. 
+ * The agents are launched into the order of the file, as when the whole DOM is parsed.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#launchXmlAgents(String)
+ */
+public final class AgentXmlReader
+{
+    private AgentXmlReader()
+    {
+	
+    }
+    
+    /**
+     * Launches the agents described into the given XML file.
+     * @param _launcher the agent which launches the agents
+     * @param _xml_file the path of the XML file
+     * @return the return code of the last launched node, or {@link ReturnCode#SEVERE} if no agent has been found
+     * @throws SAXException if the file is not a valid XML file
+     * @throws IOException if an IO exception occurs
+     * @throws ParserConfigurationException if the DOM builder cannot be created
+     */
+    public static ReturnCode launchXmlAgents(MKGEAbstractAgent _launcher, String _xml_file) throws SAXException, IOException, ParserConfigurationException
+    {
+	Document document=DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+	ReturnCode res=ReturnCode.SEVERE;
+	try (final InputStream is=MadkitProperties.getInputStream(_xml_file))
+	{
+	    XMLStreamReader reader=XMLInputFactory.newInstance().createXMLStreamReader(is);
+	    try
+	    {
+		while (reader.hasNext())
+		{
+		    if (reader.next()==XMLStreamConstants.START_ELEMENT && getName(reader).equals(XMLUtilities.AGENT))
+		    {
+			Element agent=readElement(document, reader);
+			res=_launcher.launchNode(agent);
+			//agents nested into an agent element are launched after it, as into the document order 
+			NodeList nested=agent.getElementsByTagName(XMLUtilities.AGENT);
+			for (int i=0;i<nested.getLength();i++)
+			    res=_launcher.launchNode(nested.item(i));
+		    }
+		}
+	    }
+	    finally
+	    {
+		reader.close();
+	    }
+	}
+	catch (XMLStreamException e)
+	{
+	    throw new SAXException(e);
+	}
+	return res;
+    }
+    
+    private static String getName(XMLStreamReader _reader)
+    {
+	String prefix=_reader.getPrefix();
+	if (prefix==null || prefix.length()==0)
+	    return _reader.getLocalName();
+	return prefix+":"+_reader.getLocalName();
+    }
+    
+    private static Element readElement(Document _document, XMLStreamReader _reader) throws XMLStreamException
+    {
+	Element element=_document.createElement(getName(_reader));
+	for (int i=0;i<_reader.getAttributeCount();i++)
+	{
+	    String prefix=_reader.getAttributePrefix(i);
+	    String name=_reader.getAttributeLocalName(i);
+	    element.setAttribute((prefix==null || prefix.length()==0)?name:prefix+":"+name, _reader.getAttributeValue(i));
+	}
+	while (_reader.hasNext())
+	{
+	    switch (_reader.next())
+	    {
+		case XMLStreamConstants.START_ELEMENT:
+		    element.appendChild(readElement(_document, _reader));
+		    break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+		case XMLStreamConstants.CDATA:
+		    element.appendChild(_document.createTextNode(_reader.getText()));
+		    break;
+		case XMLStreamConstants.END_ELEMENT:
+		    return element;
+		default:
+		    break;
+	    }
+	}
+	throw new XMLStreamException("Unexpected end of document into the element "+element.getTagName());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.kernel.KernelAddress;
+
+/**
+ * The termination of several agents killed together (see {@link AbstractAgent#killAgents(Collection, int)}).
+ * 
+ * While the agents are killed, their memberships are not dereferenced one by one by their {@link AbstractAgent#end()} method, 
+ * but aggregated by group and by role. When all the agents have been killed, each group is dereferenced once, 
+ * so that it is deactivated once, and only one group changement notification is sent. 
+ * Meanwhile, MadKit removes a group as soon as its last member leaves it, although the group is still referenced by the termination. 
+ * So while a termination is running (see {@link #isRunning(KernelAddress)}), an agent requesting a role into a group which is 
+ * referenced but unknown by MadKit creates it again.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#killAgents(Collection, int)
+ */
+public final class AgentsTermination
+{
+    private static final HashMap<KernelAddress, int[]> m_running_terminations=new HashMap<KernelAddress, int[]>();
+    
+    private final HashMap<Group, Roles> m_groups=new HashMap<Group, Roles>();
+    private boolean m_closed=false;
+    
+    private AgentsTermination()
+    {
+	
+    }
+    
+    /**
+     * Kills the given agents, and dereferences their memberships at once.
+     * @param _killer the agent which kills the given agents
+     * @param _targets the agents to kill
+     * @param _timeOutSeconds the time given to each agent to complete its end method
+     * @return the return code of each kill, in the iteration order of the given collection
+     * @throws IllegalArgumentException When one of the given agents don't implement the interface MadKitGroupExtensionAgent
+     */
+    public static ReturnCode[] killAgents(MKGEAbstractAgent _killer, Collection<? extends madkit.kernel.AbstractAgent> _targets, int _timeOutSeconds)
+    {
+	for (madkit.kernel.AbstractAgent a : _targets)
+	{
+	    if (!(a instanceof MKGEAbstractAgent))
+		throw new IllegalArgumentException("The agent given as parameter must inherit a MadKitGroupExtension agent which implements the interface MadKitGroupExtensionAgent.");
+	}
+	KernelAddress ka=_killer.getKernelAddress();
+	AgentsTermination termination=new AgentsTermination();
+	synchronized(m_running_terminations)
+	{
+	    int[] c=m_running_terminations.get(ka);
+	    if (c==null)
+		m_running_terminations.put(ka, new int[]{1});
+	    else
+		++c[0];
+	}
+	for (madkit.kernel.AbstractAgent a : _targets)
+	{
+	    GroupRoleSet gra=GroupRole.getGroupRoles((MKGEAbstractAgent)a);
+	    synchronized(gra)
+	    {
+		gra.setTermination(termination);
+	    }
+	}
+	ReturnCode[] res=new ReturnCode[_targets.size()];
+	int i=0;
+	try
+	{
+	    for (madkit.kernel.AbstractAgent a : _targets)
+		res[i++]=_killer.killAgent(a, _timeOutSeconds);
+	}
+	finally
+	{
+	    try
+	    {
+		termination.close(ka);
+	    }
+	    finally
+	    {
+		synchronized(m_running_terminations)
+		{
+		    int[] c=m_running_terminations.get(ka);
+		    if (--c[0]==0)
+			m_running_terminations.remove(ka);
+		}
+	    }
+	}
+	return res;
+    }
+    
+    /**
+     * Tells if agents are being killed together into the given kernel. 
+     * In this case, the groups left by the killed agents are still referenced, even if MadKit has already removed them. 
+     * @param ka the kernel address
+     * @return true if at least one termination is running into the given kernel
+     */
+    public static boolean isRunning(KernelAddress ka)
+    {
+	synchronized(m_running_terminations)
+	{
+	    return m_running_terminations.containsKey(ka);
+	}
+    }
+    
+    /*
+     * Aggregates the given memberships of a killed agent. Returns false if the termination is closed, i.e. when the end 
+     * method of the agent is called after the time out of the kill. In this case, the memberships must be dereferenced by the agent.  
+     */
+    synchronized boolean add(GroupRole[] _memberships)
+    {
+	if (m_closed)
+	    return false;
+	for (GroupRole gr : _memberships)
+	{
+	    if (gr!=null && gr.getRolesNumber()>0)
+	    {
+		Roles r=getRoles(gr.getGroup());
+		for (int i=0;i<gr.getRolesNumber();i++)
+		    increment(r.m_roles, gr.getRole(i));
+	    }
+	}
+	return true;
+    }
+    
+    /*
+     * Aggregates an automatically requested role of a killed agent. Returns false if the termination is closed. 
+     */
+    synchronized boolean addAutoRequestedRole(Group _group, String _role)
+    {
+	if (m_closed)
+	    return false;
+	increment(getRoles(_group).m_auto_requested_roles, _role);
+	return true;
+    }
+    
+    private Roles getRoles(Group _group)
+    {
+	Roles r=m_groups.get(_group);
+	if (r==null)
+	{
+	    r=new Roles();
+	    m_groups.put(_group, r);
+	}
+	return r;
+    }
+    
+    private static void increment(HashMap<String, int[]> _roles, String _role)
+    {
+	int[] c=_roles.get(_role);
+	if (c==null)
+	    _roles.put(_role, new int[]{1});
+	else
+	    ++c[0];
+    }
+    
+    private void close(KernelAddress ka)
+    {
+	synchronized(this)
+	{
+	    m_closed=true;
+	}
+	GroupRole.beginCoalescedChangements();
+	try
+	{
+	    for (Map.Entry<Group, Roles> e : m_groups.entrySet())
+		e.getKey().decrementReferences(e.getValue().m_roles, e.getValue().m_auto_requested_roles, ka);
+	}
+	finally
+	{
+	    GroupRole.endCoalescedChangements();
+	}
+	m_groups.clear();
+    }
+    
+    private static final class Roles
+    {
+	final HashMap<String, int[]> m_roles=new HashMap<String, int[]>();
+	final HashMap<String, int[]> m_auto_requested_roles=new HashMap<String, int[]>();
+    }
+}
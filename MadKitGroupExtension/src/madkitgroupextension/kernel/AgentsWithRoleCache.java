@@ -0,0 +1,420 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import madkit.kernel.AgentAddress;
+import madkit.kernel.KernelAddress;
+
+/**
+ * A kernel level cache of the agents handling a role into the represented groups of an abstract group.
+ * 
+ * One entry is kept for each abstract group/role couple, the abstract groups being identified by their structure, so that 
+ * several instances of the same {@link MultiGroup} share their entries. An entry is invalidated when the represented groups 
+ * of its abstract group change, or when an agent requests or leaves a role into one of these represented groups. 
+ * While the entry is valid, the same immutable list is returned to every caller, without allocating memory.
+ * The list returned to a caller which does not want to be included into the result is computed once for each caller. 
+ * 
+ * One cache is kept for each kernel. The entries are found without taking a lock shared by the agents of the virtual machine. 
+ * When more than 1024 abstract groups are cached, the least recently used groups are removed by the agent which adds a new group. 
+ * 
+ * Roles that are not indexed by the kernel (i.e. the group manager role and the candidate role), and groups which are 
+ * distributed over several kernels, are never cached.  
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#getAgentsWithRole(AbstractGroup, String, boolean)
+ */
+public final class AgentsWithRoleCache
+{
+    private static final int m_max_cached_groups=1024;
+    private static final ConcurrentHashMap<KernelAddress, AgentsWithRoleCache> m_caches=new ConcurrentHashMap<KernelAddress, AgentsWithRoleCache>();
+    
+    private final KernelAddress m_kernel_address;
+    //the entries are shared by the abstract groups having the same structure (see AbstractGroup.getStructuralKey())
+    private final ConcurrentHashMap<Object, GroupEntries> m_entries=new ConcurrentHashMap<Object, GroupEntries>();
+    //incremented each time an abstract group is added to the cache, and used to find the least recently used groups
+    private volatile long m_clock=0;
+    private final AtomicBoolean m_evicting=new AtomicBoolean(false);
+    
+    private AgentsWithRoleCache(KernelAddress ka)
+    {
+	m_kernel_address=ka;
+    }
+    
+    /**
+     * Returns the cache entry corresponding to the given abstract group and the given role.
+     * 
+     * @param ka the used kernel address
+     * @param _group the abstract group
+     * @param _role the role name
+     * @return the cache entry, or null if the given role cannot be cached
+     */
+    public static Entry getEntry(KernelAddress ka, AbstractGroup _group, String _role)
+    {
+	if (ka==null || _group==null || !Group.isIndexedRole(_role))
+	    return null;
+	AgentsWithRoleCache c=m_caches.get(ka);
+	if (c==null)
+	{
+	    c=new AgentsWithRoleCache(ka);
+	    AgentsWithRoleCache prev=m_caches.putIfAbsent(ka, c);
+	    if (prev!=null)
+		c=prev;
+	}
+	return c.getEntry(_group, _role);
+    }
+    
+    private Entry getEntry(AbstractGroup _group, String _role)
+    {
+	Object key=_group.getStructuralKey();
+	GroupEntries roles=m_entries.get(key);
+	if (roles==null)
+	{
+	    roles=new GroupEntries();
+	    GroupEntries prev=m_entries.putIfAbsent(key, roles);
+	    if (prev==null)
+	    {
+		++m_clock;
+		if (m_entries.size()>m_max_cached_groups)
+		    evict();
+	    }
+	    else
+		roles=prev;
+	}
+	roles.m_last_access=m_clock;
+	Entry e=roles.m_roles.get(_role);
+	if (e==null)
+	{
+	    e=new Entry(m_kernel_address);
+	    Entry prev=roles.m_roles.putIfAbsent(_role, e);
+	    if (prev!=null)
+		e=prev;
+	}
+	return e;
+    }
+    
+    /**
+     * Removes the least recently used groups, so that a quarter of the cache is free. 
+     * Only one thread evicts at a time, the others do not wait for it.
+     */
+    private void evict()
+    {
+	if (!m_evicting.compareAndSet(false, true))
+	    return;
+	try
+	{
+	    int nb=m_entries.size()-m_max_cached_groups+m_max_cached_groups/4;
+	    if (nb<=0)
+		return;
+	    long[] accesses=new long[m_entries.size()];
+	    int i=0;
+	    for (GroupEntries ge : m_entries.values())
+	    {
+		if (i==accesses.length)
+		    break;
+		accesses[i++]=ge.m_last_access;
+	    }
+	    if (nb>=i)
+		nb=i-1;
+	    if (nb<=0)
+		return;
+	    Arrays.sort(accesses, 0, i);
+	    long limit=accesses[nb-1];
+	    for (Iterator<GroupEntries> it=m_entries.values().iterator();it.hasNext() && nb>0;)
+	    {
+		if (it.next().m_last_access<=limit)
+		{
+		    it.remove();
+		    --nb;
+		}
+	    }
+	}
+	finally
+	{
+	    m_evicting.set(false);
+	}
+    }
+    
+    /**
+     * The entries of one abstract group.
+     */
+    private static final class GroupEntries
+    {
+	final ConcurrentHashMap<String, Entry> m_roles=new ConcurrentHashMap<String, Entry>(4);
+	volatile long m_last_access=0;
+    }
+    
+    /**
+     * The agents handling one role into the represented groups of one abstract group.
+     */
+    public static final class Entry
+    {
+	private final KernelAddress m_kernel_address;
+	private Group[] m_groups=null;
+	private long[] m_stamps=null;
+	private boolean m_cachable=false;
+	private List<AgentAddress> m_agents=null;
+	//keyed by the hash code of the callers, which identifies them into the kernel without keeping them from being garbage collected
+	private final HashMap<Integer, List<AgentAddress>> m_agents_without_caller=new HashMap<Integer, List<AgentAddress>>();
+	
+	Entry(KernelAddress ka)
+	{
+	    m_kernel_address=ka;
+	}
+	
+	/**
+	 * Returns the current stamps of the given groups. These stamps must be read before querying MadKit, 
+	 * and then given to {@link #update(Group[], long[], Collection)}. 
+	 * @param _groups the current represented groups
+	 * @return the current stamps of the given groups
+	 * @see Group#getRolesStamp(KernelAddress)
+	 */
+	public long[] getCurrentStamps(Group[] _groups)
+	{
+	    long[] stamps=new long[_groups.length];
+	    for (int i=0;i<_groups.length;i++)
+		stamps[i]=_groups[i].getRolesStamp(m_kernel_address);
+	    return stamps;
+	}
+	
+	/**
+	 * Tells if this entry can be used without querying MadKit, i.e. if the represented groups did not change, 
+	 * and if no agent requested or left a role into them since the last update.
+	 * @param _groups the current represented groups
+	 * @return true if this entry is up to date
+	 */
+	public synchronized boolean isUpToDate(Group[] _groups)
+	{
+	    if (!m_cachable || !sameGroups(m_groups, _groups))
+		return false;
+	    for (int i=0;i<m_groups.length;i++)
+	    {
+		if (m_groups[i].getRolesStamp(m_kernel_address)!=m_stamps[i])
+		    return false;
+	    }
+	    return true;
+	}
+	
+	static boolean sameGroups(Group[] _groups1, Group[] _groups2)
+	{
+	    //several instances of the same abstract group return different arrays, possibly in a different order
+	    if (_groups1==_groups2)
+		return true;
+	    if (_groups1==null || _groups1.length!=_groups2.length)
+		return false;
+	    if (Arrays.equals(_groups1, _groups2))
+		return true;
+	    return new HashSet<Group>(Arrays.asList(_groups1)).containsAll(Arrays.asList(_groups2));
+	}
+	
+	/**
+	 * Replace the content of this entry.
+	 * @param _groups the represented groups used to query MadKit
+	 * @param _stamps the stamps of the given groups read before querying MadKit (see {@link #getCurrentStamps(Group[])})
+	 * @param _agents the agents handling the role into the given groups, including the caller, without duplicates
+	 */
+	public synchronized void update(Group[] _groups, long[] _stamps, Collection<AgentAddress> _agents)
+	{
+	    boolean cachable=true;
+	    for (Group g : _groups)
+	    {
+		if (g.isMadKitDistributed())
+		{
+		    cachable=false;
+		    break;
+		}
+	    }
+	    ArrayList<AgentAddress> agents=new ArrayList<AgentAddress>(_agents.size());
+	    for (AgentAddress aa : _agents)
+	    {
+		//an ending agent has already released its MadKitGroupExtension references, but could not have left its roles into MadKit 
+		if (!isEnding(aa))
+		    agents.add(aa);
+	    }
+	    m_groups=_groups;
+	    m_stamps=Arrays.copyOf(_stamps, _stamps.length);
+	    m_cachable=cachable;
+	    m_agents=agents.size()==0?null:Collections.unmodifiableList(agents);
+	    m_agents_without_caller.clear();
+	}
+	
+	/**
+	 * Returns the agents of this entry.
+	 * @param _caller the agent which asks the agents list
+	 * @param _callerIncluded if <code>false</code>, the caller is removed from the list if it is in.
+	 * @return an immutable list of agents handling the role of this entry, or <code>null</code> if no agent has been found.
+	 */
+	public synchronized List<AgentAddress> getAgentsWithRole(madkit.kernel.AbstractAgent _caller, boolean _callerIncluded)
+	{
+	    if (m_agents==null || _callerIncluded)
+		return m_agents;
+	    Integer key=Integer.valueOf(_caller.hashCode());
+	    List<AgentAddress> res=m_agents_without_caller.get(key);
+	    if (res==null)
+	    {
+		int nb=0;
+		for (AgentAddress aa : m_agents)
+		{
+		    if (isCaller(aa, _caller))
+			++nb;
+		}
+		if (nb==0)
+		    res=m_agents;
+		else if (nb==m_agents.size())
+		    res=Collections.emptyList();
+		else
+		{
+		    int[] excluded=new int[nb];
+		    nb=0;
+		    for (int i=0;i<m_agents.size();i++)
+		    {
+			if (isCaller(m_agents.get(i), _caller))
+			    excluded[nb++]=i;
+		    }
+		    res=new ExcludingList(m_agents, excluded);
+		}
+		if (m_cachable)
+		    m_agents_without_caller.put(key, res);
+	    }
+	    if (res.isEmpty())
+		return null;
+	    return res;
+	}
+	
+	private boolean isCaller(AgentAddress aa, madkit.kernel.AbstractAgent _caller)
+	{
+	    return aa.hashCode()==_caller.hashCode() && aa.isFrom(m_kernel_address);
+	}
+    }
+    
+    /**
+     * An immutable view of a list, without some of its elements.
+     */
+    private static final class ExcludingList extends AbstractList<AgentAddress> implements RandomAccess
+    {
+	private final List<AgentAddress> m_list;
+	private final int[] m_excluded;
+	
+	ExcludingList(List<AgentAddress> _list, int[] _excluded)
+	{
+	    m_list=_list;
+	    m_excluded=_excluded;
+	}
+	
+	@Override
+	public AgentAddress get(int _index)
+	{
+	    if (_index<0 || _index>=size())
+		throw new IndexOutOfBoundsException("Index: "+_index+", Size: "+size());
+	    for (int e : m_excluded)
+	    {
+		if (e<=_index)
+		    ++_index;
+		else
+		    break;
+	    }
+	    return m_list.get(_index);
+	}
+	
+	@Override
+	public int size()
+	{
+	    return m_list.size()-m_excluded.length;
+	}
+    }
+    
+    static boolean isEnding(AgentAddress aa)
+    {
+	madkit.kernel.AbstractAgent a=getAgent(aa);
+	if (a==null)
+	    return false;
+	madkit.kernel.AbstractAgent.State s=a.getState();
+	return s==madkit.kernel.AbstractAgent.State.ENDING || s==madkit.kernel.AbstractAgent.State.TERMINATED;
+    }
+    
+    /**
+     * Returns the agent referenced by the given agent address.
+     * @param aa the agent address
+     * @return the referenced agent, or null if the agent is not located into the local kernel
+     */
+    static madkit.kernel.AbstractAgent getAgent(AgentAddress aa)
+    {
+	try
+	{
+	    return (madkit.kernel.AbstractAgent)m_get_agent_method.invoke(aa);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to call the function getAgent of the class AgentAddress. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+	catch (InvocationTargetException e)
+	{
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    private static Method m_get_agent_method=null;
+    static
+    {
+	try
+	{
+	    m_get_agent_method=AgentAddress.class.getDeclaredMethod("getAgent");
+	    m_get_agent_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function getAgent of the class AgentAddress. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function getAgent of the class AgentAddress. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
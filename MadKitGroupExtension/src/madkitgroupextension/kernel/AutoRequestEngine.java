@@ -0,0 +1,428 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import madkit.kernel.KernelAddress;
+import madkitgroupextension.simulation.viewer.SwingViewer;
+
+/**
+ * A kernel level engine which handles the automatically requested roles of the agents 
+ * (see {@link AbstractAgent#autoRequestRole(AbstractGroup, String, Object)}).
+ * 
+ * The rules of the agents are indexed by abstract group, the abstract groups being identified by their structure, so that the agents 
+ * subscribing with several instances of the same {@link MultiGroup} share the same rule. When a group changes anywhere, the represented groups of each 
+ * indexed abstract group are evaluated once, and compared with those of the previous evaluation. Only when they differ, 
+ * the added and the removed groups are given to all the agents that have subscribed to the abstract group, which 
+ * request or leave their role into these groups. So the cost of a group changement does not depend on the number of agents 
+ * that auto-request roles, but on the number of distinct abstract groups and on the number of concerned agents.
+ * 
+ * One engine is kept for each kernel, so that several kernels running into the same virtual machine do not share their rules. 
+ * The engine of a kernel is removed, and stops listening the group changements, when its last rule is unsubscribed or when the kernel stops. 
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#autoRequestRole(AbstractGroup, String, Object)
+ */
+public final class AutoRequestEngine implements GroupChangementNotifier
+{
+    private static final Map<KernelAddress, AutoRequestEngine> m_engines=new HashMap<KernelAddress, AutoRequestEngine>();
+    private static final Group[] m_empty_groups=new Group[0];
+    
+    private final KernelAddress m_kernel_address;
+    private final HashMap<Object, Rule> m_rules=new HashMap<Object, Rule>();
+    private Rule[] m_rules_array=null;
+    private long m_evaluations_number=0;
+    private long m_changements_number=0;
+    private boolean m_removed=false;
+    private volatile boolean m_kernel_observed=false;
+    
+    private AutoRequestEngine(KernelAddress _ka)
+    {
+	m_kernel_address=_ka;
+    }
+    
+    /**
+     * Returns the auto-request engine of the given kernel.
+     * @param ka the kernel address
+     * @return the auto-request engine of the given kernel
+     */
+    public static AutoRequestEngine getEngine(KernelAddress ka)
+    {
+	synchronized(m_engines)
+	{
+	    AutoRequestEngine e=m_engines.get(ka);
+	    if (e==null)
+	    {
+		e=new AutoRequestEngine(ka);
+		m_engines.put(ka, e);
+		Group.addGroupChangementNotifier(e);
+	    }
+	    return e;
+	}
+    }
+    
+    /**
+     * Subscribes an agent to the given abstract group. The agent will be informed of the changements of the represented groups of the given abstract group. 
+     * The represented groups that exist before the subscription are not given to the agent.
+     * @param _agent the agent
+     * @param _group the abstract group, which must not be modified after the subscription
+     * @param _role the role to request into the represented groups
+     */
+    public void subscribe(MKGEAbstractAgent _agent, AbstractGroup _group, String _role)
+    {
+	if (!m_kernel_observed)
+	{
+	    KernelObserver.observe((madkit.kernel.AbstractAgent)_agent);
+	    m_kernel_observed=true;
+	}
+	synchronized(this)
+	{
+	    if (!m_removed)
+	    {
+		Object key=_group.getStructuralKey();
+		Rule r=m_rules.get(key);
+		if (r==null)
+		{
+		    r=new Rule(_group);
+		    m_rules.put(key, r);
+		    m_rules_array=null;
+		}
+		r.subscribe(_agent, _role);
+		return;
+	    }
+	}
+	//this engine has been removed since the agent got it
+	getEngine(m_kernel_address).subscribe(_agent, _group, _role);
+    }
+    
+    /**
+     * Tells if the given abstract groups share the same rule, i.e. if they have the same structure. 
+     * This test is cheaper than {@link AbstractGroup#equals(Object)}, which compares the represented groups.
+     * @param _group1 the first abstract group
+     * @param _group2 the second abstract group
+     * @return true if the given abstract groups share the same rule
+     */
+    public static boolean isSameRule(AbstractGroup _group1, AbstractGroup _group2)
+    {
+	return _group1==_group2 || _group1.getStructuralKey().equals(_group2.getStructuralKey());
+    }
+    
+    /**
+     * Unsubscribes an agent from the given abstract group.
+     * @param _agent the agent
+     * @param _group the abstract group given with {@link #subscribe(MKGEAbstractAgent, AbstractGroup, String)}
+     * @param _role the role given with {@link #subscribe(MKGEAbstractAgent, AbstractGroup, String)}
+     */
+    public void unsubscribe(MKGEAbstractAgent _agent, AbstractGroup _group, String _role)
+    {
+	synchronized(this)
+	{
+	    Object key=_group.getStructuralKey();
+	    Rule r=m_rules.get(key);
+	    if (r==null || !r.unsubscribe(_agent, _role))
+		return;
+	    m_rules.remove(key);
+	    m_rules_array=null;
+	    if (!m_rules.isEmpty())
+		return;
+	}
+	remove(false);
+    }
+    
+    /**
+     * Removes the engine of the given kernel, when it stops.
+     * @param ka the kernel address
+     */
+    static void removeEngine(KernelAddress ka)
+    {
+	AutoRequestEngine e;
+	synchronized(m_engines)
+	{
+	    e=m_engines.get(ka);
+	}
+	if (e!=null)
+	    e.remove(true);
+    }
+    
+    /**
+     * Removes this engine from the engines of the kernels, and stops listening the group changements. 
+     * Unless the kernel stops, the engine is removed only if it has no rule.
+     */
+    private void remove(boolean _kernel_ended)
+    {
+	synchronized(m_engines)
+	{
+	    synchronized(this)
+	    {
+		if (m_removed || (!_kernel_ended && !m_rules.isEmpty()))
+		    return;
+		m_removed=true;
+	    }
+	    if (m_engines.get(m_kernel_address)==this)
+		m_engines.remove(m_kernel_address);
+	}
+	Group.removeGroupChangementNotifier(this);
+    }
+    
+    /**
+     * Returns the number of distinct abstract groups which are evaluated at each group changement. 
+     * @return the number of distinct abstract groups
+     */
+    public synchronized int getRulesNumber()
+    {
+	return m_rules.size();
+    }
+    
+    /**
+     * Returns the number of evaluations of the represented groups of the indexed abstract groups.
+     * @return the number of evaluations
+     */
+    public synchronized long getEvaluationsNumber()
+    {
+	return m_evaluations_number;
+    }
+    
+    /**
+     * Returns the number of evaluations which have given represented groups different from the previous evaluation, 
+     * and which have been given to the subscribed agents.
+     * @return the number of changements given to the agents
+     */
+    public synchronized long getChangementsNumber()
+    {
+	return m_changements_number;
+    }
+    
+    /**
+     * Do not use this function !
+     */
+    @Override public void potentialChangementInGroups()
+    {
+	Rule[] rules=null;
+	synchronized(this)
+	{
+	    if (m_rules.isEmpty())
+		return;
+	    if (m_rules_array==null)
+	    {
+		m_rules_array=new Rule[m_rules.size()];
+		m_rules.values().toArray(m_rules_array);
+	    }
+	    rules=m_rules_array;
+	    m_evaluations_number+=rules.length;
+	}
+	for (Rule r : rules)
+	    r.evaluate();
+    }
+    
+    private final class Rule
+    {
+	private final AbstractGroup m_group;
+	private Group[] m_represented_groups;
+	private final LinkedHashMap<Subscription, Subscription> m_subscriptions=new LinkedHashMap<Subscription, Subscription>();
+	private Subscription[] m_subscriptions_array=null;
+	
+	Rule(AbstractGroup _group)
+	{
+	    m_group=_group;
+	    m_represented_groups=_group.getRepresentedGroups(m_kernel_address);
+	}
+	
+	synchronized void subscribe(MKGEAbstractAgent _agent, String _role)
+	{
+	    Subscription s=new Subscription(_agent, _role);
+	    Subscription found=m_subscriptions.get(s);
+	    if (found==null)
+	    {
+		m_subscriptions.put(s, s);
+		m_subscriptions_array=null;
+	    }
+	    else
+		++found.m_count;
+	}
+	
+	/**
+	 * @return true if no subscription remains
+	 */
+	synchronized boolean unsubscribe(MKGEAbstractAgent _agent, String _role)
+	{
+	    Subscription found=m_subscriptions.get(new Subscription(_agent, _role));
+	    if (found!=null && --found.m_count==0)
+	    {
+		m_subscriptions.remove(found);
+		m_subscriptions_array=null;
+	    }
+	    return m_subscriptions.isEmpty();
+	}
+	
+	void evaluate()
+	{
+	    Group[] current=m_group.getRepresentedGroups(m_kernel_address);
+	    if (current==null)
+		current=m_empty_groups;
+	    Group[] previous, added, removed;
+	    Subscription[] subscriptions;
+	    synchronized(this)
+	    {
+		previous=m_represented_groups==null?m_empty_groups:m_represented_groups;
+		if (current==previous)
+		    return;
+		m_represented_groups=current;
+		HashSet<Group> previous_set=new HashSet<Group>(previous.length*2);
+		Collections.addAll(previous_set, previous);
+		ArrayList<Group> added_list=new ArrayList<Group>();
+		for (Group g : current)
+		{
+		    if (!previous_set.remove(g))
+			added_list.add(g);
+		}
+		if (added_list.isEmpty() && previous_set.isEmpty())
+		    return;
+		added=added_list.toArray(new Group[added_list.size()]);
+		removed=previous_set.toArray(new Group[previous_set.size()]);
+		if (m_subscriptions_array==null)
+		{
+		    m_subscriptions_array=new Subscription[m_subscriptions.size()];
+		    m_subscriptions.values().toArray(m_subscriptions_array);
+		}
+		subscriptions=m_subscriptions_array;
+	    }
+	    synchronized(AutoRequestEngine.this)
+	    {
+		++m_changements_number;
+	    }
+	    for (Subscription s : subscriptions)
+		autoRequestedGroupsChanged(s.m_agent, m_group, s.m_role, previous, current, added, removed);
+	}
+    }
+    
+    private static final class Subscription
+    {
+	final MKGEAbstractAgent m_agent;
+	final String m_role;
+	int m_count=1;
+	
+	Subscription(MKGEAbstractAgent _agent, String _role)
+	{
+	    m_agent=_agent;
+	    m_role=_role;
+	}
+	
+	@Override public boolean equals(Object o)
+	{
+	    if (o instanceof Subscription)
+	    {
+		Subscription s=(Subscription)o;
+		return s.m_agent==m_agent && s.m_role.equals(m_role);
+	    }
+	    return false;
+	}
+	
+	@Override public int hashCode()
+	{
+	    return System.identityHashCode(m_agent)*31+m_role.hashCode();
+	}
+    }
+    
+    private static void autoRequestedGroupsChanged(MKGEAbstractAgent _agent, AbstractGroup _group, String _role, Group[] _previous, Group[] _current, Group[] _added, Group[] _removed)
+    {
+	Method m=null;
+	if (_agent instanceof AbstractAgent)
+	    m=m_auto_requested_groups_changed_abstract_agent_method;
+	else if (_agent instanceof Agent)
+	    m=m_auto_requested_groups_changed_agent_method;
+	else if (_agent instanceof Scheduler)
+	    m=m_auto_requested_groups_changed_scheduler_method;
+	else if (_agent instanceof Watcher)
+	    m=m_auto_requested_groups_changed_watcher_method;
+	else if (_agent instanceof SwingViewer)
+	    m=m_auto_requested_groups_changed_swing_viewer_method;
+	else
+	    throw new IllegalAccessError("Unknow object : "+_agent.getClass());
+	try
+	{
+	    m.invoke(_agent, _group, _role, _previous, _current, _added, _removed);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to call the function autoRequestedGroupsChanged of the class "+m.getDeclaringClass().getSimpleName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (InvocationTargetException e)
+	{
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+    
+    private static Method m_auto_requested_groups_changed_abstract_agent_method=null;
+    private static Method m_auto_requested_groups_changed_agent_method=null;
+    private static Method m_auto_requested_groups_changed_scheduler_method=null;
+    private static Method m_auto_requested_groups_changed_watcher_method=null;
+    private static Method m_auto_requested_groups_changed_swing_viewer_method=null;
+    
+    private static Method getAutoRequestedGroupsChangedMethod(Class<?> _class)
+    {
+	try
+	{
+	    Method m=_class.getDeclaredMethod("autoRequestedGroupsChanged", AbstractGroup.class, String.class, Group[].class, Group[].class, Group[].class, Group[].class);
+	    m.setAccessible(true);
+	    return m;
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function autoRequestedGroupsChanged of the class "+_class.getSimpleName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function autoRequestedGroupsChanged of the class "+_class.getSimpleName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	return null;
+    }
+    
+    static
+    {
+	m_auto_requested_groups_changed_abstract_agent_method=getAutoRequestedGroupsChangedMethod(AbstractAgent.class);
+	m_auto_requested_groups_changed_agent_method=getAutoRequestedGroupsChangedMethod(Agent.class);
+	m_auto_requested_groups_changed_scheduler_method=getAutoRequestedGroupsChangedMethod(Scheduler.class);
+	m_auto_requested_groups_changed_watcher_method=getAutoRequestedGroupsChangedMethod(Watcher.class);
+	m_auto_requested_groups_changed_swing_viewer_method=getAutoRequestedGroupsChangedMethod(SwingViewer.class);
+    }
+}
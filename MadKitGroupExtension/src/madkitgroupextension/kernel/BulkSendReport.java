@@ -0,0 +1,157 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.util.Collection;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.kernel.AgentAddress;
+
+/**
+ * The result of a message sent to several agent addresses, through {@link AbstractAgent#sendMessages(Collection, madkit.kernel.Message)} 
+ * or {@link AbstractAgent#sendMessagesWithRole(Collection, madkit.kernel.Message, String)}.
+ * 
+ * The return code of each recipient is stored into one byte, in the iteration order of the given recipients collection. 
+ * The number of recipients for each return code is also kept. 
+ * 
+ * Here a typical use :
+ * <pre>
+ * BulkSendReport r=sendMessagesWithRole(neighbours, new StringMessage("gossip"), "peer");
+ * if (!r.isSuccess())
+ * {
+ *     for (int i=0;i&lt;r.size();i++)
+ *         if (r.getReturnCode(i)==ReturnCode.INVALID_AGENT_ADDRESS)
+ *             forget(r.getRecipient(i));
+ * }
+ * </pre>
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ */
+public final class BulkSendReport
+{
+    private static final ReturnCode[] m_return_codes=ReturnCode.values();
+    
+    private final AgentAddress[] m_recipients;
+    private final byte[] m_codes;
+    private final int[] m_counts=new int[m_return_codes.length];
+    
+    /**
+     * Builds a report whose return codes are not yet set. This constructor is reserved to the MadKitGroupExtension agents.
+     * @param _recipients the recipients of the message
+     */
+    public BulkSendReport(Collection<AgentAddress> _recipients)
+    {
+	m_recipients=_recipients.toArray(new AgentAddress[_recipients.size()]);
+	m_codes=new byte[m_recipients.length];
+    }
+    
+    /**
+     * Sets the return code of the message sent to the recipient at the given index. This function is reserved to the MadKitGroupExtension agents.
+     * @param _index the index of the recipient
+     * @param _code the return code of the send
+     */
+    public void set(int _index, ReturnCode _code)
+    {
+	m_codes[_index]=(byte)_code.ordinal();
+	++m_counts[_code.ordinal()];
+    }
+    
+    /**
+     * Returns the number of recipients.
+     * @return the number of recipients
+     */
+    public int size()
+    {
+	return m_recipients.length;
+    }
+    
+    /**
+     * Returns the recipient at the given index.
+     * @param _index the index of the recipient, into the iteration order of the given recipients collection
+     * @return the recipient
+     */
+    public AgentAddress getRecipient(int _index)
+    {
+	return m_recipients[_index];
+    }
+    
+    /**
+     * Returns the return code of the message sent to the recipient at the given index.
+     * @param _index the index of the recipient, into the iteration order of the given recipients collection
+     * @return the return code of the send
+     * @see AbstractAgent#sendMessageWithRole(AgentAddress, madkit.kernel.Message, String)
+     */
+    public ReturnCode getReturnCode(int _index)
+    {
+	return m_return_codes[m_codes[_index]];
+    }
+    
+    /**
+     * Returns the number of recipients for which the send returned the given code.
+     * @param _code the return code
+     * @return the number of recipients
+     */
+    public int getCount(ReturnCode _code)
+    {
+	return m_counts[_code.ordinal()];
+    }
+    
+    /**
+     * Returns the number of messages which have been successfully sent.
+     * @return the number of successful sends
+     */
+    public int getSuccessCount()
+    {
+	return m_counts[ReturnCode.SUCCESS.ordinal()];
+    }
+    
+    /**
+     * Tells if the message has been successfully sent to every recipient.
+     * @return true if every send succeeded
+     */
+    public boolean isSuccess()
+    {
+	return getSuccessCount()==m_recipients.length;
+    }
+    
+    @Override public String toString()
+    {
+	StringBuffer sb=new StringBuffer("BulkSendReport[recipients=");
+	sb.append(m_recipients.length);
+	for (int i=0;i<m_counts.length;i++)
+	{
+	    if (m_counts[i]>0)
+	    {
+		sb.append(", ");
+		sb.append(m_return_codes[i].name());
+		sb.append("=");
+		sb.append(m_counts[i]);
+	    }
+	}
+	sb.append("]");
+	return sb.toString();
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import madkit.agr.LocalCommunity;
+import madkit.agr.Organization;
+import madkit.kernel.AgentAddress;
+import madkit.kernel.KernelAddress;
+import madkit.kernel.Message;
+import madkit.message.hook.AgentLifeEvent;
+import madkit.message.hook.HookMessage;
+import madkit.message.hook.HookMessage.AgentActionEvent;
+import madkit.message.hook.OrganizationEvent;
+
+/**
+ * A kernel level cache of the local and distant agents handling a role into the represented groups of an abstract group, 
+ * when at least one of these groups is distributed over several kernels (see {@link Group#isMadKitDistributed()}).
+ * 
+ * One cache is kept for each kernel, so that several kernels running into the same virtual machine do not share their routes. 
+ * The cache of a kernel launches a hidden agent which is informed by MadKit of every role request, role leaving, group leaving 
+ * and agent termination, including those injected by the network agent from the distant kernels. An entry is reloaded from MadKit 
+ * after one of these events concerning its role. Since MadKit does not report the connection and the disconnection of 
+ * kernels, an entry is also reloaded when it is older than the refresh period (see {@link #setRefreshPeriod(long)}). 
+ * Until the hidden agent is registered by MadKit, the entries are not used. The hidden agent belongs to the local community 
+ * of MadKit, and is removed with the cache when the kernel stops.
+ * 
+ * of MadKit. The cache is removed when the kernel stops, i.e. when the MadKit kernel agent terminates.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#getAgentWithRole(AbstractGroup, String)
+ * @see AbstractAgent#getDistantAgentWithRole(AbstractGroup, String, KernelAddress)
+ */
+public final class DistributedRoutingCache
+{
+    private static final int m_max_cached_groups=1024;
+    private static final long m_probe_period=10000000l;
+    private static final String m_observer_community=LocalCommunity.NAME;
+    private static final String m_observer_group="~~MKGE routing";
+    private static final String m_observer_role="observer";
+    private static final String m_probe_role="probe";
+    private static final Map<KernelAddress, DistributedRoutingCache> m_caches=new HashMap<KernelAddress, DistributedRoutingCache>();
+    
+    private final KernelAddress m_kernel_address;
+    //the entries are shared by the abstract groups having the same structure (see AbstractGroup.getStructuralKey())
+    private final LinkedHashMap<Object, HashMap<String, Entry>> m_entries=new LinkedHashMap<Object, HashMap<String, Entry>>(16, 0.75f, true) {
+	private static final long serialVersionUID = 4410297402863916236L;
+
+	@Override protected boolean removeEldestEntry(Map.Entry<Object, HashMap<String, Entry>> _eldest)
+	{
+	    return size()>m_max_cached_groups;
+	}
+    };
+    private final HashMap<String, long[]> m_role_stamps=new HashMap<String, long[]>();
+    private long m_global_stamp=0;
+    private OrganizationObserver m_observer=null;
+    private volatile boolean m_observer_ready=false;
+    private long m_last_probe=0;
+    private volatile long m_refresh_period=1000000000l;
+    private final AtomicLong m_hits=new AtomicLong(0);
+    private final AtomicLong m_misses=new AtomicLong(0);
+    private final AtomicLong m_events=new AtomicLong(0);
+    
+    private DistributedRoutingCache(KernelAddress ka)
+    {
+	m_kernel_address=ka;
+    }
+    
+    /**
+     * Returns the routing cache of the given kernel.
+     * @param ka the kernel address
+     * @return the routing cache of the given kernel
+     */
+    public static DistributedRoutingCache getCache(KernelAddress ka)
+    {
+	synchronized(m_caches)
+	{
+	    DistributedRoutingCache c=m_caches.get(ka);
+	    if (c==null)
+	    {
+		c=new DistributedRoutingCache(ka);
+		m_caches.put(ka, c);
+	    }
+	    return c;
+	}
+    }
+    
+    /**
+     * Returns the cache entry corresponding to the given abstract group and the given role. 
+     * If the observer of the organization of the kernel has not been launched yet, it is launched by the given agent.
+     * 
+     * @param _agent the agent which is looking for a route
+     * @param _group the abstract group
+     * @param _groups the represented groups of the abstract group
+     * @param _role the role name
+     * @return the cache entry, or null if no represented group is distributed, if the role is not indexed, 
+     * or if the observer of the organization is not ready
+     */
+    public Entry getEntry(madkit.kernel.AbstractAgent _agent, AbstractGroup _group, Group[] _groups, String _role)
+    {
+	if (_group==null || !Group.isIndexedRole(_role) || !isDistributed(_groups))
+	    return null;
+	if (!m_observer_ready && !startObserver(_agent))
+	    return null;
+	synchronized(m_entries)
+	{
+	    Object key=_group.getStructuralKey();
+	    HashMap<String, Entry> roles=m_entries.get(key);
+	    if (roles==null)
+	    {
+		roles=new HashMap<String, Entry>();
+		m_entries.put(key, roles);
+	    }
+	    Entry e=roles.get(_role);
+	    if (e==null)
+	    {
+		e=new Entry(_role);
+		roles.put(_role, e);
+	    }
+	    return e;
+	}
+    }
+    
+    private static boolean isDistributed(Group[] _groups)
+    {
+	for (Group g : _groups)
+	{
+	    if (g.isMadKitDistributed())
+		return true;
+	}
+	return false;
+    }
+    
+    /**
+     * Launches the observer if needed, and tells if it is informed by MadKit of the organization changes.
+     */
+    private boolean startObserver(madkit.kernel.AbstractAgent _agent)
+    {
+	OrganizationObserver o;
+	boolean launch=false;
+	boolean probe=false;
+	synchronized(this)
+	{
+	    if (m_observer==null)
+	    {
+		m_observer=new OrganizationObserver(this);
+		launch=true;
+	    }
+	    o=m_observer;
+	    //the hook requests are asynchronously handled by the MadKit kernel. The observer is ready when it is informed of a role request, 
+	    //so if no role is requested into the kernel, a role is requested by the observer, once per probe period.
+	    long now=System.nanoTime();
+	    if (!launch && !m_observer_ready && now-m_last_probe>=m_probe_period)
+	    {
+		m_last_probe=now;
+		probe=true;
+	    }
+	}
+	if (launch)
+	{
+	    KernelObserver.observe(_agent);
+	    KernelObserver.launchHiddenAgent(_agent, o);
+	    synchronized(this)
+	    {
+		m_last_probe=System.nanoTime();
+	    }
+	}
+	if (probe)
+	    o.probe();
+	return m_observer_ready;
+    }
+    
+    /**
+     * Removes the cache of the given kernel, when it stops.
+     * @param ka the kernel address
+     */
+    static void removeCache(KernelAddress ka)
+    {
+	DistributedRoutingCache c;
+	synchronized(m_caches)
+	{
+	    c=m_caches.remove(ka);
+	}
+	if (c!=null)
+	    c.kernelEnded();
+    }
+    
+    private void kernelEnded()
+    {
+	m_observer_ready=false;
+	synchronized(m_entries)
+	{
+	    m_entries.clear();
+	}
+    }
+    
+    /**
+     * Returns the stamp of the given role, which changes each time the agents handling this role could have changed.
+     */
+    private long getStamp(String _role)
+    {
+	long s=Group.getRoleStamp(_role, m_kernel_address);
+	synchronized(m_role_stamps)
+	{
+	    long[] rs=m_role_stamps.get(_role);
+	    return s+m_global_stamp+(rs==null?0:rs[0]);
+	}
+    }
+    
+    void organizationChanged(HookMessage _event)
+    {
+	m_events.incrementAndGet();
+	if (_event instanceof OrganizationEvent)
+	{
+	    //the hook of the role requests is the last installed hook
+	    if (_event.getContent()==AgentActionEvent.REQUEST_ROLE)
+		m_observer_ready=true;
+	    AgentAddress aa=((OrganizationEvent)_event).getSourceAgent();
+	    String role=aa==null?null:aa.getRole();
+	    if (aa!=null && m_observer_group.equals(aa.getGroup()) && m_observer_community.equals(aa.getCommunity()))
+		return;
+	    if (_event.getContent()!=AgentActionEvent.LEAVE_GROUP && role!=null)
+	    {
+		synchronized(m_role_stamps)
+		{
+		    long[] rs=m_role_stamps.get(role);
+		    if (rs==null)
+			m_role_stamps.put(role, new long[]{1});
+		    else
+			++rs[0];
+		}
+		return;
+	    }
+	}
+	//the roles left by the agent are not given
+	synchronized(m_role_stamps)
+	{
+	    ++m_global_stamp;
+	}
+    }
+    
+    /**
+     * Sets the maximum age of an entry, after which it is reloaded from MadKit. 
+     * This period bounds the time needed to take into account the connection or the disconnection of a distant kernel. 
+     * @param _millis the refresh period in milliseconds
+     */
+    public void setRefreshPeriod(long _millis)
+    {
+	if (_millis<0)
+	    throw new IllegalArgumentException("The refresh period ("+_millis+") must be positive or null !");
+	m_refresh_period=_millis*1000000l;
+    }
+    
+    /**
+     * Returns the maximum age of an entry, after which it is reloaded from MadKit.
+     * @return the refresh period in milliseconds
+     */
+    public long getRefreshPeriod()
+    {
+	return m_refresh_period/1000000l;
+    }
+    
+    /**
+     * Returns the number of lookups which have been served without querying MadKit.
+     * @return the number of cache hits
+     */
+    public long getHitCount()
+    {
+	return m_hits.get();
+    }
+    
+    /**
+     * Returns the number of lookups which have reloaded their entry from MadKit.
+     * @return the number of cache misses
+     */
+    public long getMissCount()
+    {
+	return m_misses.get();
+    }
+    
+    /**
+     * Returns the proportion of lookups which have been served without querying MadKit.
+     * @return the hit rate, between 0 and 1, or 0 if no lookup has been done
+     */
+    public double getHitRate()
+    {
+	long h=m_hits.get();
+	long t=h+m_misses.get();
+	return t==0?0.0:((double)h)/((double)t);
+    }
+    
+    /**
+     * Returns the number of organization events received from MadKit.
+     * @return the number of organization events
+     */
+    public long getEventCount()
+    {
+	return m_events.get();
+    }
+    
+    /**
+     * Resets the hit, miss and event counters.
+     */
+    public void resetStatistics()
+    {
+	m_hits.set(0);
+	m_misses.set(0);
+	m_events.set(0);
+    }
+    
+    /**
+     * Tells if the observer of the organization is informed by MadKit of the organization changes, i.e. if the entries can be used.
+     * @return true if the cache is used
+     */
+    public boolean isReady()
+    {
+	return m_observer_ready;
+    }
+    
+    @Override public String toString()
+    {
+	return "DistributedRoutingCache[kernel="+m_kernel_address+", hits="+getHitCount()+", misses="+getMissCount()+", events="+getEventCount()+"]";
+    }
+    
+    /**
+     * The local and the distant agents handling one role into the represented groups of one abstract group.
+     */
+    public final class Entry
+    {
+	private final String m_role;
+	private Group[] m_groups=null;
+	private long m_stamp=-1;
+	private long m_update_time=0;
+	private List<AgentAddress> m_local=Collections.emptyList();
+	private List<AgentAddress> m_distant=Collections.emptyList();
+	private final HashMap<KernelAddress, List<AgentAddress>> m_distant_by_kernel=new HashMap<KernelAddress, List<AgentAddress>>();
+	
+	Entry(String _role)
+	{
+	    m_role=_role;
+	}
+	
+	private void validate(Group[] _groups)
+	{
+	    long stamp=getStamp(m_role);
+	    if (m_stamp==stamp && AgentsWithRoleCache.Entry.sameGroups(m_groups, _groups) && System.nanoTime()-m_update_time<m_refresh_period)
+	    {
+		m_hits.incrementAndGet();
+		return;
+	    }
+	    m_misses.incrementAndGet();
+	    HashSet<AgentAddress> agents=new HashSet<AgentAddress>();
+	    for (Group g : _groups)
+	    {
+		List<AgentAddress> l=m_observer.getAgentsWithRole(g.getCommunity(), g.getPath(), m_role, true);
+		if (l!=null)
+		    agents.addAll(l);
+	    }
+	    ArrayList<AgentAddress> local=new ArrayList<AgentAddress>(agents.size());
+	    ArrayList<AgentAddress> distant=new ArrayList<AgentAddress>();
+	    for (AgentAddress aa : agents)
+	    {
+		if (!aa.isFrom(m_kernel_address))
+		    distant.add(aa);
+		//an ending agent has already released its MadKitGroupExtension references, but could not have left its roles into MadKit
+		else if (!AgentsWithRoleCache.isEnding(aa))
+		    local.add(aa);
+	    }
+	    m_local=Collections.unmodifiableList(local);
+	    m_distant=Collections.unmodifiableList(distant);
+	    m_distant_by_kernel.clear();
+	    m_groups=_groups;
+	    m_stamp=stamp;
+	    m_update_time=System.nanoTime();
+	}
+	
+	/**
+	 * Returns the local agents of this entry.
+	 * @param _groups the current represented groups of the abstract group
+	 * @return an immutable list of the local agents handling the role of this entry, the caller included
+	 */
+	public synchronized List<AgentAddress> getLocalAgents(Group[] _groups)
+	{
+	    validate(_groups);
+	    return m_local;
+	}
+	
+	/**
+	 * Returns the distant agents of this entry.
+	 * @param _groups the current represented groups of the abstract group
+	 * @return an immutable list of the distant agents handling the role of this entry
+	 */
+	public synchronized List<AgentAddress> getDistantAgents(Group[] _groups)
+	{
+	    validate(_groups);
+	    return m_distant;
+	}
+	
+	/**
+	 * Returns an agent of this entry chosen randomly, the caller excluded.
+	 * @param _caller the agent which is looking for a route
+	 * @param _groups the current represented groups of the abstract group
+	 * @return a local or distant agent handling the role of this entry, or null if no agent has been found
+	 */
+	public synchronized AgentAddress getAgentWithRole(madkit.kernel.AbstractAgent _caller, Group[] _groups)
+	{
+	    validate(_groups);
+	    int nl=m_local.size();
+	    int n=nl+m_distant.size();
+	    if (n==0)
+		return null;
+	    ThreadLocalRandom random=ThreadLocalRandom.current();
+	    for (int i=0;i<4;i++)
+	    {
+		int r=random.nextInt(n);
+		if (r>=nl)
+		    return m_distant.get(r-nl);
+		AgentAddress aa=m_local.get(r);
+		if (!isCaller(aa, _caller))
+		    return aa;
+	    }
+	    //the caller handles most of the roles
+	    ArrayList<AgentAddress> others=new ArrayList<AgentAddress>(n);
+	    for (AgentAddress aa : m_local)
+	    {
+		if (!isCaller(aa, _caller))
+		    others.add(aa);
+	    }
+	    others.addAll(m_distant);
+	    if (others.size()==0)
+		return null;
+	    return others.get(random.nextInt(others.size()));
+	}
+	
+	/**
+	 * Returns an agent of this entry located on the given kernel, chosen randomly, the caller excluded.
+	 * @param _caller the agent which is looking for a route
+	 * @param _groups the current represented groups of the abstract group
+	 * @param _from the kernel address on which the agent is running
+	 * @return an agent handling the role of this entry on the given kernel, or null if no agent has been found
+	 */
+	public synchronized AgentAddress getDistantAgentWithRole(madkit.kernel.AbstractAgent _caller, Group[] _groups, KernelAddress _from)
+	{
+	    validate(_groups);
+	    if (m_kernel_address.equals(_from))
+	    {
+		for (AgentAddress aa : m_local)
+		{
+		    if (!isCaller(aa, _caller))
+			return aa;
+		}
+		return null;
+	    }
+	    List<AgentAddress> l=m_distant_by_kernel.get(_from);
+	    if (l==null)
+	    {
+		ArrayList<AgentAddress> al=new ArrayList<AgentAddress>();
+		for (AgentAddress aa : m_distant)
+		{
+		    if (aa.isFrom(_from))
+			al.add(aa);
+		}
+		l=al;
+		m_distant_by_kernel.put(_from, l);
+	    }
+	    if (l.size()==0)
+		return null;
+	    return l.get(ThreadLocalRandom.current().nextInt(l.size()));
+	}
+	
+	private boolean isCaller(AgentAddress aa, madkit.kernel.AbstractAgent _caller)
+	{
+	    return aa.hashCode()==_caller.hashCode();
+	}
+    }
+    
+    /**
+     * The hidden agent informed by MadKit of the organization changes.
+     */
+    private static final class OrganizationObserver extends madkit.kernel.AbstractAgent
+    {
+	private final DistributedRoutingCache m_cache;
+	
+	OrganizationObserver(DistributedRoutingCache _cache)
+	{
+	    m_cache=_cache;
+	}
+	
+	@Override protected void activate()
+	{
+	    createGroup(m_observer_community, m_observer_group);
+	    requestRole(m_observer_community, m_observer_group, m_observer_role);
+	    //the hook requests are handled in order by the MadKit kernel : the hook of the role requests is installed at last
+	    for (AgentActionEvent e : new AgentActionEvent[]{AgentActionEvent.AGENT_TERMINATED, AgentActionEvent.LEAVE_GROUP, AgentActionEvent.LEAVE_ROLE, AgentActionEvent.REQUEST_ROLE})
+		sendMessage(LocalCommunity.NAME, LocalCommunity.Groups.SYSTEM, Organization.GROUP_MANAGER_ROLE, new HookMessage(e));
+	}
+	
+	void probe()
+	{
+	    if (requestRole(m_observer_community, m_observer_group, m_probe_role)==ReturnCode.SUCCESS)
+		leaveRole(m_observer_community, m_observer_group, m_probe_role);
+	}
+	
+	@Override public void receiveMessage(Message _m)
+	{
+	    //the hook events are received into the thread which changes the organization. They are never stored.
+	    if (_m instanceof OrganizationEvent || _m instanceof AgentLifeEvent)
+		m_cache.organizationChanged((HookMessage)_m);
+	}
+    }
+}
@@ -24,10 +24,18 @@ package madkitgroupextension.kernel;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import madkit.kernel.AgentAddress;
@@ -40,6 +48,11 @@ import madkit.kernel.KernelAddress;
  * These last groups can have also subgroups, etc. Such groups are represented by the class {@link Group}.
  * One group can represent itself, but also its subgroups already handled by MadKit.
  * 
+ * The groups returned by MadKitGroupExtension (i.e. by {@link #getGroup(String, String...)}, {@link #getGroupFromPath(String, String)}, 
+ * {@link #getSubGroup(String...)} or {@link #getParent()}) are canonical instances : there is only one such instance per group, 
+ * and per representation of its subgroups, so that two canonical groups are equal only if they are the same instance. 
+ * A group built with a constructor can be replaced by its canonical instance with {@link #intern()}.
+ * 
  * @author Jason Mahdjoub
  * @version 1.0
  * @since MadKitGroupExtension 1.0
@@ -61,6 +74,7 @@ public final class Group extends AbstractGroup
     private transient Group[] m_parent_groups=null;
     
     private transient Group[] m_represented_groups=null;
+    private transient int m_hash_code;
     
     
     /**
@@ -264,6 +278,7 @@ public final class Group extends AbstractGroup
 	if (_groups.length==1 && _groups[0].contains("/"))
 	    _groups=getGroupsStringFromPath(_groups[0]);
 	m_group=getRoot(_community).getGroup(_isDistributed, _theIdentifier, _isReserved, _groups);
+	m_hash_code=m_group.getGroupPath().hashCode();
 	    
 	m_use_sub_groups=_useSubGroups;
 	if (!m_use_sub_groups)
@@ -285,6 +300,7 @@ public final class Group extends AbstractGroup
     Group(GroupTree _g, boolean _use_sub_groups, boolean increase)
     {
 	m_group=_g;
+	m_hash_code=m_group.getGroupPath().hashCode();
 	m_use_sub_groups=_use_sub_groups;
 	if (increase)
 	    m_group.incrementReferences();
@@ -302,7 +318,7 @@ public final class Group extends AbstractGroup
     
     @Override public int hashCode()
     {
-	return getPath().hashCode();
+	return m_hash_code;
     }
 
     @Override public Group clone()
@@ -327,6 +343,7 @@ public final class Group extends AbstractGroup
 	this.m_sub_groups_tree=null;
 	
 	m_group=getRoot(com).getGroup(dist, null, isReserved, getGroupsStringFromPath(path));
+	m_hash_code=m_group.getGroupPath().hashCode();
 	    
 	if (!m_use_sub_groups)
 	{
@@ -350,6 +367,27 @@ public final class Group extends AbstractGroup
 	oos.writeBoolean(isReserved());
    }    
     
+    @SuppressWarnings("unused")
+    private Object readResolve() throws ObjectStreamException
+    {
+	return intern();
+    }
+    
+    /**
+     * Returns the canonical instance of this group. There is only one canonical instance per group, and per representation of its subgroups. 
+     * So the returned instance is equal to this group, and two canonical groups are equal only if they are the same instance. 
+     * Contrary to the groups built with a constructor, which are each released separately by the garbage collector, 
+     * a canonical instance is shared by all its users.
+     * 
+     * @return the canonical instance equal to this group
+     * @since MadKitGroupExtension 1.6.3
+     * @see #getGroup(boolean, String, String...)
+     */
+    public Group intern()
+    {
+	return m_group.getCanonicalGroup(m_use_sub_groups, false);
+    }
+    
     public boolean isReserved()
     {
 	return this.m_group.isReserved();
@@ -368,7 +406,7 @@ public final class Group extends AbstractGroup
 	else if (p.isReserved())
 	    return null;
 	else
-	    return new Group(m_group.getParent());
+	    return p.getCanonicalGroup(false, false);
     }
     
     /**
@@ -384,7 +422,7 @@ public final class Group extends AbstractGroup
 	else if (p.isReserved())
 	    return null;
 	else
-	    return new Group(m_group.getParent(), true, true);
+	    return p.getCanonicalGroup(true, false);
     }
     
     /**
@@ -533,7 +571,11 @@ public final class Group extends AbstractGroup
      */
     public Group getSubGroup(boolean _isReserved, String ..._groups)
     {
-	return new Group(m_group.getGroup(m_group.isMadKitDistributed(), m_group.getMadKitIdentifier(), _isReserved, _groups), false, false);
+	GroupTree gt=m_group.getGroup(m_group.isMadKitDistributed(), m_group.getMadKitIdentifier(), _isReserved, _groups);
+	if (_isReserved)
+	    return new Group(gt, false, false);
+	else
+	    return gt.getCanonicalGroup(false, true);
     }
     /**
      * This function works in the same way that the function {@link #getSubGroup(String...)}. 
@@ -545,7 +587,7 @@ public final class Group extends AbstractGroup
      */
     public Group getSubGroupWithItsSubGroups(String ..._group)
     {
-	return new Group(m_group.getGroup(m_group.isMadKitDistributed(), m_group.getMadKitIdentifier(), false, _group), true, false);
+	return m_group.getGroup(m_group.isMadKitDistributed(), m_group.getMadKitIdentifier(), false, _group).getCanonicalGroup(true, true);
     }
     
     /**
@@ -559,7 +601,7 @@ public final class Group extends AbstractGroup
     {
 	if (m_use_sub_groups)
 	{
-	    return new Group(m_group, false, true);
+	    return m_group.getCanonicalGroup(false, false);
 	}
 	else 
 	    return this;
@@ -576,7 +618,7 @@ public final class Group extends AbstractGroup
     {
 	if (!m_use_sub_groups)
 	{
-	    return new Group(m_group, true, true);
+	    return m_group.getCanonicalGroup(true, false);
 	}
 	else 
 	    return this;
@@ -598,7 +640,7 @@ public final class Group extends AbstractGroup
 	    for (int i=0;i<sub_groups.length;i++)
 	    {
 		if (!sub_groups[i].isReserved())
-		    res.add(new Group(sub_groups[i], false, true));
+		    res.add(sub_groups[i].getCanonicalGroup(false, false));
 	    }
 	    
 	    synchronized(this)
@@ -628,7 +670,7 @@ public final class Group extends AbstractGroup
 	    for (int i=0;i<parent_groups.length;i++)
 	    {
 		if (!parent_groups[i].isReserved())
-		    res.add(new Group(parent_groups[i], false, true));
+		    res.add(parent_groups[i].getCanonicalGroup(false, false));
 	    }
 	    
 	    synchronized(this)
@@ -680,30 +722,78 @@ public final class Group extends AbstractGroup
 	return m_group.isMadKitCreated(ka);
     }
 
-    protected void incrementMadKitReferences(KernelAddress ka)
+    protected void incrementMadKitReferences(String role, KernelAddress ka)
     {
-	m_group.incrementMadKitReferences(ka);
+	m_group.incrementMadKitReferences(role, ka);
     }
 
-    protected void incrementMadKitReferences(int number, KernelAddress ka)
+    protected void incrementMadKitReferences(List<String> roles, KernelAddress ka)
     {
-	if (number<1)
+	if (roles.size()<1)
 	    throw new IllegalAccessError();
-	m_group.incrementMadKitReferences(number, ka);
+	m_group.incrementMadKitReferences(roles, ka);
     }
 
-    protected boolean decrementMadKitReferences(KernelAddress ka)
+    protected void incrementMadKitReferences(List<String> roles, KernelAddress ka, int _agents_number)
     {
-	m_group.decrementMadKitReferences(ka);
+	if (roles.size()<1 || _agents_number<1)
+	    throw new IllegalAccessError();
+	m_group.incrementMadKitReferences(roles, ka, _agents_number);
+    }
+
+    protected boolean decrementMadKitReferences(String role, KernelAddress ka)
+    {
+	m_group.decrementMadKitReferences(role, ka);
 	return m_group.isMadKitCreated(ka);
     }
 
-    protected boolean decrementMadKitReferences(int number, KernelAddress ka)
+    protected boolean decrementMadKitReferences(List<String> roles, KernelAddress ka)
     {
-	m_group.decrementMadKitReferences(number, ka);
+	m_group.decrementMadKitReferences(roles, ka);
 	return m_group.isMadKitCreated(ka);
     }
 
+    void decrementReferences(Map<String, int[]> roles, Map<String, int[]> auto_requested_roles, KernelAddress ka)
+    {
+	m_group.decrementReferences(roles, auto_requested_roles, ka);
+    }
+
+    void incrementRoleReferences(String role, KernelAddress ka)
+    {
+	m_group.incrementRoleReferences(role, ka);
+    }
+
+    void decrementRoleReferences(String role, KernelAddress ka)
+    {
+	m_group.decrementRoleReferences(role, ka);
+    }
+
+    /**
+     * Tells if at least one agent handles the given role into this group. If this group represents also its subgroups, only this group is considered.
+     * 
+     * @param role the role name
+     * @param ka the used kernel address
+     * @return true if at least one agent handles the given role into this group.
+     * @since MadKitGroupExtension 1.6.3
+     */
+    public boolean isHandledRole(String role, KernelAddress ka)
+    {
+	return m_group.isHandledRole(role, ka);
+    }
+    
+    /**
+     * Returns a stamp which changes each time an agent requests or leaves a role into this group, excepted the roles 
+     * that are not indexed (see {@link #isIndexedRole(String)}). If this group represents also its subgroups, only this group is considered. 
+     * A stamp is never given twice, even after that the group has been removed from MadKit and created again. 
+     * 
+     * @param ka the used kernel address
+     * @return the current stamp of the roles of this group, or 0 if this group is not created into MadKit
+     */
+    long getRolesStamp(KernelAddress ka)
+    {
+	return m_group.getRolesStamp(ka);
+    }
+
     /**
      * This function returns the represented groups by the current instance.
      * These groups are for the class Group a list of subgroups corresponding to this instance. 
@@ -722,6 +812,8 @@ public final class Group extends AbstractGroup
     {
 	if (m_use_sub_groups)
 	{
+	    //invalidates the represented groups if the subgroups have changed since the last call
+	    getSubGroups(ka);
 	    synchronized(this)
 	    {
 		
@@ -836,7 +928,41 @@ public final class Group extends AbstractGroup
      */
     public static Group getGroupFromPath(String _community, String _path)
     {
-	return new Group(_community, Group.getGroupsStringFromPath(_path));
+	return getGroup(false, _community, Group.getGroupsStringFromPath(_path));
+    }
+    
+    /**
+     * Returns the canonical instance of a group within a community and a path of groups (see {@link #intern()}).
+     * This function has the same effect than <code>getGroup(false, _community, _groups)</code>.
+     * 
+     * @param _community the community
+     * @param _groups the path of groups
+     * @return the canonical instance of the desired group
+     * @throws IllegalArgumentException if a group name is empty, or if a group name contains a ';' character.
+     * @since MadKitGroupExtension 1.6.3
+     * @see #Group(String, String...)
+     */
+    public static Group getGroup(String _community, String ..._groups)
+    {
+	return getGroup(false, _community, _groups);
+    }
+    
+    /**
+     * Returns the canonical instance of a group within a community and a path of groups (see {@link #intern()}). 
+     * The returned group is equal to <code>new Group(_useSubGroups, _community, _groups)</code>, but the same instance 
+     * is returned by each call, as long as it is used.
+     * 
+     * @param _useSubGroups is set to true, the returned group will represent itself, but also its subgroups.
+     * @param _community the community
+     * @param _groups the path of groups
+     * @return the canonical instance of the desired group
+     * @throws IllegalArgumentException if a group name is empty, or if a group name contains a ';' character.
+     * @since MadKitGroupExtension 1.6.3
+     * @see #Group(boolean, String, String...)
+     */
+    public static Group getGroup(boolean _useSubGroups, String _community, String ..._groups)
+    {
+	return getRoot(_community).getGroup(false, null, false, _groups).getCanonicalGroup(_useSubGroups, true);
     }
     
     /**
@@ -871,15 +997,131 @@ public final class Group extends AbstractGroup
 	}
     }
     
+    /*
+     * The notification state of a thread : the depth of the nested coalesced changements, if the thread is notifying the listeners, 
+     * and the changements delayed by the coalescing or by the current notification, i.e. for all the listeners or only for the 
+     * listeners of some roles.
+     */
+    private static final class NotificationState
+    {
+	int m_coalesced_depth=0;
+	boolean m_notifying=false;
+	boolean m_all_pending=false;
+	HashSet<String> m_pending_roles=null;
+	
+	void addPending(Collection<String> _roles)
+	{
+	    if (_roles==null)
+		m_all_pending=true;
+	    else if (!m_all_pending)
+	    {
+		if (m_pending_roles==null)
+		    m_pending_roles=new HashSet<String>();
+		m_pending_roles.addAll(_roles);
+	    }
+	}
+	
+	boolean hasPending()
+	{
+	    return m_all_pending || m_pending_roles!=null;
+	}
+	
+	/*
+	 * Returns and clears the delayed changements : null for all the listeners, or the roles of the concerned listeners.
+	 */
+	Collection<String> pollPending()
+	{
+	    Collection<String> res=m_all_pending?null:m_pending_roles;
+	    m_all_pending=false;
+	    m_pending_roles=null;
+	    return res;
+	}
+    }
+    static private final ThreadLocal<NotificationState> m_notification_states=new ThreadLocal<NotificationState>() {
+	@Override protected NotificationState initialValue()
+	{
+	    return new NotificationState();
+	}
+    };
+    
+    /**
+     * Delays the notifications of the changements done by the current thread until the call of {@link #endCoalescedChangements()}, 
+     * so that several changements are notified once. Calls can be nested.
+     */
+    static void beginCoalescedChangements()
+    {
+	++m_notification_states.get().m_coalesced_depth;
+    }
+    
+    /**
+     * Ends the coalesced changements started with {@link #beginCoalescedChangements()}, and notifies them once if needed.
+     */
+    static void endCoalescedChangements()
+    {
+	NotificationState ns=m_notification_states.get();
+	//when the current thread is notifying, the delayed changements are notified by the current notification
+	if (--ns.m_coalesced_depth==0 && !ns.m_notifying && ns.hasPending())
+	    notifyChangements(ns.pollPending());
+    }
+    
     static void notifyChangements()
     {
-	synchronized(m_objects_to_notify)
+	notifyChangements((Collection<String>)null);
+    }
+    
+    /*
+     * Notifies only the activators and the probes which use the given role, i.e. when the role appears into a group or disappears from a group.
+     */
+    static void notifyChangements(String _role)
+    {
+	notifyChangements(Collections.singleton(_role));
+    }
+    
+    /*
+     * Notifies all the listeners if the given roles are null, or only the activators and the probes which use one of the given roles. 
+     */
+    static void notifyChangements(Collection<String> _roles)
+    {
+	NotificationState ns=m_notification_states.get();
+	//a changement done during the notification by the same thread (i.e. an automatically requested role) is notified after the current pass, and not recursively
+	if (ns.m_coalesced_depth>0 || ns.m_notifying)
+	{
+	    ns.addPending(_roles);
+	    return;
+	}
+	ns.m_notifying=true;
+	try
 	{
-	    for (GroupChangementNotifier gcn : m_objects_to_notify)
+	    Collection<String> roles=_roles;
+	    while (true)
 	    {
-		gcn.potentialChangementInGroups();
+		synchronized(m_objects_to_notify)
+		{
+		    for (GroupChangementNotifier gcn : m_objects_to_notify)
+		    {
+			if (roles==null || isListening(gcn, roles))
+			    gcn.potentialChangementInGroups();
+		    }
+		}
+		if (!ns.hasPending())
+		    break;
+		roles=ns.pollPending();
 	    }
 	}
+	finally
+	{
+	    ns.m_notifying=false;
+	}
+    }
+    
+    private static boolean isListening(GroupChangementNotifier _gcn, Collection<String> _roles)
+    {
+	if (_gcn instanceof Activator)
+	    return _roles.contains(((Activator<?>)_gcn).getRole());
+	if (_gcn instanceof Probe)
+	    return _roles.contains(((Probe<?>)_gcn).getRole());
+	//the other listeners (i.e. the auto-request engine) only depend on the represented groups
+	return false;
     }
     
     final static class Universe extends AbstractGroup
@@ -923,6 +1165,16 @@ public final class Group extends AbstractGroup
 	    return res;
 	}
 
+	@Override
+	public Group[] getRepresentedGroups(KernelAddress _ka, String _role)
+	{
+	    if (_ka==null)
+		return new Group[0];
+	    if (!isIndexedRole(_role))
+		return getRepresentedGroups(_ka);
+	    return getGroupsHandlingRole(_role, _ka);
+	}
+
 	@Override
 	public AbstractGroup clone()
 	{
@@ -966,6 +1218,135 @@ public final class Group extends AbstractGroup
 	}
     }
     
+    private static final Group[] m_no_groups=new Group[0];
+    private static final Map<KernelAddress, HashMap<String, RoleIndex>> m_role_index=new HashMap<KernelAddress, HashMap<String, RoleIndex>>();
+    
+    /**
+     * The groups into which one role is handled, for one kernel address.
+     */
+    private static final class RoleIndex
+    {
+	public final LinkedHashMap<GroupTree, Group> m_groups=new LinkedHashMap<GroupTree, Group>();
+	public Group[] m_groups_duplicated=null;
+    }
+    
+    /**
+     * Tells if the given role is referenced into the role index. 
+     * The roles given automatically by MadKit (i.e. the group manager role and the candidate role) are not referenced.
+     * 
+     * @param role the role name
+     * @return true if the given role is referenced into the role index.
+     */
+    static boolean isIndexedRole(String role)
+    {
+	return role!=null && !role.equals(madkit.agr.Organization.GROUP_MANAGER_ROLE) && !role.equals(madkit.agr.Organization.GROUP_CANDIDATE_ROLE);
+    }
+    
+    private static void addToRoleIndex(GroupTree _group, String role, KernelAddress ka)
+    {
+	synchronized(m_role_index)
+	{
+	    HashMap<String, RoleIndex> roles=m_role_index.get(ka);
+	    if (roles==null)
+	    {
+		roles=new HashMap<String, RoleIndex>();
+		m_role_index.put(ka, roles);
+	    }
+	    RoleIndex ri=roles.get(role);
+	    if (ri==null)
+	    {
+		ri=new RoleIndex();
+		roles.put(role, ri);
+	    }
+	    ri.m_groups.put(_group, _group.getCanonicalGroup(false, false));
+	    ri.m_groups_duplicated=null;
+	}
+    }
+    
+    private static void removeFromRoleIndex(GroupTree _group, String role, KernelAddress ka)
+    {
+	synchronized(m_role_index)
+	{
+	    HashMap<String, RoleIndex> roles=m_role_index.get(ka);
+	    RoleIndex ri=roles==null?null:roles.get(role);
+	    if (ri==null || ri.m_groups.remove(_group)==null)
+		throw new IllegalAccessError("Problem of data integrity ! The group "+_group.m_path+" should be referenced into the index of the role "+role+". This is a MaKitGroupExtension bug !");
+	    if (ri.m_groups.isEmpty())
+		roles.remove(role);
+	    else
+		ri.m_groups_duplicated=null;
+	}
+    }
+    
+    private static final Map<KernelAddress, HashMap<String, long[]>> m_role_stamps=new HashMap<KernelAddress, HashMap<String, long[]>>();
+    private static final AtomicLong m_roles_stamps=new AtomicLong(0);
+    
+    private static void touchRole(String role, KernelAddress ka)
+    {
+	synchronized(m_role_stamps)
+	{
+	    HashMap<String, long[]> stamps=m_role_stamps.get(ka);
+	    if (stamps==null)
+	    {
+		stamps=new HashMap<String, long[]>();
+		m_role_stamps.put(ka, stamps);
+	    }
+	    long[] stamp=stamps.get(role);
+	    if (stamp==null)
+		stamps.put(role, new long[]{1});
+	    else
+		++stamp[0];
+	}
+    }
+    
+    /**
+     * Returns a stamp which changes each time an agent requests or leaves the given role into a group which is not reserved.
+     * 
+     * @param role the role name, which must be indexed (see {@link #isIndexedRole(String)})
+     * @param ka the used kernel address
+     * @return the current stamp of the given role
+     */
+    static long getRoleStamp(String role, KernelAddress ka)
+    {
+	synchronized(m_role_stamps)
+	{
+	    HashMap<String, long[]> stamps=m_role_stamps.get(ka);
+	    if (stamps==null)
+		return 0;
+	    long[] stamp=stamps.get(role);
+	    if (stamp==null)
+		return 0;
+	    return stamp[0];
+	}
+    }
+    
+    /**
+     * Returns the groups into which at least one agent handles the given role, excepted those that are reserved.
+     * The returned array is the same instance until a group gains or looses the given role. 
+     * If the role is not indexed (see {@link #isIndexedRole(String)}), an empty array is always returned.
+     * 
+     * @param role the role name
+     * @param ka the used kernel address
+     * @return the groups into which at least one agent handles the given role
+     */
+    static Group[] getGroupsHandlingRole(String role, KernelAddress ka)
+    {
+	synchronized(m_role_index)
+	{
+	    HashMap<String, RoleIndex> roles=m_role_index.get(ka);
+	    RoleIndex ri=roles==null?null:roles.get(role);
+	    if (ri==null)
+		return m_no_groups;
+	    if (ri.m_groups_duplicated==null)
+	    {
+		Group[] res=new Group[ri.m_groups.size()];
+		ri.m_groups.values().toArray(res);
+		ri.m_groups_duplicated=res;
+	    }
+	    return ri.m_groups_duplicated;
+	}
+    }
+    
     static protected final ArrayList<GroupTree> m_groups_root=new ArrayList<GroupTree>();
     
     static protected GroupTree getRoot(String _community)
@@ -998,8 +1379,10 @@ public final class Group extends AbstractGroup
 	{
 	    public int m_madkit_references=0;
 	    public KernelAddress m_kernel=null;
+	    public final HashMap<String, int[]> m_roles=new HashMap<String, int[]>();
 	    public LinkedList<GroupTree> m_all_sub_groups=new LinkedList<GroupTree>();
 	    public final AtomicReference<GroupTree[]> m_all_sub_groups_duplicated=new AtomicReference<GroupTree[]>(new GroupTree[0]);
+	    public long m_roles_stamp=m_roles_stamps.incrementAndGet();
 	    
 	    public KernelReferences(KernelAddress ka)
 	    {
@@ -1035,6 +1418,8 @@ public final class Group extends AbstractGroup
 	private int m_references=0;
 	private HashMap<KernelAddress, KernelReferences> m_kernel_references=new HashMap<KernelAddress, KernelReferences>();
 	private boolean isReserved;
+	private WeakReference<Group> m_canonical_group=null;
+	private WeakReference<Group> m_canonical_group_with_sub_groups=null;
 	
 	//private final LinkedList<GroupTree> m_all_sub_groups=new LinkedList<GroupTree>();
 	//private GroupTree[] m_all_sub_groups_duplicated=new GroupTree[0];
@@ -1079,10 +1464,16 @@ public final class Group extends AbstractGroup
 	    m_identifier=_theIdentifier;
 	    isReserved=_isReserved;
 	}
+	/*
+	 * Returns the given subgroup, which is created if needed. One reference of the returned group is counted for the caller.
+	 */
 	public GroupTree getGroup(boolean _isDistributed, Gatekeeper _theIdentifier, boolean _isReserved, String ..._group)
 	{
 	    if (_group.length==0)
+	    {
+		incrementReferences();
 		return this;
+	    }
 	    if (_group.length==1 && _group[0].contains("/"))
 		    _group=getGroupsStringFromPath(_group[0]);
 
@@ -1124,7 +1515,10 @@ public final class Group extends AbstractGroup
 	    
 	    GroupTree res;
 	    if (i==_group.length-1)
+	    {
+		gt.incrementReferences();
 		res=gt;
+	    }
 	    else
 		res=gt.getGroup(_isDistributed, _theIdentifier, i+1, _isReserved, _group);
 	    
@@ -1170,7 +1564,7 @@ public final class Group extends AbstractGroup
 	{
 	    return m_parent_groups_duplicated.get();
 	}
-	public synchronized void incrementMadKitReferences(KernelAddress ka)
+	private KernelReferences getOrCreateKernelReferences(KernelAddress ka)
 	{
 	    if (Group.m_first_kernel==null)
 		Group.m_first_kernel=ka;
@@ -1182,37 +1576,121 @@ public final class Group extends AbstractGroup
 		kr=new KernelReferences(ka);
 		m_kernel_references.put(ka, kr);
 	    }
-		
+	    return kr;
+	}
+	private boolean incrementRole(KernelReferences kr, String role)
+	{
+	    return incrementRole(kr, role, 1);
+	}
+	private boolean incrementRole(KernelReferences kr, String role, int number)
+	{
+	    if (!isReserved && isIndexedRole(role))
+	    {
+		touchRole(role, kr.m_kernel);
+		kr.m_roles_stamp=m_roles_stamps.incrementAndGet();
+	    }
+	    int[] c=kr.m_roles.get(role);
+	    if (c==null)
+	    {
+		kr.m_roles.put(role, new int[]{number});
+		if (!isReserved && isIndexedRole(role))
+		{
+		    addToRoleIndex(this, role, kr.m_kernel);
+		    return true;
+		}
+		return false;
+	    }
+	    c[0]+=number;
+	    return false;
+	}
+	private static ArrayList<String> addChangedRole(ArrayList<String> roles, String role)
+	{
+	    if (roles==null)
+		roles=new ArrayList<String>();
+	    roles.add(role);
+	    return roles;
+	}
+	private boolean decrementRole(KernelReferences kr, String role)
+	{
+	    return decrementRole(kr, role, 1);
+	}
+	private boolean decrementRole(KernelReferences kr, String role, int number)
+	{
+	    int[] c=kr.m_roles.get(role);
+	    if (c==null || c[0]<number)
+		throw new IllegalAccessError("Problem of data integrity ! The role "+role+" should be handled into the group "+m_path+". This is a MaKitGroupExtension bug !");
+	    if (!isReserved && isIndexedRole(role))
+	    {
+		touchRole(role, kr.m_kernel);
+		kr.m_roles_stamp=m_roles_stamps.incrementAndGet();
+	    }
+	    c[0]-=number;
+	    if (c[0]==0)
+	    {
+		kr.m_roles.remove(role);
+		if (!isReserved && isIndexedRole(role))
+		{
+		    removeFromRoleIndex(this, role, kr.m_kernel);
+		    return true;
+		}
+	    }
+	    return false;
+	}
+	public synchronized void incrementMadKitReferences(String role, KernelAddress ka)
+	{
+	    KernelReferences kr=getOrCreateKernelReferences(ka);
 	    
+	    boolean role_added=incrementRole(kr, role);
 	    ++kr.m_madkit_references;
 	    if (kr.m_madkit_references==1)
 		activateGroup(ka);
+	    else if (role_added)
+		Group.notifyChangements(role);
 	}
-	public synchronized void incrementMadKitReferences(int number, KernelAddress ka)
+	public synchronized void incrementMadKitReferences(List<String> roles, KernelAddress ka)
 	{
-	    if (Group.m_first_kernel==null)
-		Group.m_first_kernel=ka;
-	    
-	    KernelReferences kr=m_kernel_references.get(ka);
+	    KernelReferences kr=getOrCreateKernelReferences(ka);
 	    
-	    if (kr==null)
+	    ArrayList<String> added_roles=null;
+	    for (String role : roles)
 	    {
-		kr=new KernelReferences(ka);
-		m_kernel_references.put(ka, kr);
+		if (incrementRole(kr, role))
+		    added_roles=addChangedRole(added_roles, role);
 	    }
-		
+	    kr.m_madkit_references+=roles.size();
+	    if (kr.m_madkit_references==roles.size())
+		activateGroup(ka);
+	    else if (added_roles!=null)
+		Group.notifyChangements(added_roles);
+	}
+	/*
+	 * References the given roles for several agents at once, i.e. for the agents launched into a bucket.
+	 */
+	public synchronized void incrementMadKitReferences(List<String> roles, KernelAddress ka, int agents_number)
+	{
+	    KernelReferences kr=getOrCreateKernelReferences(ka);
 	    
-	    kr.m_madkit_references+=number;
-	    if (kr.m_madkit_references==number)
+	    ArrayList<String> added_roles=null;
+	    for (String role : roles)
+	    {
+		if (incrementRole(kr, role, agents_number))
+		    added_roles=addChangedRole(added_roles, role);
+	    }
+	    int references=roles.size()*agents_number;
+	    kr.m_madkit_references+=references;
+	    if (kr.m_madkit_references==references)
 		activateGroup(ka);
+	    else if (added_roles!=null)
+		Group.notifyChangements(added_roles);
 	}
-	public synchronized void decrementMadKitReferences(KernelAddress ka)
+	public synchronized void decrementMadKitReferences(String role, KernelAddress ka)
 	{
 	    KernelReferences kr=m_kernel_references.get(ka);
 	    
 	    if (kr==null)
 		throw new IllegalAccessError("Problem of data integrity ! The KernelAddress should be stored on the GroupTree class. This is a MaKitGroupExtension bug !");
 	    
+	    boolean role_removed=decrementRole(kr, role);
 	    --kr.m_madkit_references;
 	    if (kr.m_madkit_references<0)
 		throw new IllegalAccessError("Problem of data integrity ! The madkit reference for this group shouldn't be lower than 0. This is a MaKitGroupExtension bug !");
@@ -1221,19 +1699,26 @@ public final class Group extends AbstractGroup
 		m_kernel_references.remove(kr);
 		deactivateGroup(ka);
 	    }
+	    else if (role_removed)
+		Group.notifyChangements(role);
 	}
-	public synchronized void decrementMadKitReferences(int number, KernelAddress ka)
+	public synchronized void decrementMadKitReferences(List<String> roles, KernelAddress ka)
 	{
-	    if (number<=0)
-		throw new IllegalArgumentException("the argument number ("+number+") should be greater than zero. This is a MaKitGroupExtension bug !");
+	    if (roles.size()==0)
+		throw new IllegalArgumentException("the number of roles should be greater than zero. This is a MaKitGroupExtension bug !");
 
 	    KernelReferences kr=m_kernel_references.get(ka);
 	    
 	    if (kr==null)
 		throw new IllegalAccessError("Problem of data integrity ! The KernelAddress should be stored on the GroupTree class. This is a MaKitGroupExtension bug !");
 	    
-	    
-	    kr.m_madkit_references-=number;
+	    ArrayList<String> removed_roles=null;
+	    for (String role : roles)
+	    {
+		if (decrementRole(kr, role))
+		    removed_roles=addChangedRole(removed_roles, role);
+	    }
+	    kr.m_madkit_references-=roles.size();
 	    if (kr.m_madkit_references<0)
 		throw new IllegalAccessError("Problem of data integrity ! The madkit reference for this group shouldn't be lower than 0. This is a MaKitGroupExtension bug !");
 	    if (kr.m_madkit_references==0)
@@ -1241,6 +1726,73 @@ public final class Group extends AbstractGroup
 		m_kernel_references.remove(kr);
 		deactivateGroup(ka);
 	    }
+	    else if (removed_roles!=null)
+		Group.notifyChangements(removed_roles);
+	}
+	/*
+	 * Dereferences at once the roles of several agents, i.e. of the agents killed together. 
+	 * The group is deactivated once, and one notification is sent at most.
+	 */
+	public synchronized void decrementReferences(Map<String, int[]> roles, Map<String, int[]> auto_requested_roles, KernelAddress ka)
+	{
+	    KernelReferences kr=m_kernel_references.get(ka);
+	    
+	    if (kr==null)
+		throw new IllegalAccessError("Problem of data integrity ! The KernelAddress should be stored on the GroupTree class. This is a MaKitGroupExtension bug !");
+	    
+	    ArrayList<String> removed_roles=null;
+	    int references=0;
+	    for (Map.Entry<String, int[]> e : roles.entrySet())
+	    {
+		if (decrementRole(kr, e.getKey(), e.getValue()[0]))
+		    removed_roles=addChangedRole(removed_roles, e.getKey());
+		references+=e.getValue()[0];
+	    }
+	    for (Map.Entry<String, int[]> e : auto_requested_roles.entrySet())
+	    {
+		if (decrementRole(kr, e.getKey(), e.getValue()[0]))
+		    removed_roles=addChangedRole(removed_roles, e.getKey());
+	    }
+	    kr.m_madkit_references-=references;
+	    if (kr.m_madkit_references<0)
+		throw new IllegalAccessError("Problem of data integrity ! The madkit reference for this group shouldn't be lower than 0. This is a MaKitGroupExtension bug !");
+	    if (references>0 && kr.m_madkit_references==0)
+		deactivateGroup(ka);
+	    else if (removed_roles!=null)
+		Group.notifyChangements(removed_roles);
+	}
+	/*
+	 * Roles that are handled into MadKit without MadKitGroupExtension references, i.e. automatically requested roles.
+	 */
+	public synchronized void incrementRoleReferences(String role, KernelAddress ka)
+	{
+	    if (incrementRole(getOrCreateKernelReferences(ka), role))
+		Group.notifyChangements(role);
+	}
+	public synchronized void decrementRoleReferences(String role, KernelAddress ka)
+	{
+	    KernelReferences kr=m_kernel_references.get(ka);
+	    
+	    if (kr==null)
+		throw new IllegalAccessError("Problem of data integrity ! The KernelAddress should be stored on the GroupTree class. This is a MaKitGroupExtension bug !");
+	    if (decrementRole(kr, role))
+		Group.notifyChangements(role);
+	}
+	public synchronized long getRolesStamp(KernelAddress ka)
+	{
+	    KernelReferences kr=m_kernel_references.get(ka);
+	    
+	    if (kr==null)
+		return 0;
+	    return kr.m_roles_stamp;
+	}
+	public synchronized boolean isHandledRole(String role, KernelAddress ka)
+	{
+	    KernelReferences kr=m_kernel_references.get(ka);
+	    
+	    if (kr==null)
+		return false;
+	    return kr.m_roles.containsKey(role);
 	}
 	public synchronized boolean isMadKitCreated(KernelAddress ka)
 	{
@@ -1364,37 +1916,6 @@ public final class Group extends AbstractGroup
 	    Group.notifyChangements();
 	}
 	
-	private synchronized void removeSubGroup(GroupTree _g)
-	{
-	    if (!m_sub_groups.remove(_g))
-		throw new IllegalAccessError("The previous test (after this line code) should return true");
-	    /*m_all_sub_groups.remove(_g);
-	    updateDuplicatedSubGroupList();
-	    GroupTree p=m_parent;
-	    while (p!=null && p.m_parent!=null)
-	    {
-		p.m_all_sub_groups.remove(_g);
-		p.updateDuplicatedSubGroupList();
-	    }*/
-
-	    if (m_parent!=null)
-	    {
-		synchronized(m_parent)
-		{
-		    if (m_references==0 && m_sub_groups.size()==0)
-			m_parent.removeSubGroup(this);
-		}
-	    }
-	    else 
-	    {
-		synchronized(m_groups_root)
-		{
-		    if (m_sub_groups.size()==0)
-			m_groups_root.remove(this);
-		}
-	    }
-		
-	}
 	public synchronized void incrementReferences()
 	{
 	    ++m_references;
@@ -1403,24 +1924,81 @@ public final class Group extends AbstractGroup
 	{
 	    return m_references;
 	}
-	public synchronized void decrementReferences()
+	public void decrementReferences()
 	{
-	    if (m_parent!=null)
+	    if (m_parent==null)
 	    {
-		synchronized(m_parent)
+		synchronized(this)
 		{
 		    --m_references;
-		    if (m_references==0)
+		}
+		return;
+	    }
+	    //the locks are taken from the parent to the child, like into the function getGroup
+	    boolean removed=false;
+	    synchronized(m_parent)
+	    {
+		synchronized(this)
+		{
+		    --m_references;
+		    if (m_references==0 && m_sub_groups.size()==0)
 		    {
 			if (m_kernel_references.size()>0)
 			    throw new IllegalAccessError("The program shouldn't arrive on this line code. This is a MaKitGroupExtension bug !");
-			if (m_sub_groups.size()==0)
-				m_parent.removeSubGroup(this);
+			removed=m_parent.m_sub_groups.remove(this);
 		    }
 		}
 	    }
-	    else
+	    if (removed)
+		m_parent.removeIfUnused();
+	}
+	
+	/*
+	 * Removes this group and its parents while they are not referenced anymore and have no subgroup. 
+	 * Each parent is locked before its child, and the lock of a child is released before locking the grand parent. 
+	 * The communities are kept.
+	 */
+	private void removeIfUnused()
+	{
+	    GroupTree g=this;
+	    while (g.m_parent!=null)
+	    {
+		synchronized(g.m_parent)
+		{
+		    synchronized(g)
+		    {
+			if (g.m_references!=0 || g.m_sub_groups.size()!=0 || g.m_kernel_references.size()>0 || !g.m_parent.m_sub_groups.remove(g))
+			    return;
+		    }
+		}
+		g=g.m_parent;
+	    }
+	}
+	
+	/*
+	 * Returns the canonical instance representing this group, with or without its subgroups. The canonical instances are 
+	 * weakly referenced, so that the groups which are not used anymore can still be released. If _referenced is true, 
+	 * the caller gives a reference obtained with getGroup(...), which is kept by the created instance, or released otherwise.
+	 */
+	synchronized Group getCanonicalGroup(boolean _use_sub_groups, boolean _referenced)
+	{
+	    WeakReference<Group> r=_use_sub_groups?m_canonical_group_with_sub_groups:m_canonical_group;
+	    Group g=(r==null)?null:r.get();
+	    if (g==null)
+	    {
+		g=new Group(this, _use_sub_groups, !_referenced);
+		r=new WeakReference<Group>(g);
+		if (_use_sub_groups)
+		    m_canonical_group_with_sub_groups=r;
+		else
+		    m_canonical_group=r;
+	    }
+	    else if (_referenced)
+	    {
+		//the canonical instance keeps its own reference, so that this group cannot become unused here
 		--m_references;
+	    }
+	    return g;
 	}
 	
 	private final AtomicReference<Group> root_group=new AtomicReference<>(null);
@@ -0,0 +1,273 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.kernel.AgentAddress;
+import madkit.kernel.Message;
+
+/**
+ * Sends messages to the agents handling a role into a group, checking the sender once for all the recipients.
+ * 
+ * The agent address of the sender is resolved by the MadKit kernel when this object is built, according the role 
+ * of the first recipient and the role of the sender, as MadKit does for each message sent with 
+ * {@link madkit.kernel.AbstractAgent#sendMessageWithRole(AgentAddress, Message, String)}. Then each message sent to 
+ * a recipient handling the same role into the same group is directly delivered to its mailbox, without checking 
+ * again the sender, its role and its group. The messages sent to distant agents, to recipients of another role or another group, 
+ * or sent while MadKit hooks are installed, are sent through MadKit.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#sendMessagesWithRole(java.util.Collection, Message, String)
+ * @see AbstractAgent#broadcastMessageWithRole(AbstractGroup, String, Message, String)
+ */
+final class GroupMessageSender
+{
+    private final madkit.kernel.AbstractAgent m_requester;
+    private final String m_sender_role;
+    private final String m_community;
+    private final String m_group;
+    private final String m_role;
+    private final Object m_kernel;
+    private final AgentAddress m_sender;
+    private final ReturnCode m_code;
+    
+    /**
+     * Resolves the sender of the messages sent to the agents handling the role of the given recipient, into its group.
+     * @param _requester the agent which sends the messages
+     * @param _receiver the first recipient
+     * @param _senderRole the role of the sender, or null if any role of the sender into the group can be used
+     */
+    GroupMessageSender(madkit.kernel.AbstractAgent _requester, AgentAddress _receiver, String _senderRole)
+    {
+	m_requester=_requester;
+	m_sender_role=_senderRole;
+	m_community=_receiver.getCommunity();
+	m_group=_receiver.getGroup();
+	m_role=_receiver.getRole();
+	m_kernel=getKernel(_requester);
+	AgentAddress sender=null;
+	ReturnCode code=null;
+	AgentAddress target=resolveAddress(_receiver);
+	if (target!=null)
+	{
+	    try
+	    {
+		sender=(AgentAddress)m_get_sender_method.invokeExact(m_kernel, _requester, target, _senderRole);
+		code=ReturnCode.SUCCESS;
+	    }
+	    catch (Throwable e)
+	    {
+		if (!m_cgr_not_available_class.isInstance(e))
+		    throw propagate(e);
+		code=getCode(e);
+	    }
+	}
+	m_sender=sender;
+	m_code=code;
+    }
+    
+    /**
+     * Returns the result of the check of the sender.
+     * @return {@link ReturnCode#SUCCESS} if the sender can send messages into the group, the return code of the check otherwise 
+     * (i.e. {@link ReturnCode#NOT_IN_GROUP} or {@link ReturnCode#ROLE_NOT_HANDLED}), or null if the first recipient 
+     * was not valid, in which case each message is checked by MadKit.
+     */
+    ReturnCode getSenderCode()
+    {
+	return m_code;
+    }
+    
+    /**
+     * Sends a message to an agent handling the same role, into the same group, than the first recipient. 
+     * A message sent to an agent of another role or of another group is sent and checked by MadKit. 
+     * The given message is delivered as is, so it must not be shared between several recipients.
+     * @param _receiver the recipient
+     * @param _message the message
+     * @return the return code of the send
+     */
+    ReturnCode send(AgentAddress _receiver, Message _message)
+    {
+	//the sender has only been checked for the role and the group of the first recipient
+	if (!_receiver.getRole().equals(m_role) || !_receiver.getGroup().equals(m_group) || !_receiver.getCommunity().equals(m_community))
+	    return m_requester.sendMessageWithRole(_receiver, _message, m_sender_role);
+	if (m_sender==null)
+	{
+	    if (m_code!=null)
+		return m_code;
+	    return m_requester.sendMessageWithRole(_receiver, _message, m_sender_role);
+	}
+	AgentAddress target=resolveAddress(_receiver);
+	madkit.kernel.AbstractAgent agent=target==null?null:getAgent(target);
+	if (agent==null || isHooked())
+	    return m_requester.sendMessageWithRole(_receiver, _message, m_sender_role);
+	try
+	{
+	    m_set_sender_method.invokeExact(_message, m_sender);
+	    m_set_receiver_method.invokeExact(_message, target);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+	agent.receiveMessage(_message);
+	return ReturnCode.SUCCESS;
+    }
+    
+    private static Object getKernel(madkit.kernel.AbstractAgent _agent)
+    {
+	try
+	{
+	    return m_get_kernel_method.invokeExact(_agent);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+    }
+    
+    private AgentAddress resolveAddress(AgentAddress _receiver)
+    {
+	try
+	{
+	    return (AgentAddress)m_resolve_address_method.invokeExact(m_kernel, _receiver);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+    }
+    
+    private boolean isHooked()
+    {
+	try
+	{
+	    return (boolean)m_is_hooked_method.invokeExact(m_kernel);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+    }
+    
+    private static madkit.kernel.AbstractAgent getAgent(AgentAddress _address)
+    {
+	try
+	{
+	    return (madkit.kernel.AbstractAgent)m_get_agent_method.invokeExact(_address);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+    }
+    
+    private static ReturnCode getCode(Throwable _cgr_not_available)
+    {
+	try
+	{
+	    return (ReturnCode)m_get_code_method.invokeExact((Object)_cgr_not_available);
+	}
+	catch (Throwable e)
+	{
+	    throw propagate(e);
+	}
+    }
+    
+    private static RuntimeException propagate(Throwable e)
+    {
+	if (e instanceof RuntimeException)
+	    return (RuntimeException)e;
+	if (e instanceof Error)
+	    throw (Error)e;
+	return new IllegalStateException(e);
+    }
+    
+    private static Class<?> m_cgr_not_available_class=null;
+    private static MethodHandle m_get_kernel_method=null;
+    private static MethodHandle m_get_sender_method=null;
+    private static MethodHandle m_resolve_address_method=null;
+    private static MethodHandle m_is_hooked_method=null;
+    private static MethodHandle m_get_agent_method=null;
+    private static MethodHandle m_set_sender_method=null;
+    private static MethodHandle m_set_receiver_method=null;
+    private static MethodHandle m_get_code_method=null;
+    
+    private static MethodHandle getMethod(Class<?> _class, String _name, MethodType _type, Class<?> ..._parameters)
+    {
+	try
+	{
+	    Method m=_class.getDeclaredMethod(_name, _parameters);
+	    m.setAccessible(true);
+	    return MethodHandles.lookup().unreflect(m).asType(_type);
+	}
+	catch (SecurityException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to access to the function "+_name+" of the class "+_class.getName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function "+_name+" of the class "+_class.getName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    static
+    {
+	try
+	{
+	    Class<?> kernel_class=Class.forName("madkit.kernel.MadkitKernel");
+	    m_cgr_not_available_class=Class.forName("madkit.kernel.CGRNotAvailable");
+	    m_get_kernel_method=getMethod(madkit.kernel.AbstractAgent.class, "getMadkitKernel", MethodType.methodType(Object.class, madkit.kernel.AbstractAgent.class));
+	    m_get_sender_method=getMethod(kernel_class, "getSenderAgentAddress", MethodType.methodType(AgentAddress.class, Object.class, madkit.kernel.AbstractAgent.class, AgentAddress.class, String.class), madkit.kernel.AbstractAgent.class, AgentAddress.class, String.class);
+	    m_resolve_address_method=getMethod(kernel_class, "resolveAddress", MethodType.methodType(AgentAddress.class, Object.class, AgentAddress.class), AgentAddress.class);
+	    m_is_hooked_method=getMethod(kernel_class, "isHooked", MethodType.methodType(boolean.class, Object.class));
+	    m_get_agent_method=getMethod(AgentAddress.class, "getAgent", MethodType.methodType(madkit.kernel.AbstractAgent.class, AgentAddress.class));
+	    m_set_sender_method=getMethod(Message.class, "setSender", MethodType.methodType(void.class, Message.class, AgentAddress.class), AgentAddress.class);
+	    m_set_receiver_method=getMethod(Message.class, "setReceiver", MethodType.methodType(void.class, Message.class, AgentAddress.class), AgentAddress.class);
+	    m_get_code_method=getMethod(m_cgr_not_available_class, "getCode", MethodType.methodType(ReturnCode.class, Object.class));
+	}
+	catch (ClassNotFoundException e)
+	{
+	    System.err.println("Impossible to found a class of the MadKit kernel. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
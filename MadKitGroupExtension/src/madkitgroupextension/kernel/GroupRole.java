@@ -24,51 +24,161 @@ package madkitgroupextension.kernel;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import madkit.kernel.KernelAddress;
 
 public class GroupRole
 {
 	private Group m_group;
-	private int m_number_roles=0;
-	//private ArrayList<String> m_roles;
+	private String[] m_roles=null;
+	private int m_roles_number=0;
 	
 	public GroupRole(Group _group)
 	{
 	    m_group=_group;
 	}
 	
-	public void incrementMadKitReferences(KernelAddress ka)
+	GroupRole(GroupRole _model)
 	{
-	    m_group.incrementMadKitReferences(ka);
-	    m_number_roles++;
+	    m_group=_model.m_group;
+	    m_roles_number=_model.m_roles_number;
+	    if (_model.m_roles!=null)
+		m_roles=Arrays.copyOf(_model.m_roles, _model.m_roles_number);
 	}
-	public void incrementMadKitReferences(int number_of_increment, KernelAddress ka)
+	
+	private void addRole(String _role)
+	{
+	    if (m_roles==null)
+		m_roles=new String[1];
+	    else if (m_roles_number==m_roles.length)
+		m_roles=Arrays.copyOf(m_roles, m_roles_number+2);
+	    m_roles[m_roles_number++]=_role;
+	}
+	
+	private boolean removeRole(String _role)
+	{
+	    for (int i=0;i<m_roles_number;i++)
+	    {
+		if (m_roles[i].equals(_role))
+		{
+		    System.arraycopy(m_roles, i+1, m_roles, i, m_roles_number-i-1);
+		    m_roles[--m_roles_number]=null;
+		    return true;
+		}
+	    }
+	    return false;
+	}
+	
+	public void incrementMadKitReferences(String _role, KernelAddress ka)
+	{
+	    m_group.incrementMadKitReferences(_role, ka);
+	    addRole(_role);
+	}
+	public void incrementMadKitReferences(List<String> _roles, KernelAddress ka)
 	{
-	    m_group.incrementMadKitReferences(number_of_increment, ka);
-	    m_number_roles+=number_of_increment;
+	    m_group.incrementMadKitReferences(_roles, ka);
+	    for (String r : _roles)
+		addRole(r);
 	}
 	
-	public void decrementMadKitReferences(KernelAddress ka)
+	/**
+	 * References the given roles for several agents at once, i.e. for the agents launched into a bucket, 
+	 * which share this membership. The roles are added once to this membership.
+	 * @param _roles the roles
+	 * @param ka the used kernel address
+	 * @param _agents_number the number of agents which share this membership
+	 */
+	public void incrementMadKitReferences(List<String> _roles, KernelAddress ka, int _agents_number)
 	{
-	    m_group.decrementMadKitReferences(1, ka);
-	    m_number_roles--;
+	    m_group.incrementMadKitReferences(_roles, ka, _agents_number);
+	    for (String r : _roles)
+		addRole(r);
+	}
+	
+	/*
+	 * Adds the roles of the given membership, without updating the references of the group. 
+	 */
+	void addRoles(GroupRole _model)
+	{
+	    for (int i=0;i<_model.m_roles_number;i++)
+		addRole(_model.m_roles[i]);
+	}
+	
+	public void decrementMadKitReferences(String _role, KernelAddress ka)
+	{
+	    if (!removeRole(_role))
+		throw new IllegalAccessError("Problem of data integrity ! The role "+_role+" should be handled into the group "+m_group+". This is a MaKitGroupExtension bug !");
+	    m_group.decrementMadKitReferences(_role, ka);
+	}
+
+	public void decrementMadKitReferences(List<String> _roles, KernelAddress ka)
+	{
+	    for (String r : _roles)
+	    {
+		if (!removeRole(r))
+		    throw new IllegalAccessError("Problem of data integrity ! The role "+r+" should be handled into the group "+m_group+". This is a MaKitGroupExtension bug !");
+	    }
+	    m_group.decrementMadKitReferences(_roles, ka);
 	}
 
 	public void resetMadKitReferencesByRemovingRoles(KernelAddress ka)
 	{
-	    m_group.decrementMadKitReferences(m_number_roles, ka);
-	    m_number_roles=0;
+	    if (m_roles_number==0)
+		return;
+	    List<String> roles=Arrays.asList(Arrays.copyOf(m_roles, m_roles_number));
+	    m_roles=null;
+	    m_roles_number=0;
+	    m_group.decrementMadKitReferences(roles, ka);
+	}
+	
+	/*
+	 * Dereferences the roles of this membership without modifying it, i.e. when it is shared by several agents.
+	 */
+	void releaseMadKitReferences(KernelAddress ka)
+	{
+	    if (m_roles_number==0)
+		return;
+	    m_group.decrementMadKitReferences(Arrays.asList(Arrays.copyOf(m_roles, m_roles_number)), ka);
 	}
 	
 	public boolean isContainingRoles()
 	{
-	    return m_number_roles>0;
+	    return m_roles_number>0;
 	}
 	
 	public int getRolesNumber()
 	{
-	    return m_number_roles;
+	    return m_roles_number;
+	}
+	
+	String getRole(int _index)
+	{
+	    return m_roles[_index];
+	}
+	
+	/**
+	 * Reference a role which has been automatically requested into the given group, without MadKitGroupExtension references.
+	 * @param _group the group
+	 * @param _role the role
+	 * @param ka the used kernel address
+	 */
+	public static void incrementAutoRequestedRole(Group _group, String _role, KernelAddress ka)
+	{
+	    _group.incrementRoleReferences(_role, ka);
+	}
+	
+	/**
+	 * Dereference a role which has been automatically requested into the given group.
+	 * @param _group the group
+	 * @param _role the role
+	 * @param ka the used kernel address
+	 */
+	public static void decrementAutoRequestedRole(Group _group, String _role, KernelAddress ka)
+	{
+	    _group.decrementRoleReferences(_role, ka);
 	}
 	
 	public Group getGroup()
@@ -76,14 +186,51 @@ public class GroupRole
 	    return m_group;
 	}
 	
-	public static ArrayList<GroupRole> getGroupRoles(MKGEAbstractAgent agent)
+	/**
+	 * Delays the group changement notifications done by the current thread until the call of {@link #endCoalescedChangements()}.
+	 * Calls can be nested.
+	 */
+	public static void beginCoalescedChangements()
+	{
+	    Group.beginCoalescedChangements();
+	}
+	
+	/**
+	 * Ends the coalesced changements, and sends one notification if at least one changement has been done since the call of {@link #beginCoalescedChangements()}.
+	 */
+	public static void endCoalescedChangements()
+	{
+	    Group.endCoalescedChangements();
+	}
+	
+	/**
+	 * Returns the indexes of the given roles, grouped by group. The groups are given in the order of their first appearance.
+	 * @param _roles the roles
+	 * @return the indexes of the roles for each group
+	 */
+	public static LinkedHashMap<Group, ArrayList<Integer>> getRolesIndexesByGroup(Role[] _roles)
+	{
+	    LinkedHashMap<Group, ArrayList<Integer>> res=new LinkedHashMap<Group, ArrayList<Integer>>();
+	    for (int i=0;i<_roles.length;i++)
+	    {
+		ArrayList<Integer> l=res.get(_roles[i].getGroup());
+		if (l==null)
+		{
+		    l=new ArrayList<Integer>(2);
+		    res.put(_roles[i].getGroup(), l);
+		}
+		l.add(Integer.valueOf(i));
+	    }
+	    return res;
+	}
+	
+	public static GroupRoleSet getGroupRoles(MKGEAbstractAgent agent)
 	{
 	    if (agent instanceof AbstractAgent)
 	    {
 		try
 		{
-		    @SuppressWarnings("unchecked")
-		    ArrayList<GroupRole> list = (ArrayList<GroupRole>) (m_get_group_roles_abstract_agent_method.invoke(agent));
+		    GroupRoleSet list = (GroupRoleSet) (m_get_group_roles_abstract_agent_method.invoke(agent));
 		    return list;
 		}
 		catch (IllegalArgumentException e1)
@@ -108,8 +255,7 @@ public class GroupRole
 	    {
 		try
 		{
-		    @SuppressWarnings("unchecked")
-		    ArrayList<GroupRole> list = (ArrayList<GroupRole>) (m_get_group_roles_agent_method.invoke(agent));
+		    GroupRoleSet list = (GroupRoleSet) (m_get_group_roles_agent_method.invoke(agent));
 		    return list;
 		}
 		catch (IllegalArgumentException e1)
@@ -134,8 +280,7 @@ public class GroupRole
 	    {
 		try
 		{
-		    @SuppressWarnings("unchecked")
-		    ArrayList<GroupRole> list = (ArrayList<GroupRole>) (m_get_group_roles_scheduler_method.invoke(agent));
+		    GroupRoleSet list = (GroupRoleSet) (m_get_group_roles_scheduler_method.invoke(agent));
 		    return list;
 		}
 		catch (IllegalArgumentException e1)
@@ -160,8 +305,7 @@ public class GroupRole
 	    {
 		try
 		{
-		    @SuppressWarnings("unchecked")
-		    ArrayList<GroupRole> list = (ArrayList<GroupRole>) (m_get_group_roles_watcher_method.invoke(agent));
+		    GroupRoleSet list = (GroupRoleSet) (m_get_group_roles_watcher_method.invoke(agent));
 		    return list;
 		}
 		catch (IllegalArgumentException e1)
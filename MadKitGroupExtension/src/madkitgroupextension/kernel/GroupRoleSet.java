@@ -0,0 +1,448 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import madkit.kernel.KernelAddress;
+
+/**
+ * The memberships of an agent, i.e. one {@link GroupRole} per group into which the agent handles at least one role.
+ * 
+ * Memberships are stored into an open addressing hash table keyed by the group, so that a membership is found, 
+ * added or removed in constant time, whatever the number of groups handled by the agent. 
+ * Each membership costs one slot of the table, without entry or list objects.
+ * 
+ * The agents launched into a bucket share the same table (see {@link #share(GroupRoleSet)}). A shared table 
+ * is never modified : it is copied by the first agent which modifies its memberships (copy on write).
+ * 
+ * When several agents are killed together (see {@link AgentsTermination}), their memberships are dereferenced at once.
+ * 
+ * This class is not thread safe. The agents synchronize their accesses on the instance itself.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see GroupRole
+ */
+public final class GroupRoleSet implements Iterable<GroupRole>
+{
+    private static final GroupRole[] m_empty_table=new GroupRole[0];
+    private static final int m_min_capacity=4;
+    
+    private GroupRole[] m_table=m_empty_table;
+    private int m_size=0;
+    private int m_mod_count=0;
+    private boolean m_shared=false;
+    private AgentsTermination m_termination=null;
+    private HashMap<Group, ArrayList<String>> m_auto_requested_roles=null;
+    
+    private static int indexFor(Group _group, int _mask)
+    {
+	int h=_group.hashCode()*0x9E3779B9;
+	return (h ^ (h>>>16)) & _mask;
+    }
+    
+    private int find(Group _group)
+    {
+	if (m_size==0)
+	    return -1;
+	int mask=m_table.length-1;
+	int i=indexFor(_group, mask);
+	GroupRole gr;
+	while ((gr=m_table[i])!=null)
+	{
+	    if (gr.getGroup().equals(_group))
+		return i;
+	    i=(i+1) & mask;
+	}
+	return -1;
+    }
+    
+    /*
+     * Copies the shared table and its memberships, so that they can be modified by this set only.
+     */
+    private void ensureOwned()
+    {
+	if (!m_shared)
+	    return;
+	GroupRole[] table=new GroupRole[m_table.length];
+	for (int i=0;i<table.length;i++)
+	{
+	    if (m_table[i]!=null)
+		table[i]=new GroupRole(m_table[i]);
+	}
+	m_table=table;
+	m_shared=false;
+    }
+    
+    /**
+     * Returns the membership corresponding to the given group. The returned membership can be modified.
+     * @param _group the group
+     * @return the membership, or null if the agent does not handle any role into the given group
+     */
+    public GroupRole get(Group _group)
+    {
+	int i=find(_group);
+	if (i<0)
+	    return null;
+	ensureOwned();
+	return m_table[i];
+    }
+    
+    /**
+     * Adds a membership. Its group must not be already referenced into this set.
+     * @param _group_role the membership
+     * @throws IllegalAccessError if the group of the given membership is already referenced
+     */
+    public void add(GroupRole _group_role)
+    {
+	ensureOwned();
+	if ((m_size+1)*4>m_table.length*3)
+	    resize(m_table.length==0?m_min_capacity:m_table.length*2);
+	int mask=m_table.length-1;
+	Group g=_group_role.getGroup();
+	int i=indexFor(g, mask);
+	GroupRole gr;
+	while ((gr=m_table[i])!=null)
+	{
+	    if (gr.getGroup().equals(g))
+		throw new IllegalAccessError("Problem of data integrity ! The group "+g+" is already referenced into this agent. This is a MaKitGroupExtension bug !");
+	    i=(i+1) & mask;
+	}
+	m_table[i]=_group_role;
+	++m_size;
+	++m_mod_count;
+    }
+    
+    /**
+     * Returns the membership corresponding to the given group, and creates it if it does not exist.
+     * @param _group the group
+     * @return the membership
+     */
+    public GroupRole getOrAdd(Group _group)
+    {
+	GroupRole gr=get(_group);
+	if (gr==null)
+	{
+	    gr=new GroupRole(_group);
+	    add(gr);
+	}
+	return gr;
+    }
+    
+    /**
+     * Removes the membership corresponding to the given group.
+     * @param _group the group
+     * @return the removed membership, or null if the agent does not handle any role into the given group
+     */
+    public GroupRole remove(Group _group)
+    {
+	int i=find(_group);
+	if (i<0)
+	    return null;
+	ensureOwned();
+	GroupRole res=m_table[i];
+	removeAt(i);
+	return res;
+    }
+    
+    private void removeAt(int _index)
+    {
+	// backward shift deletion, so that no tombstone is kept into the table
+	int mask=m_table.length-1;
+	int hole=_index;
+	int i=(_index+1) & mask;
+	GroupRole gr;
+	while ((gr=m_table[i])!=null)
+	{
+	    int ideal=indexFor(gr.getGroup(), mask);
+	    if (((i-ideal) & mask)>=((i-hole) & mask))
+	    {
+		m_table[hole]=gr;
+		hole=i;
+	    }
+	    i=(i+1) & mask;
+	}
+	m_table[hole]=null;
+	--m_size;
+	++m_mod_count;
+	if (m_size==0)
+	    m_table=m_empty_table;
+    }
+    
+    private void resize(int _capacity)
+    {
+	GroupRole[] old=m_table;
+	m_table=new GroupRole[_capacity];
+	int mask=_capacity-1;
+	for (GroupRole gr : old)
+	{
+	    if (gr!=null)
+	    {
+		int i=indexFor(gr.getGroup(), mask);
+		while (m_table[i]!=null)
+		    i=(i+1) & mask;
+		m_table[i]=gr;
+	    }
+	}
+    }
+    
+    /**
+     * Tells if the agent handles the given role into the given group, i.e. if it has requested the role or if the role has been automatically requested. 
+     * The membership is looked up without copying a shared table.
+     * @param _group the group
+     * @param _role the role
+     * @return true if the agent handles the given role into the given group
+     */
+    public boolean isHandlingRole(Group _group, String _role)
+    {
+	int i=find(_group);
+	if (i>=0)
+	{
+	    GroupRole gr=m_table[i];
+	    for (int j=0;j<gr.getRolesNumber();j++)
+	    {
+		if (gr.getRole(j).equals(_role))
+		    return true;
+	    }
+	}
+	if (m_auto_requested_roles==null)
+	    return false;
+	ArrayList<String> roles=m_auto_requested_roles.get(_group);
+	return roles!=null && roles.contains(_role);
+    }
+    
+    /**
+     * Returns the number of memberships.
+     * @return the number of groups into which the agent handles at least one role
+     */
+    public int size()
+    {
+	return m_size;
+    }
+    
+    /**
+     * Tells if this set is empty
+     * @return true if this set is empty
+     */
+    public boolean isEmpty()
+    {
+	return m_size==0;
+    }
+    
+    /**
+     * Removes all the memberships, and releases the table.
+     */
+    public void clear()
+    {
+	m_table=m_empty_table;
+	m_size=0;
+	m_shared=false;
+	++m_mod_count;
+    }
+    
+    /**
+     * Gives to this set the memberships of the given set, whose group references have already been counted 
+     * for each agent (see {@link GroupRole#incrementMadKitReferences(java.util.List, KernelAddress, int)}).
+     * If this set is empty, it shares the table of the given set, which must not be modified anymore. 
+     * Otherwise, the roles of the given set are added to the memberships of this set.
+     * @param _memberships the memberships shared by the agents launched into a bucket
+     */
+    public void share(GroupRoleSet _memberships)
+    {
+	if (_memberships.m_size==0)
+	    return;
+	if (m_size==0)
+	{
+	    _memberships.m_shared=true;
+	    m_table=_memberships.m_table;
+	    m_size=_memberships.m_size;
+	    m_shared=true;
+	    ++m_mod_count;
+	}
+	else
+	{
+	    for (GroupRole gr : _memberships.m_table)
+	    {
+		if (gr!=null)
+		    getOrAdd(gr.getGroup()).addRoles(gr);
+	    }
+	}
+    }
+    
+    /**
+     * Dereferences all the roles of the memberships, and removes all the memberships. 
+     * A shared table is released without being copied. 
+     * If the agent is killed with other agents, the memberships are dereferenced later, together with those of the other agents.
+     * @param ka the used kernel address
+     */
+    public void resetMadKitReferences(KernelAddress ka)
+    {
+	if (m_termination!=null && m_termination.add(m_table))
+	{
+	    clear();
+	    return;
+	}
+	for (GroupRole gr : m_table)
+	{
+	    if (gr!=null)
+	    {
+		if (m_shared)
+		    gr.releaseMadKitReferences(ka);
+		else
+		    gr.resetMadKitReferencesByRemovingRoles(ka);
+	    }
+	}
+	clear();
+    }
+    
+    /**
+     * References a role which has been automatically requested by the agent.
+     * @param _group the group
+     * @param _role the role
+     * @param ka the used kernel address
+     * @see GroupRole#incrementAutoRequestedRole(Group, String, KernelAddress)
+     */
+    public void incrementAutoRequestedRole(Group _group, String _role, KernelAddress ka)
+    {
+	GroupRole.incrementAutoRequestedRole(_group, _role, ka);
+	if (m_auto_requested_roles==null)
+	    m_auto_requested_roles=new HashMap<Group, ArrayList<String>>();
+	ArrayList<String> roles=m_auto_requested_roles.get(_group);
+	if (roles==null)
+	{
+	    roles=new ArrayList<String>(2);
+	    m_auto_requested_roles.put(_group, roles);
+	}
+	roles.add(_role);
+    }
+    
+    /**
+     * Dereferences a role which has been automatically requested by the agent, and which has been left.
+     * @param _group the group
+     * @param _role the role
+     * @param ka the used kernel address
+     * @see GroupRole#decrementAutoRequestedRole(Group, String, KernelAddress)
+     */
+    public void decrementAutoRequestedRole(Group _group, String _role, KernelAddress ka)
+    {
+	removeAutoRequestedRole(_group, _role);
+	GroupRole.decrementAutoRequestedRole(_group, _role, ka);
+    }
+    
+    private void removeAutoRequestedRole(Group _group, String _role)
+    {
+	ArrayList<String> roles=m_auto_requested_roles==null?null:m_auto_requested_roles.get(_group);
+	if (roles==null || !roles.remove(_role))
+	    throw new IllegalAccessError("Problem of data integrity ! The role "+_role+" should be automatically requested into the group "+_group+". This is a MaKitGroupExtension bug !");
+	if (roles.isEmpty())
+	    m_auto_requested_roles.remove(_group);
+    }
+    
+    /**
+     * Dereferences a role which has been automatically requested by the agent. 
+     * If the agent is killed with other agents, the role is dereferenced later, together with those of the other agents.
+     * @param _group the group
+     * @param _role the role
+     * @param ka the used kernel address
+     */
+    public void releaseAutoRequestedRole(Group _group, String _role, KernelAddress ka)
+    {
+	removeAutoRequestedRole(_group, _role);
+	if (m_termination==null || !m_termination.addAutoRequestedRole(_group, _role))
+	    GroupRole.decrementAutoRequestedRole(_group, _role, ka);
+    }
+    
+    /*
+     * When the agent is killed with other agents, its memberships are dereferenced by the given termination.
+     */
+    void setTermination(AgentsTermination _termination)
+    {
+	m_termination=_termination;
+    }
+    
+    /**
+     * Returns an iterator over the memberships. The returned memberships can be modified.
+     */
+    @Override public Iterator<GroupRole> iterator()
+    {
+	ensureOwned();
+	return new Iterator<GroupRole>() {
+	    private int m_next=advance(0);
+	    private int m_expected_mod_count=m_mod_count;
+	    
+	    private int advance(int _from)
+	    {
+		while (_from<m_table.length && m_table[_from]==null)
+		    ++_from;
+		return _from;
+	    }
+	    
+	    @Override public boolean hasNext()
+	    {
+		return m_next<m_table.length;
+	    }
+
+	    @Override public GroupRole next()
+	    {
+		if (m_expected_mod_count!=m_mod_count)
+		    throw new ConcurrentModificationException();
+		if (m_next>=m_table.length)
+		    throw new NoSuchElementException();
+		GroupRole res=m_table[m_next];
+		m_next=advance(m_next+1);
+		return res;
+	    }
+
+	    @Override public void remove()
+	    {
+		throw new UnsupportedOperationException();
+	    }
+	};
+    }
+    
+    @Override public String toString()
+    {
+	StringBuffer sb=new StringBuffer("GroupRoleSet[");
+	boolean first=true;
+	for (GroupRole gr : m_table)
+	{
+	    if (gr==null)
+		continue;
+	    if (!first)
+		sb.append(", ");
+	    sb.append(gr.getGroup());
+	    first=false;
+	}
+	sb.append("]");
+	return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import madkit.kernel.AgentAddress;
+import madkit.kernel.ConversationID;
+import madkit.kernel.Message;
+
+/**
+ * A filter which accepts the messages having a given class, a given conversation ID and/or a given sender. 
+ * It is directly resolved by the indexes of an {@link IndexedMailbox}.
+ * 
+ * Here a typical use :
+ * <pre>
+ * setIndexedMailbox(true);
+ * ...
+ * Message reply=nextMessage(IndexKeyFilter.conversation(query));
+ * List&lt;Message&gt; orders=nextMessages(IndexKeyFilter.messageClass(OrderMessage.class));
+ * </pre>
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see IndexedMessageFilter
+ */
+public final class IndexKeyFilter implements IndexedMessageFilter
+{
+    private final Class<? extends Message> m_message_class;
+    private final ConversationID m_conversation_id;
+    private final AgentAddress m_sender;
+    
+    /**
+     * Builds a filter. A <code>null</code> parameter is not used to filter the messages.
+     * 
+     * @param _messageClass the exact class of the accepted messages
+     * @param _conversationID the conversation ID of the accepted messages
+     * @param _sender the sender of the accepted messages
+     */
+    public IndexKeyFilter(Class<? extends Message> _messageClass, ConversationID _conversationID, AgentAddress _sender)
+    {
+	m_message_class=_messageClass;
+	m_conversation_id=_conversationID;
+	m_sender=_sender;
+    }
+    
+    /**
+     * Returns a filter accepting the messages whose class is exactly the given class.
+     * @param _messageClass the class of the accepted messages
+     * @return the corresponding filter
+     */
+    public static IndexKeyFilter messageClass(Class<? extends Message> _messageClass)
+    {
+	if (_messageClass==null)
+	    throw new NullPointerException("_messageClass");
+	return new IndexKeyFilter(_messageClass, null, null);
+    }
+    
+    /**
+     * Returns a filter accepting the messages which belong to the conversation of the given message, i.e. its replies.
+     * @param _origin the message which started the conversation
+     * @return the corresponding filter
+     */
+    public static IndexKeyFilter conversation(Message _origin)
+    {
+	return new IndexKeyFilter(null, _origin.getConversationID(), null);
+    }
+    
+    /**
+     * Returns a filter accepting the messages sent by the given agent address.
+     * @param _sender the sender of the accepted messages
+     * @return the corresponding filter
+     */
+    public static IndexKeyFilter sender(AgentAddress _sender)
+    {
+	if (_sender==null)
+	    throw new NullPointerException("_sender");
+	return new IndexKeyFilter(null, null, _sender);
+    }
+    
+    @Override
+    public boolean accept(Message _m)
+    {
+	return (m_message_class==null || m_message_class==_m.getClass()) 
+		&& (m_conversation_id==null || m_conversation_id.equals(_m.getConversationID())) 
+		&& (m_sender==null || m_sender.equals(_m.getSender()));
+    }
+
+    @Override
+    public Class<? extends Message> getMessageClass()
+    {
+	return m_message_class;
+    }
+
+    @Override
+    public ConversationID getConversationID()
+    {
+	return m_conversation_id;
+    }
+
+    @Override
+    public AgentAddress getSender()
+    {
+	return m_sender;
+    }
+}
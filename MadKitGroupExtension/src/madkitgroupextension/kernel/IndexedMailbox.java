@@ -0,0 +1,660 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import madkit.kernel.Message;
+import madkit.message.ConversationFilter;
+import madkit.message.MessageFilter;
+
+/**
+ * A mailbox which indexes its messages by class, by conversation ID and by sender.
+ * 
+ * Each message is linked into the list of all the messages, and into one list per index. So a message can be 
+ * removed in constant time, whatever the list through which it has been found. 
+ * A filter implementing {@link IndexedMessageFilter}, or a {@link ConversationFilter} (used by MadKit to get replies, subclasses excluded), 
+ * is only applied to the messages of the corresponding index. The other filters are applied to the whole mailbox.
+ * 
+ * The messages can also be ordered and bounded according a {@link MailboxPolicy}. When priorities are enabled, 
+ * the control messages are kept before the other messages into each list. When a capacity is given, a data message received 
+ * while the mailbox is full is dropped, evicts the oldest data message, or is rejected with a {@link RejectedMessage} sent back to its sender. 
+ * The activity of the mailbox is measured and can be read through {@link #getStatistics()}. 
+ * The references owned by the mailbox on the dropped, evicted and purged pooled messages are released (see {@link PooledMessage}).
+ * 
+ * When the agent disables its indexed mailbox, the mailbox is closed (see {@link #close()}) : it does not accept messages anymore, 
+ * so that a message received concurrently is stored into the MadKit mailbox of the agent instead of being lost.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#setIndexedMailbox(boolean)
+ * @see AbstractAgent#setMailboxPolicy(MailboxPolicy)
+ */
+public final class IndexedMailbox
+{
+    private static final int m_class_index=0;
+    private static final int m_conversation_index=1;
+    private static final int m_sender_index=2;
+    private static final int m_all=3;
+    
+    private final madkit.kernel.AbstractAgent m_agent;
+    private final Chain m_messages=new Chain(null);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final HashMap<Object, Chain>[] m_indexes=new HashMap[]{new HashMap<Object, Chain>(), new HashMap<Object, Chain>(), new HashMap<Object, Chain>()};
+    private MailboxPolicy m_policy=MailboxPolicy.UNBOUNDED;
+    private int m_data_size=0;
+    
+    private int m_max_depth=0;
+    private long m_received=0;
+    private long m_dropped=0;
+    private long m_rejected=0;
+    private long m_total_enqueue_latency=0;
+    private long m_max_enqueue_latency=0;
+    private long m_read=0;
+    private long m_total_waiting_time=0;
+    private long m_max_waiting_time=0;
+    private boolean m_closed=false;
+    
+    /**
+     * Builds an indexed mailbox.
+     * @param _agent the agent owning this mailbox, which sends back the rejected messages
+     */
+    public IndexedMailbox(madkit.kernel.AbstractAgent _agent)
+    {
+	m_agent=_agent;
+    }
+    
+    /**
+     * Sets the policy of this mailbox. The messages already stored are kept, even if they exceed the new capacity. 
+     * They are reordered if the priorities are enabled. 
+     * @param _policy the mailbox policy
+     */
+    public synchronized void setPolicy(MailboxPolicy _policy)
+    {
+	if (_policy==null)
+	    throw new NullPointerException("_policy");
+	boolean reorder=_policy.hasPriorities()!=m_policy.hasPriorities();
+	m_policy=_policy;
+	if (reorder)
+	{
+	    ArrayList<Node> nodes=getNodes();
+	    clear();
+	    for (Node n : nodes)
+		insert(n);
+	}
+    }
+    
+    /**
+     * Returns the policy of this mailbox.
+     * @return the mailbox policy
+     */
+    public synchronized MailboxPolicy getPolicy()
+    {
+	return m_policy;
+    }
+    
+    /**
+     * Returns a snapshot of the activity of this mailbox.
+     * @return the mailbox statistics
+     */
+    public synchronized MailboxStatistics getStatistics()
+    {
+	return new MailboxStatistics(m_messages.m_size, m_max_depth, m_received, m_dropped, m_rejected, m_total_enqueue_latency, m_max_enqueue_latency, m_read, m_total_waiting_time, m_max_waiting_time);
+    }
+    
+    /**
+     * Tells if the given message is a control message, i.e. a message which is read before the data messages and which is never dropped.
+     * @param _m the message
+     * @return true if the message implements {@link ControlMessage} or if it has no sender
+     */
+    public static boolean isControlMessage(Message _m)
+    {
+	return _m instanceof ControlMessage || _m.getSender()==null;
+    }
+    
+    /**
+     * Adds a message at the end of this mailbox, or after the last control message if it is a control message and if the priorities are enabled. 
+     * If the mailbox is full, the overflow policy is applied. 
+     * @param _m the message
+     * @return false if this mailbox has been closed, and then the message must be stored into the MadKit mailbox of the agent, 
+     * true otherwise, even if the message has been dropped or rejected
+     * @see #close()
+     */
+    public boolean add(Message _m)
+    {
+	long start=System.nanoTime();
+	boolean accepted;
+	boolean reject;
+	Node evicted=null;
+	synchronized(this)
+	{
+	    if (m_closed)
+		return false;
+	    ++m_received;
+	    boolean control=isControlMessage(_m);
+	    if (!control && m_policy.isBounded() && m_data_size>=m_policy.getCapacity())
+	    {
+		switch(m_policy.getOverflowPolicy())
+		{
+		    case DROP_OLDEST:
+			while (m_data_size>=m_policy.getCapacity())
+			{
+			    Node n=getOldestDataNode();
+			    remove(n);
+			    n.m_next_evicted=evicted;
+			    evicted=n;
+			    ++m_dropped;
+			}
+			accepted=true;
+			break;
+		    case REJECT:
+			++m_rejected;
+			accepted=false;
+			break;
+		    default:
+			++m_dropped;
+			accepted=false;
+		}
+	    }
+	    else
+		accepted=true;
+	    reject=!accepted && m_policy.getOverflowPolicy()==MailboxPolicy.OverflowPolicy.REJECT;
+	    if (accepted)
+	    {
+		insert(new Node(_m, control, start));
+		if (m_messages.m_size>m_max_depth)
+		    m_max_depth=m_messages.m_size;
+		notifyAll();
+	    }
+	    long latency=System.nanoTime()-start;
+	    m_total_enqueue_latency+=latency;
+	    if (latency>m_max_enqueue_latency)
+		m_max_enqueue_latency=latency;
+	}
+	//the pooled messages are released outside the lock
+	for (;evicted!=null;evicted=evicted.m_next_evicted)
+	    PooledMessage.release(evicted.m_message);
+	if (reject)
+	    m_agent.sendReply(_m, new RejectedMessage(_m));
+	else if (!accepted)
+	    PooledMessage.release(_m);
+	return true;
+    }
+    
+    /**
+     * Closes this mailbox, and returns the messages it contains. The next messages given to {@link #add(Message)} are refused.
+     * @return the messages, from the oldest to the most recent
+     */
+    public synchronized List<Message> close()
+    {
+	m_closed=true;
+	return pollAll(null);
+    }
+    
+    /**
+     * Adds messages at the beginning of this mailbox, before the messages already stored. 
+     * These messages are not considered as received by the statistics, and are never dropped.
+     * @param _messages the messages, from the oldest to the most recent
+     */
+    public synchronized void addAllFirst(List<Message> _messages)
+    {
+	if (_messages.size()==0)
+	    return;
+	ArrayList<Node> nodes=getNodes();
+	clear();
+	long time=System.nanoTime();
+	for (Message m : _messages)
+	    insert(new Node(m, isControlMessage(m), time));
+	for (Node n : nodes)
+	    insert(n);
+	if (m_messages.m_size>m_max_depth)
+	    m_max_depth=m_messages.m_size;
+	notifyAll();
+    }
+    
+    private ArrayList<Node> getNodes()
+    {
+	ArrayList<Node> nodes=new ArrayList<Node>(m_messages.m_size);
+	for (Node n=m_messages.m_first;n!=null;n=n.m_next[m_all])
+	    nodes.add(n);
+	return nodes;
+    }
+    
+    private void insert(Node n)
+    {
+	boolean priority=n.m_control && m_policy.hasPriorities();
+	m_messages.add(n, m_all, priority);
+	for (int k=0;k<m_all;k++)
+	{
+	    Object key=getKey(n.m_message, k);
+	    if (key!=null)
+		getChain(k, key).add(n, k, priority);
+	}
+	if (!n.m_control)
+	    ++m_data_size;
+    }
+    
+    private Node getOldestDataNode()
+    {
+	Node n=m_messages.m_last_control==null?m_messages.m_first:m_messages.m_last_control.m_next[m_all];
+	while (n!=null && n.m_control)
+	    n=n.m_next[m_all];
+	return n;
+    }
+    
+    private Chain getChain(int _index, Object _key)
+    {
+	Chain c=m_indexes[_index].get(_key);
+	if (c==null)
+	{
+	    c=new Chain(_key);
+	    m_indexes[_index].put(_key, c);
+	}
+	return c;
+    }
+    
+    private static Object getKey(Message _m, int _index)
+    {
+	switch(_index)
+	{
+	    case m_class_index:
+		return _m.getClass();
+	    case m_conversation_index:
+		return _m.getConversationID();
+	    case m_sender_index:
+		return _m.getSender();
+	}
+	return null;
+    }
+    
+    private void remove(Node n)
+    {
+	m_messages.remove(n, m_all);
+	for (int k=0;k<m_all;k++)
+	{
+	    Chain c=n.m_chains[k];
+	    if (c!=null)
+	    {
+		c.remove(n, k);
+		if (c.m_first==null)
+		    m_indexes[k].remove(c.m_key);
+	    }
+	}
+	if (!n.m_control)
+	    --m_data_size;
+    }
+    
+    private Message read(Node n)
+    {
+	remove(n);
+	countRead(n, System.nanoTime());
+	return n.m_message;
+    }
+    
+    private void countRead(Node n, long _time)
+    {
+	long waiting=_time-n.m_time;
+	++m_read;
+	m_total_waiting_time+=waiting;
+	if (waiting>m_max_waiting_time)
+	    m_max_waiting_time=waiting;
+    }
+    
+    /**
+     * Returns the list of messages to which the given filter can be restricted.
+     * @return the index of the returned chain into the nodes, or -1 if the filter must be applied to the whole mailbox
+     */
+    private int getIndex(MessageFilter _filter)
+    {
+	if (_filter instanceof IndexedMessageFilter)
+	{
+	    IndexedMessageFilter f=(IndexedMessageFilter)_filter;
+	    if (f.getConversationID()!=null)
+		return m_conversation_index;
+	    if (f.getSender()!=null)
+		return m_sender_index;
+	    if (f.getMessageClass()!=null)
+		return m_class_index;
+	}
+	else if (_filter!=null && _filter.getClass()==ConversationFilter.class)
+	    return m_conversation_index;
+	return -1;
+    }
+    
+    private Object getFilterKey(MessageFilter _filter, int _index)
+    {
+	if (_filter instanceof IndexedMessageFilter)
+	{
+	    IndexedMessageFilter f=(IndexedMessageFilter)_filter;
+	    switch(_index)
+	    {
+		case m_class_index:
+		    return f.getMessageClass();
+		case m_conversation_index:
+		    return f.getConversationID();
+		case m_sender_index:
+		    return f.getSender();
+	    }
+	    return null;
+	}
+	return getConversationID((ConversationFilter)_filter);
+    }
+    
+    /**
+     * Returns the first node of the messages which can be accepted by the given filter, or null if there is no candidate message.
+     * @param _last true if the chain must be read from its end
+     */
+    private Node getFirstCandidate(MessageFilter _filter, int _index, boolean _last)
+    {
+	if (_index<0)
+	    return _last?m_messages.m_last:m_messages.m_first;
+	Chain c=m_indexes[_index].get(getFilterKey(_filter, _index));
+	if (c==null)
+	    return null;
+	return _last?c.m_last:c.m_first;
+    }
+    
+    /**
+     * Retrieves and removes the oldest message.
+     * @return the oldest message, or null if this mailbox is empty
+     */
+    public synchronized Message poll()
+    {
+	Node n=m_messages.m_first;
+	if (n==null)
+	    return null;
+	return read(n);
+    }
+    
+    /**
+     * Retrieves and removes the most recent message.
+     * @return the most recent message, or null if this mailbox is empty
+     */
+    public synchronized Message pollLast()
+    {
+	Node n=m_messages.m_last;
+	if (n==null)
+	    return null;
+	return read(n);
+    }
+    
+    /**
+     * Retrieves and removes the oldest message accepted by the given filter.
+     * @param _filter the filter
+     * @return the oldest accepted message, or null if no message is accepted
+     */
+    public synchronized Message poll(MessageFilter _filter)
+    {
+	int index=getIndex(_filter);
+	int link=index<0?m_all:index;
+	for (Node n=getFirstCandidate(_filter, index, false);n!=null;n=n.m_next[link])
+	{
+	    if (_filter.accept(n.m_message))
+		return read(n);
+	}
+	return null;
+    }
+    
+    /**
+     * Retrieves and removes the most recent message accepted by the given filter.
+     * @param _filter the filter
+     * @return the most recent accepted message, or null if no message is accepted
+     */
+    public synchronized Message pollLast(MessageFilter _filter)
+    {
+	int index=getIndex(_filter);
+	int link=index<0?m_all:index;
+	for (Node n=getFirstCandidate(_filter, index, true);n!=null;n=n.m_previous[link])
+	{
+	    if (_filter.accept(n.m_message))
+		return read(n);
+	}
+	return null;
+    }
+    
+    /**
+     * Retrieves and removes all the messages accepted by the given filter.
+     * @param _filter the filter, or <code>null</code> to retrieve all the messages
+     * @return the ordered list of accepted messages, or an empty list if no message is accepted
+     */
+    public synchronized List<Message> pollAll(MessageFilter _filter)
+    {
+	if (_filter==null)
+	{
+	    ArrayList<Message> res=new ArrayList<Message>(m_messages.m_size);
+	    long time=System.nanoTime();
+	    for (Node n=m_messages.m_first;n!=null;n=n.m_next[m_all])
+	    {
+		res.add(n.m_message);
+		countRead(n, time);
+	    }
+	    clear();
+	    return res;
+	}
+	ArrayList<Message> res=new ArrayList<Message>();
+	int index=getIndex(_filter);
+	int link=index<0?m_all:index;
+	Node n=getFirstCandidate(_filter, index, false);
+	while (n!=null)
+	{
+	    Node next=n.m_next[link];
+	    if (_filter.accept(n.m_message))
+		res.add(read(n));
+	    n=next;
+	}
+	return res;
+    }
+    
+    /**
+     * Removes all the messages and returns the most recent one.
+     * @return the most recent message, or null if this mailbox was empty
+     */
+    public Message purge()
+    {
+	Node n;
+	ArrayList<Node> purged;
+	synchronized(this)
+	{
+	    n=m_messages.m_last;
+	    if (n==null)
+		return null;
+	    purged=getNodes();
+	    clear();
+	    countRead(n, System.nanoTime());
+	}
+	for (int i=purged.size()-2;i>=0;i--)
+	    PooledMessage.release(purged.get(i).m_message);
+	return n.m_message;
+    }
+    
+    private void clear()
+    {
+	m_messages.m_first=null;
+	m_messages.m_last=null;
+	m_messages.m_last_control=null;
+	m_messages.m_size=0;
+	m_data_size=0;
+	for (HashMap<Object, Chain> i : m_indexes)
+	    i.clear();
+    }
+    
+    /**
+     * Retrieves and removes the oldest message accepted by the given filter, waiting if necessary until such a message is received.
+     * @param _filter the filter, or <code>null</code> to accept all messages
+     * @param _timeOutNanos the maximum time to wait in nanoseconds, or a negative value to wait for ever
+     * @return the oldest accepted message, or <code>null</code> if the time out has elapsed
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    public synchronized Message take(MessageFilter _filter, long _timeOutNanos) throws InterruptedException
+    {
+	long end=System.nanoTime()+_timeOutNanos;
+	while (true)
+	{
+	    Message m=_filter==null?poll():poll(_filter);
+	    if (m!=null)
+		return m;
+	    if (_timeOutNanos<0)
+		wait();
+	    else
+	    {
+		long remaining=end-System.nanoTime();
+		if (remaining<=0)
+		    return null;
+		wait(remaining/1000000, (int)(remaining%1000000));
+	    }
+	}
+    }
+    
+    /**
+     * Returns the number of messages.
+     * @return the number of messages
+     */
+    public synchronized int size()
+    {
+	return m_messages.m_size;
+    }
+    
+    /**
+     * Tells if this mailbox is empty.
+     * @return true if there is no message
+     */
+    public synchronized boolean isEmpty()
+    {
+	return m_messages.m_size==0;
+    }
+    
+    private static final class Node
+    {
+	final Message m_message;
+	final Node[] m_previous=new Node[m_all+1];
+	final Node[] m_next=new Node[m_all+1];
+	final Chain[] m_chains=new Chain[m_all];
+	final boolean m_control;
+	final long m_time;
+	Node m_next_evicted=null;
+	
+	Node(Message _m, boolean _control, long _time)
+	{
+	    m_message=_m;
+	    m_control=_control;
+	    m_time=_time;
+	}
+    }
+    
+    private static final class Chain
+    {
+	final Object m_key;
+	Node m_first=null;
+	Node m_last=null;
+	//the priority control messages are always at the beginning of the chain
+	Node m_last_control=null;
+	int m_size=0;
+	
+	Chain(Object _key)
+	{
+	    m_key=_key;
+	}
+	
+	void add(Node n, int _link, boolean _priority)
+	{
+	    Node p=_priority?m_last_control:m_last;
+	    Node nx=p==null?m_first:p.m_next[_link];
+	    n.m_previous[_link]=p;
+	    n.m_next[_link]=nx;
+	    if (p==null)
+		m_first=n;
+	    else
+		p.m_next[_link]=n;
+	    if (nx==null)
+		m_last=n;
+	    else
+		nx.m_previous[_link]=n;
+	    if (_priority)
+		m_last_control=n;
+	    ++m_size;
+	    if (_link<m_all)
+		n.m_chains[_link]=this;
+	}
+	
+	void remove(Node n, int _link)
+	{
+	    if (n==m_last_control)
+		m_last_control=n.m_previous[_link];
+	    Node p=n.m_previous[_link];
+	    Node nx=n.m_next[_link];
+	    if (p==null)
+		m_first=nx;
+	    else
+		p.m_next[_link]=nx;
+	    if (nx==null)
+		m_last=p;
+	    else
+		nx.m_previous[_link]=p;
+	    --m_size;
+	}
+    }
+    
+    private static Object getConversationID(ConversationFilter _filter)
+    {
+	try
+	{
+	    return m_conversation_id_field.get(_filter);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to read the field conversationID of the class ConversationFilter. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    private static Field m_conversation_id_field=null;
+    static
+    {
+	try
+	{
+	    m_conversation_id_field=ConversationFilter.class.getDeclaredField("conversationID");
+	    m_conversation_id_field.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the field conversationID of the class ConversationFilter. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchFieldException e)
+	{
+	    System.err.println("Impossible to found to the field conversationID of the class ConversationFilter. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import madkit.kernel.AgentAddress;
+import madkit.kernel.ConversationID;
+import madkit.kernel.Message;
+import madkit.message.MessageFilter;
+
+/**
+ * A message filter which declares the keys that an accepted message must have. 
+ * 
+ * When an agent uses an indexed mailbox (see {@link AbstractAgent#setIndexedMailbox(boolean)}), 
+ * the messages are indexed by class, by conversation ID and by sender. 
+ * A filter implementing this interface is then only applied to the messages having the declared key, 
+ * instead of the whole mailbox. If several keys are declared, the conversation ID is used first, then the sender, then the class. 
+ * The function {@link #accept(Message)} must still check every condition of the filter. 
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see IndexKeyFilter
+ * @see IndexedMailbox
+ */
+public interface IndexedMessageFilter extends MessageFilter
+{
+    /**
+     * Returns the exact class of the accepted messages.
+     * @return the class of the accepted messages, or <code>null</code> if the filter does not depend on the message class
+     */
+    public Class<? extends Message> getMessageClass();
+    
+    /**
+     * Returns the conversation ID of the accepted messages.
+     * @return the conversation ID of the accepted messages, or <code>null</code> if the filter does not depend on the conversation ID
+     */
+    public ConversationID getConversationID();
+    
+    /**
+     * Returns the sender of the accepted messages.
+     * @return the sender of the accepted messages, or <code>null</code> if the filter does not depend on the sender
+     */
+    public AgentAddress getSender();
+}
@@ -0,0 +1,168 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+import madkit.agr.LocalCommunity;
+import madkit.agr.Organization;
+import madkit.kernel.KernelAddress;
+import madkit.kernel.Message;
+import madkit.message.hook.AgentLifeEvent;
+import madkit.message.hook.HookMessage;
+import madkit.message.hook.HookMessage.AgentActionEvent;
+
+/**
+ * The hidden agent which releases the kernel level caches of MadKitGroupExtension when the kernel stops.
+ * 
+ * MadKit does not call the end method of the agents which are not threaded when the kernel stops. So the observer
+ * is informed by MadKit of the termination of the agents, and releases the caches of its kernel when the
+ * MadKit kernel agent itself terminates. One observer is launched for each kernel, by the first agent which fills
+ * a kernel level cache (see {@link #observe(madkit.kernel.AbstractAgent)}).
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see MessageRouter
+ * @see DistributedRoutingCache
+ * @see AutoRequestEngine
+ */
+final class KernelObserver extends madkit.kernel.AbstractAgent
+{
+    private static final HashMap<KernelAddress, KernelObserver> m_observers=new HashMap<KernelAddress, KernelObserver>();
+    
+    private final KernelAddress m_kernel_address;
+    private Object m_madkit_kernel=null;
+    
+    private KernelObserver(KernelAddress ka)
+    {
+	m_kernel_address=ka;
+    }
+    
+    /**
+     * Launches the observer of the kernel of the given agent, if it has not been launched yet.
+     * @param _requester the agent which fills a kernel level cache
+     */
+    static void observe(madkit.kernel.AbstractAgent _requester)
+    {
+	KernelAddress ka=_requester.getKernelAddress();
+	KernelObserver o;
+	synchronized(m_observers)
+	{
+	    if (m_observers.containsKey(ka))
+		return;
+	    o=new KernelObserver(ka);
+	    m_observers.put(ka, o);
+	}
+	launchHiddenAgent(_requester, o);
+    }
+    
+    @Override protected void activate()
+    {
+	m_madkit_kernel=invoke(m_get_madkit_kernel_method, this);
+	sendMessage(LocalCommunity.NAME, LocalCommunity.Groups.SYSTEM, Organization.GROUP_MANAGER_ROLE, new HookMessage(AgentActionEvent.AGENT_TERMINATED));
+    }
+    
+    @Override public void receiveMessage(Message _m)
+    {
+	//the hook events are received into the thread which kills the agent. They are never stored.
+	if (_m instanceof AgentLifeEvent && ((AgentLifeEvent)_m).getSource()==m_madkit_kernel)
+	    kernelEnded();
+    }
+    
+    private void kernelEnded()
+    {
+	synchronized(m_observers)
+	{
+	    if (m_observers.get(m_kernel_address)==this)
+		m_observers.remove(m_kernel_address);
+	}
+	MessageRouter.removeRouters(m_kernel_address);
+	DistributedRoutingCache.removeCache(m_kernel_address);
+	AutoRequestEngine.removeEngine(m_kernel_address);
+    }
+    
+    /**
+     * Launches the given agent, which is not a MadKitGroupExtension agent, through the MadKit kernel, without registering it into the MadKit GUI.
+     * @param _requester the agent which launches the given agent
+     * @param _agent the agent to launch
+     */
+    static void launchHiddenAgent(madkit.kernel.AbstractAgent _requester, madkit.kernel.AbstractAgent _agent)
+    {
+	invoke(m_launch_agent_method, invoke(m_get_kernel_method, _requester), _requester, _agent, Integer.valueOf(Integer.MAX_VALUE), Boolean.FALSE);
+    }
+    
+    private static Object invoke(Method _method, Object _object, Object ..._args)
+    {
+	try
+	{
+	    return _method.invoke(_object, _args);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to call the function "+_method.getName()+" of the class "+_method.getDeclaringClass().getName()+". This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+	catch (InvocationTargetException e)
+	{
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    private static Method m_get_kernel_method=null;
+    private static Method m_get_madkit_kernel_method=null;
+    private static Method m_launch_agent_method=null;
+    static
+    {
+	try
+	{
+	    m_get_kernel_method=madkit.kernel.AbstractAgent.class.getDeclaredMethod("getKernel");
+	    m_get_kernel_method.setAccessible(true);
+	    m_get_madkit_kernel_method=madkit.kernel.AbstractAgent.class.getDeclaredMethod("getMadkitKernel");
+	    m_get_madkit_kernel_method.setAccessible(true);
+	    m_launch_agent_method=m_get_kernel_method.getReturnType().getDeclaredMethod("launchAgent", madkit.kernel.AbstractAgent.class, madkit.kernel.AbstractAgent.class, int.class, boolean.class);
+	    m_launch_agent_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the functions getKernel and launchAgent of the MadKit kernel. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the functions getKernel and launchAgent of the MadKit kernel. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
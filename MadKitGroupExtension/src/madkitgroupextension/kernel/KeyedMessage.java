@@ -0,0 +1,54 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+/**
+ * A message which gives the key used by the {@link RoutingStrategy#CONSISTENT_HASHING} strategy.
+ * 
+ * Here a typical use :
+ * <pre>
+ * public class OrderMessage extends Message implements KeyedMessage
+ * {
+ *     private final String m_customer;
+ *     ...
+ *     public Object getRoutingKey()
+ *     {
+ *         return m_customer;
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see RoutingStrategy#CONSISTENT_HASHING
+ */
+public interface KeyedMessage
+{
+    /**
+     * Returns the key of this message. Messages having equal keys are sent to the same recipient.
+     * @return the key of this message, or <code>null</code> if the recipient can be chosen randomly.
+     */
+    public Object getRoutingKey();
+}
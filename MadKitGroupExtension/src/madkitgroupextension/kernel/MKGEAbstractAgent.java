@@ -22,6 +22,7 @@
 package madkitgroupextension.kernel;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -226,6 +227,43 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 * @see AgentAddress
 	 */
     public ReturnCode sendMessageWithRole(final AgentAddress receiver, final Message message, final String senderRole);
+
+	/**
+	 * Sends a message to several agents, using their agent addresses. This has the same effect as
+	 * <code>sendMessagesWithRole(receivers, messageToSend, null)</code>.
+	 * 
+	 * @param _receivers
+	 *           the targeted agents
+	 * @param _messageToSend
+	 *           the message to send
+	 * @return the return code of the send for each recipient
+	 * @see BulkSendReport
+	 * @see #sendMessagesWithRole(Collection, Message, String)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public BulkSendReport sendMessages(Collection<AgentAddress> _receivers, Message _messageToSend);
+
+	/**
+	 * Sends a message to several agents, using their agent addresses, specifying explicitly the role
+	 * used to send it. Each recipient receives its own copy of the message, excepted the last one 
+	 * which receives the given instance. 
+	 * 
+	 * The recipients are grouped by targeted group and role. The sender is checked once for each of them : 
+	 * the remaining recipients of the local kernel are then directly delivered, or rejected with 
+	 * the same return code when the sender is not a member of the group or does not handle the given role.
+	 * 
+	 * @param _receivers
+	 *           the targeted agents
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _senderRole
+	 *           the agent's role with which the message has to be sent
+	 * @return the return code of the send for each recipient (see {@link #sendMessageWithRole(AgentAddress, Message, String)} 
+	 * 		for the possible return codes)
+	 * @see BulkSendReport
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public BulkSendReport sendMessagesWithRole(Collection<AgentAddress> _receivers, Message _messageToSend, String _senderRole);
     
 	/**
 	 * Sends a message by replying to a previously received message. The sender
@@ -296,6 +334,91 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 * @param m the received message
 	 */
     public void receiveMessage(final Message m);
+
+	/**
+	 * Enables or disables the step synchronous mailbox of this agent. 
+	 * When it is enabled, the messages sent to this agent by other agents during a simulation step are buffered, 
+	 * and are received at the end of the step, i.e. after the call of {@link Scheduler#doSimulationStep()} by the step loop 
+	 * of the scheduler having an activator on one of the roles of this agent. 
+	 * So the messages read by this agent during a step do not depend on the execution order of the other agents. 
+	 * The messages are directly received while no scheduler steps this agent. 
+	 * When it is disabled, the buffered messages are immediately received.
+	 * 
+	 * @param _enabled
+	 *           true if the step synchronous mailbox must be used
+	 * @see StepMailbox
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public void setStepSynchronousMailbox(boolean _enabled);
+
+	/**
+	 * Tells if this agent uses a step synchronous mailbox.
+	 * 
+	 * @return true if the messages sent to this agent are received at the end of each simulation step
+	 * @see #setStepSynchronousMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public boolean isStepSynchronousMailbox();
+
+	/**
+	 * Enables or disables the indexed mailbox of this agent. 
+	 * When it is enabled, the received messages are stored into an {@link IndexedMailbox}, which indexes them by class, 
+	 * by conversation ID and by sender. The functions {@link #nextMessage(MessageFilter)}, {@link #nextMessages(MessageFilter)} 
+	 * and {@link #getLastReceivedMessage(MessageFilter)} then only apply the filters which declare index keys 
+	 * (see {@link IndexedMessageFilter} and {@link IndexKeyFilter}) to the messages having these keys, 
+	 * instead of scanning the whole mailbox. The messages already received are moved between the two mailboxes. 
+	 * 
+	 * @param _enabled
+	 *           true if the indexed mailbox must be used
+	 * @see IndexedMailbox
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public void setIndexedMailbox(boolean _enabled);
+
+	/**
+	 * Tells if this agent uses an indexed mailbox.
+	 * 
+	 * @return true if the received messages are indexed
+	 * @see #setIndexedMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public boolean isIndexedMailbox();
+
+	/**
+	 * Sets the policy of the mailbox of this agent, and enables the indexed mailbox (see {@link #setIndexedMailbox(boolean)}). 
+	 * The policy can give the priority to the control messages (see {@link ControlMessage}), which are then read before the other messages. 
+	 * It can also bound the number of waiting messages which are not control messages. A message received while the mailbox is full 
+	 * is dropped, evicts the oldest waiting message, or is rejected with a {@link RejectedMessage} sent back to its sender. 
+	 * The messages already received are kept. Disabling the indexed mailbox restores an unbounded mailbox without priorities.
+	 * 
+	 * @param _policy
+	 *           the mailbox policy
+	 * @see MailboxPolicy
+	 * @see #getMailboxStatistics()
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public void setMailboxPolicy(MailboxPolicy _policy);
+
+	/**
+	 * Returns the policy of the mailbox of this agent.
+	 * 
+	 * @return the mailbox policy, or {@link MailboxPolicy#UNBOUNDED} if this agent does not use an indexed mailbox
+	 * @see #setMailboxPolicy(MailboxPolicy)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public MailboxPolicy getMailboxPolicy();
+
+	/**
+	 * Returns a snapshot of the activity of the mailbox of this agent : its depth, the number of dropped and rejected messages, 
+	 * the enqueue latency and the time spent by the messages into the mailbox. 
+	 * The activity is measured from the activation of the indexed mailbox.
+	 * 
+	 * @return the mailbox statistics, or <code>null</code> if this agent does not use an indexed mailbox
+	 * @see #setMailboxPolicy(MailboxPolicy)
+	 * @see #setIndexedMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public MailboxStatistics getMailboxStatistics();
     
 	/**
 	 * Gets the MadKit session property indicated by the specified key. This call
@@ -583,6 +706,34 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 */
     public ReturnCode broadcastMessageWithRole(AbstractGroup _group, String _roleName, Message _m, String _senderRole);
     
+	/**
+	 * Broadcasts a message to every agent having a role in the represented groups of the given abstract group,
+	 * using a specific role for the sender. The sender is excluded from the search.
+	 * 
+	 * This function is deprecated and has the same effect that 
+	 * <code>this.broadcastMessageWithRole(_group, _roleName, _m, _senderRole)</code>.
+	 * 
+	 * @param _group
+	 *           the group(s) and the community(ies) name
+	 * @param _roleName
+	 *           the role name
+	 * @param _m
+	 * 	     the message
+	 * @param _senderRole
+	 *           the role name of the sender
+	 * @param _shareMessage
+	 *           ignored : each recipient receives its own copy of the message, since the sender and the receiver 
+	 *           of a message are set for each recipient.
+	 * @return the same return codes than {@link #broadcastMessageWithRole(AbstractGroup, String, Message, String)}
+	 * @see ReturnCode
+	 * @see AbstractGroup
+	 * @see Group
+	 * @see MultiGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Deprecated
+    public ReturnCode broadcastMessageWithRole(AbstractGroup _group, String _roleName, Message _m, String _senderRole, boolean _shareMessage);
+    
     
 	/**
 	 * Returns the agent address of this agent at this CGR location.
@@ -629,7 +780,8 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 *           if <code>false</code>, the caller is removed from the list if it
 	 *           is in.
 	 * @return a {@link java.util.List} containing agents that handle this role
-	 *         or <code>null</code> if no agent has been found.
+	 *         or <code>null</code> if no agent has been found. This list is cached and shared between 
+	 *         the callers until the agents handling this role change. So it cannot be modified.
 	 * @see AbstractGroup
 	 * @see Group
 	 * @see MultiGroup
@@ -637,6 +789,39 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 */
     public List<AgentAddress> getAgentsWithRole(AbstractGroup _group, String _role, boolean callerIncluded);
 
+	/**
+	 * Gives to the given consumer each agent that handles this role in the organization, the caller excluded. 
+	 * The agents are the same than those returned by {@link #getAgentsWithRole(AbstractGroup, String)}, 
+	 * but no list is built to merge the represented groups. 
+	 * When the agents are cached by the kernel, no memory is allocated.  
+	 * 
+	 * @param _group
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _consumer
+	 *           the consumer receiving each agent address
+	 * @see AgentAddressConsumer
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public void forEachAgentWithRole(AbstractGroup _group, String _role, AgentAddressConsumer _consumer);
+
+	/**
+	 * Returns the number of agents that handle this role in the organization, the caller excluded. 
+	 * The result is the size of the list returned by {@link #getAgentsWithRole(AbstractGroup, String)}, 
+	 * but no list is built to merge the represented groups.  
+	 * 
+	 * @param _group
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @return the number of agents handling this role
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public int countAgentsWithRole(AbstractGroup _group, String _role);
+
     
 	/**
 	 * Returns an {@link AgentAddress} corresponding to an agent having this
@@ -800,6 +985,71 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 */
     public ReturnCode requestRole(Group _group, String _role);
 
+	/**
+	 * Requests several roles, possibly within several groups, in one call. This has the
+	 * same effect as <code>requestRoles(roles, null)</code>.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #requestRoles(Collection, Object)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] requestRoles(Collection<Role> _roles);
+
+	/**
+	 * Requests several roles, possibly within several groups, in one call. 
+	 * The missing groups are created once, the references of each group are updated once for all its roles, 
+	 * and the changement of the groups is notified once at the end of the call (i.e. to the probes, 
+	 * the activators and the auto-requested roles).
+	 * 
+	 * Each role is requested with the same semantic than {@link #requestRole(Group, String, Object)}.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @param _passKey
+	 *           the <code>passKey</code> to enter secured groups. It
+	 *           could be <code>null</code>.
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #requestRole(Group, String, Object)
+	 * @see Role
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] requestRoles(Collection<Role> _roles, Object _passKey);
+
+	/**
+	 * Abandons several roles, possibly within several groups, in one call. 
+	 * The references of each group are updated once for all its roles, and the changement of the groups 
+	 * is notified once at the end of the call.
+	 * 
+	 * Each role is left with the same semantic than {@link #leaveRole(Group, String)}.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #leaveRole(Group, String)
+	 * @see Role
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] leaveRoles(Collection<Role> _roles);
+
+	/**
+	 * Makes this agent leave several groups in one call. The changement of the groups is notified once at the end of the call.
+	 * 
+	 * Each group is left with the same semantic than {@link #leaveGroup(Group)}.
+	 * 
+	 * @param _groups
+	 *           the groups
+	 * @return the return code of each group, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #leaveGroup(Group)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] leaveGroups(Collection<Group> _groups);
+
     
     
 	/**
@@ -878,6 +1128,84 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 * @since MadKitGroupExtension 1.0
 	 */
     public ReturnCode sendMessageWithRole(AbstractGroup _group, String _role, Message _messageToSend, String _senderRole);
+
+	/**
+	 * Sends a message to an agent having this position in the organization, chosen according the given routing strategy. 
+	 * This has the same effect as
+	 * <code>sendMessageWithRole(groups, role, messageToSend, null, strategy)</code>.
+	 * The sender is excluded from this search.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _strategy
+	 *           the strategy used to choose the recipient
+	 * @return <ul>
+	 *         <li><code>{@link ReturnCode#SUCCESS}</code>: If the send has
+	 *         succeeded.</li>
+	 *         <li><code>{@link ReturnCode#NOT_COMMUNITY}</code>: If the
+	 *         community does not exist.</li>
+	 *         <li><code>{@link ReturnCode#NOT_GROUP}</code>: If the group does
+	 *         not exist.</li>
+	 *         <li><code>{@link ReturnCode#NOT_ROLE}</code>: If the role does not
+	 *         exist.</li>
+	 *         <li><code>{@link ReturnCode#NOT_IN_GROUP}</code>: If this agent is
+	 *         not a member of the targeted group.</li>
+	 *         <li><code>{@link ReturnCode#NO_RECIPIENT_FOUND}</code>: If no
+	 *         agent was found as recipient, i.e. the sender was the only agent
+	 *         having this role.</li>
+	 *         </ul>
+	 * @see ReturnCode
+	 * @see RoutingStrategy
+	 * @see MessageRouter
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode sendMessage(AbstractGroup _groups, String _role, Message _messageToSend, RoutingStrategy _strategy);
+
+	/**
+	 * Sends a message to an agent having this position in the organization, chosen according the given routing strategy. 
+	 * The recipients ring and the send counters of each abstract group/role couple are maintained by a {@link MessageRouter}, 
+	 * which can be obtained with <code>MessageRouter.getRouter(getKernelAddress(), groups, role)</code>.
+	 * The sender is excluded from this search.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _senderRole
+	 *           the agent's role with which the message has to be sent
+	 * @param _strategy
+	 *           the strategy used to choose the recipient
+	 * @return <ul>
+	 *         <li><code>{@link ReturnCode#SUCCESS}</code>: If the send has
+	 *         succeeded.</li>
+	 *         <li><code>{@link ReturnCode#NOT_COMMUNITY}</code>: If the
+	 *         community does not exist.</li>
+	 *         <li><code>{@link ReturnCode#NOT_GROUP}</code>: If the group does
+	 *         not exist.</li>
+	 *         <li><code>{@link ReturnCode#NOT_ROLE}</code>: If the role does not
+	 *         exist.</li>
+	 *         <li><code>{@link ReturnCode#ROLE_NOT_HANDLED}</code>: If
+	 *         <code>senderRole</code> is not handled by this agent.</li>
+	 *         <li><code>{@link ReturnCode#NOT_IN_GROUP}</code>: If this agent is
+	 *         not a member of the targeted group.</li>
+	 *         <li><code>{@link ReturnCode#NO_RECIPIENT_FOUND}</code>: If no
+	 *         agent was found as recipient, i.e. the sender was the only agent
+	 *         having this role.</li>
+	 *         </ul>
+	 * @see ReturnCode
+	 * @see RoutingStrategy
+	 * @see MessageRouter
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode sendMessageWithRole(AbstractGroup _groups, String _role, Message _messageToSend, String _senderRole, RoutingStrategy _strategy);
     
 	/**
 	 * Compares this agent with the specified agent for order with respect to
@@ -953,6 +1281,34 @@ public interface MKGEAbstractAgent extends GroupChangementNotifier
 	 * @since MadKitGroupExtension 1.0
 	 */
     public ReturnCode killAgent(madkit.kernel.AbstractAgent _target, int _timeOutSeconds);
+    
+	/**
+	 * Kills several agents at once. This has the same effect as
+	 * <code>killAgents(targets,Integer.MAX_VALUE)</code>.
+	 * 
+	 * @param _targets the agents to kill
+	 * @return the return code of each kill, in the iteration order of the given collection
+	 * @see #killAgents(Collection, int)
+	 * @throws IllegalArgumentException When one of the given agents don't implement the interface MadKitGroupExtensionAgent
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] killAgents(Collection<? extends madkit.kernel.AbstractAgent> _targets);
+    
+	/**
+	 * Kills several agents at once, i.e. at the end of an epoch or to cull a population. 
+	 * Each agent is killed like with {@link #killAgent(madkit.kernel.AbstractAgent, int)}, but the roles of the killed agents 
+	 * are not released one by one : they are aggregated by group, and each group is updated once when all the agents 
+	 * have been killed. So each group which becomes empty is deactivated once, and only one changement 
+	 * of the groups is notified (i.e. to the probes, the activators and the auto-requested roles).
+	 * 
+	 * @param _targets the agents to kill
+	 * @param _timeOutSeconds the time given to each agent to complete its end method
+	 * @return the return code of each kill, in the iteration order of the given collection
+	 * @see #killAgent(madkit.kernel.AbstractAgent, int)
+	 * @throws IllegalArgumentException When one of the given agents don't implement the interface MadKitGroupExtensionAgent
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    public ReturnCode[] killAgents(Collection<? extends madkit.kernel.AbstractAgent> _targets, int _timeOutSeconds);
 
     
 	/**
@@ -0,0 +1,136 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+/**
+ * Describes how the mailbox of an agent orders its messages, and what it does when it is full.
+ * 
+ * When priorities are enabled, the control messages (see {@link ControlMessage}) are read before the other messages, 
+ * whatever their reception order. When a capacity is given, it limits the number of waiting messages which are not control messages. 
+ * A message received while the mailbox is full is handled according the {@link OverflowPolicy}.
+ * 
+ * Here a typical use :
+ * <pre>
+ * setMailboxPolicy(new MailboxPolicy(true, 1000, MailboxPolicy.OverflowPolicy.DROP_OLDEST));
+ * ...
+ * MailboxStatistics s=getMailboxStatistics();
+ * </pre>
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#setMailboxPolicy(MailboxPolicy)
+ * @see MailboxStatistics
+ */
+public final class MailboxPolicy
+{
+    /**
+     * What a full mailbox does with a new message.
+     */
+    public static enum OverflowPolicy
+    {
+	/**
+	 * The new message is dropped.
+	 */
+	DROP_NEWEST,
+	/**
+	 * The oldest waiting message, which is not a control message, is dropped.
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new message is dropped, and a {@link RejectedMessage} is sent back to its sender.
+	 */
+	REJECT
+    }
+    
+    /**
+     * An unbounded mailbox without priorities.
+     */
+    public static final MailboxPolicy UNBOUNDED=new MailboxPolicy(false, 0, OverflowPolicy.DROP_NEWEST);
+    
+    private final boolean m_priorities;
+    private final int m_capacity;
+    private final OverflowPolicy m_overflow_policy;
+    
+    /**
+     * Builds a mailbox policy.
+     * 
+     * @param _priorities true if the control messages must be read before the other messages
+     * @param _capacity the maximum number of waiting messages which are not control messages, or 0 for an unbounded mailbox 
+     * @param _overflowPolicy what the mailbox does with a new message when it is full
+     * @throws IllegalArgumentException if the capacity is negative
+     * @throws NullPointerException if the overflow policy is null
+     */
+    public MailboxPolicy(boolean _priorities, int _capacity, OverflowPolicy _overflowPolicy)
+    {
+	if (_capacity<0)
+	    throw new IllegalArgumentException("The capacity ("+_capacity+") must be positive or null !");
+	if (_overflowPolicy==null)
+	    throw new NullPointerException("_overflowPolicy");
+	m_priorities=_priorities;
+	m_capacity=_capacity;
+	m_overflow_policy=_overflowPolicy;
+    }
+    
+    /**
+     * Tells if the control messages are read before the other messages.
+     * @return true if priorities are enabled
+     */
+    public boolean hasPriorities()
+    {
+	return m_priorities;
+    }
+    
+    /**
+     * Returns the maximum number of waiting messages which are not control messages.
+     * @return the capacity, or 0 if the mailbox is unbounded
+     */
+    public int getCapacity()
+    {
+	return m_capacity;
+    }
+    
+    /**
+     * Tells if the mailbox is bounded.
+     * @return true if the capacity is limited
+     */
+    public boolean isBounded()
+    {
+	return m_capacity>0;
+    }
+    
+    /**
+     * Returns what the mailbox does with a new message when it is full.
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+	return m_overflow_policy;
+    }
+    
+    @Override public String toString()
+    {
+	return "MailboxPolicy[priorities="+m_priorities+", capacity="+(m_capacity==0?"unbounded":Integer.toString(m_capacity))+", overflow="+m_overflow_policy+"]";
+    }
+}
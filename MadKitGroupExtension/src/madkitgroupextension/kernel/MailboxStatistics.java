@@ -0,0 +1,163 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+/**
+ * A snapshot of the activity of the mailbox of an agent.
+ * 
+ * The enqueue latency is the time spent by the sending thread to store a message into the mailbox, 
+ * including the time spent to wait for the mailbox lock. The waiting time is the time spent by a message 
+ * into the mailbox, between its reception and its reading by the agent.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#getMailboxStatistics()
+ * @see MailboxPolicy
+ */
+public final class MailboxStatistics
+{
+    private final int m_depth;
+    private final int m_max_depth;
+    private final long m_received;
+    private final long m_dropped;
+    private final long m_rejected;
+    private final long m_total_enqueue_latency;
+    private final long m_max_enqueue_latency;
+    private final long m_read;
+    private final long m_total_waiting_time;
+    private final long m_max_waiting_time;
+    
+    MailboxStatistics(int _depth, int _max_depth, long _received, long _dropped, long _rejected, long _total_enqueue_latency, long _max_enqueue_latency, long _read, long _total_waiting_time, long _max_waiting_time)
+    {
+	m_depth=_depth;
+	m_max_depth=_max_depth;
+	m_received=_received;
+	m_dropped=_dropped;
+	m_rejected=_rejected;
+	m_total_enqueue_latency=_total_enqueue_latency;
+	m_max_enqueue_latency=_max_enqueue_latency;
+	m_read=_read;
+	m_total_waiting_time=_total_waiting_time;
+	m_max_waiting_time=_max_waiting_time;
+    }
+    
+    /**
+     * Returns the number of waiting messages.
+     * @return the number of waiting messages
+     */
+    public int getDepth()
+    {
+	return m_depth;
+    }
+    
+    /**
+     * Returns the highest number of waiting messages observed.
+     * @return the highest depth of the mailbox
+     */
+    public int getMaxDepth()
+    {
+	return m_max_depth;
+    }
+    
+    /**
+     * Returns the number of received messages, including the dropped and the rejected ones.
+     * @return the number of received messages
+     */
+    public long getReceivedCount()
+    {
+	return m_received;
+    }
+    
+    /**
+     * Returns the number of messages dropped because the mailbox was full 
+     * ({@link MailboxPolicy.OverflowPolicy#DROP_NEWEST} and {@link MailboxPolicy.OverflowPolicy#DROP_OLDEST}).
+     * @return the number of dropped messages
+     */
+    public long getDroppedCount()
+    {
+	return m_dropped;
+    }
+    
+    /**
+     * Returns the number of messages rejected because the mailbox was full ({@link MailboxPolicy.OverflowPolicy#REJECT}).
+     * @return the number of rejected messages
+     */
+    public long getRejectedCount()
+    {
+	return m_rejected;
+    }
+    
+    /**
+     * Returns the average enqueue latency.
+     * @return the average enqueue latency in nanoseconds, or 0 if no message has been received
+     */
+    public long getAverageEnqueueLatency()
+    {
+	return m_received==0?0:m_total_enqueue_latency/m_received;
+    }
+    
+    /**
+     * Returns the highest enqueue latency.
+     * @return the highest enqueue latency in nanoseconds
+     */
+    public long getMaxEnqueueLatency()
+    {
+	return m_max_enqueue_latency;
+    }
+    
+    /**
+     * Returns the number of messages read by the agent.
+     * @return the number of read messages
+     */
+    public long getReadCount()
+    {
+	return m_read;
+    }
+    
+    /**
+     * Returns the average time spent by the read messages into the mailbox.
+     * @return the average waiting time in nanoseconds, or 0 if no message has been read
+     */
+    public long getAverageWaitingTime()
+    {
+	return m_read==0?0:m_total_waiting_time/m_read;
+    }
+    
+    /**
+     * Returns the highest time spent by a read message into the mailbox.
+     * @return the highest waiting time in nanoseconds
+     */
+    public long getMaxWaitingTime()
+    {
+	return m_max_waiting_time;
+    }
+    
+    @Override public String toString()
+    {
+	return "MailboxStatistics[depth="+m_depth+", maxDepth="+m_max_depth+", received="+m_received+", dropped="+m_dropped+", rejected="+m_rejected
+		+", avgEnqueueLatency="+getAverageEnqueueLatency()+"ns, maxEnqueueLatency="+m_max_enqueue_latency
+		+"ns, read="+m_read+", avgWaitingTime="+getAverageWaitingTime()+"ns, maxWaitingTime="+m_max_waiting_time+"ns]";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A pool of messages of the same type, which recycles the released messages instead of letting them to the garbage collector.
+ * 
+ * The pool keeps at most a given number of free messages. When it is empty, a new message is built. 
+ * The pool can be shared by several agents and threads.
+ * 
+ * Here a typical use :
+ * <pre>
+ * private static final MessagePool&lt;MyMessage&gt; pool=new MessagePool&lt;&gt;(MyMessage.class);
+ * ...
+ * MyMessage m=pool.acquire();
+ * </pre>
+ * 
+ * @param <M> the type of the pooled messages
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see PooledMessage
+ */
+public class MessagePool<M extends PooledMessage>
+{
+    private final Constructor<M> m_constructor;
+    private final PooledMessage[] m_free_messages;
+    private int m_size=0;
+    private long m_acquired=0;
+    private long m_built=0;
+    
+    /**
+     * Builds a pool which keeps at most 1024 free messages.
+     * @param _class the class of the pooled messages, which must have a public constructor without argument
+     * @throws IllegalArgumentException if the class has no public constructor without argument
+     */
+    public MessagePool(Class<M> _class)
+    {
+	this(_class, 1024);
+    }
+    
+    /**
+     * Builds a pool.
+     * @param _class the class of the pooled messages, which must have a public constructor without argument, 
+     * or <code>null</code> if the function {@link #newMessage()} is overridden
+     * @param _capacity the maximum number of free messages kept by this pool
+     * @throws IllegalArgumentException if the capacity is negative, or if the class has no public constructor without argument
+     */
+    public MessagePool(Class<M> _class, int _capacity)
+    {
+	if (_capacity<0)
+	    throw new IllegalArgumentException("The capacity ("+_capacity+") must be positive or null !");
+	if (_class==null)
+	    m_constructor=null;
+	else
+	{
+	    try
+	    {
+		m_constructor=_class.getConstructor();
+	    }
+	    catch (NoSuchMethodException e)
+	    {
+		throw new IllegalArgumentException("The class "+_class+" must have a public constructor without argument !", e);
+	    }
+	}
+	m_free_messages=new PooledMessage[_capacity];
+    }
+    
+    /**
+     * Builds a new message when the pool is empty. 
+     * This function can be overridden in order to build messages which have no public constructor without argument. 
+     * @return a new message
+     */
+    protected M newMessage()
+    {
+	if (m_constructor==null)
+	    throw new IllegalStateException("No class has been given to this pool and the function newMessage() has not been overridden !");
+	try
+	{
+	    return m_constructor.newInstance();
+	}
+	catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
+	{
+	    throw new IllegalStateException("Impossible to build a new message of the class "+m_constructor.getDeclaringClass(), e);
+	}
+    }
+    
+    /**
+     * Returns a free message of this pool, or a new message if this pool is empty. 
+     * The caller owns the first reference to the returned message, which belongs to a new conversation and has no sender and no receiver.
+     * @return a message with one reference
+     */
+    @SuppressWarnings("unchecked")
+    public M acquire()
+    {
+	M m=null;
+	synchronized(this)
+	{
+	    ++m_acquired;
+	    if (m_size>0)
+	    {
+		m=(M)m_free_messages[--m_size];
+		m_free_messages[m_size]=null;
+	    }
+	    else
+		++m_built;
+	}
+	if (m==null)
+	    m=newMessage();
+	m.acquired(this);
+	return m;
+    }
+    
+    void recycle(PooledMessage _m)
+    {
+	synchronized(this)
+	{
+	    if (m_size<m_free_messages.length)
+		m_free_messages[m_size++]=_m;
+	}
+    }
+    
+    /**
+     * Returns the number of free messages kept by this pool.
+     * @return the number of free messages
+     */
+    public synchronized int size()
+    {
+	return m_size;
+    }
+    
+    /**
+     * Returns the number of messages acquired from this pool.
+     * @return the number of calls of {@link #acquire()}
+     */
+    public synchronized long getAcquiredCount()
+    {
+	return m_acquired;
+    }
+    
+    /**
+     * Returns the number of messages built by this pool, i.e. the number of acquisitions which have not been satisfied by a recycled message.
+     * @return the number of built messages
+     */
+    public synchronized long getBuiltCount()
+    {
+	return m_built;
+    }
+    
+    /**
+     * Removes all the free messages from this pool.
+     */
+    public synchronized void clear()
+    {
+	for (int i=0;i<m_size;i++)
+	    m_free_messages[i]=null;
+	m_size=0;
+    }
+    
+    @Override public String toString()
+    {
+	return "MessagePool[class="+(m_constructor==null?"?":m_constructor.getDeclaringClass().getName())+", free="+size()+", acquired="+getAcquiredCount()+", built="+getBuiltCount()+"]";
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import madkit.kernel.AbstractAgent.ReturnCode;
+import madkit.kernel.AgentAddress;
+import madkit.kernel.KernelAddress;
+import madkit.kernel.Message;
+
+/**
+ * Chooses the recipients of the messages sent to one agent handling a role into an abstract group, according a {@link RoutingStrategy}.
+ * 
+ * One router is kept by the kernel for each abstract group/role couple, the abstract groups being identified by their structure, 
+ * so that several instances of the same {@link MultiGroup} share their router. It maintains a ring of the agents handling the role 
+ * into the represented groups of the abstract group. Each agent appears once into the ring, even if it handles the role into 
+ * several groups. The ring is updated only when the list of agents returned by 
+ * {@link AbstractAgent#getAgentsWithRole(AbstractGroup, String, boolean)} changes, i.e. when an agent requests or leaves a role 
+ * into one of the represented groups, so that each strategy chooses its recipient in constant time. The update keeps the 
+ * position and the counters of the remaining recipients, and the sorted positions of the consistent hashing circle. 
+ * When one of the represented groups is distributed over several kernels, the ring is fed by the local and distant agents 
+ * kept by the {@link DistributedRoutingCache}, so that it is updated only when these agents are reloaded. 
+ * The routers of a kernel are removed when the kernel stops.
+ * 
+ * The router counts the messages successfully sent to each recipient. These counters can be read with {@link #getSendCounters()} 
+ * in order to detect hot spots.
+ * 
+ * Here a typical use :
+ * <pre>
+ * sendMessageWithRole(new Group("company", "services"), "worker", new StringMessage("job"), "client", RoutingStrategy.ROUND_ROBIN);
+ * ...
+ * Map&lt;AgentAddress, Long&gt; counters=MessageRouter.getRouter(getKernelAddress(), new Group("company", "services"), "worker").getSendCounters();
+ * </pre>
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see RoutingStrategy
+ * @see AbstractAgent#sendMessageWithRole(AbstractGroup, String, Message, String, RoutingStrategy)
+ */
+public final class MessageRouter
+{
+    private static final int m_max_routed_groups=1024;
+    private static final int m_virtual_nodes=32;
+    private static final int m_max_table_bits=20;
+    private static final Map<KernelAddress, LinkedHashMap<Object, HashMap<String, MessageRouter>>> m_routers=new HashMap<KernelAddress, LinkedHashMap<Object, HashMap<String, MessageRouter>>>();
+    
+    /**
+     * Removes the routers of the given kernel, when it stops.
+     * @param ka the kernel address
+     */
+    static void removeRouters(KernelAddress ka)
+    {
+	synchronized(m_routers)
+	{
+	    m_routers.remove(ka);
+	}
+    }
+    
+    /**
+     * Returns the router corresponding to the given abstract group and the given role.
+     * 
+     * @param ka the used kernel address
+     * @param _group the abstract group
+     * @param _role the role name
+     * @return the router of the given abstract group/role couple
+     * @throws NullPointerException if one of the given arguments is null
+     */
+    public static MessageRouter getRouter(KernelAddress ka, AbstractGroup _group, String _role)
+    {
+	if (ka==null)
+	    throw new NullPointerException("ka");
+	if (_group==null)
+	    throw new NullPointerException("_group");
+	if (_role==null)
+	    throw new NullPointerException("_role");
+	synchronized(m_routers)
+	{
+	    LinkedHashMap<Object, HashMap<String, MessageRouter>> groups=m_routers.get(ka);
+	    if (groups==null)
+	    {
+		groups=new LinkedHashMap<Object, HashMap<String, MessageRouter>>(16, 0.75f, true) {
+		    private static final long serialVersionUID = 6387725170634518954L;
+
+		    @Override protected boolean removeEldestEntry(Map.Entry<Object, HashMap<String, MessageRouter>> _eldest)
+		    {
+			return size()>m_max_routed_groups;
+		    }
+		};
+		m_routers.put(ka, groups);
+	    }
+	    Object key=_group.getStructuralKey();
+	    HashMap<String, MessageRouter> roles=groups.get(key);
+	    if (roles==null)
+	    {
+		roles=new HashMap<String, MessageRouter>();
+		groups.put(key, roles);
+	    }
+	    MessageRouter r=roles.get(_role);
+	    if (r==null)
+	    {
+		r=new MessageRouter(ka, _group.clone(), _role);
+		roles.put(_role, r);
+	    }
+	    return r;
+	}
+    }
+    
+    private final KernelAddress m_kernel_address;
+    private final AbstractGroup m_group;
+    private final String m_role;
+    private volatile Ring m_ring;
+    private final AtomicInteger m_round_robin=new AtomicInteger(0);
+    private volatile boolean m_kernel_observed=false;
+    
+    private MessageRouter(KernelAddress ka, AbstractGroup _group, String _role)
+    {
+	m_kernel_address=ka;
+	m_group=_group;
+	m_role=_role;
+	m_ring=new Ring(null, null, new AgentAddress[0], new Object[0], new AtomicLong[0], new HashMap<Object, Integer>(), new long[0]);
+    }
+    
+    /**
+     * Returns the abstract group of this router.
+     * @return the abstract group of this router
+     */
+    public AbstractGroup getGroup()
+    {
+	return m_group;
+    }
+    
+    /**
+     * Returns the role of this router.
+     * @return the role of this router
+     */
+    public String getRole()
+    {
+	return m_role;
+    }
+    
+    /**
+     * Returns the number of messages successfully sent through this router to each agent of the recipients ring.
+     * The ring is updated at each send. 
+     * @return a map associating each recipient to its number of received messages
+     */
+    public Map<AgentAddress, Long> getSendCounters()
+    {
+	Ring r=m_ring;
+	HashMap<AgentAddress, Long> res=new HashMap<AgentAddress, Long>(r.m_recipients.length*2);
+	for (int i=0;i<r.m_recipients.length;i++)
+	    res.put(r.m_recipients[i], Long.valueOf(r.m_counters[i].get()));
+	return res;
+    }
+    
+    /**
+     * Returns the number of messages successfully sent through this router to the given agent.
+     * @param _recipient the agent address of the recipient
+     * @return the number of messages received by the given agent, or 0 if the agent is not into the recipients ring
+     */
+    public long getSendCounter(AgentAddress _recipient)
+    {
+	Ring r=m_ring;
+	Integer index=r.m_indexes.get(getKey(_recipient));
+	if (index==null)
+	    return 0;
+	return r.m_counters[index.intValue()].get();
+    }
+    
+    /**
+     * Sets to zero the send counters of this router.
+     */
+    public void resetSendCounters()
+    {
+	for (AtomicLong c : m_ring.m_counters)
+	    c.set(0);
+    }
+    
+    /**
+     * Sends a message to one agent of the recipients ring, chosen according the given strategy. The sender is excluded from the possible recipients.
+     * @param _sender the sender
+     * @param _messageToSend the message to send
+     * @param _senderRole the agent's role with which the message has to be sent
+     * @param _strategy the routing strategy
+     * @return the return code of the send, or {@link ReturnCode#NO_RECIPIENT_FOUND} if no recipient was found
+     */
+    public ReturnCode sendMessageWithRole(MKGEAbstractAgent _sender, Message _messageToSend, String _senderRole, RoutingStrategy _strategy)
+    {
+	if (!m_kernel_observed)
+	{
+	    KernelObserver.observe((madkit.kernel.AbstractAgent)_sender);
+	    m_kernel_observed=true;
+	}
+	Ring r;
+	Group[] groups=m_group.getRepresentedGroups(m_kernel_address);
+	DistributedRoutingCache.Entry cache=DistributedRoutingCache.getCache(m_kernel_address).getEntry((madkit.kernel.AbstractAgent)_sender, m_group, groups, m_role);
+	if (cache!=null)
+	{
+	    //the lists of the distributed routing cache are kept until the agents are reloaded, so that the ring is not rebuilt at each send
+	    r=getRing(cache.getLocalAgents(groups), cache.getDistantAgents(groups));
+	}
+	else
+	    r=getRing(_sender.getAgentsWithRole(m_group, m_role, true), null);
+	int i=select(r, _sender, _messageToSend, _strategy);
+	if (i<0)
+	    return ReturnCode.NO_RECIPIENT_FOUND;
+	ReturnCode rc=_sender.sendMessageWithRole(r.m_recipients[i], _messageToSend, _senderRole);
+	if (rc==ReturnCode.SUCCESS)
+	    r.m_counters[i].incrementAndGet();
+	return rc;
+    }
+    
+    private Ring getRing(List<AgentAddress> _agents, List<AgentAddress> _distant_agents)
+    {
+	Ring r=m_ring;
+	if (r.m_source==_agents && r.m_distant_source==_distant_agents && _agents!=null)
+	    return r;
+	synchronized(this)
+	{
+	    r=m_ring;
+	    if (r.m_source==_agents && r.m_distant_source==_distant_agents && _agents!=null)
+		return r;
+	    
+	    r=update(r, _agents, _distant_agents);
+	    m_ring=r;
+	    return r;
+	}
+    }
+    
+    /**
+     * Builds a ring from the previous one, keeping the order, the counters and the positions on the consistent hashing circle 
+     * of the remaining recipients. The new recipients are appended.
+     */
+    private Ring update(Ring r, List<AgentAddress> _agents, List<AgentAddress> _distant_agents)
+    {
+	int nb_local=_agents==null?0:_agents.size();
+	int size=nb_local+(_distant_agents==null?0:_distant_agents.size());
+	boolean[] kept=new boolean[r.m_keys.length];
+	int nb_kept=0;
+	LinkedHashMap<Object, AgentAddress> added=null;
+	for (int i=0;i<size;i++)
+	{
+	    AgentAddress aa=i<nb_local?_agents.get(i):_distant_agents.get(i-nb_local);
+	    Object key=getKey(aa);
+	    Integer index=r.m_indexes.get(key);
+	    if (index!=null)
+	    {
+		if (!kept[index.intValue()])
+		{
+		    kept[index.intValue()]=true;
+		    ++nb_kept;
+		}
+	    }
+	    else
+	    {
+		if (added==null)
+		    added=new LinkedHashMap<Object, AgentAddress>();
+		if (!added.containsKey(key))
+		    added.put(key, aa);
+	    }
+	}
+	int nb_added=added==null?0:added.size();
+	if (nb_added==0 && nb_kept==r.m_keys.length)
+	    return new Ring(_agents, _distant_agents, r.m_recipients, r.m_keys, r.m_counters, r.m_indexes, r.m_points);
+	
+	int n=nb_kept+nb_added;
+	AgentAddress[] addresses=new AgentAddress[n];
+	Object[] keys=new Object[n];
+	AtomicLong[] counters=new AtomicLong[n];
+	HashMap<Object, Integer> indexes;
+	int[] moved=new int[r.m_keys.length];
+	int p=0;
+	for (int i=0;i<r.m_keys.length;i++)
+	{
+	    if (kept[i])
+	    {
+		addresses[p]=r.m_recipients[i];
+		keys[p]=r.m_keys[i];
+		counters[p]=r.m_counters[i];
+		moved[i]=p++;
+	    }
+	    else
+		moved[i]=-1;
+	}
+	if (nb_kept==r.m_keys.length)
+	    indexes=new HashMap<Object, Integer>(r.m_indexes);
+	else
+	{
+	    indexes=new HashMap<Object, Integer>(n*2);
+	    for (int i=0;i<p;i++)
+		indexes.put(keys[i], Integer.valueOf(i));
+	}
+	if (added!=null)
+	{
+	    for (Map.Entry<Object, AgentAddress> e : added.entrySet())
+	    {
+		keys[p]=e.getKey();
+		addresses[p]=e.getValue();
+		counters[p]=new AtomicLong(0);
+		indexes.put(keys[p], Integer.valueOf(p));
+		++p;
+	    }
+	}
+	
+	//the positions of the kept recipients are already sorted : only the positions of the new recipients are sorted and merged
+	long[] old_points=r.m_points;
+	long[] new_points=getPoints(keys, nb_kept, n);
+	long[] points=new long[n*m_virtual_nodes];
+	int a=0, b=0;
+	p=0;
+	while (a<old_points.length || b<new_points.length)
+	{
+	    long point;
+	    if (a<old_points.length)
+	    {
+		int m=moved[(int)old_points[a]];
+		if (m<0)
+		{
+		    ++a;
+		    continue;
+		}
+		point=(old_points[a]&0xffffffff00000000l) | m;
+		if (b<new_points.length && Long.compareUnsigned(new_points[b], point)<0)
+		    point=new_points[b++];
+		else
+		    ++a;
+	    }
+	    else
+		point=new_points[b++];
+	    points[p++]=point;
+	}
+	return new Ring(_agents, _distant_agents, addresses, keys, counters, indexes, points);
+    }
+    
+    /**
+     * Returns the sorted positions on the consistent hashing circle of the recipients whose index is between the given bounds. 
+     * Each position is stored into the 32 highest bits, and the index of its recipient into the 32 lowest bits.
+     */
+    private static long[] getPoints(Object[] _keys, int _from, int _to)
+    {
+	long[] points=new long[(_to-_from)*m_virtual_nodes];
+	int p=0;
+	for (int i=_from;i<_to;i++)
+	{
+	    int h=_keys[i].hashCode();
+	    for (int v=0;v<m_virtual_nodes;v++)
+	    {
+		long position=((long)mix(h+v*0x9e3779b9))&0xffffffffl;
+		//the sign bit is flipped so that the points are sorted as unsigned values
+		points[p++]=((position<<32) | i) ^ Long.MIN_VALUE;
+	    }
+	}
+	Arrays.sort(points);
+	for (int i=0;i<points.length;i++)
+	    points[i]^=Long.MIN_VALUE;
+	return points;
+    }
+    
+    private int select(Ring r, MKGEAbstractAgent _sender, Message _messageToSend, RoutingStrategy _strategy)
+    {
+	//the sender appears at most once into the ring, and is never chosen
+	Integer sender=r.m_indexes.get(Integer.valueOf(_sender.hashCode()));
+	int s=sender==null?-1:sender.intValue();
+	int size=r.m_recipients.length-(s<0?0:1);
+	if (size<=0)
+	    return -1;
+	switch(_strategy)
+	{
+	    case ROUND_ROBIN:
+		return skipSender((m_round_robin.getAndIncrement() & Integer.MAX_VALUE)%size, s);
+	    case LEAST_LOADED:
+	    {
+		int i=skipSender(ThreadLocalRandom.current().nextInt(size), s);
+		if (size<2)
+		    return i;
+		int j=ThreadLocalRandom.current().nextInt(size-1);
+		if (j>=i-(s>=0 && s<i?1:0))
+		    ++j;
+		j=skipSender(j, s);
+		int li=getMailboxSize(r.m_recipients[i]);
+		int lj=getMailboxSize(r.m_recipients[j]);
+		if (li<0 || lj<0)
+		    return r.m_counters[j].get()<r.m_counters[i].get()?j:i;
+		return lj<li?j:i;
+	    }
+	    case CONSISTENT_HASHING:
+	    {
+		Object key=(_messageToSend instanceof KeyedMessage)?((KeyedMessage)_messageToSend).getRoutingKey():_messageToSend.getConversationID();
+		if (key!=null)
+		    return r.getRecipient(mix(key.hashCode()), s);
+		return skipSender(ThreadLocalRandom.current().nextInt(size), s);
+	    }
+	    case RANDOM:
+	    default:
+		return skipSender(ThreadLocalRandom.current().nextInt(size), s);
+	}
+    }
+    
+    /**
+     * Converts an index chosen among the recipients which are not the sender, to an index of the ring.
+     */
+    private static int skipSender(int i, int _sender_index)
+    {
+	if (_sender_index>=0 && i>=_sender_index)
+	    return i+1;
+	return i;
+    }
+    
+    private Object getKey(AgentAddress aa)
+    {
+	//an agent is identified by its hash code into the local kernel, and by its network ID otherwise
+	return aa.isFrom(m_kernel_address)?(Object)Integer.valueOf(aa.hashCode()):aa.getAgentNetworkID();
+    }
+    
+    private static int mix(int h)
+    {
+	h^=h>>>16;
+	h*=0x85ebca6b;
+	h^=h>>>13;
+	h*=0xc2b2ae35;
+	h^=h>>>16;
+	return h;
+    }
+    
+    private static int getMailboxSize(AgentAddress aa)
+    {
+	madkit.kernel.AbstractAgent a=AgentsWithRoleCache.getAgent(aa);
+	if (a==null)
+	    return -1;
+	if (a instanceof MKGEAbstractAgent)
+	{
+	    //the messages of an agent using an indexed mailbox are not stored into the MadKit mailbox
+	    MailboxStatistics ms=((MKGEAbstractAgent)a).getMailboxStatistics();
+	    if (ms!=null)
+		return ms.getDepth();
+	}
+	return StepMailbox.getMailbox(a).size();
+    }
+    
+    /**
+     * An immutable ring of recipients. The consistent hashing table is computed at its first use.
+     */
+    private static final class Ring
+    {
+	final List<AgentAddress> m_source;
+	final List<AgentAddress> m_distant_source;
+	final AgentAddress[] m_recipients;
+	final Object[] m_keys;
+	final AtomicLong[] m_counters;
+	final HashMap<Object, Integer> m_indexes;
+	final long[] m_points;
+	private volatile int[][] m_table=null;
+	private int m_table_shift=0;
+	
+	Ring(List<AgentAddress> _source, List<AgentAddress> _distant_source, AgentAddress[] _recipients, Object[] _keys, AtomicLong[] _counters, HashMap<Object, Integer> _indexes, long[] _points)
+	{
+	    m_source=_source;
+	    m_distant_source=_distant_source;
+	    m_recipients=_recipients;
+	    m_keys=_keys;
+	    m_counters=_counters;
+	    m_indexes=_indexes;
+	    m_points=_points;
+	}
+	
+	/**
+	 * Returns the recipient associated to the given hash code, or the following recipient on the circle 
+	 * if the associated recipient is the sender. 
+	 */
+	int getRecipient(int _hash, int _sender_index)
+	{
+	    int[][] table=m_table;
+	    if (table==null)
+	    {
+		synchronized(this)
+		{
+		    table=m_table;
+		    if (table==null)
+		    {
+			table=buildTable();
+			m_table=table;
+		    }
+		}
+	    }
+	    int slot=_hash>>>m_table_shift;
+	    int res=table[0][slot];
+	    if (res==_sender_index)
+		return table[1][slot];
+	    return res;
+	}
+	
+	/**
+	 * Each recipient is placed several times on a circle of 2^32 positions, according the hash code of its key. 
+	 * The circle is then divided into 2^n slots, and each slot is associated to the first recipient placed after the slot. 
+	 * Since the positions of a recipient do not depend on the other recipients, adding or removing a recipient 
+	 * moves only the slots that precede its positions.
+	 */
+	private int[][] buildTable()
+	{
+	    long[] points=m_points;
+	    int nb_points=points.length;
+	    
+	    //for each point, the first following point which belongs to another recipient
+	    int[] next=new int[nb_points];
+	    for (int i=0;i<nb_points;i++)
+	    {
+		int r=(int)points[i];
+		int n=(int)points[(i+1)%nb_points];
+		for (int j=2;n==r && j<=nb_points;j++)
+		    n=(int)points[(i+j)%nb_points];
+		next[i]=n;
+	    }
+	    
+	    int bits=Math.min(m_max_table_bits, Math.max(10, 33-Integer.numberOfLeadingZeros(nb_points)));
+	    int[][] table=new int[2][1<<bits];
+	    int shift=32-bits;
+	    int p=0;
+	    for (int s=0;s<table[0].length;s++)
+	    {
+		long slot=((long)s)<<shift;
+		while (p<points.length && (points[p]>>>32)<slot)
+		    ++p;
+		table[0][s]=(int)points[p%points.length];
+		table[1][s]=next[p%points.length];
+	    }
+	    m_table_shift=shift;
+	    return table;
+	}
+    }
+}
@@ -22,6 +22,8 @@
 package madkitgroupextension.kernel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicReference;
@@ -80,6 +82,7 @@ public class MultiGroup extends AbstractGroup
     }
     
     private transient ArrayList<RepresentedGroupsDuplicated> m_represented_groups_by_kernel_duplicated=new ArrayList<RepresentedGroupsDuplicated>();
+    private transient volatile Object m_structural_key=null;
     
     //private Group[] m_represented_groups_duplicated=null;
     /**
@@ -120,6 +123,24 @@ public class MultiGroup extends AbstractGroup
 	    return new MultiGroup(groups);
 	}
     }
+    /**
+     * Returns a key built from the keys of the combined groups and from their forbidden flags, regardless of their order.
+     */
+    @Override Object getStructuralKey()
+    {
+	Object key=m_structural_key;
+	if (key==null)
+	{
+	    synchronized(this)
+	    {
+		HashSet<Object> keys=new HashSet<Object>();
+		for (AssociatedGroup ag : m_groups)
+		    keys.add(Arrays.asList(ag.m_group.getStructuralKey(), Boolean.valueOf(ag.m_forbiden)));
+		m_structural_key=key=Collections.unmodifiableSet(keys);
+	    }
+	}
+	return key;
+    }
     @Override public String toString()
     {
 	synchronized(this)
@@ -216,6 +237,7 @@ public class MultiGroup extends AbstractGroup
 		    }
 		}
 		m_groups.add(new AssociatedGroup(AbstractGroup.getUniverse(), false));
+		m_structural_key=null;
 		for (RepresentedGroupsDuplicated rgd : m_represented_groups_by_kernel_duplicated)
 		    rgd.m_represented_groups_duplicated.set(null);
 		return true;
@@ -226,6 +248,7 @@ public class MultiGroup extends AbstractGroup
 		if (c.equals(CONTAINS.NOT_CONTAINS))
 		{
 		    m_groups.add(new AssociatedGroup(_g.clone(), false));
+		    m_structural_key=null;
 		    for (RepresentedGroupsDuplicated rgd : m_represented_groups_by_kernel_duplicated)
 			rgd.m_represented_groups_duplicated.set(null);
 		    return true;
@@ -261,6 +284,7 @@ public class MultiGroup extends AbstractGroup
         	    }
         	    m_groups.clear();
         	    m_groups.add(new AssociatedGroup(AbstractGroup.getUniverse(), true));
+        	    m_structural_key=null;
         	    for (RepresentedGroupsDuplicated rgd : m_represented_groups_by_kernel_duplicated)
         		rgd.m_represented_groups_duplicated.set(null);
         	    return true;
@@ -275,6 +299,7 @@ public class MultiGroup extends AbstractGroup
         	    if (!c.equals(CONTAINS.CONTAINS_ON_FORBIDEN))
         	    {
         		m_groups.add(new AssociatedGroup(_g.clone(), true));
+        		m_structural_key=null;
         		for (RepresentedGroupsDuplicated rgd : m_represented_groups_by_kernel_duplicated)
         		    rgd.m_represented_groups_duplicated.set(null);
         		return true;
@@ -299,6 +324,7 @@ public class MultiGroup extends AbstractGroup
 	    if (ag.equals(_g))
 	    {
 		it.remove();
+		m_structural_key=null;
 		for (RepresentedGroupsDuplicated rgd : m_represented_groups_by_kernel_duplicated)
 		    rgd.m_represented_groups_duplicated.set(null);
 		return true;
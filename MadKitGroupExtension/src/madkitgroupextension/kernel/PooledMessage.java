@@ -0,0 +1,237 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import madkit.kernel.AgentAddress;
+import madkit.kernel.ConversationID;
+import madkit.kernel.Message;
+
+/**
+ * A message which can be recycled by a {@link MessagePool}, in order to avoid the allocation of a new message for each sending.
+ * 
+ * A pooled message is reference counted. The agent which acquires it from its pool owns the first reference. 
+ * Each time the message, or one of the copies done by MadKit during a broadcast, is received by a MadKitGroupExtension agent, 
+ * a reference is added. Each owner of a reference, i.e. the sender and each receiver, must call {@link #release()} once 
+ * it does not use the message anymore. When the last reference is released, the message is cleared (see {@link #clear()}) 
+ * and returned to its pool. The copies of a broadcast message share the references of the original message. 
+ * 
+ * Here a typical use :
+ * <pre>
+ * //sender side
+ * MyMessage m=pool.acquire();
+ * m.setValue(12);
+ * broadcastMessage(group, "animal", m);
+ * m.release();
+ * 
+ * //receiver side
+ * Message m=nextMessage();
+ * ...
+ * PooledMessage.release(m);
+ * </pre>
+ * 
+ * A pooled message which is never released is simply collected by the garbage collector. However, a message must not be 
+ * read after its release, and must not be released twice by the same owner. 
+ * Each time a pooled message is acquired from its pool, it gets a new conversation ID, and its sender and its receiver are cleared, 
+ * so that a late reply to a previous use is not taken as a reply to the new one. Consequently, the replies to a pooled message 
+ * must be waited and read before its release : once the message is acquired again, they do not belong anymore to its conversation. 
+ * It must only be sent to the local agents of the kernel, since a message sent to a distant agent can be recycled before its serialization. 
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see MessagePool
+ */
+public abstract class PooledMessage extends Message
+{
+    private static final long serialVersionUID = 5243716208894436917L;
+    
+    private static final AtomicIntegerFieldUpdater<PooledMessage> m_references_updater=AtomicIntegerFieldUpdater.newUpdater(PooledMessage.class, "m_references");
+    
+    private transient MessagePool<?> m_pool=null;
+    //the copies done by a broadcast share the references of the original message
+    private transient PooledMessage m_origin=this;
+    private transient volatile int m_references=0;
+    
+    void acquired(MessagePool<?> _pool)
+    {
+	m_pool=_pool;
+	m_origin=this;
+	m_references=1;
+	try
+	{
+	    m_conversation_id_setter.invokeExact((Message)this, (ConversationID)m_conversation_id_constructor.invokeExact());
+	    m_sender_setter.invokeExact((Message)this, (AgentAddress)null);
+	    m_receiver_setter.invokeExact((Message)this, (AgentAddress)null);
+	}
+	catch (RuntimeException | Error e)
+	{
+	    throw e;
+	}
+	catch (Throwable e)
+	{
+	    throw new IllegalStateException(e);
+	}
+    }
+    
+    /**
+     * Adds a reference to this message. This function is automatically called when the message is received by a MadKitGroupExtension agent.
+     * It has no effect if the message was not acquired from a pool.
+     */
+    public final void retain()
+    {
+	PooledMessage o=m_origin;
+	if (o!=null && o.m_pool!=null)
+	    m_references_updater.incrementAndGet(o);
+    }
+    
+    /**
+     * Releases a reference to this message. When the last reference is released, the message is cleared and returned to its pool.
+     * It has no effect if the message was not acquired from a pool.
+     * @throws IllegalStateException if the message has been released more times than it has been referenced
+     */
+    public final void release()
+    {
+	PooledMessage o=m_origin;
+	if (o==null)
+	    return;
+	MessagePool<?> pool=o.m_pool;
+	if (pool==null)
+	    return;
+	int r=m_references_updater.decrementAndGet(o);
+	if (r==0)
+	{
+	    o.m_pool=null;
+	    o.clear();
+	    pool.recycle(o);
+	}
+	else if (r<0)
+	{
+	    m_references_updater.incrementAndGet(o);
+	    throw new IllegalStateException("The message "+this+" has been released more times than it has been referenced !");
+	}
+    }
+    
+    /**
+     * Returns the number of references to this message.
+     * @return the number of references, or 0 if the message was not acquired from a pool or if it has been returned to its pool
+     */
+    public final int getReferenceCount()
+    {
+	PooledMessage o=m_origin;
+	if (o==null || o.m_pool==null)
+	    return 0;
+	return o.m_references;
+    }
+    
+    /**
+     * Clears the content of this message before it is returned to its pool. 
+     * This function can be overridden in order to remove the references to other objects. The default implementation does nothing.
+     */
+    protected void clear()
+    {
+	
+    }
+    
+    /**
+     * Releases a reference to the given message, if it is a pooled message.
+     * @param _m the message
+     * @see #release()
+     */
+    public static void release(Message _m)
+    {
+	if (_m instanceof PooledMessage)
+	    ((PooledMessage)_m).release();
+    }
+    
+    /**
+     * Adds a reference to the given message, if it is a pooled message.
+     * @param _m the message
+     * @see #retain()
+     */
+    public static void retain(Message _m)
+    {
+	if (_m instanceof PooledMessage)
+	    ((PooledMessage)_m).retain();
+    }
+    
+    private static MethodHandle m_conversation_id_constructor=null;
+    private static MethodHandle m_conversation_id_setter=null;
+    private static MethodHandle m_sender_setter=null;
+    private static MethodHandle m_receiver_setter=null;
+    
+    private static MethodHandle getSetter(String _name)
+    {
+	try
+	{
+	    Field f=Message.class.getDeclaredField(_name);
+	    f.setAccessible(true);
+	    return MethodHandles.lookup().unreflectSetter(f);
+	}
+	catch (SecurityException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to access to the field "+_name+" of the class Message. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+	catch (NoSuchFieldException e)
+	{
+	    System.err.println("Impossible to found to the field "+_name+" of the class Message. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    static
+    {
+	m_conversation_id_setter=getSetter("conversationID");
+	m_sender_setter=getSetter("sender");
+	m_receiver_setter=getSetter("receiver");
+	try
+	{
+	    Constructor<ConversationID> c=ConversationID.class.getDeclaredConstructor();
+	    c.setAccessible(true);
+	    m_conversation_id_constructor=MethodHandles.lookup().unreflectConstructor(c);
+	}
+	catch (SecurityException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to access to the constructor of the class ConversationID. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the constructor of the class ConversationID. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
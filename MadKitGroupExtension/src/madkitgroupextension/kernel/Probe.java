@@ -24,11 +24,17 @@ package madkitgroupextension.kernel;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
+import madkit.kernel.KernelAddress;
 import madkitgroupextension.simulation.probe.PropertyProbe;
 
 /**
@@ -55,11 +61,17 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 {
     protected final AbstractGroup m_group;
     protected final AtomicReference<Group[]> m_represented_groups=new AtomicReference<Group[]>();
-    private final ArrayList<PersonalProbe> m_madkit_probes=new ArrayList<PersonalProbe>();
+    private Group[] m_role_groups=null;
+    private final ArrayList<SharedProbe> m_madkit_probes=new ArrayList<SharedProbe>();
     protected ArrayList<A> m_agents=null;
     protected Watcher m_watcher=null;
     protected final String m_role;
     protected boolean m_is_changed=true;
+    private final HashMap<A, ArrayList<SharedProbe>> m_memberships=new HashMap<A, ArrayList<SharedProbe>>();
+    private final ArrayList<A> m_change_log_agents=new ArrayList<A>();
+    private BitSet m_change_log_additions=new BitSet();
+    private long m_change_log_offset=0;
+    private final ArrayList<ChangeCursor> m_change_cursors=new ArrayList<ChangeCursor>();
     
 	/**
 	 * Builds a new Probe on the given CGR location of the
@@ -118,7 +130,7 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
     
     public synchronized void allAgentsLeaveRole()
     {
-	for (PersonalProbe pp : m_madkit_probes)
+	for (SharedProbe pp : m_madkit_probes)
 	{
 	    pp.allAgentsLeaveRole();
 	}
@@ -142,9 +154,10 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 	{
 	    ArrayList<List<A>> l=new ArrayList<List<A>>(m_madkit_probes.size());
 	    int size=0;
-	    for (PersonalProbe pp : m_madkit_probes)
+	    for (SharedProbe pp : m_madkit_probes)
 	    {
-		List<A> l2=pp.getCurrentAgentsList();
+		@SuppressWarnings("unchecked")
+		List<A> l2=(List<A>)(List<?>)pp.getCurrentAgentsList();
 		l.add(l2);
 		size+=l2.size();
 	    }
@@ -225,7 +238,7 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
     
     public synchronized void killAgents() 
     {
-	for (PersonalProbe pp : m_madkit_probes)
+	for (SharedProbe pp : m_madkit_probes)
 	    pp.killAgents();
     }
     
@@ -268,33 +281,35 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
     
     protected synchronized void removeProbes()
     {
-	for (PersonalProbe pp : m_madkit_probes)
+	for (SharedProbe pp : m_madkit_probes)
 	{
 	    try
 	    {
-		m_remove_madkit_probe_method.invoke(m_watcher, pp);
+		m_remove_madkit_probe_method.invoke(m_watcher, pp, this);
 	    }
 	    catch (IllegalArgumentException e1)
 	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		e1.printStackTrace();
 		System.exit(-1);
 	    }
 	    catch (IllegalAccessException e1)
 	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		e1.printStackTrace();
 		System.exit(-1);
 	    }
 	    catch (InvocationTargetException e1)
 	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+		System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 		e1.printStackTrace();
 		System.exit(-1);
 	    }
 	}
 	m_represented_groups.set(null);
+	m_role_groups=null;
 	m_madkit_probes.clear();
+	clearMemberships();
 	m_agents=null;
 	m_watcher=null;
 	setChanged(true);
@@ -372,6 +387,294 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 	m_is_changed=_is_changed;
     }
     
+    /**
+     * Returns a new change cursor over the agents handled by this probe. 
+     * A change cursor gives to its consumer the agents which have been added or removed since its last read, 
+     * without needing to compare the successive results of {@link #getCurrentAgentsList()}. 
+     * The first read of a new cursor returns all the agents currently handled by this probe as added agents.
+     * 
+     * Each consumer must use its own cursor, and must close it with {@link ChangeCursor#close()} when it does not need it anymore. 
+     * Indeed, the changes are kept into a change log until every opened cursor has read them. The probe counts the groups 
+     * of each of its agents only while at least one cursor is opened.
+     * 
+     * @return a new change cursor
+     * @since MadKitGroupExtension 1.6.3
+     * @see ChangeCursor
+     */
+    public synchronized ChangeCursor newChangeCursor()
+    {
+	if (m_change_cursors.isEmpty())
+	    initializeMemberships();
+	ChangeCursor c=new ChangeCursor(m_change_log_offset+m_change_log_agents.size());
+	m_change_cursors.add(c);
+	return c;
+    }
+    
+    /**
+     * The memberships are maintained only while at least one change cursor is opened. 
+     * When the first cursor is opened, they are computed from the agents of each listened group. 
+     * Each agent is associated to the listened groups into which it handles the role, so that a notification 
+     * received several times for the same agent and the same group has no effect.
+     */
+    @SuppressWarnings("unchecked")
+    private void initializeMemberships()
+    {
+	m_memberships.clear();
+	for (SharedProbe pp : m_madkit_probes)
+	{
+	    for (madkit.kernel.AbstractAgent a : pp.getCurrentAgentsList())
+	    {
+		ArrayList<SharedProbe> groups=m_memberships.get(a);
+		if (groups==null)
+		{
+		    groups=new ArrayList<SharedProbe>(1);
+		    m_memberships.put((A)a, groups);
+		}
+		if (!groups.contains(pp))
+		    groups.add(pp);
+	    }
+	}
+    }
+    
+    private synchronized void logAdding(SharedProbe _group, A theAgent)
+    {
+	if (m_change_cursors.isEmpty())
+	    return;
+	ArrayList<SharedProbe> groups=m_memberships.get(theAgent);
+	if (groups==null)
+	{
+	    groups=new ArrayList<SharedProbe>(1);
+	    groups.add(_group);
+	    m_memberships.put(theAgent, groups);
+	    m_change_log_additions.set(m_change_log_agents.size());
+	    m_change_log_agents.add(theAgent);
+	}
+	else if (!groups.contains(_group))
+	    groups.add(_group);
+    }
+    
+    private synchronized void logAdding(SharedProbe _group, List<A> agents)
+    {
+	if (m_change_cursors.isEmpty())
+	    return;
+	for (A a : agents)
+	    logAdding(_group, a);
+    }
+    
+    private synchronized void logRemoving(SharedProbe _group, A theAgent)
+    {
+	if (m_change_cursors.isEmpty())
+	    return;
+	ArrayList<SharedProbe> groups=m_memberships.get(theAgent);
+	if (groups!=null && groups.remove(_group) && groups.isEmpty())
+	{
+	    m_memberships.remove(theAgent);
+	    m_change_log_additions.clear(m_change_log_agents.size());
+	    m_change_log_agents.add(theAgent);
+	}
+    }
+    
+    private synchronized void logRemoving(SharedProbe _group, List<A> agents)
+    {
+	if (m_change_cursors.isEmpty())
+	    return;
+	for (A a : agents)
+	    logRemoving(_group, a);
+    }
+    
+    /**
+     * Removes the given group from the memberships of all the agents, when it is not listened anymore.
+     */
+    private void logRemoving(SharedProbe _group)
+    {
+	if (m_change_cursors.isEmpty())
+	    return;
+	Iterator<Map.Entry<A, ArrayList<SharedProbe>>> it=m_memberships.entrySet().iterator();
+	while (it.hasNext())
+	{
+	    Map.Entry<A, ArrayList<SharedProbe>> e=it.next();
+	    if (e.getValue().remove(_group) && e.getValue().isEmpty())
+	    {
+		it.remove();
+		m_change_log_additions.clear(m_change_log_agents.size());
+		m_change_log_agents.add(e.getKey());
+	    }
+	}
+    }
+    
+    private void clearMemberships()
+    {
+	if (!m_change_cursors.isEmpty())
+	{
+	    for (A a : m_memberships.keySet())
+	    {
+		m_change_log_additions.clear(m_change_log_agents.size());
+		m_change_log_agents.add(a);
+	    }
+	}
+	m_memberships.clear();
+    }
+    
+    private void compactChangeLog()
+    {
+	int size=m_change_log_agents.size();
+	if (m_change_cursors.isEmpty())
+	{
+	    m_change_log_agents.clear();
+	    m_change_log_additions.clear();
+	    m_change_log_offset+=size;
+	    return;
+	}
+	long min=Long.MAX_VALUE;
+	for (ChangeCursor c : m_change_cursors)
+	{
+	    if (c.m_position<min)
+		min=c.m_position;
+	}
+	int consumed=(int)(min-m_change_log_offset);
+	if (consumed>0 && consumed*2>=size)
+	{
+	    m_change_log_agents.subList(0, consumed).clear();
+	    m_change_log_additions=m_change_log_additions.get(consumed, size);
+	    m_change_log_offset=min;
+	}
+    }
+    
+    /**
+     * A change cursor gives the agents which have been added to or removed from a probe since its last read.
+     * The consumer of the cursor can then update its own structures according the number of changes, 
+     * and not according the number of the agents handled by the probe.
+     * 
+     * An agent which has been added and then removed between two reads (or removed and then added) is not returned. 
+     * An agent which joined several groups represented by the probe is added once, and is removed only when it has leaved all of them.
+     * 
+     * @author Jason Mahdjoub
+     * @since MadKitGroupExtension 1.6.3
+     * @version 1.0
+     * @see Probe#newChangeCursor()
+     */
+    public final class ChangeCursor
+    {
+	private long m_position;
+	private boolean m_initial=true;
+	private boolean m_closed=false;
+	
+	ChangeCursor(long _position)
+	{
+	    m_position=_position;
+	}
+	
+	/**
+	 * Puts into the given collections the agents which have been added to or removed from the probe since the last read of this cursor. 
+	 * The first read returns all the agents currently handled by the probe as added agents.
+	 * 
+	 * @param _added_agents the collection into which the added agents are put
+	 * @param _removed_agents the collection into which the removed agents are put
+	 * @return true if at least one agent has been added or removed
+	 * @throws IllegalStateException if this cursor has been closed
+	 */
+	public boolean read(Collection<? super A> _added_agents, Collection<? super A> _removed_agents)
+	{
+	    synchronized(Probe.this)
+	    {
+		if (m_closed)
+		    throw new IllegalStateException("This change cursor has been closed !");
+		int end=m_change_log_agents.size();
+		boolean changed=false;
+		if (m_initial)
+		{
+		    m_initial=false;
+		    if (!m_memberships.isEmpty())
+		    {
+			_added_agents.addAll(m_memberships.keySet());
+			changed=true;
+		    }
+		}
+		else if (m_position<m_change_log_offset+end)
+		{
+		    LinkedHashMap<A, int[]> balances=new LinkedHashMap<A, int[]>();
+		    for (int i=(int)(m_position-m_change_log_offset);i<end;i++)
+		    {
+			A a=m_change_log_agents.get(i);
+			int[] b=balances.get(a);
+			if (b==null)
+			{
+			    b=new int[1];
+			    balances.put(a, b);
+			}
+			if (m_change_log_additions.get(i))
+			    ++b[0];
+			else
+			    --b[0];
+		    }
+		    for (Map.Entry<A, int[]> e : balances.entrySet())
+		    {
+			int b=e.getValue()[0];
+			if (b>0)
+			{
+			    _added_agents.add(e.getKey());
+			    changed=true;
+			}
+			else if (b<0)
+			{
+			    _removed_agents.add(e.getKey());
+			    changed=true;
+			}
+		    }
+		}
+		m_position=m_change_log_offset+end;
+		compactChangeLog();
+		return changed;
+	    }
+	}
+	
+	/**
+	 * Tells if changes have been logged since the last read of this cursor. 
+	 * This function can return true even if the logged changes cancel each other.
+	 * @return true if changes have been logged since the last read
+	 */
+	public boolean hasChanges()
+	{
+	    synchronized(Probe.this)
+	    {
+		if (m_closed)
+		    return false;
+		if (m_initial)
+		    return !m_memberships.isEmpty();
+		return m_position<m_change_log_offset+m_change_log_agents.size();
+	    }
+	}
+	
+	/**
+	 * Closes this cursor. The changes which were kept only for this cursor are released.
+	 */
+	public void close()
+	{
+	    synchronized(Probe.this)
+	    {
+		if (m_closed)
+		    return;
+		m_closed=true;
+		m_change_cursors.remove(this);
+		if (m_change_cursors.isEmpty())
+		    m_memberships.clear();
+		compactChangeLog();
+	    }
+	}
+	
+	/**
+	 * Tells if this cursor has been closed.
+	 * @return true if this cursor has been closed
+	 */
+	public boolean isClosed()
+	{
+	    synchronized(Probe.this)
+	    {
+		return m_closed;
+	    }
+	}
+    }
+    
     /**
      * This function is reserved to the MadKitGroupExtension kernel. The user do not use this function.
      */
@@ -380,34 +683,36 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
     {
 	if (m_watcher==null)
 	    return;
-	Group[] groups=m_group.getRepresentedGroups(m_watcher.getKernelAddress());
-	if (m_represented_groups.get()!=groups)
+	KernelAddress ka=m_watcher.getKernelAddress();
+	Group[] all_groups=m_group.getRepresentedGroups(ka);
+	Group[] role_groups=Group.getGroupsHandlingRole(m_role, ka);
+	if (m_represented_groups.get()!=all_groups || m_role_groups!=role_groups)
 	{
+		//only groups handling the probed role are listened
+		Group[] groups=m_group.getRepresentedGroups(ka, m_role);
 		if (m_represented_groups.get()==null)
 		{
 		    for (Group g : groups)
 		    {
-			PersonalProbe pp=new PersonalProbe(g, m_role);
-			m_madkit_probes.add(pp);
 			try
 			{
-			    m_add_madkit_probe_method.invoke(m_watcher, pp);
+			    m_madkit_probes.add((SharedProbe)m_add_madkit_probe_method.invoke(m_watcher, g, m_role, this));
 			}
 			catch (IllegalArgumentException e1)
 			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+			    System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 			    e1.printStackTrace();
 			    System.exit(-1);
 			}
 			catch (IllegalAccessException e1)
 			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+			    System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 			    e1.printStackTrace();
 			    System.exit(-1);
 			}
 			catch (InvocationTargetException e1)
 			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+			    System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 			    e1.printStackTrace();
 			    System.exit(-1);
 			}
@@ -419,7 +724,7 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 		    for (Group g : groups)
 		    {
 			boolean found=false;
-			for (PersonalProbe pp : m_madkit_probes)
+			for (SharedProbe pp : m_madkit_probes)
 			{
 			    if (pp.equals(g))
 			    {
@@ -429,27 +734,25 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 			}
 			if (!found)
 			{
-			    PersonalProbe pp=new PersonalProbe(g, m_role);
-			    m_madkit_probes.add(pp);
 			    try
 			    {
-				m_add_madkit_probe_method.invoke(m_watcher, pp);
+				m_madkit_probes.add((SharedProbe)m_add_madkit_probe_method.invoke(m_watcher, g, m_role, this));
 			    }
 			    catch (IllegalArgumentException e1)
 			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
 			    catch (IllegalAccessException e1)
 			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
 			    catch (InvocationTargetException e1)
 			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
@@ -457,10 +760,10 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 		    }
 		    
 		    //detecting removed groups
-		    Iterator<PersonalProbe> it=m_madkit_probes.iterator();
+		    Iterator<SharedProbe> it=m_madkit_probes.iterator();
 		    while (it.hasNext())
 		    {
-			PersonalProbe pp=it.next();
+			SharedProbe pp=it.next();
 			boolean found=false;
 			for (Group g : groups)
 			{
@@ -472,82 +775,79 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
 			}
 			if (!found)
 			{
+			    //the agents of a group which is not listened anymore are removed from the opened change cursors
+			    logRemoving(pp);
 			    it.remove();
 			    try
 			    {
-				m_remove_madkit_probe_method.invoke(m_watcher, pp);
+				m_remove_madkit_probe_method.invoke(m_watcher, pp, this);
 			    }
 			    catch (IllegalArgumentException e1)
 			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
 			    catch (IllegalAccessException e1)
 			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
 			    catch (InvocationTargetException e1)
 			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+				System.err.println("Impossible to call the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 				e1.printStackTrace();
 				System.exit(-1);
 			    }
 			}
 		    }
 		}
-		m_represented_groups.set(groups);
+		m_represented_groups.set(all_groups);
+		m_role_groups=role_groups;
 		setChanged(true);
 	}
 
 	
     }
     
-    private class PersonalProbe extends madkit.kernel.Probe<A>
+    @SuppressWarnings("unchecked")
+    final void sharedProbeAdding(SharedProbe _group, madkit.kernel.AbstractAgent theAgent)
     {
-	private Group m_group;
-	
-	public PersonalProbe(Group _group, String _role)
-	{
-	    super(_group.getCommunity(), _group.getPath(), _role);
-	    m_group=_group;
-	}
-	
-	@Override public void adding(A theAgent)
-	{
-	    Probe.this.setChanged(true);
-	    Probe.this.adding(theAgent);
-	}
-	@Override public void adding(List<A> agents)
-	{
-	    Probe.this.setChanged(true);
-	    Probe.this.adding(agents);
-	}
-	
-	@Override public void removing(A theAgent)
-	{
-	    Probe.this.setChanged(true);
-	    Probe.this.removing(theAgent);
-	}
-	
-	@Override public void removing(List<A> agents)
-	{
-	    Probe.this.setChanged(true);
-	    Probe.this.removing(agents);
-	}
-	
-	@Override public void initialize()
-	{
-	    Probe.this.setChanged(true);
-	}
-	
-	public boolean equals(Group _group)
-	{
-	    return m_group.equals(_group);
-	}
-	
+	setChanged(true);
+	logAdding(_group, (A)theAgent);
+	adding((A)theAgent);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedProbeAdding(SharedProbe _group, List<madkit.kernel.AbstractAgent> agents)
+    {
+	setChanged(true);
+	logAdding(_group, (List<A>)(List<?>)agents);
+	adding((List<A>)(List<?>)agents);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedProbeRemoving(SharedProbe _group, madkit.kernel.AbstractAgent theAgent)
+    {
+	setChanged(true);
+	logRemoving(_group, (A)theAgent);
+	removing((A)theAgent);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedProbeRemoving(SharedProbe _group, List<madkit.kernel.AbstractAgent> agents)
+    {
+	setChanged(true);
+	logRemoving(_group, (List<A>)(List<?>)agents);
+	removing((List<A>)(List<?>)agents);
+    }
+    
+    @SuppressWarnings("unchecked")
+    final void sharedProbeInitialize(SharedProbe _group, List<madkit.kernel.AbstractAgent> agents)
+    {
+	setChanged(true);
+	logAdding(_group, (List<A>)(List<?>)agents);
     }
 
     private static Method m_add_madkit_probe_method=null;
@@ -558,35 +858,35 @@ public class Probe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent> im
     {
 	try
 	{
-	    m_add_madkit_probe_method=Watcher.class.getDeclaredMethod("addPrivateProbe", madkit.kernel.Probe.class);
+	    m_add_madkit_probe_method=Watcher.class.getDeclaredMethod("subscribePrivateProbe", Group.class, String.class, Probe.class);
 	    m_add_madkit_probe_method.setAccessible(true);
 	}
 	catch (SecurityException e)
 	{
-	    System.err.println("Impossible to access to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    System.err.println("Impossible to access to the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
 	    e.printStackTrace();
 	    System.exit(-1);
 	}
 	catch (NoSuchMethodException e)
 	{
-	    System.err.println("Impossible to found to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    System.err.println("Impossible to found to the function subscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
 	    e.printStackTrace();
 	    System.exit(-1);
 	}
 	try
 	{
-	    m_remove_madkit_probe_method=Watcher.class.getDeclaredMethod("removePrivateProbe", madkit.kernel.Probe.class);
+	    m_remove_madkit_probe_method=Watcher.class.getDeclaredMethod("unsubscribePrivateProbe", SharedProbe.class, Probe.class);
 	    m_remove_madkit_probe_method.setAccessible(true);
 	}
 	catch (SecurityException e)
 	{
-	    System.err.println("Impossible to access to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    System.err.println("Impossible to access to the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
 	    e.printStackTrace();
 	    System.exit(-1);
 	}
 	catch (NoSuchMethodException e)
 	{
-	    System.err.println("Impossible to found to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    System.err.println("Impossible to found to the function unsubscribePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
 	    e.printStackTrace();
 	    System.exit(-1);
 	}
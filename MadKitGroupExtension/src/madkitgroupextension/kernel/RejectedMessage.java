@@ -0,0 +1,52 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import madkit.kernel.Message;
+import madkit.message.ObjectMessage;
+
+/**
+ * The reply received by an agent when its message has been rejected by the bounded mailbox of the recipient
+ * (see {@link MailboxPolicy.OverflowPolicy#REJECT}). The content of this message is the rejected message. 
+ * If the rejected message is a {@link PooledMessage}, the reference of the recipient is transferred to the receiver of this reply, 
+ * which must release it.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see MailboxPolicy
+ */
+public class RejectedMessage extends ObjectMessage<Message> implements ControlMessage
+{
+    private static final long serialVersionUID = -2286467302571894163L;
+
+    /**
+     * Builds a rejection reply.
+     * @param _rejected the rejected message
+     */
+    public RejectedMessage(Message _rejected)
+    {
+	super(_rejected);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+/**
+ * The strategies which can be used to choose the recipient of a message sent to one agent handling a role 
+ * into an abstract group.
+ * 
+ * Every strategy chooses its recipient in constant time, from the recipients ring maintained by a {@link MessageRouter}. 
+ * The sender is always excluded from the possible recipients.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see MessageRouter
+ * @see AbstractAgent#sendMessageWithRole(AbstractGroup, String, madkit.kernel.Message, String, RoutingStrategy)
+ */
+public enum RoutingStrategy
+{
+    /**
+     * The recipient is chosen randomly.
+     */
+    RANDOM,
+    /**
+     * The recipients are chosen one after the other, following the order of the recipients ring.
+     */
+    ROUND_ROBIN,
+    /**
+     * Two recipients are chosen randomly, and the one which has the lowest number of waiting messages into its mailbox 
+     * receives the message. If the mailbox of one of them cannot be read (i.e. a distant agent), 
+     * the one which has received the lowest number of messages through the router is chosen. 
+     */
+    LEAST_LOADED,
+    /**
+     * The recipient is chosen according the hash code of the key of the message. 
+     * If the message implements {@link KeyedMessage}, its key is given by {@link KeyedMessage#getRoutingKey()}. 
+     * Else, the conversation ID of the message is used. 
+     * Messages having the same key are sent to the same recipient while the recipients do not change. 
+     * When a recipient arrives or leaves, only a small part of the keys are moved to another recipient.
+     */
+    CONSISTENT_HASHING;
+}
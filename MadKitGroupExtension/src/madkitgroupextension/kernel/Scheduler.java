@@ -21,28 +21,31 @@
 
 package madkitgroupextension.kernel;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.swing.JFrame;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 import madkit.gui.OutputPanel;
 import madkit.i18n.ErrorMessages;
@@ -52,6 +55,8 @@ import madkit.kernel.Gatekeeper;
 import madkit.kernel.KernelAddress;
 import madkit.kernel.MadkitClassLoader;
 import madkit.kernel.Message;
+import madkit.message.ConversationFilter;
+import madkit.message.MessageFilter;
 import madkit.util.XMLUtilities;
 
 
@@ -107,7 +112,7 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
      * 
      */
     
-    private final ArrayList<GroupRole> m_group_roles=new ArrayList<GroupRole>();
+    private final GroupRoleSet m_group_roles=new GroupRoleSet();
     
     
     private static class AbstractGroupRole
@@ -115,6 +120,7 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	public final AbstractGroup group;
 	public final String role;
 	public final Object passKey;
+	public Group[] represented_groups=null;
 	public AbstractGroupRole(AbstractGroup _group, String _role, Object _passkey)
 	{
 	    group=_group.clone();
@@ -154,10 +160,25 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	{
 	    return g.group.equals(group) && role.equals(g.role);
 	}
+	@Override public int hashCode()
+	{
+	    return group.hashCode()*31+role.hashCode();
+	}
+    }
+    private static class AutoRequestedRole
+    {
+	public final Object passKey;
+	public int rules=0;
+	public boolean requested=false;
+	public AutoRequestedRole(Object _passKey)
+	{
+	    passKey=_passKey;
+	}
     }
     
     private ArrayList<AbstractGroupRole> groups_to_auto_request=null;
-    private ArrayList<GR> auto_requested_groups=null;
+    private HashMap<GR, AutoRequestedRole> auto_requested_groups=null;
+    private HashSet<GR> pending_auto_requested_groups=null;
     
     
     
@@ -172,37 +193,173 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	{
 	    if (groups_to_auto_request!=null)
 	    {
-		@SuppressWarnings("unchecked")
-		ArrayList<GR> arg=(ArrayList<GR>)auto_requested_groups.clone();
 		for (AbstractGroupRole agr : groups_to_auto_request)
+		    reconcileAutoRequestedRule(agr, agr.group.getRepresentedGroups(this.getKernelAddress()));
+		retryPendingAutoRequestedRoles();
+	    }
+    	}
+    }
+    
+    
+    /**
+     * Called by the {@link AutoRequestEngine} when the represented groups of an auto-requested abstract group have changed.
+     */
+    @SuppressWarnings("unused")
+    private void autoRequestedGroupsChanged(AbstractGroup _group, String _role, Group[] _previous, Group[] _current, Group[] _added, Group[] _removed)
+    {
+	synchronized(m_group_roles)
+	{
+	    if (groups_to_auto_request==null)
+		return;
+	    for (AbstractGroupRole agr : groups_to_auto_request)
+	    {
+		if (agr.role.equals(_role) && AutoRequestEngine.isSameRule(agr.group, _group))
 		{
-		    Group[] represented_groups=agr.group.getRepresentedGroups(this.getKernelAddress());
-		    if (represented_groups!=null)
+		    if (agr.represented_groups==_previous || (agr.represented_groups!=null && agr.represented_groups.length==0 && _previous.length==0))
 		    {
-			for (Group g : represented_groups)
-			{
-			    GR gr=new GR(g, agr.role);
-			    if (!super.isRole(g.getCommunity(), g.getPath(), agr.role))
-			    {
-				if (super.bucketModeRequestRole(g.getCommunity(), g.getPath(), agr.role, agr.passKey).equals(ReturnCode.SUCCESS))
-				{
-				    if (!auto_requested_groups.contains(gr))
-					auto_requested_groups.add(gr);
-				}
-			    }
-			    arg.remove(gr);
-			}
+			//the given changements are applied without computing again the difference
+			agr.represented_groups=_current;
+			for (Group g : _added)
+			    incrementAutoRequestedGroup(g, agr);
+			for (Group g : _removed)
+			    decrementAutoRequestedGroup(g, agr.role);
 		    }
-		}
-		for (GR g : arg)
-		{
-	    	    auto_requested_groups.remove(g);
-	    	    super.leaveRole(g.group.getCommunity(), g.group.getPath(), g.role);
+		    else
+			reconcileAutoRequestedRule(agr, _current);
 		}
 	    }
-    	}
+	    retryPendingAutoRequestedRoles();
+	}
+    }
+    
+    /**
+     * Gives to the auto-requested role counters the difference between the represented groups of the given rule at the last reconciliation, and the given represented groups.
+     */
+    private void reconcileAutoRequestedRule(AbstractGroupRole _agr, Group[] _represented_groups)
+    {
+	Group[] current=_represented_groups==null?new Group[0]:_represented_groups;
+	Group[] previous=_agr.represented_groups;
+	if (previous==current)
+	    return;
+	_agr.represented_groups=current;
+	if (previous==null || previous.length==0)
+	{
+	    for (Group g : current)
+		incrementAutoRequestedGroup(g, _agr);
+	}
+	else if (current.length==0)
+	{
+	    for (Group g : previous)
+		decrementAutoRequestedGroup(g, _agr.role);
+	}
+	else
+	{
+	    HashSet<Group> previous_set=new HashSet<Group>(previous.length*2);
+	    Collections.addAll(previous_set, previous);
+	    for (Group g : current)
+	    {
+		if (!previous_set.remove(g))
+		    incrementAutoRequestedGroup(g, _agr);
+	    }
+	    for (Group g : previous_set)
+		decrementAutoRequestedGroup(g, _agr.role);
+	}
+    }
+    
+    /**
+     * Removes the represented groups of a rule which is not auto-requested anymore.
+     */
+    private void releaseAutoRequestedRule(AbstractGroupRole _agr)
+    {
+	if (_agr.represented_groups!=null)
+	{
+	    for (Group g : _agr.represented_groups)
+		decrementAutoRequestedGroup(g, _agr.role);
+	    _agr.represented_groups=null;
+	}
+    }
+    
+    private void incrementAutoRequestedGroup(Group _group, AbstractGroupRole _agr)
+    {
+	GR gr=new GR(_group, _agr.role);
+	AutoRequestedRole arr=auto_requested_groups.get(gr);
+	if (arr==null)
+	{
+	    arr=new AutoRequestedRole(_agr.passKey);
+	    auto_requested_groups.put(gr, arr);
+	}
+	if (++arr.rules==1)
+	    requestAutoRequestedRole(gr, arr);
+    }
+    
+    private void decrementAutoRequestedGroup(Group _group, String _role)
+    {
+	GR gr=new GR(_group, _role);
+	AutoRequestedRole arr=auto_requested_groups.get(gr);
+	if (arr==null || --arr.rules>0)
+	    return;
+	auto_requested_groups.remove(gr);
+	if (arr.requested)
+	{
+	    super.leaveRole(gr.group.getCommunity(), gr.group.getPath(), gr.role);
+	    m_group_roles.decrementAutoRequestedRole(gr.group, gr.role, this.getKernelAddress());
+	}
+	else
+	    pending_auto_requested_groups.remove(gr);
+    }
+    
+    /**
+     * Requests again the auto-requested roles which have not been obtained (i.e. because they were explicitly requested by this agent).
+     */
+    private void retryPendingAutoRequestedRoles()
+    {
+	if (pending_auto_requested_groups.isEmpty())
+	    return;
+	for (GR gr : new ArrayList<GR>(pending_auto_requested_groups))
+	    requestAutoRequestedRole(gr, auto_requested_groups.get(gr));
+    }
+    
+    /**
+     * A role which has been explicitly requested and then left is auto-requested again, if it is still covered by an auto-requested group.
+     */
+    private void retryPendingAutoRequestedRolesAfterLeaving()
+    {
+	synchronized(m_group_roles)
+	{
+	    if (pending_auto_requested_groups!=null)
+		retryPendingAutoRequestedRoles();
+	}
+    }
+    
+    /**
+     * Called when a role is explicitly requested. If this role has been auto-requested, it must be left before being requested again.
+     * It will be auto-requested again if the agent leaves it.
+     * @return true if the role must be left
+     */
+    private boolean releaseAutoRequestedRole(Group _group, String _role)
+    {
+	if (auto_requested_groups==null)
+	    return false;
+	GR gr=new GR(_group, _role);
+	AutoRequestedRole arr=auto_requested_groups.get(gr);
+	if (arr==null || !arr.requested)
+	    return false;
+	arr.requested=false;
+	pending_auto_requested_groups.add(gr);
+	return true;
     }
     
+    private void requestAutoRequestedRole(GR _gr, AutoRequestedRole _arr)
+    {
+	if (super.bucketModeRequestRole(_gr.group.getCommunity(), _gr.group.getPath(), _gr.role, _arr.passKey).equals(ReturnCode.SUCCESS))
+	{
+	    _arr.requested=true;
+	    pending_auto_requested_groups.remove(_gr);
+	    m_group_roles.incrementAutoRequestedRole(_gr.group, _gr.role, this.getKernelAddress());
+	}
+	else
+	    pending_auto_requested_groups.add(_gr);
+    }
     
     /**
      * Automatically request the given role into the given represented groups, only for groups that have been requested with other agents. Do nothing else.
@@ -240,20 +397,23 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
     {
 	if (_group==null || _role==null)
 	    return;
-	boolean toadd=false;
+	AbstractGroupRole agr=new AbstractGroupRole(_group, _role, _passKey);
 	synchronized(m_group_roles)
 	{
 	    if (groups_to_auto_request==null)
 	    {
 		groups_to_auto_request=new ArrayList<AbstractGroupRole>();
-		auto_requested_groups=new ArrayList<GR>();
-		toadd=true;
+		auto_requested_groups=new HashMap<GR, AutoRequestedRole>();
+		pending_auto_requested_groups=new HashSet<GR>();
 	    }
-	    groups_to_auto_request.add(new AbstractGroupRole(_group, _role, _passKey));
+	    groups_to_auto_request.add(agr);
+	}
+	AutoRequestEngine.getEngine(this.getKernelAddress()).subscribe(this, agr.group, agr.role);
+	synchronized(m_group_roles)
+	{
+	    if (groups_to_auto_request!=null && groups_to_auto_request.contains(agr))
+		reconcileAutoRequestedRule(agr, agr.group.getRepresentedGroups(this.getKernelAddress()));
 	}
-	if (toadd)
-	    Group.addGroupChangementNotifier(this);
-	potentialChangementInGroups();
     }
     
     /**
@@ -265,7 +425,6 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
     {
 	if (role==null)
 	    return;
-	boolean toremove=false;
 	synchronized(m_group_roles)
 	{
 	    if (groups_to_auto_request!=null)
@@ -278,6 +437,8 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		    if (agr.role.equals(role))
 		    {
 			it.remove();
+			releaseAutoRequestedRule(agr);
+			AutoRequestEngine.getEngine(this.getKernelAddress()).unsubscribe(this, agr.group, agr.role);
 			oneremoved=true;
 		    }
 		}
@@ -287,15 +448,13 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	    
 		    if (groups_to_auto_request.size()==0)
 		    {
-			toremove=true;
 			groups_to_auto_request=null;
 			auto_requested_groups=null;
+			pending_auto_requested_groups=null;
 		    }
 		}
 	    }
 	}
-	if (toremove)
-	    Group.removeGroupChangementNotifier(this);
     }
     
     /**
@@ -332,7 +491,12 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		}
 		if (found!=null)
 		{
-		    groups_to_auto_request.add(new AbstractGroupRole(_new_group, found.role, found.passKey));
+		    AbstractGroupRole agr=new AbstractGroupRole(_new_group, found.role, found.passKey);
+		    groups_to_auto_request.add(agr);
+		    releaseAutoRequestedRule(found);
+		    AutoRequestEngine engine=AutoRequestEngine.getEngine(this.getKernelAddress());
+		    engine.unsubscribe(this, found.group, found.role);
+		    engine.subscribe(this, agr.group, agr.role);
 		    potentialChangementInGroups();
 		    return true;
 		}
@@ -356,7 +520,6 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	Group[] groups=_group.getRepresentedGroups(this.getKernelAddress());
 	if (groups==null)
 	    return;
-	boolean toremove=false;
 	synchronized(m_group_roles)
 	{
 	    if (groups_to_auto_request!=null)
@@ -370,6 +533,8 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		    if (agr.group.equals(_group))
 		    {
 			it.remove();
+			releaseAutoRequestedRule(agr);
+			AutoRequestEngine.getEngine(this.getKernelAddress()).unsubscribe(this, agr.group, agr.role);
 			oneremoved=true;
 		    }
 		    else
@@ -385,6 +550,8 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 				    if (g.equals(g2))
 				    {
 					it.remove();
+					releaseAutoRequestedRule(agr);
+					AutoRequestEngine.getEngine(this.getKernelAddress()).unsubscribe(this, agr.group, agr.role);
 					breaked=true;
 					oneremoved=true;
 					break;
@@ -402,15 +569,13 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 
 		    if (groups_to_auto_request.size()==0)
 		    {
-			toremove=true;
 		    	groups_to_auto_request=null;
 		    	auto_requested_groups=null;
+		    	pending_auto_requested_groups=null;
 		    }
 		}
 	    }
 	}
-	if (toremove)
-	    Group.removeGroupChangementNotifier(this);
     }
     
 	/**
@@ -484,7 +649,7 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	}
     
     @SuppressWarnings("unused")
-    private ArrayList<GroupRole> getGroupRoles()
+    private GroupRoleSet getGroupRoles()
     {
 	return m_group_roles;
     }
@@ -576,9 +741,15 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 *           the kernel address on which the agent is running
 	 * @return an {@link AgentAddress} corresponding to an agent handling this
 	 *         role on the targeted kernel or <code>null</code> if such an agent does not exist.
+	 * @see DistributedRoutingCache
 	 */
     public AgentAddress getDistantAgentWithRole(AbstractGroup group, String role, KernelAddress from)
     {
+	//the distant organization is only known through the local kernel
+	Group[] local_groups=group.getRepresentedGroups(this.getKernelAddress());
+	DistributedRoutingCache.Entry cache=DistributedRoutingCache.getCache(this.getKernelAddress()).getEntry(this, group, local_groups, role);
+	if (cache!=null)
+	    return cache.getDistantAgentWithRole(this, local_groups, from);
 	Group[] groups=group.getRepresentedGroups(from);
 	for (Group g : groups)
 	{
@@ -689,19 +860,70 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	Group[] groups=_groups.getRepresentedGroups(this.getKernelAddress());
 	if (groups.length==0)
 	    return ReturnCode.NOT_GROUP;
-	for (Group g : groups)
+	if (groups.length==1)
 	{
-	    ReturnCode r=super.broadcastMessageWithRole(g.getCommunity(), g.getPath(), _roleName, _m, _senderRole);
+	    //no possible duplicate : MadKit resolves the sender once for all the recipients, and copies the message for each of them
+	    ReturnCode r=super.broadcastMessageWithRole(groups[0].getCommunity(), groups[0].getPath(), _roleName, _m, _senderRole);
 	    if (r.equals(ReturnCode.NOT_COMMUNITY) || r.equals(ReturnCode.NOT_GROUP))
 		throw new IllegalAccessError("Problem of data integrity ! The group "+_groups+" should be created on MadKit ! These bug is located into MadKitGroupExtension !");
-	    if (!r.equals(ReturnCode.NO_RECIPIENT_FOUND))
+	    if (r.equals(ReturnCode.SUCCESS) || r.equals(ReturnCode.NO_RECIPIENT_FOUND) || r.equals(ReturnCode.NOT_ROLE))
+		return r;
+	    return ReturnCode.NOT_IN_GROUP;
+	}
+	
+	//an agent is identified by its hash code into the local kernel, and by its network ID otherwise
+	HashSet<Object> recipients=new HashSet<Object>();
+	KernelAddress ka=this.getKernelAddress();
+	for (Group g : groups)
+	{
+	    String c=g.getCommunity();
+	    String p=g.getPath();
+	    if (!super.isRole(c, p, _roleName))
+		continue;
+	    role_ok=true;
+	    List<AgentAddress> receivers=super.getAgentsWithRole(c, p, _roleName, false);
+	    if (receivers==null)
+		continue;
+	    not_recipient=false;
+	    Object[] keys=new Object[receivers.size()];
+	    boolean duplicates=false;
+	    for (int i=0;i<keys.length;i++)
 	    {
-		not_recipient=false;
+		AgentAddress aa=receivers.get(i);
+		keys[i]=aa.isFrom(ka)?(Object)Integer.valueOf(aa.hashCode()):aa.getAgentNetworkID();
+		duplicates|=recipients.contains(keys[i]);
+	    }
+	    if (!duplicates)
+	    {
+		if (super.broadcastMessageWithRole(c, p, _roleName, _m, _senderRole).equals(ReturnCode.SUCCESS))
+		{
+		    not_in_group=false;
+		    Collections.addAll(recipients, keys);
+		}
+		continue;
+	    }
+	    //the sender is resolved once for this group, and each remaining recipient receives its own copy
+	    GroupMessageSender sender=null;
+	    for (int i=0;i<keys.length;i++)
+	    {
+		if (recipients.contains(keys[i]))
+		    continue;
+		if (sender==null)
+		{
+		    sender=new GroupMessageSender(this, receivers.get(i), _senderRole);
+		    ReturnCode code=sender.getSenderCode();
+		    if (code!=null && !code.equals(ReturnCode.SUCCESS))
+			break;
+		}
+		ReturnCode r=sender.send(receivers.get(i), cloneMessage(_m));
+		if (r.equals(ReturnCode.SUCCESS))
+		{
+		    not_in_group=false;
+		    recipients.add(keys[i]);
+		}
+		else if (r.equals(ReturnCode.NOT_IN_GROUP) || r.equals(ReturnCode.ROLE_NOT_HANDLED))
+		    break;
 	    }
-	    if (!r.equals(ReturnCode.NOT_ROLE))
-		role_ok=true;
-	    if (r.equals(ReturnCode.SUCCESS))
-		not_in_group=false;
 	}
 	
 	if (role_ok)
@@ -716,6 +938,36 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	else
 	    return ReturnCode.NOT_ROLE;
     }
+    
+	/**
+	 * Broadcasts a message to every agent having a role in the represented groups of the given abstract group,
+	 * using a specific role for the sender. The sender is excluded from the search.
+	 * 
+	 * This function is deprecated and has the same effect that 
+	 * <code>this.broadcastMessageWithRole(_groups, _roleName, _m, _senderRole)</code>.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _roleName
+	 *           the role name
+	 * @param _m
+	 * 	     the message
+	 * @param _senderRole
+	 *           the role name of the sender
+	 * @param _shareMessage
+	 *           ignored : each recipient receives its own copy of the message, since the sender and the receiver 
+	 *           of a message are set for each recipient.
+	 * @return the same return codes than {@link #broadcastMessageWithRole(AbstractGroup, String, Message, String)}
+	 * @see madkit.kernel.AbstractAgent.ReturnCode
+	 * @see AbstractGroup
+	 * @see Group
+	 * @see MultiGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Deprecated @Override public ReturnCode broadcastMessageWithRole(AbstractGroup _groups, String _roleName, Message _m, String _senderRole, boolean _shareMessage)
+    {
+	return this.broadcastMessageWithRole(_groups, _roleName, _m, _senderRole);
+    }
 
 
 
@@ -850,13 +1102,32 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
     @Override protected final void end()
     {
 	deactivate();
+	StepMailbox.removeScheduler(this);
+	//the agents are not stepped by this scheduler anymore
+	flushStepMailboxes();
+	StepMailbox sm=m_step_mailbox;
+	if (sm!=null)
+	    sm.close();
 	synchronized(m_group_roles)
 	{
-	    for (GroupRole gr : m_group_roles)
+	    m_group_roles.resetMadKitReferences(this.getKernelAddress());
+	    if (groups_to_auto_request!=null)
+	    {
+		AutoRequestEngine engine=AutoRequestEngine.getEngine(this.getKernelAddress());
+		for (AbstractGroupRole agr : groups_to_auto_request)
+		    engine.unsubscribe(this, agr.group, agr.role);
+		groups_to_auto_request=null;
+	    }
+	    if (auto_requested_groups!=null)
 	    {
-		gr.resetMadKitReferencesByRemovingRoles(this.getKernelAddress());
+		for (Entry<GR, AutoRequestedRole> e : auto_requested_groups.entrySet())
+		{
+		    if (e.getValue().requested)
+			m_group_roles.releaseAutoRequestedRole(e.getKey().group, e.getKey().role, this.getKernelAddress());
+		}
+		auto_requested_groups=null;
+		pending_auto_requested_groups=null;
 	    }
-	    m_group_roles.clear();
 	}
     }
 
@@ -975,7 +1246,8 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 *           if <code>false</code>, the caller is removed from the list if it
 	 *           is in.
 	 * @return a {@link java.util.List} containing agents that handle this role
-	 *         or <code>null</code> if no agent has been found.
+	 *         or <code>null</code> if no agent has been found. This list is cached and shared between 
+	 *         the callers until the agents handling this role change. So it cannot be modified.
 	 * @see AbstractGroup
 	 * @see Group
 	 * @see MultiGroup
@@ -984,12 +1256,20 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
     @Override public List<AgentAddress> getAgentsWithRole(AbstractGroup _groups, String _role, boolean callerIncluded)
     {
 	Group[] groups=_groups.getRepresentedGroups(this.getKernelAddress());
+	AgentsWithRoleCache.Entry cache=AgentsWithRoleCache.getEntry(this.getKernelAddress(), _groups, _role);
+	long[] stamps=null;
+	if (cache!=null)
+	{
+	    if (cache.isUpToDate(groups))
+		return cache.getAgentsWithRole(this, callerIncluded);
+	    stamps=cache.getCurrentStamps(groups);
+	}
 	ArrayList<List<AgentAddress>> all_lists=new ArrayList<List<AgentAddress>>(groups.length); 
 	
 	int total=0;
 	for (Group g : groups)
 	{
-	    List<AgentAddress> l=super.getAgentsWithRole(g.getCommunity(), g.getPath(), _role, callerIncluded);
+	    List<AgentAddress> l=super.getAgentsWithRole(g.getCommunity(), g.getPath(), _role, callerIncluded || cache!=null);
 	    if (l!=null)
 	    {
 		all_lists.add(l);
@@ -1003,6 +1283,11 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	{
 	    res.addAll(l);
 	}
+	if (cache!=null)
+	{
+	    cache.update(groups, stamps, res);
+	    return cache.getAgentsWithRole(this, callerIncluded);
+	}
 	if (res.size()==0)
 	    return null;
 	ArrayList<AgentAddress> res2=new ArrayList<AgentAddress>();
@@ -1011,6 +1296,76 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	return res2;
     }
 
+	/**
+	 * Gives to the given consumer each agent that handles this role in the organization, the caller excluded. 
+	 * The agents are the same than those returned by {@link #getAgentsWithRole(AbstractGroup, String)}, 
+	 * but no list is built to merge the represented groups. 
+	 * When the agents are cached by the kernel, no memory is allocated.  
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _consumer
+	 *           the consumer receiving each agent address
+	 * @see AgentAddressConsumer
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public void forEachAgentWithRole(AbstractGroup _groups, String _role, AgentAddressConsumer _consumer)
+    {
+	if (AgentsWithRoleCache.getEntry(this.getKernelAddress(), _groups, _role)!=null)
+	{
+	    List<AgentAddress> l=this.getAgentsWithRole(_groups, _role, false);
+	    if (l!=null)
+	    {
+		for (int i=0;i<l.size();i++)
+		    _consumer.accept(l.get(i));
+	    }
+	    return;
+	}
+	//the represented groups are distinct, and an agent address is relative to one group. So there is no duplicate.  
+	for (Group g : _groups.getRepresentedGroups(this.getKernelAddress()))
+	{
+	    List<AgentAddress> l=super.getAgentsWithRole(g.getCommunity(), g.getPath(), _role, false);
+	    if (l!=null)
+	    {
+		for (AgentAddress aa : l)
+		    _consumer.accept(aa);
+	    }
+	}
+    }
+
+	/**
+	 * Returns the number of agents that handle this role in the organization, the caller excluded. 
+	 * The result is the size of the list returned by {@link #getAgentsWithRole(AbstractGroup, String)}, 
+	 * but no list is built to merge the represented groups.  
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @return the number of agents handling this role
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public int countAgentsWithRole(AbstractGroup _groups, String _role)
+    {
+	if (AgentsWithRoleCache.getEntry(this.getKernelAddress(), _groups, _role)!=null)
+	{
+	    List<AgentAddress> l=this.getAgentsWithRole(_groups, _role, false);
+	    return l==null?0:l.size();
+	}
+	int res=0;
+	for (Group g : _groups.getRepresentedGroups(this.getKernelAddress()))
+	{
+	    List<AgentAddress> l=super.getAgentsWithRole(g.getCommunity(), g.getPath(), _role, false);
+	    if (l!=null)
+		res+=l.size();
+	}
+	return res;
+    }
+
 
     /**
      * This function is deprecated and has the same effect that <code>this.getAgentWithRole(new Group(_community, _group), _role)</code>.
@@ -1024,7 +1379,9 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 
 	/**
 	 * Returns an {@link AgentAddress} corresponding to an agent having this
-	 * position in the organization. The caller is excluded from the search.
+	 * position in the organization. The caller is excluded from the search. 
+	 * When one of the represented groups is distributed, the local and distant agents are given 
+	 * by a kernel level routing cache, which is updated from the organization changes.
 	 * 
 	 * @param _groups
 	 *           the group(s) and the community(ies) name
@@ -1035,11 +1392,15 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 * @see AbstractGroup
 	 * @see Group
 	 * @see MultiGroup
+	 * @see DistributedRoutingCache
 	 * @since MadKitGroupExtension 1.0
 	 */
     @Override public AgentAddress getAgentWithRole(AbstractGroup _groups, String _role)
     {
 	Group[] groups=_groups.getRepresentedGroups(this.getKernelAddress());
+	DistributedRoutingCache.Entry cache=DistributedRoutingCache.getCache(this.getKernelAddress()).getEntry(this, _groups, groups, _role);
+	if (cache!=null)
+	    return cache.getAgentWithRole(this, groups);
 	
 	ArrayList<AgentAddress> res=new ArrayList<AgentAddress>(groups.length);
 	
@@ -1166,18 +1527,7 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	
 	    if (r.equals(ReturnCode.SUCCESS))
 	    {
-		Iterator<GroupRole> it=m_group_roles.iterator();
-	    
-		while (it.hasNext() && founded_group==null)
-		{
-		    GroupRole gr=it.next();
-		    if (gr.getGroup().equals(_group))
-		    {
-			gr.resetMadKitReferencesByRemovingRoles(this.getKernelAddress());
-			it.remove();
-			founded_group=gr;
-		    }
-		}
+		founded_group=m_group_roles.remove(_group);
 		if (founded_group==null)
 		{
 		    throw new IllegalAccessError("Problem of data integrity ! The group "+_group+" should be present on this agent ! These bug is located into MadKitGroupExtension !");
@@ -1186,6 +1536,8 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	}
 	if (founded_group!=null)
 	    founded_group.resetMadKitReferencesByRemovingRoles(this.getKernelAddress());
+	if (r.equals(ReturnCode.SUCCESS))
+	    retryPendingAutoRequestedRolesAfterLeaving();
 	
 	return r;
     }
@@ -1235,30 +1587,20 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	    
 	    if (r.equals(ReturnCode.SUCCESS))
 	    {
-		synchronized(m_group_roles)
+		founded_group=m_group_roles.get(_group);
+		if (founded_group==null)
 		{
-		    Iterator<GroupRole> it=m_group_roles.iterator();
-	    
-		    while (it.hasNext() && founded_group==null)
-		    {
-			GroupRole gr=it.next();
-			if (gr.getGroup().equals(_group))
-			{
-			    if (gr.getRolesNumber()<=1)
-				it.remove();
-			    founded_group=gr;
-			}
-		    }
-		    if (founded_group==null)
-		    {
-			throw new IllegalAccessError("Problem of data integrity ! The group "+_group+" should be present on this agent ! These bug is located into MadKitGroupExtension !");
-		    }
+		    throw new IllegalAccessError("Problem of data integrity ! The group "+_group+" should be present on this agent ! These bug is located into MadKitGroupExtension !");
 		}
+		if (founded_group.getRolesNumber()<=1)
+		    m_group_roles.remove(_group);
 	    }
 	    
 	}
 	if (founded_group!=null)
-	    founded_group.decrementMadKitReferences(this.getKernelAddress());
+	    founded_group.decrementMadKitReferences(_role, this.getKernelAddress());
+	if (r.equals(ReturnCode.SUCCESS))
+	    retryPendingAutoRequestedRolesAfterLeaving();
 	
 	return r;
     }
@@ -1314,15 +1656,11 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	return this.requestRole(_group, _role, _passKey, false);
     }
     
-    private ReturnCode requestRole(Group _group, String _role, Object _passKey, boolean bucket_mode)
+    private boolean isMadKitCreated(Group _group)
     {
-	if (_group.isUsedSubGroups())
-	    throw new IllegalArgumentException("Unable to use sub groups of the group : "+_group);
-
-	boolean madkitcreated=false;
 	try
 	{
-	    madkitcreated=((Boolean)m_is_madkit_created_method.invoke(_group, this.getKernelAddress())).booleanValue();
+	    return ((Boolean)m_is_madkit_created_method.invoke(_group, this.getKernelAddress())).booleanValue();
 	}
 	catch (IllegalArgumentException e1)
 	{
@@ -1341,6 +1679,15 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	    e1.printStackTrace();
 	    System.exit(-1);
 	}
+	return false;
+    }
+    
+    private ReturnCode requestRole(Group _group, String _role, Object _passKey, boolean bucket_mode)
+    {
+	if (_group.isUsedSubGroups())
+	    throw new IllegalArgumentException("Unable to use sub groups of the group : "+_group);
+
+	boolean madkitcreated=isMadKitCreated(_group);
 
 	if (!madkitcreated)
 	{
@@ -1361,19 +1708,28 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	    String p=_group.getPath();
 	    
 	    
-	    boolean toleave=false;
-	    if (auto_requested_groups!=null)
-		toleave=auto_requested_groups.remove(new GR(_group, _role));
-
-	    if (toleave)
+	    if (releaseAutoRequestedRole(_group, _role))
 	    {
 		super.leaveRole(c, p, _role);
+		m_group_roles.decrementAutoRequestedRole(_group, _role, this.getKernelAddress());
 	    }
 	    if (bucket_mode)
 		r=super.requestRole(c, p, _role, _passKey);
 	    else
 		r=super.bucketModeRequestRole(c, p, _role, _passKey);
 
+	    if ((r.equals(ReturnCode.NOT_COMMUNITY) || r.equals(ReturnCode.NOT_GROUP)) && madkitcreated && AgentsTermination.isRunning(this.getKernelAddress()))
+	    {
+		//MadKit has removed the group when its last members have been killed, but their termination still references it
+		if (bucket_mode)
+		    super.bucketModeCreateGroup(c, p, _group.isMadKitDistributed(), _group.getMadKitIdentifier());
+		else
+		    super.createGroup(c, p, _group.isMadKitDistributed(), _group.getMadKitIdentifier());
+		if (bucket_mode)
+		    r=super.requestRole(c, p, _role, _passKey);
+		else
+		    r=super.bucketModeRequestRole(c, p, _role, _passKey);
+	    }
 	    if (r.equals(ReturnCode.NOT_COMMUNITY) || r.equals(ReturnCode.NOT_GROUP))
 		throw new IllegalAccessError("Problem of data integrity ! The group and/or the community "+_group+" should be already created. However, Madkit returns that there have not been created. These bug is located into MadKitGroupExtension !");
 	
@@ -1385,25 +1741,11 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		    m_group_roles.add(concerned_gr);
 		}
 		else
-		{
-		    for (GroupRole gr : m_group_roles)	
-		    {
-			if (gr.getGroup().equals(_group))
-			{
-			    concerned_gr=gr;
-			    break;
-			}
-		    }
-		    if (concerned_gr==null)
-		    {
-			concerned_gr=new GroupRole(_group);
-			m_group_roles.add(concerned_gr);
-		    }
-		}
+		    concerned_gr=m_group_roles.getOrAdd(_group);
 	    }
 	}
 	if (concerned_gr!=null)
-    	    concerned_gr.incrementMadKitReferences(this.getKernelAddress());
+    	    concerned_gr.incrementMadKitReferences(_role, this.getKernelAddress());
     	return r;
 	
     }
@@ -1441,39 +1783,244 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
     }
 
 
-
-    /**
-     * This function is deprecated and has the same effect that <code>this.sendMessage(new Group(_community, _group), _role, _message)</code>.
-     * @since MadKitGroupExtension 1.0 
-     */
-    @Deprecated @Override public final ReturnCode sendMessage(String _community, String _group, String _role, Message _message)
+	/**
+	 * Requests several roles, possibly within several groups, in one call. This has the
+	 * same effect as <code>requestRoles(roles, null)</code>.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #requestRoles(Collection, Object)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] requestRoles(Collection<Role> _roles)
     {
-	return this.sendMessage(new Group(_community, _group), _role, _message);
+	return this.requestRoles(_roles, null);
     }
-
-
+    
 	/**
-	 * Sends a message to an agent having this position in the organization,
-	 * specifying explicitly the role used to send it. This has the same effect
-	 * as <code>sendMessageWithRole(group, role, messageToSend,null)</code>. If
-	 * several agents match, the target is chosen randomly. The sender is
-	 * excluded from this search.
+	 * Requests several roles, possibly within several groups, in one call. 
+	 * The missing groups are created once, the references of each group are updated once for all its roles, 
+	 * and the changement of the groups is notified once at the end of the call (i.e. to the probes, 
+	 * the activators and the auto-requested roles).
 	 * 
-	 * @param _groups
-	 *           the group(s) and the community(ies) name
-	 * @param _role
-	 *           the role name
-	 * @param _messageToSend
-	 *           the message to send
-	 * @return <ul>
-	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#SUCCESS}</code>: If the send has
-	 *         succeeded.</li>
-	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_COMMUNITY}</code>: If the
-	 *         community does not exist.</li>
-	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_GROUP}</code>: If the group does
-	 *         not exist.</li>
-	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_ROLE}</code>: If the role does not
-	 *         exist.</li>
+	 * Each role is requested with the same semantic than {@link #requestRole(Group, String, Object)}.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @param _passKey
+	 *           the <code>passKey</code> to enter secured groups. It
+	 *           could be <code>null</code>.
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #requestRole(Group, String, Object)
+	 * @see Role
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] requestRoles(Collection<Role> _roles, Object _passKey)
+    {
+	Role[] roles=_roles.toArray(new Role[_roles.size()]);
+	ReturnCode[] res=new ReturnCode[roles.length];
+	KernelAddress ka=this.getKernelAddress();
+	LinkedHashMap<Group, ArrayList<Integer>> groups=GroupRole.getRolesIndexesByGroup(roles);
+	//the groups are checked before any change, so that the call is not partially applied
+	for (Group g : groups.keySet())
+	{
+	    if (g.isUsedSubGroups())
+		throw new IllegalArgumentException("Unable to use sub groups of the group : "+g);
+	}
+	GroupRole.beginCoalescedChangements();
+	try
+	{
+	    for (Entry<Group, ArrayList<Integer>> e : groups.entrySet())
+	    {
+		Group g=e.getKey();
+		String c=g.getCommunity();
+		String p=g.getPath();
+		if (!isMadKitCreated(g))
+		{
+		    if (super.createGroup(c, p, g.isMadKitDistributed(), g.getMadKitIdentifier()).equals(ReturnCode.ALREADY_GROUP))
+			throw new IllegalAccessError("Problem of data integrity ! The group "+g+" has already be already created on MadKit. These bug is located into MadKitGroupExtension !");
+		}
+		ArrayList<String> requested=new ArrayList<String>(e.getValue().size());
+		GroupRole concerned_gr=null;
+		synchronized(m_group_roles)
+		{
+		    for (Integer i : e.getValue())
+		    {
+			String role=roles[i.intValue()].getRole();
+			if (releaseAutoRequestedRole(g, role))
+			{
+			    super.leaveRole(c, p, role);
+			    m_group_roles.decrementAutoRequestedRole(g, role, ka);
+			}
+			ReturnCode r=super.bucketModeRequestRole(c, p, role, _passKey);
+			if ((r.equals(ReturnCode.NOT_COMMUNITY) || r.equals(ReturnCode.NOT_GROUP)) && AgentsTermination.isRunning(ka))
+			{
+			    //MadKit has removed the group when its last members have been killed, but their termination still references it
+			    super.createGroup(c, p, g.isMadKitDistributed(), g.getMadKitIdentifier());
+			    r=super.bucketModeRequestRole(c, p, role, _passKey);
+			}
+			if (r.equals(ReturnCode.NOT_COMMUNITY) || r.equals(ReturnCode.NOT_GROUP))
+			    throw new IllegalAccessError("Problem of data integrity ! The group and/or the community "+g+" should be already created. However, Madkit returns that there have not been created. These bug is located into MadKitGroupExtension !");
+			res[i.intValue()]=r;
+			if (r.equals(ReturnCode.SUCCESS))
+			    requested.add(role);
+		    }
+		    if (!requested.isEmpty())
+			concerned_gr=m_group_roles.getOrAdd(g);
+		}
+		if (concerned_gr!=null)
+		    concerned_gr.incrementMadKitReferences(requested, ka);
+	    }
+	}
+	finally
+	{
+	    GroupRole.endCoalescedChangements();
+	}
+	return res;
+    }
+    
+	/**
+	 * Abandons several roles, possibly within several groups, in one call. 
+	 * The references of each group are updated once for all its roles, and the changement of the groups 
+	 * is notified once at the end of the call.
+	 * 
+	 * Each role is left with the same semantic than {@link #leaveRole(Group, String)}.
+	 * 
+	 * @param _roles
+	 *           the roles and their groups
+	 * @return the return code of each role, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #leaveRole(Group, String)
+	 * @see Role
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] leaveRoles(Collection<Role> _roles)
+    {
+	Role[] roles=_roles.toArray(new Role[_roles.size()]);
+	ReturnCode[] res=new ReturnCode[roles.length];
+	boolean one_left=false;
+	LinkedHashMap<Group, ArrayList<Integer>> groups=GroupRole.getRolesIndexesByGroup(roles);
+	//the groups are checked before any change, so that the call is not partially applied
+	for (Group g : groups.keySet())
+	{
+	    if (g.isUsedSubGroups())
+		throw new IllegalArgumentException("Unable to use sub groups of the group : "+g);
+	}
+	GroupRole.beginCoalescedChangements();
+	try
+	{
+	    for (Entry<Group, ArrayList<Integer>> e : groups.entrySet())
+	    {
+		Group g=e.getKey();
+		ArrayList<String> left=new ArrayList<String>(e.getValue().size());
+		GroupRole founded_group=null;
+		synchronized(m_group_roles)
+		{
+		    for (Integer i : e.getValue())
+		    {
+			String role=roles[i.intValue()].getRole();
+			ReturnCode r=super.leaveRole(g.getCommunity(), g.getPath(), role);
+			res[i.intValue()]=r;
+			if (r.equals(ReturnCode.SUCCESS))
+			    left.add(role);
+		    }
+		    if (!left.isEmpty())
+		    {
+			founded_group=m_group_roles.get(g);
+			if (founded_group==null)
+			    throw new IllegalAccessError("Problem of data integrity ! The group "+g+" should be present on this agent ! These bug is located into MadKitGroupExtension !");
+			if (founded_group.getRolesNumber()<=left.size())
+			    m_group_roles.remove(g);
+		    }
+		}
+		if (founded_group!=null)
+		{
+		    founded_group.decrementMadKitReferences(left, this.getKernelAddress());
+		    one_left=true;
+		}
+	    }
+	    if (one_left)
+		retryPendingAutoRequestedRolesAfterLeaving();
+	}
+	finally
+	{
+	    GroupRole.endCoalescedChangements();
+	}
+	return res;
+    }
+    
+	/**
+	 * Makes this agent leave several groups in one call. The changement of the groups is notified once at the end of the call.
+	 * 
+	 * Each group is left with the same semantic than {@link #leaveGroup(Group)}.
+	 * 
+	 * @param _groups
+	 *           the groups
+	 * @return the return code of each group, in the iteration order of the given collection
+	 * @throws IllegalArgumentException when a given group represents also its subgroups
+	 * @see #leaveGroup(Group)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] leaveGroups(Collection<Group> _groups)
+    {
+	//the groups are checked before any change, so that the call is not partially applied
+	for (Group g : _groups)
+	{
+	    if (g.isUsedSubGroups())
+		throw new IllegalArgumentException("Unable to use sub groups of the group : "+g);
+	}
+	ReturnCode[] res=new ReturnCode[_groups.size()];
+	GroupRole.beginCoalescedChangements();
+	try
+	{
+	    int i=0;
+	    for (Group g : _groups)
+		res[i++]=this.leaveGroup(g);
+	}
+	finally
+	{
+	    GroupRole.endCoalescedChangements();
+	}
+	return res;
+    }
+
+
+
+    /**
+     * This function is deprecated and has the same effect that <code>this.sendMessage(new Group(_community, _group), _role, _message)</code>.
+     * @since MadKitGroupExtension 1.0 
+     */
+    @Deprecated @Override public final ReturnCode sendMessage(String _community, String _group, String _role, Message _message)
+    {
+	return this.sendMessage(new Group(_community, _group), _role, _message);
+    }
+
+
+	/**
+	 * Sends a message to an agent having this position in the organization,
+	 * specifying explicitly the role used to send it. This has the same effect
+	 * as <code>sendMessageWithRole(group, role, messageToSend,null)</code>. If
+	 * several agents match, the target is chosen randomly. The sender is
+	 * excluded from this search.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _messageToSend
+	 *           the message to send
+	 * @return <ul>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#SUCCESS}</code>: If the send has
+	 *         succeeded.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_COMMUNITY}</code>: If the
+	 *         community does not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_GROUP}</code>: If the group does
+	 *         not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_ROLE}</code>: If the role does not
+	 *         exist.</li>
 	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_IN_GROUP}</code>: If this agent is
 	 *         not a member of the targeted group.</li>
 	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NO_RECIPIENT_FOUND}</code>: If no
@@ -1540,14 +2087,472 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 * @see MultiGroup
 	 * @since MadKitGroupExtension 1.0
 	 */
-    @Override public ReturnCode sendMessageWithRole(AbstractGroup _groups, String _role, Message _messageToSend, String _senderRole)
+    @Override public ReturnCode sendMessageWithRole(AbstractGroup _groups, String _role, Message _messageToSend, String _senderRole)
+    {
+	AgentAddress aa=getAgentWithRole(_groups, _role);
+	
+	if (aa!=null)
+	    return super.sendMessageWithRole(aa, _messageToSend, _senderRole);
+	else
+	    return ReturnCode.NO_RECIPIENT_FOUND;
+    }
+
+	/**
+	 * Sends a message to an agent having this position in the organization, chosen according the given routing strategy. 
+	 * This has the same effect as
+	 * <code>sendMessageWithRole(groups, role, messageToSend, null, strategy)</code>.
+	 * The sender is excluded from this search.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _strategy
+	 *           the strategy used to choose the recipient
+	 * @return <ul>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#SUCCESS}</code>: If the send has
+	 *         succeeded.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_COMMUNITY}</code>: If the
+	 *         community does not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_GROUP}</code>: If the group does
+	 *         not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_ROLE}</code>: If the role does not
+	 *         exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_IN_GROUP}</code>: If this agent is
+	 *         not a member of the targeted group.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NO_RECIPIENT_FOUND}</code>: If no
+	 *         agent was found as recipient, i.e. the sender was the only agent
+	 *         having this role.</li>
+	 *         </ul>
+	 * @see madkit.kernel.AbstractAgent.ReturnCode
+	 * @see RoutingStrategy
+	 * @see MessageRouter
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode sendMessage(AbstractGroup _groups, String _role, Message _messageToSend, RoutingStrategy _strategy)
+    {
+	return this.sendMessageWithRole(_groups, _role, _messageToSend, null, _strategy);
+    }
+
+	/**
+	 * Sends a message to an agent having this position in the organization, chosen according the given routing strategy. 
+	 * The recipients ring and the send counters of each abstract group/role couple are maintained by a {@link MessageRouter}, 
+	 * which can be obtained with <code>MessageRouter.getRouter(getKernelAddress(), groups, role)</code>.
+	 * The sender is excluded from this search.
+	 * 
+	 * @param _groups
+	 *           the group(s) and the community(ies) name
+	 * @param _role
+	 *           the role name
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _senderRole
+	 *           the agent's role with which the message has to be sent
+	 * @param _strategy
+	 *           the strategy used to choose the recipient
+	 * @return <ul>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#SUCCESS}</code>: If the send has
+	 *         succeeded.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_COMMUNITY}</code>: If the
+	 *         community does not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_GROUP}</code>: If the group does
+	 *         not exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_ROLE}</code>: If the role does not
+	 *         exist.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#ROLE_NOT_HANDLED}</code>: If
+	 *         <code>senderRole</code> is not handled by this agent.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NOT_IN_GROUP}</code>: If this agent is
+	 *         not a member of the targeted group.</li>
+	 *         <li><code>{@link madkit.kernel.AbstractAgent.ReturnCode#NO_RECIPIENT_FOUND}</code>: If no
+	 *         agent was found as recipient, i.e. the sender was the only agent
+	 *         having this role.</li>
+	 *         </ul>
+	 * @see madkit.kernel.AbstractAgent.ReturnCode
+	 * @see RoutingStrategy
+	 * @see MessageRouter
+	 * @see AbstractGroup
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode sendMessageWithRole(AbstractGroup _groups, String _role, Message _messageToSend, String _senderRole, RoutingStrategy _strategy)
+    {
+	return MessageRouter.getRouter(this.getKernelAddress(), _groups, _role).sendMessageWithRole(this, _messageToSend, _senderRole, _strategy);
+    }
+
+	/**
+	 * Sends a message to several agents, using their agent addresses. This has the same effect as
+	 * <code>sendMessagesWithRole(receivers, messageToSend, null)</code>.
+	 * 
+	 * @param _receivers
+	 *           the targeted agents
+	 * @param _messageToSend
+	 *           the message to send
+	 * @return the return code of the send for each recipient
+	 * @see BulkSendReport
+	 * @see #sendMessagesWithRole(Collection, Message, String)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public BulkSendReport sendMessages(Collection<AgentAddress> _receivers, Message _messageToSend)
+    {
+	return this.sendMessagesWithRole(_receivers, _messageToSend, null);
+    }
+
+	/**
+	 * Sends a message to several agents, using their agent addresses, specifying explicitly the role
+	 * used to send it. Each recipient receives its own copy of the message, excepted the last one 
+	 * which receives the given instance. 
+	 * 
+	 * The recipients are grouped by targeted group and role. The sender is checked once for each of them : 
+	 * the remaining recipients of the local kernel are then directly delivered, or rejected with 
+	 * the same return code when the sender is not a member of the group or does not handle the given role.
+	 * 
+	 * @param _receivers
+	 *           the targeted agents
+	 * @param _messageToSend
+	 *           the message to send
+	 * @param _senderRole
+	 *           the agent's role with which the message has to be sent
+	 * @return the return code of the send for each recipient (see {@link #sendMessageWithRole(AgentAddress, Message, String)} 
+	 * 		for the possible return codes)
+	 * @see BulkSendReport
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public BulkSendReport sendMessagesWithRole(Collection<AgentAddress> _receivers, Message _messageToSend, String _senderRole)
+    {
+	BulkSendReport report=new BulkSendReport(_receivers);
+	//the senders checked for each targeted community, group and role
+	HashMap<List<String>, GroupMessageSender> senders=new HashMap<List<String>, GroupMessageSender>();
+	AgentAddress previous=null;
+	GroupMessageSender sender=null;
+	for (int i=0;i<report.size();i++)
+	{
+	    AgentAddress aa=report.getRecipient(i);
+	    //the recipients of a same group and role are usually consecutive
+	    if (sender==null || sender.getSenderCode()==null || !aa.getRole().equals(previous.getRole()) || !aa.getGroup().equals(previous.getGroup()) || !aa.getCommunity().equals(previous.getCommunity()))
+	    {
+		List<String> key=Arrays.asList(aa.getCommunity(), aa.getGroup(), aa.getRole());
+		sender=senders.get(key);
+		if (sender==null)
+		{
+		    sender=new GroupMessageSender(this, aa, _senderRole);
+		    //when the first recipient is not valid, the sender is checked again with the next one
+		    if (sender.getSenderCode()!=null)
+			senders.put(key, sender);
+		}
+	    }
+	    previous=aa;
+	    ReturnCode rc=sender.getSenderCode();
+	    if (rc!=null && rc!=ReturnCode.SUCCESS)
+		report.set(i, rc);
+	    else
+		report.set(i, sender.send(aa, i==report.size()-1?_messageToSend:cloneMessage(_messageToSend)));
+	}
+	return report;
+    }
+
+	/**
+	 * Enables or disables the step synchronous mailbox of this agent. 
+	 * When it is enabled, the messages sent to this agent by other agents during a simulation step are buffered, 
+	 * and are received at the end of the step, i.e. after the call of {@link Scheduler#doSimulationStep()} by the step loop 
+	 * of the scheduler having an activator on one of the roles of this agent. 
+	 * So the messages read by this agent during a step do not depend on the execution order of the other agents. 
+	 * The messages are directly received while no scheduler steps this agent. 
+	 * When it is disabled, the buffered messages are immediately received.
+	 * 
+	 * @param _enabled
+	 *           true if the step synchronous mailbox must be used
+	 * @see StepMailbox
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public void setStepSynchronousMailbox(boolean _enabled)
+    {
+	synchronized(this)
+	{
+	    if (_enabled)
+	    {
+		if (m_step_mailbox==null)
+		{
+		    StepMailbox sm=new StepMailbox(this, m_group_roles);
+		    sm.setIndexedMailbox(m_indexed_mailbox);
+		    m_step_mailbox=sm;
+		}
+		return;
+	    }
+	    if (m_step_mailbox==null)
+		return;
+	    StepMailbox sm=m_step_mailbox;
+	    m_step_mailbox=null;
+	    sm.close();
+	}
+    }
+
+	/**
+	 * Tells if this agent uses a step synchronous mailbox.
+	 * 
+	 * @return true if the messages sent to this agent are received at the end of each simulation step
+	 * @see #setStepSynchronousMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public boolean isStepSynchronousMailbox()
+    {
+	return m_step_mailbox!=null;
+    }
+
+	/**
+	 * Enables or disables the indexed mailbox of this agent. 
+	 * When it is enabled, the received messages are stored into an {@link IndexedMailbox}, which indexes them by class, 
+	 * by conversation ID and by sender. The functions {@link #nextMessage(MessageFilter)}, {@link #nextMessages(MessageFilter)} 
+	 * and {@link #getLastReceivedMessage(MessageFilter)} then only apply the filters which declare index keys 
+	 * (see {@link IndexedMessageFilter} and {@link IndexKeyFilter}) to the messages having these keys, 
+	 * instead of scanning the whole mailbox. The messages already received are moved between the two mailboxes. 
+	 * The replies waited by <code>broadcastMessageWithRoleAndWaitForReplies</code> and <code>waitAnswer</code> 
+	 * are then read from the indexed mailbox.
+	 * 
+	 * @param _enabled
+	 *           true if the indexed mailbox must be used
+	 * @see IndexedMailbox
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public void setIndexedMailbox(boolean _enabled)
+    {
+	synchronized(this)
+	{
+	    if (_enabled==(m_indexed_mailbox!=null))
+		return;
+	    if (_enabled)
+	    {
+		IndexedMailbox im=new IndexedMailbox(this);
+		m_indexed_mailbox=im;
+		if (m_step_mailbox!=null)
+		    m_step_mailbox.setIndexedMailbox(im);
+		//the messages received before are older than those received from now
+		im.addAllFirst(StepMailbox.pollAll(this));
+	    }
+	    else
+	    {
+		IndexedMailbox im=m_indexed_mailbox;
+		m_indexed_mailbox=null;
+		if (m_step_mailbox!=null)
+		    m_step_mailbox.setIndexedMailbox(null);
+		//the messages received from now by the closed mailbox are stored into the MadKit mailbox
+		List<Message> l=im.close();
+		for (int i=l.size()-1;i>=0;i--)
+		    StepMailbox.getMailbox(this).offerFirst(l.get(i));
+	    }
+	}
+    }
+
+	/**
+	 * Tells if this agent uses an indexed mailbox.
+	 * 
+	 * @return true if the received messages are indexed
+	 * @see #setIndexedMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public boolean isIndexedMailbox()
+    {
+	return m_indexed_mailbox!=null;
+    }
+
+	/**
+	 * Sets the policy of the mailbox of this agent, and enables the indexed mailbox (see {@link #setIndexedMailbox(boolean)}). 
+	 * The policy can give the priority to the control messages (see {@link ControlMessage}), which are then read before the other messages. 
+	 * It can also bound the number of waiting messages which are not control messages. A message received while the mailbox is full 
+	 * is dropped, evicts the oldest waiting message, or is rejected with a {@link RejectedMessage} sent back to its sender. 
+	 * The messages already received are kept. Disabling the indexed mailbox restores an unbounded mailbox without priorities.
+	 * 
+	 * @param _policy
+	 *           the mailbox policy
+	 * @see MailboxPolicy
+	 * @see #getMailboxStatistics()
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public void setMailboxPolicy(MailboxPolicy _policy)
+    {
+	if (_policy==null)
+	    throw new NullPointerException("_policy");
+	synchronized(this)
+	{
+	    setIndexedMailbox(true);
+	    m_indexed_mailbox.setPolicy(_policy);
+	}
+    }
+
+	/**
+	 * Returns the policy of the mailbox of this agent.
+	 * 
+	 * @return the mailbox policy, or {@link MailboxPolicy#UNBOUNDED} if this agent does not use an indexed mailbox
+	 * @see #setMailboxPolicy(MailboxPolicy)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public MailboxPolicy getMailboxPolicy()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return MailboxPolicy.UNBOUNDED;
+	return im.getPolicy();
+    }
+
+	/**
+	 * Returns a snapshot of the activity of the mailbox of this agent : its depth, the number of dropped and rejected messages, 
+	 * the enqueue latency and the time spent by the messages into the mailbox. 
+	 * The activity is measured from the activation of the indexed mailbox.
+	 * 
+	 * @return the mailbox statistics, or <code>null</code> if this agent does not use an indexed mailbox
+	 * @see #setMailboxPolicy(MailboxPolicy)
+	 * @see #setIndexedMailbox(boolean)
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public MailboxStatistics getMailboxStatistics()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return null;
+	return im.getStatistics();
+    }
+
+    @Override public Message nextMessage()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.nextMessage();
+	return im.poll();
+    }
+
+    @Override public Message nextMessage(final MessageFilter filter)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.nextMessage(filter);
+	return im.poll(filter);
+    }
+
+    @Override public List<Message> nextMessages(final MessageFilter filter)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.nextMessages(filter);
+	return im.pollAll(filter);
+    }
+
+    @Override public Message getLastReceivedMessage()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.getLastReceivedMessage();
+	return im.pollLast();
+    }
+
+    @Override public Message getLastReceivedMessage(final MessageFilter filter)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.getLastReceivedMessage(filter);
+	return im.pollLast(filter);
+    }
+
+    @Override public Message purgeMailbox()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.purgeMailbox();
+	return im.purge();
+    }
+
+    @Override public boolean isMessageBoxEmpty()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.isMessageBoxEmpty();
+	return im.isEmpty();
+    }
+
+    @Override public Message waitNextMessage()
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.waitNextMessage();
+	return waitIndexedMessage(im, null, -1);
+    }
+
+    @Override public Message waitNextMessage(final long timeOutMilliseconds)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.waitNextMessage(timeOutMilliseconds);
+	return waitIndexedMessage(im, null, Math.max(0, TimeUnit.MILLISECONDS.toNanos(timeOutMilliseconds)));
+    }
+
+    @Override public Message waitNextMessage(final MessageFilter filter)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.waitNextMessage(filter);
+	return waitIndexedMessage(im, filter, -1);
+    }
+
+    @Override public Message waitNextMessage(final Integer timeOutMilliseconds, final MessageFilter filter)
+    {
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.waitNextMessage(timeOutMilliseconds, filter);
+	return waitIndexedMessage(im, filter, timeOutMilliseconds==null?-1:Math.max(0, TimeUnit.MILLISECONDS.toNanos(timeOutMilliseconds.longValue())));
+    }
+    
+    private Message waitIndexedMessage(IndexedMailbox im, MessageFilter filter, long timeOutNanos)
+    {
+	try
+	{
+	    return im.take(filter, timeOutNanos);
+	}
+	catch (InterruptedException e)
+	{
+	    //MadKit handles the interruption (i.e. the agent is killed) when it waits for a message 
+	    Thread.currentThread().interrupt();
+	    super.waitNextMessage(0l);
+	    return null;
+	}
+    }
+
+	/**
+	 * This method offers a convenient way for regular object to send messages to
+	 * Agents, especially threaded agents. For instance when a GUI wants to
+	 * discuss with its linked agent: This allows to enqueue work to do in their
+	 * life cycle. If this agent uses a step synchronous mailbox, a message sent by an agent 
+	 * is received at the end of the current simulation step. A reference is added to the received 
+	 * pooled messages, which must be released by this agent.
+	 * 
+	 * @param m the received message
+	 * @see #setStepSynchronousMailbox(boolean)
+	 * @see PooledMessage
+	 */
+    @Override public void receiveMessage(final Message m)
     {
-	AgentAddress aa=getAgentWithRole(_groups, _role);
-	
-	if (aa!=null)
-	    return super.sendMessageWithRole(aa, _messageToSend, _senderRole);
-	else
-	    return ReturnCode.NO_RECIPIENT_FOUND;
+	//the receiver owns a reference to the pooled messages
+	PooledMessage.retain(m);
+	StepMailbox sm=m_step_mailbox;
+	if (sm!=null && sm.receive(m))
+	    return;
+	IndexedMailbox im=m_indexed_mailbox;
+	//a closed indexed mailbox refuses the message, which is then received by the MadKit mailbox
+	if (im!=null && im.add(m))
+	    return;
+	super.receiveMessage(m);
+	//the indexed mailbox has been enabled while the message was received, and the MadKit mailbox is not read anymore
+	if (m_indexed_mailbox!=null)
+	    moveMessagesToIndexedMailbox();
+    }
+    
+    private void moveMessagesToIndexedMailbox()
+    {
+	synchronized(this)
+	{
+	    IndexedMailbox im=m_indexed_mailbox;
+	    if (im!=null)
+		im.addAllFirst(StepMailbox.pollAll(this));
+	}
     }
 
 	/**
@@ -1639,6 +2644,38 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	    throw new IllegalArgumentException("The agent given as parameter must inherit a MadKitGroupExtension agent which implements the interface MadKitGroupExtensionAgent.");
 	}
 	return super.killAgent(_target, _timeOutSeconds);
+    }
+	/**
+	 * Kills several agents at once. This has the same effect as
+	 * <code>killAgents(targets,Integer.MAX_VALUE)</code>.
+	 * 
+	 * @param _targets the agents to kill
+	 * @return the return code of each kill, in the iteration order of the given collection
+	 * @see #killAgents(Collection, int)
+	 * @throws IllegalArgumentException When one of the given agents don't implement the interface MadKitGroupExtensionAgent
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] killAgents(Collection<? extends madkit.kernel.AbstractAgent> _targets)
+    {
+	return killAgents(_targets, Integer.MAX_VALUE);
+    }
+	/**
+	 * Kills several agents at once, i.e. at the end of an epoch or to cull a population. 
+	 * Each agent is killed like with {@link #killAgent(madkit.kernel.AbstractAgent, int)}, but the roles of the killed agents 
+	 * are not released one by one : they are aggregated by group, and each group is updated once when all the agents 
+	 * have been killed. So each group which becomes empty is deactivated once, and only one changement 
+	 * of the groups is notified (i.e. to the probes, the activators and the auto-requested roles).
+	 * 
+	 * @param _targets the agents to kill
+	 * @param _timeOutSeconds the time given to each agent to complete its end method
+	 * @return the return code of each kill, in the iteration order of the given collection
+	 * @see #killAgent(madkit.kernel.AbstractAgent, int)
+	 * @throws IllegalArgumentException When one of the given agents don't implement the interface MadKitGroupExtensionAgent
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override public ReturnCode[] killAgents(Collection<? extends madkit.kernel.AbstractAgent> _targets, int _timeOutSeconds)
+    {
+	return AgentsTermination.killAgents(this, _targets, _timeOutSeconds);
     }
 	/**
 	 * Launches a new agent in the MadKit platform. This has the same effect as
@@ -1998,8 +3035,9 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	{
 	    ArrayList<MKGEAbstractAgent> lst_mkge_agents=new ArrayList<MKGEAbstractAgent>();
 	    ArrayList<madkit.kernel.AbstractAgent> lst_mk_agents=new ArrayList<madkit.kernel.AbstractAgent>();
-	    createBucket(_agentClassName, _bucketSize, cpuCoreNb, lst_mkge_agents, lst_mk_agents);
-	    launchAgentBucket(lst_mkge_agents, lst_mk_agents, cpuCoreNb, _rolesName);
+	    //the agents are built by the MadKitGroupExtension pool while the roles are checked and the groups are created
+	    AgentBucketFactory.Construction construction=AgentBucketFactory.getDefault().construct(loadAgentClass(_agentClassName), _bucketSize, cpuCoreNb);
+	    launchAgentBucket(lst_mkge_agents, lst_mk_agents, construction, cpuCoreNb, _rolesName);
 	    return lst_mk_agents;
 	}
 	catch (InstantiationException | IllegalAccessException | ClassNotFoundException e)
@@ -2112,14 +3150,23 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	{
 	    lst_mk_agents.add((madkit.kernel.AbstractAgent)aa);
 	}
-	launchAgentBucket(_bucket, lst_mk_agents, cpuCoreNb, _rolesName);
+	try
+	{
+	    launchAgentBucket(_bucket, lst_mk_agents, null, cpuCoreNb, _rolesName);
+	}
+	catch (InstantiationException | IllegalAccessException e)
+	{
+	    //no agent is built when the agents are given
+	    throw new IllegalAccessError("Problem of data integrity ! "+e+". These bug is located into MadKitGroupExtension !");
+	}
     }
     
-    private void launchAgentBucket(List<MKGEAbstractAgent> lst_mkge_agents, List<madkit.kernel.AbstractAgent> lst_mk_agents, int cpuCoreNb, Role... _rolesName)
+    private void launchAgentBucket(List<MKGEAbstractAgent> lst_mkge_agents, List<madkit.kernel.AbstractAgent> lst_mk_agents, AgentBucketFactory.Construction _construction, int cpuCoreNb, Role... _rolesName) throws InstantiationException, IllegalAccessException
     {
 	ArrayList<String> roles=new ArrayList<String>(_rolesName.length);
 	ArrayList<Role> rolesName=new ArrayList<Role>(_rolesName.length);
-	HashMap<Group, Integer> groups=new HashMap<>();
+	HashMap<Group, ArrayList<String>> groups=new HashMap<>();
+	ArrayList<Group> created_groups=new ArrayList<>();
 	
 	boolean role_ok=_rolesName!=null && _rolesName.length>0;
 	
@@ -2145,48 +3192,42 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		    if (r.getGroup().isUsedSubGroups())
 			throw new IllegalArgumentException("Unable to use sub groups of the group : "+r.getGroup());
 
-		    boolean madkitcreated=false;
-		    try
-		    {
-			madkitcreated=((Boolean)m_is_madkit_created_method.invoke(r.getGroup(), this.getKernelAddress())).booleanValue();
-		    }
-		    catch (IllegalArgumentException e1)
-		    {
-			System.err.println("Impossible to call the function isMadKitCreated of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			e1.printStackTrace();
-			System.exit(-1);
-		    }
-		    catch (IllegalAccessException e1)
-		    {
-			System.err.println("Impossible to call the function isMadKitCreated of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			e1.printStackTrace();
-			System.exit(-1);
-		    }
-		    catch (InvocationTargetException e1)
-		    {
-			e1.printStackTrace();
-			System.exit(-1);
-		    }
-
-		    if (!madkitcreated)
-		    {
-			ReturnCode rc=super.createGroup(r.getGroup().getCommunity(), r.getGroup().getPath(), r.getGroup().isMadKitDistributed(), r.getGroup().getMadKitIdentifier());
-			if (rc.equals(ReturnCode.ALREADY_GROUP))
-			    throw new IllegalAccessError("Problem of data integrity ! The group "+r.getGroup()+" has already be already created on MadKit. These bug is located into MadKitGroupExtension !");
-		    }
-		
 		    roles.add(r.toString());
 		    rolesName.add(r);
-		    Integer val=groups.get(r.getGroup());
-		    if (val==null)
-			val=new Integer(0);
-		    groups.put(r.getGroup(), new Integer(val.intValue()+1));
+		    ArrayList<String> group_roles=groups.get(r.getGroup());
+		    if (group_roles==null)
+		    {
+			if (!isMadKitCreated(r.getGroup()))
+			{
+			    ReturnCode rc=super.createGroup(r.getGroup().getCommunity(), r.getGroup().getPath(), r.getGroup().isMadKitDistributed(), r.getGroup().getMadKitIdentifier());
+			    if (rc.equals(ReturnCode.ALREADY_GROUP))
+				throw new IllegalAccessError("Problem of data integrity ! The group "+r.getGroup()+" has already be already created on MadKit. These bug is located into MadKitGroupExtension !");
+			    created_groups.add(r.getGroup());
+			}
+			group_roles=new ArrayList<String>();
+			groups.put(r.getGroup(), group_roles);
+		    }
+		    group_roles.add(r.getRole());
 		
 		}
 	    }
 	}
 	role_ok=role_ok && roles.size()>0;
 	
+	if (_construction!=null)
+	{
+	    try
+	    {
+		_construction.get(lst_mkge_agents, lst_mk_agents);
+	    }
+	    catch (InstantiationException | IllegalAccessException e)
+	    {
+		for (Group g : created_groups)
+		    super.leaveGroup(g.getCommunity(), g.getPath());
+		throw e;
+	    }
+	}
+	
 	String rolestab[]=null;
 	if (role_ok)
 	{
@@ -2196,26 +3237,52 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	}
 	super.launchAgentBucket(lst_mk_agents, cpuCoreNb, rolestab);
 	    
-	if (role_ok)
+	if (role_ok && lst_mkge_agents.size()>0)
 	{
-	    for (MKGEAbstractAgent a : lst_mkge_agents)
+	    //the memberships are shared by all the launched agents, and the groups are referenced once for the whole bucket
+	    GroupRoleSet memberships=new GroupRoleSet();
+	    GroupRole.beginCoalescedChangements();
+	    try
 	    {
-		ArrayList<GroupRole> gra=GroupRole.getGroupRoles(a);
-		synchronized(gra)
+		for (Entry<Group, ArrayList<String>> e : groups.entrySet())
+		{
+		    memberships.getOrAdd(e.getKey()).incrementMadKitReferences(e.getValue(), this.getKernelAddress(), lst_mkge_agents.size());
+		}
+		for (MKGEAbstractAgent a : lst_mkge_agents)
 		{
-		    for (Entry<Group, Integer> e : groups.entrySet())
+		    GroupRoleSet gra=GroupRole.getGroupRoles(a);
+		    synchronized(gra)
 		    {
-			GroupRole gr=new GroupRole(e.getKey());
-			gr.incrementMadKitReferences(e.getValue().intValue(), this.getKernelAddress());
-			gra.add(gr);
+			gra.share(memberships);
 		    }
+		    a.potentialChangementInGroups();
 		}
-		a.potentialChangementInGroups();
+	    }
+	    finally
+	    {
+		GroupRole.endCoalescedChangements();
 	    }
 	}
     }
     
 	
+	/**
+	 * Launch agents by parsing an XML file. The file is streamed, 
+	 * so that only the current <code>Agent</code> element is kept into memory.
+	 * The method immediately returns without waiting the end of the agents' activation, 
+	 * 
+	 * @param xmlFile the XML file to parse
+	 * @return {@link madkit.kernel.AbstractAgent.ReturnCode#SEVERE} if the launch failed
+	 * @throws ParserConfigurationException if an XML format error has been detected
+	 * @throws IOException if an IO exception occurs
+	 * @throws SAXException if an SAXException occurs
+	 * 
+	 * @see XMLUtilities
+	 */
+	@Override public ReturnCode launchXmlAgents(String xmlFile) throws SAXException, IOException, ParserConfigurationException {
+		return AgentXmlReader.launchXmlAgents(this, xmlFile);
+	}
+	
 	/**
 	 * Launch agents by parsing an XML node. The method
 	 * immediately returns without waiting the end of the agents' activation, 
@@ -2250,6 +3317,7 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 			
 			NodeList attributes = agentXmlNode.getChildNodes();
 			List<Role> roles= new ArrayList<>();
+			List<AgentFieldSetter> setters=new ArrayList<>();
 			for (int i = 0; i < attributes.getLength(); i++) {
 				Node node = attributes.item(i);
 				switch (node.getNodeName()) {
@@ -2258,7 +3326,14 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 					final Class<? extends madkit.kernel.AbstractAgent> MKagentClass = list_mk_aa.get(0).getClass();
 					for (int j = 0; j < att.getLength(); j++) {
 						Node item = att.item(j);
-						setAgentValues(madkit.kernel.Probe.findFieldOn(MKagentClass, item.getNodeName()),item.getNodeValue(),list_mkge_aa);
+						//the value is parsed once, and set to all the agents after the reading of the node
+						AgentFieldSetter setter=AgentFieldSetter.compile(madkit.kernel.Probe.findFieldOn(MKagentClass, item.getNodeName()),item.getNodeValue());
+						if (setter==null){
+							if(logger != null)
+								logger.severe("Do not know how to change attrib "+item.getNodeValue());
+						}
+						else
+							setters.add(setter);
 					}
 					break;
 				case XMLUtilities.BUCKET_MODE_ROLE:
@@ -2270,9 +3345,10 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 					break;
 				}
 			}
+			AgentBucketFactory.getDefault().configure(list_mkge_aa, setters);
 			
 			if (bucketMode) {
-			    launchAgentBucket(list_mkge_aa, list_mk_aa, 1, roles.toArray(new Role[roles.size()]));
+			    launchAgentBucket(list_mkge_aa, list_mk_aa, null, 1, roles.toArray(new Role[roles.size()]));
 			}
 			else{
 				try {
@@ -2298,111 +3374,6 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 		}
 		return ReturnCode.SUCCESS;
 	}
-
-	/**
-	 * @param stringValue
-	 * @param type
-	 * @throws InstantiationException
-	 * @throws IllegalAccessException
-	 */
-	private void setAgentValues(final Field f, final String stringValue, List<MKGEAbstractAgent> l) throws IllegalAccessException {
-		final Class<?> type = f.getType();
-		if(type.isPrimitive()){
-			if (type == int.class){
-				int value = Integer.parseInt(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setInt(a, value);
-				}
-			}
-			else if(type == boolean.class){
-				boolean value = Boolean.parseBoolean(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setBoolean(a, value);
-				}
-			}
-			else if (type == float.class){
-				float value = Float.parseFloat(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setFloat(a, value);
-				}
-			}
-			else if (type == double.class){
-				double value = Double.parseDouble(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setDouble(a, value);
-				}
-			}
-			else if (type == byte.class){
-				byte value = Byte.parseByte(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setByte(a, value);
-				}
-			}
-			else if (type == short.class){
-				short value = Short.parseShort(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setShort(a, value);
-				}
-			}
-			else if (type == long.class){
-				long value = Long.parseLong(stringValue);
-				for (MKGEAbstractAgent a : l) {
-					f.setLong(a, value);
-				}
-			}
-		}
-		else if (type == Integer.class){
-			int value = Integer.parseInt(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Integer(value));
-			}
-		}
-		else if(type == Boolean.class){
-			boolean value = Boolean.parseBoolean(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Boolean(value));
-			}
-		}
-		else if (type == Float.class){
-			float value = Float.parseFloat(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Float(value));
-			}
-		}
-		else if (type == Double.class){
-			double value = Double.parseDouble(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Double(value));
-			}
-		}
-		else if (type == String.class){
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, stringValue);
-			}
-		}
-		else if (type == Byte.class){
-			byte value = Byte.parseByte(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Byte(value));
-			}
-		}
-		else if (type == Short.class){
-			short value = Short.parseShort(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Short(value));
-			}
-		}
-		else if (type == Long.class){
-			long value = Long.parseLong(stringValue);
-			for (MKGEAbstractAgent a : l) {
-				f.set(a, new Long(value));
-			}
-		}
-		else{
-			if(logger != null)
-				logger.severe("Do not know how to change attrib "+stringValue);
-		}
-	}
     
     /**
      * @throws IllegalAccessError when the function is called.
@@ -2499,94 +3470,62 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	return this.requestRole(_group, role, passKey, true);
     }
 
-    private ThreadPoolExecutor getServiceExecutor()
+    @SuppressWarnings("unchecked")
+    private static Class<? extends MKGEAbstractAgent> loadAgentClass(String agentClass) throws ClassNotFoundException
+    {
+	return (Class<? extends MKGEAbstractAgent>) MadkitClassLoader.getLoader().loadClass(agentClass);
+    }
+    
+    private void createBucket(final String agentClass, int bucketSize, int cpuCoreNb, ArrayList<MKGEAbstractAgent> lst_mkge_agents, ArrayList<madkit.kernel.AbstractAgent> lst_mk_agents) throws InstantiationException, IllegalAccessException, ClassNotFoundException 
+    {
+	AgentBucketFactory.getDefault().construct(loadAgentClass(agentClass), bucketSize, cpuCoreNb).get(lst_mkge_agents, lst_mk_agents);
+    }
+    
+    private static Message cloneMessage(Message _m)
     {
-	    
 	try
 	{
-	    Object kernel=m_get_kernel_method.invoke(this);
-	    if (kernel==null)
-		return null;
-		
-	    if (kernel.getClass().getName().equals("madkit.kernel.LoggedKernel"))
-	    {
-		Method m=kernel.getClass().getDeclaredMethod("getMadkitKernel");
-		m.setAccessible(true);
-		kernel=m.invoke(kernel);
-		if (kernel==null)
-		    return null;
-	    }
-	    Field f=kernel.getClass().getDeclaredField("serviceExecutor");
-	    f.setAccessible(true);
-	    return (ThreadPoolExecutor)f.get(kernel);
+	    return (Message)m_clone_message_method.invoke(_m);
 	}
-	catch (Exception e)
+	catch (IllegalArgumentException | IllegalAccessException e)
 	{
-	    System.err.println("Impossible to access to the field ThreadPoolExecutor of the class madkit.kernel.AbstractAgent. This is an inner bug of MadKitLanExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    System.err.println("Impossible to call the function clone of the class Message. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
 	    e.printStackTrace();
 	    System.exit(-1);
 	    return null;
 	}
-    }
-    
-    private void createBucket(final String agentClass, int bucketSize, int cpuCoreNb, ArrayList<MKGEAbstractAgent> lst_mkge_agents, ArrayList<madkit.kernel.AbstractAgent> lst_mk_agents) throws InstantiationException, IllegalAccessException, ClassNotFoundException 
-    {
-	@SuppressWarnings("unchecked")
-	final Class<? extends MKGEAbstractAgent> constructor = (Class<? extends MKGEAbstractAgent>) MadkitClassLoader.getLoader().loadClass(agentClass);
-	cpuCoreNb = cpuCoreNb > 0 ? cpuCoreNb : 1;
-	lst_mk_agents.ensureCapacity(bucketSize);
-	lst_mkge_agents.ensureCapacity(bucketSize);
-	final int nbOfAgentsPerTask = bucketSize / (cpuCoreNb);
-	
-	class DoubleList
+	catch (InvocationTargetException e)
 	{
-	    public final List<MKGEAbstractAgent> lst_mkge_agents;
-	    public final List<madkit.kernel.AbstractAgent> lst_mk_agents;
-	    
-	    public DoubleList(int capacity)
-	    {
-		lst_mkge_agents=new ArrayList<>(capacity);
-		lst_mk_agents=new ArrayList<>(capacity);
-	    }
-	}
-	
-	final CompletionService<DoubleList> ecs = new ExecutorCompletionService<>(getServiceExecutor());
-	for (int i = 0; i < cpuCoreNb; i++) {
-	    ecs.submit(new Callable<DoubleList>() {
-		public DoubleList call() throws InstantiationException, IllegalAccessException {
-		    final DoubleList list = new DoubleList(nbOfAgentsPerTask);
-		    for (int j = nbOfAgentsPerTask; j > 0; j--) {
-			MKGEAbstractAgent aa=constructor.newInstance();
-			list.lst_mkge_agents.add(aa);
-			list.lst_mk_agents.add((madkit.kernel.AbstractAgent)aa);
-		    }
-		    return list;
-		}
-	    });
-	}
-	// adding the missing ones when the division results as a real number
-	for (int i = bucketSize - nbOfAgentsPerTask * cpuCoreNb; i > 0; i--) {
-	    MKGEAbstractAgent aa=constructor.newInstance();
-	    lst_mk_agents.add((madkit.kernel.AbstractAgent)aa);
-	    lst_mkge_agents.add(aa);
-	}
-	for (int i = 0; i < cpuCoreNb; ++i) {
-	    try {
-		DoubleList lst=ecs.take().get();
-		lst_mk_agents.addAll(lst.lst_mk_agents);
-		lst_mkge_agents.addAll(lst.lst_mkge_agents);
-	    } catch (InterruptedException e) {
-		e.printStackTrace();
-	    } catch (ExecutionException e) {
-		e.printStackTrace();
-	    }
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
 	}
     }
     
     protected static Method m_is_madkit_created_method=null;
     protected static Method m_get_kernel_method=null;
+    private volatile StepMailbox m_step_mailbox=null;
+    private volatile IndexedMailbox m_indexed_mailbox=null;
+    private static Method m_clone_message_method=null;
     static
     {
+	try
+	{
+	    m_clone_message_method=Message.class.getDeclaredMethod("clone");
+	    m_clone_message_method.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the function clone of the class Message. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchMethodException e)
+	{
+	    System.err.println("Impossible to found to the function clone of the class Message. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
 	try
 	{
 	    m_is_madkit_created_method=Group.class.getDeclaredMethod("isMadKitCreated", KernelAddress.class);
@@ -2655,12 +3594,42 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 * @throws IllegalArgumentException when the given group represents also its subgroups
 	 * @since MadKitGroupExtension 1.0
 	 * @see Group
+	 * @see #setIndexedMailbox(boolean)
 	 */
     @Override public List<Message> broadcastMessageWithRoleAndWaitForReplies(Group _group, String _roleName, Message _message, String _senderRole, Integer _timeOutMilliSeconds)
     {
 	if (_group.isUsedSubGroups())
 	    throw new IllegalArgumentException("Unable to use sub groups of the group : "+_group);
-	return super.broadcastMessageWithRoleAndWaitForReplies(_group.getCommunity(), _group.getPath(), _roleName,_message, _senderRole, _timeOutMilliSeconds);
+	IndexedMailbox im=m_indexed_mailbox;
+	if (im==null)
+	    return super.broadcastMessageWithRoleAndWaitForReplies(_group.getCommunity(), _group.getPath(), _roleName,_message, _senderRole, _timeOutMilliSeconds);
+	
+	//MadKit waits for the replies into its own mailbox, whereas they are received into the indexed mailbox
+	List<AgentAddress> receivers=getAgentsWithRole(_group, _roleName);
+	if (receivers==null || receivers.isEmpty())
+	    return null;
+	if (!broadcastMessageWithRole(_group, _roleName, _message, _senderRole).equals(ReturnCode.SUCCESS))
+	    return null;
+	ConversationFilter filter=new ConversationFilter(_message);
+	long end=_timeOutMilliSeconds==null?0:System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(_timeOutMilliSeconds.longValue());
+	List<Message> answers=new ArrayList<Message>(receivers.size());
+	while (answers.size()<receivers.size())
+	{
+	    long timeOutNanos=-1;
+	    if (_timeOutMilliSeconds!=null)
+	    {
+		timeOutNanos=end-System.nanoTime();
+		if (timeOutNanos<=0)
+		    break;
+	    }
+	    Message m=waitIndexedMessage(im, filter, timeOutNanos);
+	    if (m==null)
+		break;
+	    answers.add(m);
+	}
+	if (answers.isEmpty())
+	    return null;
+	return answers;
     }
 
     /**
@@ -2812,6 +3781,12 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
      * List of activators
      */
     protected ArrayList<madkitgroupextension.kernel.Activator<?>> m_activators=new ArrayList<madkitgroupextension.kernel.Activator<?>>();
+    private final HashMap<Group, HashMap<String, SharedActivator>> m_shared_activators=new HashMap<Group, HashMap<String, SharedActivator>>();
+    private final HashMap<HashSet<SharedActivator>, ActivatorFootprint> m_activator_footprints=new HashMap<HashSet<SharedActivator>, ActivatorFootprint>();
+    private final ConcurrentLinkedQueue<StepMailbox> m_pending_step_mailboxes=new ConcurrentLinkedQueue<StepMailbox>();
+    private static final SharedActivator[] m_no_shared_activators=new SharedActivator[0];
+    //the shared activators, duplicated each time they change, so that the step synchronous mailboxes read them without lock
+    private volatile SharedActivator[] m_shared_activators_duplicated=m_no_shared_activators;
     
 	/**
 	 * Executes all the activators in the order they have been added, using the
@@ -2831,6 +3806,10 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	 * 	setGVT(getGVT() + 1);
 	 * }
 	 * </pre>
+	 * 
+	 * After each call of this function by the step loop of the scheduler (see {@link #live()}), the messages buffered by the step 
+	 * synchronous mailboxes of the agents stepped by this scheduler are received (see {@link #setStepSynchronousMailbox(boolean)}). 
+	 * So an overriding function do not need to receive them. 
 	 */
     @Override public void doSimulationStep()
     {
@@ -2844,6 +3823,104 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	super.doSimulationStep();
     }
     
+	/**
+	 * The step loop of the scheduler, which behaves like the MadKit one. 
+	 * After each call of {@link #doSimulationStep()}, the messages buffered by the step synchronous mailboxes 
+	 * of the agents stepped by this scheduler are received (see {@link #flushStepMailboxes()}). 
+	 * A function which overrides this one, or which calls {@link #doSimulationStep()} outside of this loop, 
+	 * must call {@link #flushStepMailboxes()} after each simulation step.
+	 * 
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    @Override protected void live()
+    {
+	while (isAlive())
+	{
+	    if (getGVT()>getSimulationDuration())
+	    {
+		if (logger!=null)
+		    logger.info("Quitting: Simulation has reached end time "+getSimulationDuration());
+		return;
+	    }
+	    pause(getDelay());
+	    checkMail(nextMessage());
+	    switch(getSimulationState())
+	    {
+		case STEP:
+		    setSimulationState(SimulationState.PAUSED);
+		    doSimulationStep();
+		    flushStepMailboxes();
+		    break;
+		case PAUSED:
+		    paused();
+		    break;
+		case RUNNING:
+		    doSimulationStep();
+		    flushStepMailboxes();
+		    break;
+		case SHUTDOWN:
+		    return;
+		default:
+		    getLogger().severe("state not handled "+getSimulationState());
+	    }
+	}
+    }
+    
+	/**
+	 * Receives the messages buffered by the step synchronous mailboxes of the agents stepped by this scheduler 
+	 * (see {@link #setStepSynchronousMailbox(boolean)}). 
+	 * This function is called by the step loop of the scheduler after each call of {@link #doSimulationStep()}. 
+	 * 
+	 * @since MadKitGroupExtension 1.6.3
+	 */
+    protected final void flushStepMailboxes()
+    {
+	//the mailboxes which become pending during this flush will be flushed at the next step
+	for (int i=m_pending_step_mailboxes.size();i>0;i--)
+	{
+	    StepMailbox sm=m_pending_step_mailboxes.poll();
+	    if (sm==null)
+		break;
+	    sm.flush();
+	}
+    }
+    
+    void addPendingStepMailbox(StepMailbox _mailbox)
+    {
+	m_pending_step_mailboxes.offer(_mailbox);
+    }
+    
+    void removePendingStepMailbox(StepMailbox _mailbox)
+    {
+	m_pending_step_mailboxes.remove(_mailbox);
+    }
+    
+    /*
+     * Tells if the agent having the given memberships is stepped by one of the activators of this scheduler. 
+     * The roles of the activators are looked up into the memberships of the agent, without browsing the agents of the activators.
+     */
+    boolean isStepping(GroupRoleSet _memberships)
+    {
+	SharedActivator[] activators=m_shared_activators_duplicated;
+	synchronized(_memberships)
+	{
+	    for (SharedActivator sa : activators)
+	    {
+		if (_memberships.isHandlingRole(sa.getRepresentedGroup(), sa.getRole()))
+		    return true;
+	    }
+	}
+	return false;
+    }
+    
+    private void updateSharedActivatorsDuplicated()
+    {
+	ArrayList<SharedActivator> l=new ArrayList<SharedActivator>();
+	for (HashMap<String, SharedActivator> roles : m_shared_activators.values())
+	    l.addAll(roles.values());
+	m_shared_activators_duplicated=l.toArray(new SharedActivator[l.size()]);
+    }
+    
     private void triggerActivator(final madkitgroupextension.kernel.Activator<?> activator) {
 	    try
 	    {
@@ -2934,6 +4011,79 @@ public class Scheduler extends madkit.kernel.Scheduler implements MKGEScheduler
 	super.removeActivator(activator);
     }
     
+    @SuppressWarnings("unused")
+    private final SharedActivator subscribePrivateActivator(Group _group, String _role, madkitgroupextension.kernel.Activator<?> _activator)
+    {
+	SharedActivator sa;
+	synchronized(m_shared_activators)
+	{
+	    HashMap<String, SharedActivator> roles=m_shared_activators.get(_group);
+	    if (roles==null)
+	    {
+		roles=new HashMap<String, SharedActivator>();
+		m_shared_activators.put(_group, roles);
+	    }
+	    sa=roles.get(_role);
+	    if (sa==null)
+	    {
+		sa=new SharedActivator(_group, _role);
+		if (m_shared_activators.size()==1 && roles.isEmpty())
+		    StepMailbox.addScheduler(this);
+		roles.put(_role, sa);
+		updateSharedActivatorsDuplicated();
+		sa.subscribe(_activator);
+		super.addActivator(sa);
+		return sa;
+	    }
+	    sa.subscribe(_activator);
+	}
+	_activator.sharedActivatorInitialize();
+	return sa;
+    }
+    
+    @SuppressWarnings("unused")
+    private final void unsubscribePrivateActivator(SharedActivator _sa, madkitgroupextension.kernel.Activator<?> _activator)
+    {
+	synchronized(m_shared_activators)
+	{
+	    if (_sa.unsubscribe(_activator))
+	    {
+		HashMap<String, SharedActivator> roles=m_shared_activators.get(_sa.getRepresentedGroup());
+		if (roles!=null && roles.remove(_sa.getRole())!=null)
+		{
+		    if (roles.isEmpty())
+		    {
+			m_shared_activators.remove(_sa.getRepresentedGroup());
+			if (m_shared_activators.isEmpty())
+			    StepMailbox.removeScheduler(this);
+		    }
+		    updateSharedActivatorsDuplicated();
+		}
+		super.removeActivator(_sa);
+	    }
+	}
+    }
+    
+    @SuppressWarnings("unused")
+    private final ActivatorFootprint changeActivatorFootprint(ActivatorFootprint _previous, HashSet<SharedActivator> _parts)
+    {
+	synchronized(m_activator_footprints)
+	{
+	    if (_previous!=null && _previous.decrementReferences())
+		m_activator_footprints.remove(_previous.getKey());
+	    if (_parts==null)
+		return null;
+	    ActivatorFootprint af=m_activator_footprints.get(_parts);
+	    if (af==null)
+	    {
+		af=new ActivatorFootprint(_parts);
+		m_activator_footprints.put(_parts, af);
+	    }
+	    af.incrementReferences();
+	    return af;
+	}
+    }
+    
 	/**
 	 * Removes an activator from the kernel engine.
 	 * 
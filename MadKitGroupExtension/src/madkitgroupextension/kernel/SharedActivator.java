@@ -0,0 +1,152 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+package madkitgroupextension.kernel;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A MadKit activator shared by all the MadKitGroupExtension activators of a same {@link Scheduler} which use a same group and a same role.
+ * 
+ * Only one MadKit activator is registered into the MadKit kernel for each group/role couple, whatever the number of the MadKitGroupExtension activators 
+ * representing this couple. The adding/removing callbacks received from the MadKit kernel are forwarded to each subscribed activator.
+ * This activator does nothing when it is triggered by the scheduler.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see Activator
+ * @see ActivatorFootprint
+ * @see Scheduler
+ */
+final class SharedActivator extends madkit.kernel.Activator<madkit.kernel.AbstractAgent>
+{
+    private static final Activator<?>[] m_no_subscriber=new Activator<?>[0];
+    
+    private final Group m_represented_group;
+    private volatile Activator<?>[] m_subscribers=m_no_subscriber;
+    private final AtomicInteger m_version=new AtomicInteger(0);
+    
+    SharedActivator(Group _group, String _role)
+    {
+	super(_group.getCommunity(), _group.getPath(), _role);
+	m_represented_group=_group;
+    }
+    
+    Group getRepresentedGroup()
+    {
+	return m_represented_group;
+    }
+    
+    /**
+     * @return a number which changes each time the agents list of this activator changes
+     */
+    int getVersion()
+    {
+	return m_version.get();
+    }
+    
+    synchronized void subscribe(Activator<?> _activator)
+    {
+	Activator<?>[] s=new Activator<?>[m_subscribers.length+1];
+	System.arraycopy(m_subscribers, 0, s, 0, m_subscribers.length);
+	s[m_subscribers.length]=_activator;
+	m_subscribers=s;
+    }
+    
+    /**
+     * @return true if no activator is subscribed anymore
+     */
+    synchronized boolean unsubscribe(Activator<?> _activator)
+    {
+	for (int i=0;i<m_subscribers.length;i++)
+	{
+	    if (m_subscribers[i]==_activator)
+	    {
+		if (m_subscribers.length==1)
+		    m_subscribers=m_no_subscriber;
+		else
+		{
+		    Activator<?>[] s=new Activator<?>[m_subscribers.length-1];
+		    System.arraycopy(m_subscribers, 0, s, 0, i);
+		    System.arraycopy(m_subscribers, i+1, s, i, s.length-i);
+		    m_subscribers=s;
+		}
+		break;
+	    }
+	}
+	return m_subscribers.length==0;
+    }
+    
+    @Override protected void adding(madkit.kernel.AbstractAgent _agent)
+    {
+	m_version.incrementAndGet();
+	for (Activator<?> a : m_subscribers)
+	    a.sharedActivatorAdding(_agent);
+    }
+    
+    @Override protected void adding(List<madkit.kernel.AbstractAgent> _agents)
+    {
+	m_version.incrementAndGet();
+	for (Activator<?> a : m_subscribers)
+	    a.sharedActivatorAdding(_agents);
+    }
+    
+    @Override protected void removing(madkit.kernel.AbstractAgent _agent)
+    {
+	m_version.incrementAndGet();
+	for (Activator<?> a : m_subscribers)
+	    a.sharedActivatorRemoving(_agent);
+    }
+    
+    @Override protected void removing(List<madkit.kernel.AbstractAgent> _agents)
+    {
+	m_version.incrementAndGet();
+	for (Activator<?> a : m_subscribers)
+	    a.sharedActivatorRemoving(_agents);
+    }
+    
+    @Override public void initialize() 
+    {
+	m_version.incrementAndGet();
+	for (Activator<?> a : m_subscribers)
+	    a.sharedActivatorInitialize();
+    }
+    
+    @Override public void execute(Object... args)
+    {
+	
+    }
+    
+    @Override public void execute(List<madkit.kernel.AbstractAgent> _agentsList, Object ...args)
+    {
+	
+    }
+    
+    @Override public void multicoreExecute(Object ...args)
+    {
+	
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+package madkitgroupextension.kernel;
+
+import java.util.List;
+
+/**
+ * A MadKit probe shared by all the MadKitGroupExtension probes of a same {@link Watcher} which observe a same group and a same role.
+ * 
+ * Only one MadKit probe is registered into the MadKit kernel for each group/role couple, whatever the number of the MadKitGroupExtension probes 
+ * representing this couple. The adding/removing callbacks received from the MadKit kernel are forwarded to each subscribed probe.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see Probe
+ * @see Watcher
+ */
+final class SharedProbe extends madkit.kernel.Probe<madkit.kernel.AbstractAgent>
+{
+    private static final Probe<?>[] m_no_subscriber=new Probe<?>[0];
+    
+    private final Group m_represented_group;
+    private volatile Probe<?>[] m_subscribers=m_no_subscriber;
+    
+    SharedProbe(Group _group, String _role)
+    {
+	super(_group.getCommunity(), _group.getPath(), _role);
+	m_represented_group=_group;
+    }
+    
+    Group getRepresentedGroup()
+    {
+	return m_represented_group;
+    }
+    
+    synchronized void subscribe(Probe<?> _probe)
+    {
+	Probe<?>[] s=new Probe<?>[m_subscribers.length+1];
+	System.arraycopy(m_subscribers, 0, s, 0, m_subscribers.length);
+	s[m_subscribers.length]=_probe;
+	m_subscribers=s;
+    }
+    
+    /**
+     * @return true if no probe is subscribed anymore
+     */
+    synchronized boolean unsubscribe(Probe<?> _probe)
+    {
+	for (int i=0;i<m_subscribers.length;i++)
+	{
+	    if (m_subscribers[i]==_probe)
+	    {
+		if (m_subscribers.length==1)
+		    m_subscribers=m_no_subscriber;
+		else
+		{
+		    Probe<?>[] s=new Probe<?>[m_subscribers.length-1];
+		    System.arraycopy(m_subscribers, 0, s, 0, i);
+		    System.arraycopy(m_subscribers, i+1, s, i, s.length-i);
+		    m_subscribers=s;
+		}
+		break;
+	    }
+	}
+	return m_subscribers.length==0;
+    }
+    
+    @Override public void adding(madkit.kernel.AbstractAgent theAgent)
+    {
+	for (Probe<?> p : m_subscribers)
+	    p.sharedProbeAdding(this, theAgent);
+    }
+    
+    @Override public void adding(List<madkit.kernel.AbstractAgent> agents)
+    {
+	for (Probe<?> p : m_subscribers)
+	    p.sharedProbeAdding(this, agents);
+    }
+    
+    @Override public void removing(madkit.kernel.AbstractAgent theAgent)
+    {
+	for (Probe<?> p : m_subscribers)
+	    p.sharedProbeRemoving(this, theAgent);
+    }
+    
+    @Override public void removing(List<madkit.kernel.AbstractAgent> agents)
+    {
+	for (Probe<?> p : m_subscribers)
+	    p.sharedProbeRemoving(this, agents);
+    }
+    
+    @Override public void initialize()
+    {
+	List<madkit.kernel.AbstractAgent> l=getCurrentAgentsList();
+	for (Probe<?> p : m_subscribers)
+	    p.sharedProbeInitialize(this, l);
+    }
+    
+    public boolean equals(Group _group)
+    {
+	return m_represented_group.equals(_group);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ * 
+ * This file is part of MadKitGroupExtension.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+
+
+package madkitgroupextension.kernel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+
+import madkit.kernel.KernelAddress;
+import madkit.kernel.Message;
+
+/**
+ * A double buffered mailbox which delays the reception of the messages until the end of the current simulation step.
+ * 
+ * When an agent uses a step synchronous mailbox (see {@link AbstractAgent#setStepSynchronousMailbox(boolean)}), 
+ * the messages sent to it by other agents are stored into a write buffer instead of its MadKit mailbox. 
+ * The mailbox is then registered to the scheduler which steps its agent, i.e. the first scheduler of the kernel having an activator 
+ * on one of the roles of the agent. After each simulation step of the scheduler (see {@link Scheduler#flushStepMailboxes()}), the write buffers registered 
+ * to the scheduler are swapped with their read buffers, and their messages are moved into the MadKit mailboxes. 
+ * So the messages sent during a step are visible by all the agents at the next step, whatever the execution order of the agents. 
+ * Activators executed in parallel can then send messages without reading messages of the current step.
+ * 
+ * Only messages sent by agents are delayed. The messages sent by the kernel or by the GUI (which have no sender), and the messages 
+ * sent to an agent which is not stepped by any scheduler, are directly received.
+ * 
+ * This class is reserved to the MadKitGroupExtension kernel. The user do not use this class.
+ * 
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see AbstractAgent#setStepSynchronousMailbox(boolean)
+ * @see Scheduler#flushStepMailboxes()
+ */
+public final class StepMailbox
+{
+    private static final Map<KernelAddress, ArrayList<Scheduler>> m_schedulers=new HashMap<KernelAddress, ArrayList<Scheduler>>();
+    
+    private final madkit.kernel.AbstractAgent m_agent;
+    private final GroupRoleSet m_memberships;
+    private ArrayList<Message> m_write_buffer=new ArrayList<Message>();
+    private ArrayList<Message> m_read_buffer=new ArrayList<Message>();
+    private Scheduler m_scheduler=null;
+    private boolean m_is_pending=false;
+    private boolean m_closed=false;
+    private final Object m_read_buffer_lock=new Object();
+    private IndexedMailbox m_indexed_mailbox=null;
+    
+    /**
+     * Builds a step synchronous mailbox.
+     * @param _agent the agent owning this mailbox
+     * @param _memberships the memberships of the agent, into which are looked up the roles of the activators of the schedulers
+     */
+    public StepMailbox(madkit.kernel.AbstractAgent _agent, GroupRoleSet _memberships)
+    {
+	m_agent=_agent;
+	m_memberships=_memberships;
+    }
+    
+    /**
+     * Sets the indexed mailbox into which the buffered messages are moved. 
+     * This function waits until the messages being moved have been received by the previous mailbox.
+     * @param _mailbox the indexed mailbox of the agent, or null if the agent uses the MadKit mailbox
+     */
+    public void setIndexedMailbox(IndexedMailbox _mailbox)
+    {
+	synchronized(m_read_buffer_lock)
+	{
+	    m_indexed_mailbox=_mailbox;
+	}
+    }
+    
+    /**
+     * Stores the given message into the write buffer, if it was sent by an agent.
+     * @param _m the received message
+     * @return true if the message has been buffered, false if it must be directly received by the agent
+     */
+    public boolean receive(Message _m)
+    {
+	if (_m.getSender()==null)
+	    return false;
+	synchronized(this)
+	{
+	    if (m_closed)
+		return false;
+	    if (m_is_pending)
+	    {
+		m_write_buffer.add(_m);
+		return true;
+	    }
+	}
+	//the scheduler is searched once per step, since the roles of the agent can change between two steps
+	Scheduler scheduler=getSteppingScheduler(m_agent.getKernelAddress(), m_memberships);
+	if (scheduler==null)
+	    return false;
+	synchronized(this)
+	{
+	    if (m_closed)
+		return false;
+	    m_write_buffer.add(_m);
+	    if (m_is_pending)
+		return true;
+	    m_is_pending=true;
+	    m_scheduler=scheduler;
+	}
+	scheduler.addPendingStepMailbox(this);
+	return true;
+    }
+    
+    /**
+     * Unregisters this mailbox from its scheduler, and moves the buffered messages into the mailbox of the agent. 
+     * The next messages are directly received. This function is called when the agent ends or disables its step synchronous mailbox.
+     */
+    public void close()
+    {
+	Scheduler scheduler;
+	synchronized(this)
+	{
+	    m_closed=true;
+	    scheduler=m_scheduler;
+	    m_scheduler=null;
+	}
+	if (scheduler!=null)
+	    scheduler.removePendingStepMailbox(this);
+	flush();
+    }
+    
+    /**
+     * Moves the buffered messages into the mailbox of the agent.
+     */
+    public void flush()
+    {
+	//the read buffer is only used by the thread which flushes this mailbox
+	synchronized(m_read_buffer_lock)
+	{
+	    ArrayList<Message> messages;
+	    synchronized(this)
+	    {
+		messages=m_write_buffer;
+		m_write_buffer=m_read_buffer;
+		m_read_buffer=messages;
+		m_is_pending=false;
+		m_scheduler=null;
+	    }
+	    if (messages.size()>0)
+	    {
+		IndexedMailbox im=m_indexed_mailbox;
+		BlockingDeque<Message> mailbox=getMailbox(m_agent);
+		for (Message m : messages)
+		{
+		    if (im==null || !im.add(m))
+			mailbox.offer(m);
+		}
+		messages.clear();
+	    }
+	}
+    }
+    
+    /**
+     * Registers a scheduler which can step the agents of its kernel.
+     * @param _scheduler the scheduler
+     */
+    static void addScheduler(Scheduler _scheduler)
+    {
+	synchronized(m_schedulers)
+	{
+	    ArrayList<Scheduler> l=m_schedulers.get(_scheduler.getKernelAddress());
+	    if (l==null)
+	    {
+		l=new ArrayList<Scheduler>();
+		m_schedulers.put(_scheduler.getKernelAddress(), l);
+	    }
+	    if (!l.contains(_scheduler))
+		l.add(_scheduler);
+	}
+    }
+    
+    /**
+     * Unregisters a scheduler, i.e. when it has no activator anymore or when it ends.
+     * @param _scheduler the scheduler
+     */
+    static void removeScheduler(Scheduler _scheduler)
+    {
+	synchronized(m_schedulers)
+	{
+	    ArrayList<Scheduler> l=m_schedulers.get(_scheduler.getKernelAddress());
+	    if (l!=null && l.remove(_scheduler) && l.isEmpty())
+		m_schedulers.remove(_scheduler.getKernelAddress());
+	}
+    }
+    
+    private static Scheduler getSteppingScheduler(KernelAddress _kernel_address, GroupRoleSet _memberships)
+    {
+	Scheduler[] schedulers;
+	synchronized(m_schedulers)
+	{
+	    ArrayList<Scheduler> l=m_schedulers.get(_kernel_address);
+	    if (l==null)
+		return null;
+	    schedulers=l.toArray(new Scheduler[l.size()]);
+	}
+	for (Scheduler s : schedulers)
+	{
+	    if (s.isStepping(_memberships))
+		return s;
+	}
+	return null;
+    }
+    
+    /**
+     * Returns the MadKit mailbox of the given agent.
+     * @param _agent the agent
+     * @return the MadKit mailbox of the agent
+     */
+    @SuppressWarnings("unchecked")
+    public static BlockingDeque<Message> getMailbox(madkit.kernel.AbstractAgent _agent)
+    {
+	try
+	{
+	    return (BlockingDeque<Message>)m_message_box_field.get(_agent);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    System.err.println("Impossible to read the field messageBox of the class AbstractAgent. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	    return null;
+	}
+    }
+    
+    /**
+     * Retrieves and removes all the messages of the MadKit mailbox of the given agent. 
+     * Unlike <code>nextMessages(null)</code> of MadKit, a message received while the mailbox is emptied is not lost.
+     * @param _agent the agent
+     * @return the messages, from the oldest to the most recent
+     */
+    public static List<Message> pollAll(madkit.kernel.AbstractAgent _agent)
+    {
+	ArrayList<Message> res=new ArrayList<Message>();
+	getMailbox(_agent).drainTo(res);
+	return res;
+    }
+    
+    private static Field m_message_box_field=null;
+    static
+    {
+	try
+	{
+	    m_message_box_field=madkit.kernel.AbstractAgent.class.getDeclaredField("messageBox");
+	    m_message_box_field.setAccessible(true);
+	}
+	catch (SecurityException e)
+	{
+	    System.err.println("Impossible to access to the field messageBox of the class AbstractAgent. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+	catch (NoSuchFieldException e)
+	{
+	    System.err.println("Impossible to found to the field messageBox of the class AbstractAgent. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
+	    e.printStackTrace();
+	    System.exit(-1);
+	}
+    }
+}
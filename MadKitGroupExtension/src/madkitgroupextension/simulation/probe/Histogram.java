@@ -0,0 +1,279 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ *
+ * This file is part of MadKitGroupExtension.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+package madkitgroupextension.simulation.probe;
+
+import java.util.Arrays;
+
+/**
+ * A fixed memory histogram which stores positive values into logarithmic buckets.
+ *
+ * Each power of two between the lowest discernible value and the highest trackable value
+ * is divided into <code>2^significantBits</code> linear sub-buckets, so that the relative error
+ * of a returned quantile is lower than <code>2^-significantBits</code>.
+ * The memory used by an instance is allocated once into the constructor. Recording a value,
+ * merging two histograms and resetting a histogram never allocate memory.
+ *
+ * Values lower than the lowest discernible value (including zero and negative values) are counted
+ * into the first bucket. Values greater than the highest trackable value are counted into the last bucket.
+ * The exact minimum and maximum recorded values are kept apart.
+ *
+ * This class is not thread safe. In order to record values in parallel, use one histogram per thread
+ * (see {@link #Histogram(Histogram)}), and merge them with {@link #add(Histogram)}.
+ *
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see HistogramProbe
+ */
+public final class Histogram
+{
+    private final double m_lowest_discernible_value;
+    private final double m_highest_trackable_value;
+    private final int m_significant_bits;
+    private final int m_sub_bucket_mask;
+    private final int m_min_exponent;
+    private final long[] m_counts;
+    private long m_total_count=0;
+    private double m_min=Double.NaN;
+    private double m_max=Double.NaN;
+    private double m_sum=0.0;
+
+    /**
+     * Construct an empty histogram.
+     *
+     * @param _lowest_discernible_value the lowest value that can be distinguished from zero. Must be a positive normal double.
+     * @param _highest_trackable_value the highest value that can be tracked. Must be greater than <code>_lowest_discernible_value</code>.
+     * @param _significant_bits the number of bits used to divide each power of two. Must be between 1 and 16.
+     * @throws IllegalArgumentException if one of the arguments is not valid
+     */
+    public Histogram(double _lowest_discernible_value, double _highest_trackable_value, int _significant_bits)
+    {
+	if (!(_lowest_discernible_value>=Double.MIN_NORMAL) || Double.isInfinite(_lowest_discernible_value))
+	    throw new IllegalArgumentException("The lowest discernible value ("+_lowest_discernible_value+") must be a positive normal value !");
+	if (!(_highest_trackable_value>_lowest_discernible_value) || Double.isInfinite(_highest_trackable_value))
+	    throw new IllegalArgumentException("The highest trackable value ("+_highest_trackable_value+") must be greater than the lowest discernible value ("+_lowest_discernible_value+") !");
+	if (_significant_bits<1 || _significant_bits>16)
+	    throw new IllegalArgumentException("The number of significant bits ("+_significant_bits+") must be between 1 and 16 !");
+	m_lowest_discernible_value=_lowest_discernible_value;
+	m_highest_trackable_value=_highest_trackable_value;
+	m_significant_bits=_significant_bits;
+	m_sub_bucket_mask=(1<<_significant_bits)-1;
+	m_min_exponent=Math.getExponent(_lowest_discernible_value);
+	int max_exponent=Math.getExponent(_highest_trackable_value);
+	m_counts=new long[(max_exponent-m_min_exponent+1)<<_significant_bits];
+    }
+
+    /**
+     * Construct an empty histogram which has the same layout than the given histogram.
+     * The two histograms can then be merged together.
+     *
+     * @param _model the histogram to copy the layout from
+     */
+    public Histogram(Histogram _model)
+    {
+	this(_model.m_lowest_discernible_value, _model.m_highest_trackable_value, _model.m_significant_bits);
+    }
+
+    private int getBucketIndex(double _value)
+    {
+	if (_value<m_lowest_discernible_value)
+	    return 0;
+	if (_value>=m_highest_trackable_value)
+	    return m_counts.length-1;
+	int sub_bucket=(int)(Double.doubleToRawLongBits(_value)>>>(52-m_significant_bits)) & m_sub_bucket_mask;
+	return ((Math.getExponent(_value)-m_min_exponent)<<m_significant_bits) | sub_bucket;
+    }
+
+    private double getBucketLowerBound(int _index)
+    {
+	return Math.scalb(1.0+((double)(_index & m_sub_bucket_mask))/((double)(m_sub_bucket_mask+1)), (_index>>m_significant_bits)+m_min_exponent);
+    }
+
+    /**
+     * Record a value. NaN values are ignored.
+     *
+     * @param _value the value to record
+     */
+    public void record(double _value)
+    {
+	record(_value, 1);
+    }
+
+    /**
+     * Record a value several times. NaN values are ignored.
+     *
+     * @param _value the value to record
+     * @param _count the number of times that the value is recorded
+     */
+    public void record(double _value, long _count)
+    {
+	if (Double.isNaN(_value) || _count<=0)
+	    return;
+	m_counts[getBucketIndex(_value)]+=_count;
+	if (m_total_count==0)
+	{
+	    m_min=_value;
+	    m_max=_value;
+	}
+	else
+	{
+	    if (_value<m_min)
+		m_min=_value;
+	    if (_value>m_max)
+		m_max=_value;
+	}
+	m_total_count+=_count;
+	m_sum+=_value*_count;
+    }
+
+    /**
+     * Add the values recorded into the given histogram to this histogram.
+     *
+     * @param _histogram the histogram to merge with this histogram
+     * @throws IllegalArgumentException if the given histogram has not the same layout than this histogram
+     * @see #Histogram(Histogram)
+     */
+    public void add(Histogram _histogram)
+    {
+	if (_histogram==this)
+	    throw new IllegalArgumentException("Impossible to add an histogram to itself !");
+	if (m_counts.length!=_histogram.m_counts.length || m_min_exponent!=_histogram.m_min_exponent || m_significant_bits!=_histogram.m_significant_bits)
+	    throw new IllegalArgumentException("The given histogram has not the same layout than this histogram !");
+	if (_histogram.m_total_count==0)
+	    return;
+	for (int i=0;i<m_counts.length;i++)
+	    m_counts[i]+=_histogram.m_counts[i];
+	if (m_total_count==0)
+	{
+	    m_min=_histogram.m_min;
+	    m_max=_histogram.m_max;
+	}
+	else
+	{
+	    if (_histogram.m_min<m_min)
+		m_min=_histogram.m_min;
+	    if (_histogram.m_max>m_max)
+		m_max=_histogram.m_max;
+	}
+	m_total_count+=_histogram.m_total_count;
+	m_sum+=_histogram.m_sum;
+    }
+
+    /**
+     * Remove all the recorded values, without allocating memory.
+     */
+    public void reset()
+    {
+	Arrays.fill(m_counts, 0l);
+	m_total_count=0;
+	m_min=Double.NaN;
+	m_max=Double.NaN;
+	m_sum=0.0;
+    }
+
+    /**
+     * Returns the value under which the given percentage of the recorded values are located.
+     *
+     * @param _percentile the percentile, between 0 and 100 (i.e. 50 for the median, 99 for the p99)
+     * @return the value at the given percentile, or <code>NaN</code> if no value has been recorded
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100
+     */
+    public double getValueAtPercentile(double _percentile)
+    {
+	if (!(_percentile>=0.0 && _percentile<=100.0))
+	    throw new IllegalArgumentException("The percentile ("+_percentile+") must be between 0 and 100 !");
+	if (m_total_count==0)
+	    return Double.NaN;
+	if (_percentile==0.0)
+	    return m_min;
+	if (_percentile==100.0)
+	    return m_max;
+	long target=(long)Math.ceil(_percentile*m_total_count/100.0);
+	if (target<1)
+	    target=1;
+	long cumulated=0;
+	for (int i=0;i<m_counts.length;i++)
+	{
+	    cumulated+=m_counts[i];
+	    if (cumulated>=target)
+	    {
+		double value=(getBucketLowerBound(i)+getBucketLowerBound(i+1))/2.0;
+		if (value<m_min)
+		    return m_min;
+		if (value>m_max)
+		    return m_max;
+		return value;
+	    }
+	}
+	return m_max;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the number of recorded values.
+     */
+    public long getTotalCount()
+    {
+	return m_total_count;
+    }
+
+    /**
+     * Returns the lowest recorded value.
+     * @return the lowest recorded value, or <code>NaN</code> if no value has been recorded
+     */
+    public double getMin()
+    {
+	return m_min;
+    }
+
+    /**
+     * Returns the highest recorded value.
+     * @return the highest recorded value, or <code>NaN</code> if no value has been recorded
+     */
+    public double getMax()
+    {
+	return m_max;
+    }
+
+    /**
+     * Returns the average of the recorded values.
+     * @return the average of the recorded values, or <code>NaN</code> if no value has been recorded
+     */
+    public double getMean()
+    {
+	return m_sum/m_total_count;
+    }
+
+    /**
+     * Returns the number of buckets, i.e. the number of counters allocated by this histogram.
+     * @return the number of buckets
+     */
+    public int getBucketsNumber()
+    {
+	return m_counts.length;
+    }
+
+    @Override public String toString()
+    {
+	return "Histogram[count="+m_total_count+", min="+m_min+", p50="+getValueAtPercentile(50.0)+", p95="+getValueAtPercentile(95.0)+", p99="+getValueAtPercentile(99.0)+", max="+m_max+"]";
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * MadKitGroupExtension (created by Jason MAHDJOUB (jason.mahdjoub@free.fr)) Copyright (c)
+ * 2012. Individual contributors are indicated by the @authors tag.
+ *
+ * This file is part of MadKitGroupExtension.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3.0 of the License.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+
+package madkitgroupextension.simulation.probe;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import madkit.simulation.SimulationException;
+import madkitgroupextension.kernel.AbstractGroup;
+import madkitgroupextension.kernel.MKGEAbstractAgent;
+
+/**
+ * This probe gives the distribution (i.e. quantiles like p50, p95 or p99) of a numerical field
+ * over the agents handling the group(s)/role couple.
+ *
+ * Values are stored into a fixed memory {@link Histogram}. Each call to {@link #update()} resets the
+ * histogram without allocating memory, and records the field of each agent in a single pass.
+ * With {@link #update(int)}, the agents list is split into several chunks which are recorded in parallel,
+ * each one into its own histogram, before being merged.
+ * Histograms of several probes built with the same layout can also be merged together with {@link Histogram#add(Histogram)}.
+ *
+ * Here a typical use into a {@link madkitgroupextension.kernel.Watcher} :
+ * <pre>
+ * HistogramProbe&lt;AbstractAgent, Double&gt; energy=new HistogramProbe&lt;&gt;(new Group(true, "simu", "world"), "animal", "energy");
+ * addProbe(energy);
+ * ...
+ * Histogram h=energy.update();
+ * double p99=h.getValueAtPercentile(99.0);
+ * </pre>
+ *
+ * @param <A> the group's agent most common class type (i.e. AbstractAgent)
+ * @param <P> the type of the property, i.e. Integer (this works if the field is an int, i.e. a primitive type)
+ * @author Jason Mahdjoub
+ * @since MadKitGroupExtension 1.6.3
+ * @version 1.0
+ * @see Histogram
+ * @see PropertyProbe
+ */
+public class HistogramProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent, P extends Number> extends PropertyProbe<A, P>
+{
+    private final String m_field_name;
+    private final Histogram m_histogram;
+    private final FieldReader m_field_reader=new FieldReader();
+    private final ArrayList<ChunkRecorder> m_chunk_recorders=new ArrayList<ChunkRecorder>();
+
+    /**
+     * Builds a new histogram probe whose values are tracked between 0.001 and 10^12
+     * with a relative precision of 1%.
+     *
+     * @param _group the group(s) and the community(ies) name
+     * @param _role the role name
+     * @param _fieldName the name of the numerical field to probe
+     */
+    public HistogramProbe(AbstractGroup _group, String _role, String _fieldName)
+    {
+	this(_group, _role, _fieldName, 0.001, 1.0e12, 7);
+    }
+
+    /**
+     * Builds a new histogram probe.
+     *
+     * @param _group the group(s) and the community(ies) name
+     * @param _role the role name
+     * @param _fieldName the name of the numerical field to probe
+     * @param _lowest_discernible_value the lowest value that can be distinguished from zero
+     * @param _highest_trackable_value the highest value that can be tracked
+     * @param _significant_bits the number of bits used to divide each power of two
+     * @see Histogram#Histogram(double, double, int)
+     */
+    public HistogramProbe(AbstractGroup _group, String _role, String _fieldName, double _lowest_discernible_value, double _highest_trackable_value, int _significant_bits)
+    {
+	super(_group, _role, _fieldName);
+	m_field_name=_fieldName;
+	m_histogram=new Histogram(_lowest_discernible_value, _highest_trackable_value, _significant_bits);
+    }
+
+    /**
+     * Returns the histogram computed by the last call of {@link #update()} or {@link #update(int)}.
+     * The returned instance is always the same and is reset at each update.
+     * @return the histogram of the probed field
+     */
+    public Histogram getHistogram()
+    {
+	return m_histogram;
+    }
+
+    /**
+     * Returns a new empty histogram which has the same layout than the histogram of this probe.
+     * It can be filled with {@link #record(List, int, int, Histogram)} and merged with other histograms of the same layout.
+     * @return a new empty histogram
+     */
+    public Histogram newHistogram()
+    {
+	return new Histogram(m_histogram);
+    }
+
+    /**
+     * Resets the histogram of this probe and records the probed field of the current agents.
+     * @return the histogram of the probed field
+     */
+    public synchronized Histogram update()
+    {
+	m_histogram.reset();
+	List<A> agents=getCurrentAgentsList();
+	m_field_reader.record(agents, 0, agents.size(), m_histogram);
+	return m_histogram;
+    }
+
+    /**
+     * Resets the histogram of this probe and records the probed field of the current agents,
+     * by splitting the agents list into <code>_nbOfParallelTasks</code> chunks which are recorded in parallel.
+     * The chunk histograms are kept between two calls so that the update does not allocate histograms.
+     *
+     * @param _nbOfParallelTasks the number of parallel tasks
+     * @return the histogram of the probed field
+     */
+    public synchronized Histogram update(int _nbOfParallelTasks)
+    {
+	List<A> agents=getCurrentAgentsList();
+	if (_nbOfParallelTasks<=1 || agents.size()<_nbOfParallelTasks*2)
+	    return update();
+
+	m_histogram.reset();
+	while (m_chunk_recorders.size()<_nbOfParallelTasks)
+	    m_chunk_recorders.add(new ChunkRecorder());
+
+	ArrayList<Future<Void>> futures=new ArrayList<Future<Void>>(_nbOfParallelTasks);
+	int size=agents.size();
+	int chunk=size/_nbOfParallelTasks;
+	int rest=size%_nbOfParallelTasks;
+	int from=0;
+	for (int i=0;i<_nbOfParallelTasks;i++)
+	{
+	    int to=from+chunk+(i<rest?1:0);
+	    ChunkRecorder cr=m_chunk_recorders.get(i);
+	    cr.set(agents, from, to);
+	    futures.add(madkit.kernel.Activator.getMadkitServiceExecutor().submit(cr));
+	    from=to;
+	}
+	for (int i=0;i<_nbOfParallelTasks;i++)
+	{
+	    try
+	    {
+		futures.get(i).get();
+	    }
+	    catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		throw new SimulationException(toString(), e);
+	    }
+	    catch (ExecutionException e)
+	    {
+		throw new SimulationException(toString(), e.getCause());
+	    }
+	    m_histogram.add(m_chunk_recorders.get(i).m_histogram);
+	}
+	return m_histogram;
+    }
+
+    /**
+     * Records the probed field of a portion of the given agents list into the given histogram.
+     * This function can be called by several threads simultaneously, if each thread uses its own histogram.
+     *
+     * @param _agents the agents list
+     * @param _from the index of the first agent to record (inclusive)
+     * @param _to the index of the last agent to record (exclusive)
+     * @param _destination the histogram into which the values are recorded
+     */
+    public void record(List<A> _agents, int _from, int _to, Histogram _destination)
+    {
+	new FieldReader().record(_agents, _from, _to, _destination);
+    }
+
+    /**
+     * Returns the value at the given percentile, from the histogram computed by the last update.
+     * @param _percentile the percentile, between 0 and 100
+     * @return the value at the given percentile
+     * @see Histogram#getValueAtPercentile(double)
+     */
+    public double getValueAtPercentile(double _percentile)
+    {
+	return m_histogram.getValueAtPercentile(_percentile);
+    }
+
+    @Override public String toString()
+    {
+	return "HistogramProbe with "+getGroup()+" and role "+getRole()+" and property "+m_field_name;
+    }
+
+    /**
+     * Reads the probed field of the agents. The field is cached according the agent class,
+     * and primitive fields are read without boxing.
+     */
+    private final class FieldReader
+    {
+	private Class<?> m_cached_class=null;
+	private Field m_cached_field=null;
+	private boolean m_is_primitive=false;
+
+	void record(List<A> _agents, int _from, int _to, Histogram _destination)
+	{
+	    for (int i=_from;i<_to;i++)
+	    {
+		A a=_agents.get(i);
+		try
+		{
+		    _destination.record(getValue(a));
+		}
+		catch (IllegalAccessException | NoSuchFieldException | ClassCastException | IllegalArgumentException e)
+		{
+		    throw new SimulationException(HistogramProbe.this.toString() + " on " + a, e);
+		}
+	    }
+	}
+
+	private double getValue(A _agent) throws IllegalAccessException, NoSuchFieldException
+	{
+	    Class<? extends madkit.kernel.AbstractAgent> c=_agent.getClass();
+	    if (c!=m_cached_class)
+	    {
+		m_cached_field=madkit.kernel.Probe.findFieldOn(c, m_field_name);
+		m_is_primitive=m_cached_field.getType().isPrimitive();
+		m_cached_class=c;
+	    }
+	    if (m_is_primitive)
+		return m_cached_field.getDouble(_agent);
+	    Object v=m_cached_field.get(_agent);
+	    if (v==null)
+		return Double.NaN;
+	    return ((Number)v).doubleValue();
+	}
+    }
+
+    private final class ChunkRecorder implements Callable<Void>
+    {
+	final Histogram m_histogram=newHistogram();
+	private final FieldReader m_reader=new FieldReader();
+	private List<A> m_agents;
+	private int m_from, m_to;
+
+	void set(List<A> _agents, int _from, int _to)
+	{
+	    m_agents=_agents;
+	    m_from=_from;
+	    m_to=_to;
+	}
+
+	@Override
+	public Void call()
+	{
+	    m_histogram.reset();
+	    m_reader.record(m_agents, m_from, m_to, m_histogram);
+	    m_agents=null;
+	    return null;
+	}
+    }
+}
@@ -22,19 +22,14 @@
 
 package madkitgroupextension.simulation.probe;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.lang.reflect.Field;
+import java.util.HashMap;
 import java.util.List;
 
 import madkit.simulation.SimulationException;
 import madkitgroupextension.kernel.AbstractGroup;
-import madkitgroupextension.kernel.Group;
-import madkitgroupextension.kernel.GroupChangementNotifier;
 import madkitgroupextension.kernel.MKGEAbstractAgent;
 import madkitgroupextension.kernel.Probe;
-import madkitgroupextension.kernel.Watcher;
 
 /**
  * The class PropertyProbe of MadKitGroupExtension is similar to the class PropertyProbe of MadKit. 
@@ -55,7 +50,9 @@ import madkitgroupextension.kernel.Watcher;
 public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent, P>  extends Probe<A>
 {
     private final String fieldName;
-    private final ArrayList<PersonalPropertyProbe> m_madkit_property_probes=new ArrayList<PersonalPropertyProbe>();
+    private final HashMap<Class<?>, Field> m_fields=new HashMap<Class<?>, Field>();
+    private Class<?> m_cached_class=null;
+    private Field m_cached_field=null;
     /*private boolean m_is_agent_properties_changed=true;
     private boolean m_is_properties_changed=true;
     
@@ -99,13 +96,6 @@ public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractA
 		adding(a);
     }
     
-    @Override public synchronized void allAgentsLeaveRole()
-    {
-	for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-	{
-	    ppp.allAgentsLeaveRole();
-	}
-    }
     /*public synchronized Map<A,P> getAgentToPropertyMap()
     {
 	if (m_is_agent_properties_changed)
@@ -152,38 +142,6 @@ public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractA
 	}
 	return m_properties;
     }*/
-	/** 
-	 * Returns a snapshot at moment t of the agents handling the group/role couple
-	 * @return a list view (a snapshot at moment t) of the agents that handle the group/role couple (in proper sequence)
-	 * @since MadKit 3.0
-	 * @since MadKitGroupExtension 1.0
-	 */
-    @Override public synchronized List<A> getCurrentAgentsList()
-    {
-	if (m_watcher==null)
-	    return new ArrayList<A>();
-	    
-	if (m_is_changed)
-	{
-	    ArrayList<List<A>> l=new ArrayList<List<A>>(m_madkit_property_probes.size());
-	    int size=0;
-	    for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-	    {
-		List<A> l2=ppp.getCurrentAgentsList();
-		l.add(l2);
-		size+=l2.size();
-	    }
-	
-	    m_agents=new ArrayList<A>(size);
-	    for (List<A> l2 : l )
-	    {
-		m_agents.addAll(l2);
-	    }
-	    m_is_changed=false;
-	}
-	return m_agents;
-	
-    }
 	/**
 	 * Should be used to work with primitive types
 	 * or fields which are initially <code>null</code>
@@ -192,8 +150,14 @@ public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractA
 	 */
     public void setPropertyValue(A theAgent,  P value)
     {
-	for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-	    ppp.setPropertyValue(theAgent, value);
+	try
+	{
+	    getField(theAgent).set(theAgent, value);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    throw new SimulationException(toString() + " on " + theAgent, e);
+	}
     }
 	/**
 	 * Returns the current value of the agent's field 
@@ -201,184 +165,42 @@ public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractA
 	 * @param theAgent the agent to probe
 	 * @return the actual value of the agent's field 
 	 */
+    @SuppressWarnings("unchecked")
     public P getPropertyValue(A theAgent) 
     {
-	for (PersonalPropertyProbe ppp : m_madkit_property_probes)
+	try
 	{
-	    P p=ppp.getPropertyValue(theAgent);
-	    if (p!=null)
-		return p;
+	    return (P)getField(theAgent).get(theAgent);
+	}
+	catch (IllegalAccessException e)
+	{
+	    throw new SimulationException(toString() + " on " + theAgent, e);
 	}
-	return null;
-    }
-    @Override public synchronized void killAgents() 
-    {
-	for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-	    ppp.killAgents();
     }
-
-    /**
-     * This function is reserved to the MadKitGroupExtension kernel. The user do not use this function.
-     */
-    @Override
-    public synchronized void potentialChangementInGroups()
+    
+    private synchronized Field getField(A theAgent)
     {
-	if (m_watcher==null)
-	    return;
-	Group[] groups=m_group.getRepresentedGroups(m_watcher.getKernelAddress());
-	if (m_represented_groups.get()!=groups)
+	Class<?> c=theAgent.getClass();
+	if (c!=m_cached_class)
 	{
-		if (m_represented_groups.get()==null)
+	    Field f=m_fields.get(c);
+	    if (f==null)
+	    {
+		try
 		{
-		    for (Group g : groups)
-		    {
-			PersonalPropertyProbe ppp=new PersonalPropertyProbe(g, m_role, fieldName);
-			m_madkit_property_probes.add(ppp);
-			try
-			{
-			    m_add_madkit_probe_method.invoke(m_watcher, ppp);
-			}
-			catch (IllegalArgumentException e1)
-			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-			catch (IllegalAccessException e1)
-			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-			catch (InvocationTargetException e1)
-			{
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-		    }
+		    f=madkit.kernel.Probe.findFieldOn(theAgent.getClass(), fieldName);
 		}
-		else
+		catch (NoSuchFieldException e)
 		{
-		    //detecting new groups
-		    for (Group g : groups)
-		    {
-			boolean found=false;
-			for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-			{
-			    if (ppp.equals(g))
-			    {
-				found=true;
-				break;
-			    }
-			}
-			if (!found)
-			{
-			    PersonalPropertyProbe ppp=new PersonalPropertyProbe(g, m_role, fieldName);
-			    m_madkit_property_probes.add(ppp);
-			    try
-			    {
-				m_add_madkit_probe_method.invoke(m_watcher, ppp);
-			    }
-			    catch (IllegalArgumentException e1)
-			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (IllegalAccessException e1)
-			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (InvocationTargetException e1)
-			    {
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			}
-		    }
-		    
-		    //detecting removed groups
-		    Iterator<PersonalPropertyProbe> it=m_madkit_property_probes.iterator();
-		    while (it.hasNext())
-		    {
-			PersonalPropertyProbe ppp=it.next();
-			boolean found=false;
-			for (Group g : groups)
-			{
-			    if (ppp.equals(g))
-			    {
-				found=true;
-				break;
-			    }
-			}
-			if (!found)
-			{
-			    it.remove();
-			    try
-			    {
-				m_remove_madkit_probe_method.invoke(m_watcher, ppp);
-			    }
-			    catch (IllegalArgumentException e1)
-			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (IllegalAccessException e1)
-			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (InvocationTargetException e1)
-			    {
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			}
-		    }
+		    throw new SimulationException(toString() + " on " + theAgent, e);
 		}
-		m_represented_groups.set(groups);
-		setChanged(true);
-	}
-
-	
-    }
-        
-    @Override protected synchronized void removeProbes()
-    {
-	super.removeProbes();
-	for (PersonalPropertyProbe ppp : m_madkit_property_probes)
-	{
-	    try
-	    {
-		m_remove_madkit_probe_method.invoke(m_watcher, ppp);
-	    }
-	    catch (IllegalArgumentException e1)
-	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-		e1.printStackTrace();
-		System.exit(-1);
-	    }
-	    catch (IllegalAccessException e1)
-	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-		e1.printStackTrace();
-		System.exit(-1);
-	    }
-	    catch (InvocationTargetException e1)
-	    {
-		e1.printStackTrace();
-		System.exit(-1);
+		m_fields.put(c, f);
 	    }
+	    m_cached_field=f;
+	    m_cached_class=c;
 	}
-	m_madkit_property_probes.clear();
-	//m_properties=null;
-	//m_agent_properties=null;
+	return m_cached_field;
     }
-    
 	/**
 	 * Called when an agent has leaved the corresponding group(s) and role.
 	 * This method is protected because it is automatically called
@@ -442,129 +264,4 @@ public class PropertyProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractA
 	}
     
 
-    private class PersonalPropertyProbe extends madkit.simulation.probe.PropertyProbe<A, P>
-    {
-	private Group m_group;
-	
-	public PersonalPropertyProbe(Group _group, String _role, String _property)
-	{
-	    super(_group.getCommunity(), _group.getPath(), _role, _property);
-	    m_group=_group;
-	}
-	
-	@Override public void adding(A theAgent)
-	{
-	    PropertyProbe.this.setChanged(true);
-	    PropertyProbe.this.adding(theAgent);
-	}
-	@Override public void adding(List<A> agents)
-	{
-	    PropertyProbe.this.setChanged(true);
-	    PropertyProbe.this.adding(agents);
-	}
-	
-	@Override public void removing(A theAgent)
-	{
-	    PropertyProbe.this.setChanged(true);
-	    PropertyProbe.this.removing(theAgent);
-	}
-	
-	@Override public void removing(List<A> agents)
-	{
-	    PropertyProbe.this.setChanged(true);
-	    PropertyProbe.this.removing(agents);
-	}
-	
-	@Override public void initialize()
-	{
-	    PropertyProbe.this.setChanged(true);
-	}
-	
-	public boolean equals(Group _group)
-	{
-	    return m_group.equals(_group);
-	}
-	
-    }
-    
-    
-
-    
-    private static Method m_add_madkit_probe_method=null;
-    private static Method m_remove_madkit_probe_method=null;
-    private static Method m_add_group_changement_notifier_method=null;
-    private static Method m_remove_group_changement_notifier_method=null;
-    static
-    {
-	try
-	{
-	    m_add_madkit_probe_method=Watcher.class.getDeclaredMethod("addPrivateProbe", madkit.kernel.Probe.class);
-	    m_add_madkit_probe_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_remove_madkit_probe_method=Watcher.class.getDeclaredMethod("removePrivateProbe", madkit.kernel.Probe.class);
-	    m_remove_madkit_probe_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_add_group_changement_notifier_method=Group.class.getDeclaredMethod("addGroupChangementNotifier", GroupChangementNotifier.class);
-	    m_add_group_changement_notifier_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function addGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function addGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_remove_group_changement_notifier_method=Group.class.getDeclaredMethod("removeGroupChangementNotifier", GroupChangementNotifier.class);
-	    m_remove_group_changement_notifier_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function removeGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function removeGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	
-    }
-    
 }
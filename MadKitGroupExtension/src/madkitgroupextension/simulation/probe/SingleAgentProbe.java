@@ -21,18 +21,13 @@
 
 package madkitgroupextension.simulation.probe;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.lang.reflect.Field;
 import java.util.List;
 
+import madkit.simulation.SimulationException;
 import madkitgroupextension.kernel.AbstractGroup;
-import madkitgroupextension.kernel.Group;
-import madkitgroupextension.kernel.GroupChangementNotifier;
 import madkitgroupextension.kernel.MKGEAbstractAgent;
 import madkitgroupextension.kernel.Probe;
-import madkitgroupextension.kernel.Watcher;
 
 /**
  * The class SingleAgentProbe of MadKitGroupExtension is similar to the class SingleAgentProbe of MadKit. 
@@ -55,7 +50,8 @@ import madkitgroupextension.kernel.Watcher;
 public class SingleAgentProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstractAgent, T> extends Probe<A>
 {
     private final String m_field_name;
-    private final ArrayList<PersonalSingleAgentProbe> m_madkit_field_probes=new ArrayList<PersonalSingleAgentProbe>();
+    private A m_probed_agent=null;
+    private Field m_field=null;
 
     public SingleAgentProbe(AbstractGroup _group, String _role, String _field_name)
     {
@@ -94,49 +90,39 @@ public class SingleAgentProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstra
     		adding(a);
     	}
 
-    	@Override public synchronized void allAgentsLeaveRole()
-    	{
-    	    for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
-    	    {
-    		ppp.allAgentsLeaveRole();
-    	    }
-}
-
-	/** 
-	 * Returns a snapshot at moment t of the agents handling one of the groups represented by the AbstractGroup given in parameter in the constructor of this class. On each of these groups, the agent must have the given role into the same constructor.
-	 * 
-	 * Returned agents are not duplicated.
+	/**
+	 * Returns the probed agent, i.e. the first agent found handling the group(s)/role couple. 
+	 * The same agent is probed while it handles the group(s)/role couple.
 	 * 
-	 * @return a list view (a snapshot at moment t) of the agents that handle the group/role couple (in proper sequence)
-	 * @since MadKit 3.0
-	 * @since MadKitGroupExtension 1.0
+	 * @return the probed agent, or null if no agent handles the group(s)/role couple
 	 */
-@Override public synchronized List<A> getCurrentAgentsList()
+public synchronized A getProbedAgent()
 {
-	if (m_watcher==null)
-	    return new ArrayList<A>();
-	    
-	if (m_is_changed)
+	List<A> l=getCurrentAgentsList();
+	if (m_probed_agent==null || !l.contains(m_probed_agent))
 	{
-	    ArrayList<List<A>> l=new ArrayList<List<A>>(m_madkit_field_probes.size());
-	    int size=0;
-	    for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
+	    m_probed_agent=l.isEmpty()?null:l.get(0);
+	    m_field=null;
+	}
+	return m_probed_agent;
+}
+
+private synchronized Field getField(A theAgent)
+{
+	if (m_field==null)
+	{
+	    try
 	    {
-		List<A> l2=ppp.getCurrentAgentsList();
-		l.add(l2);
-		size+=l2.size();
+		m_field=madkit.kernel.Probe.findFieldOn(theAgent.getClass(), m_field_name);
 	    }
-	
-	    m_agents=new ArrayList<A>(size);
-	    for (List<A> l2 : l )
+	    catch (NoSuchFieldException e)
 	    {
-		m_agents.addAll(l2);
+		throw new SimulationException(toString()+" on "+theAgent, e);
 	    }
-	    m_is_changed=false;
 	}
-	return m_agents;
-	
+	return m_field;
 }
+
 	/**
 	 * Should be used to work with primitive types
 	 * or fields which are initially <code>null</code>
@@ -144,192 +130,38 @@ public class SingleAgentProbe<A extends madkit.kernel.AbstractAgent & MKGEAbstra
 	 */
 public void setPropertyValue(T value)
 {
-	for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
-	    ppp.setPropertyValue(value);
+	A a=getProbedAgent();
+	if (a==null)
+	    return;
+	try
+	{
+	    getField(a).set(a, value);
+	}
+	catch (IllegalArgumentException | IllegalAccessException e)
+	{
+	    throw new SimulationException(toString()+" on "+a, e);
+	}
 }
 	/**
 	 * Returns the current value of the agent's field 
 	 * 
 	 * @return the actual value of the agent's field 
 	 */
+@SuppressWarnings("unchecked")
 public T getPropertyValue() 
 {
-	for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
-	{
-	    T p=ppp.getPropertyValue();
-	    if (p!=null)
-		return p;
-	}
-	return null;
-}
-@Override public synchronized void killAgents() 
-{
-	for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
-	    ppp.killAgents();
-}
-
-/**
- * This function is reserved to the MadKitGroupExtension kernel. The user do not use this function.
- */
-@Override
-public synchronized void potentialChangementInGroups()
-{
-	if (m_watcher==null)
-	    return;
-	Group[] groups=m_group.getRepresentedGroups(m_watcher.getKernelAddress());
-	if (m_represented_groups.get()!=groups)
+	A a=getProbedAgent();
+	if (a==null)
+	    return null;
+	try
 	{
-		if (m_represented_groups.get()==null)
-		{
-		    for (Group g : groups)
-		    {
-			PersonalSingleAgentProbe ppp=new PersonalSingleAgentProbe(g, m_role, m_field_name);
-			m_madkit_field_probes.add(ppp);
-			try
-			{
-			    m_add_madkit_probe_method.invoke(m_watcher, ppp);
-			}
-			catch (IllegalArgumentException e1)
-			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-			catch (IllegalAccessException e1)
-			{
-			    System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-			catch (InvocationTargetException e1)
-			{
-			    e1.printStackTrace();
-			    System.exit(-1);
-			}
-		    }
-		}
-		else
-		{
-		    //detecting new groups
-		    for (Group g : groups)
-		    {
-			boolean found=false;
-			for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
-			{
-			    if (ppp.equals(g))
-			    {
-				found=true;
-				break;
-			    }
-			}
-			if (!found)
-			{
-			    PersonalSingleAgentProbe ppp=new PersonalSingleAgentProbe(g, m_role, m_field_name);
-			    m_madkit_field_probes.add(ppp);
-			    try
-			    {
-				m_add_madkit_probe_method.invoke(m_watcher, ppp);
-			    }
-			    catch (IllegalArgumentException e1)
-			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (IllegalAccessException e1)
-			    {
-				System.err.println("Impossible to call the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (InvocationTargetException e1)
-			    {
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			}
-		    }
-		    
-		    //detecting removed groups
-		    Iterator<PersonalSingleAgentProbe> it=m_madkit_field_probes.iterator();
-		    while (it.hasNext())
-		    {
-			PersonalSingleAgentProbe ppp=it.next();
-			boolean found=false;
-			for (Group g : groups)
-			{
-			    if (ppp.equals(g))
-			    {
-				found=true;
-				break;
-			    }
-			}
-			if (!found)
-			{
-			    it.remove();
-			    try
-			    {
-				m_remove_madkit_probe_method.invoke(m_watcher, ppp);
-			    }
-			    catch (IllegalArgumentException e1)
-			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (IllegalAccessException e1)
-			    {
-				System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			    catch (InvocationTargetException e1)
-			    {
-				e1.printStackTrace();
-				System.exit(-1);
-			    }
-			}
-		    }
-		}
-		m_represented_groups.set(groups);
-		setChanged(true);
+	    return (T)getField(a).get(a);
 	}
-
-	
-}
-    
-@Override protected synchronized void removeProbes()
-{
-	super.removeProbes();
-	for (PersonalSingleAgentProbe ppp : m_madkit_field_probes)
+	catch (IllegalAccessException e)
 	{
-	    try
-	    {
-		m_remove_madkit_probe_method.invoke(m_watcher, ppp);
-	    }
-	    catch (IllegalArgumentException e1)
-	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-		e1.printStackTrace();
-		System.exit(-1);
-	    }
-	    catch (IllegalAccessException e1)
-	    {
-		System.err.println("Impossible to call the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next exception :");
-		e1.printStackTrace();
-		System.exit(-1);
-	    }
-	    catch (InvocationTargetException e1)
-	    {
-		e1.printStackTrace();
-		System.exit(-1);
-	    }
+	    throw new SimulationException(toString()+" on "+a, e);
 	}
-	m_madkit_field_probes.clear();
-	//m_properties=null;
-	//m_agent_properties=null;
 }
-
 	/**
 	 * Called when an agent has leaved the corresponding group(s) and role.
 	 * This method is protected because it is automatically called
@@ -374,127 +206,4 @@ public synchronized void potentialChangementInGroups()
 	//m_is_properties_changed=_is_changed;
 }
 
-    private class PersonalSingleAgentProbe extends madkit.simulation.probe.SingleAgentProbe<A, T>
-    {
-	private Group m_group;
-	
-	public PersonalSingleAgentProbe(Group _group, String _role, String _property)
-	{
-	    super(_group.getCommunity(), _group.getPath(), _role, _property);
-	    m_group=_group;
-	}
-	
-	@Override public void adding(A theAgent)
-	{
-	    SingleAgentProbe.this.setChanged(true);
-	    SingleAgentProbe.this.adding(theAgent);
-	}
-	@Override public void adding(List<A> agents)
-	{
-	    SingleAgentProbe.this.setChanged(true);
-	    SingleAgentProbe.this.adding(agents);
-	}
-	
-	@Override public void removing(A theAgent)
-	{
-	    SingleAgentProbe.this.setChanged(true);
-	    SingleAgentProbe.this.removing(theAgent);
-	}
-	
-	@Override public void removing(List<A> agents)
-	{
-	    SingleAgentProbe.this.setChanged(true);
-	    SingleAgentProbe.this.removing(agents);
-	}
-	
-	@Override public void initialize()
-	{
-	    SingleAgentProbe.this.setChanged(true);
-	}
-	
-	public boolean equals(Group _group)
-	{
-	    return m_group.equals(_group);
-	}
-	
-    }
-
-    
-    private static Method m_add_madkit_probe_method=null;
-    private static Method m_remove_madkit_probe_method=null;
-    private static Method m_add_group_changement_notifier_method=null;
-    private static Method m_remove_group_changement_notifier_method=null;
-    static
-    {
-	try
-	{
-	    m_add_madkit_probe_method=Watcher.class.getDeclaredMethod("addPrivateProbe", madkit.kernel.Probe.class);
-	    m_add_madkit_probe_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function addPrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_remove_madkit_probe_method=Watcher.class.getDeclaredMethod("removePrivateProbe", madkit.kernel.Probe.class);
-	    m_remove_madkit_probe_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function removePrivateProbe of the class Watcher. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_add_group_changement_notifier_method=Group.class.getDeclaredMethod("addGroupChangementNotifier", GroupChangementNotifier.class);
-	    m_add_group_changement_notifier_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function addGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function addGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	try
-	{
-	    m_remove_group_changement_notifier_method=Group.class.getDeclaredMethod("removeGroupChangementNotifier", GroupChangementNotifier.class);
-	    m_remove_group_changement_notifier_method.setAccessible(true);
-	}
-	catch (SecurityException e)
-	{
-	    System.err.println("Impossible to access to the function removeGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	catch (NoSuchMethodException e)
-	{
-	    System.err.println("Impossible to found to the function removeGroupChangementNotifier of the class Group. This is an inner bug of MadKitGroupExtension. Please contact the developers. Impossible to continue. See the next error :");
-	    e.printStackTrace();
-	    System.exit(-1);
-	}
-	
-    }
-
 }